@@ -0,0 +1,29 @@
+package data.raytrace;
+
+/**
+ * Collects the blocks of a run in the arrays of a RaySimulationData which holds all rays of the run.
+ */
+public class ArrayRayResultSink implements RayResultSink {
+	public final RaySimulationData data;
+
+	public ArrayRayResultSink(RaySimulationData data)
+	{
+		this.data = data;
+	}
+
+	@Override
+	public void write(long begin, int count, RaySimulationData block)
+	{
+		int entries = data.bidirectional ? 2 : 1;
+		int offset = (int)begin;
+		System.arraycopy(block.accepted, 0, data.accepted, offset, count);
+		System.arraycopy(block.bounces, 0, data.bounces, offset, count);
+		System.arraycopy(block.endpoints, 0, data.endpoints, offset * entries * 3, count * entries * 3);
+		System.arraycopy(block.enddirs, 0, data.enddirs, offset * entries * 3, count * entries * 3);
+		System.arraycopy(block.endcolor, 0, data.endcolor, offset * entries * 4, count * entries * 4);
+		System.arraycopy(block.lastObject, 0, data.lastObject, offset * entries, count * entries);
+	}
+
+	@Override
+	public void close() {}
+}
@@ -0,0 +1,338 @@
+package data.raytrace;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import geometry.Vector3d;
+
+/**
+ * Axis aligned bounding volume hierarchy over a set of optical objects. Nodes are stored flattened in preorder,
+ * so the left child of an inner node always directly follows its parent.
+ */
+public class BoundingVolumeHierarchy {
+	public static final int STACK_SIZE = 64;
+	public static final int MIN_OBJECTS = 8;
+	private static final int LEAF_SIZE = 2;
+	private static final int NODE_STRIDE = 4;
+	private static final double PADDING = 1e-9;
+	public final OpticalObject source[];
+	private final OpticalObject objects[];
+	private final OpticalObject unbounded[];
+	private final int nodeData[]; /*right child or -1 for leafs, begin, end, split axis*/
+	private final double nodeBounds[];
+	private int nodeCount = 0;
+
+	private BoundingVolumeHierarchy(OpticalObject source[])
+	{
+		this.source = source;
+		double bounds[] = new double[source.length * 6];
+		OpticalObject bounded[] = new OpticalObject[source.length];
+		OpticalObject unbounded[] = new OpticalObject[source.length];
+		int boundedCount = 0, unboundedCount = 0;
+		for (int i = 0; i < source.length; ++i)
+		{
+			if (getBounds(source[i], bounds, boundedCount * 6))
+			{
+				bounded[boundedCount++] = source[i];
+			}
+			else
+			{
+				unbounded[unboundedCount++] = source[i];
+			}
+		}
+		this.unbounded = Arrays.copyOf(unbounded, unboundedCount);
+		int order[] = new int[boundedCount];
+		double centroid[] = new double[boundedCount * 3];
+		for (int i = 0; i < boundedCount; ++i)
+		{
+			order[i] = i;
+			for (int j = 0; j < 3; ++j)
+			{
+				centroid[i * 3 + j] = (bounds[i * 6 + j] + bounds[i * 6 + j + 3]) * 0.5;
+			}
+		}
+		int maxNodes = Math.max(1, 2 * boundedCount - 1);
+		nodeData = new int[maxNodes * NODE_STRIDE];
+		if (boundedCount != 0)
+		{
+			build(0, boundedCount, order, centroid);
+		}
+		objects = new OpticalObject[boundedCount];
+		for (int i = 0; i < boundedCount; ++i)
+		{
+			objects[i] = bounded[order[i]];
+		}
+		double nb[] = new double[maxNodes * 6];
+		computeBounds(nb);
+		nodeBounds = nb;
+	}
+
+	/**
+	 * Copy with the tree of the given hierarchy and bounds from the current object geometry
+	 */
+	private BoundingVolumeHierarchy(BoundingVolumeHierarchy tree)
+	{
+		this.source = tree.source;
+		this.objects = tree.objects;
+		this.unbounded = tree.unbounded;
+		this.nodeData = tree.nodeData;
+		this.nodeCount = tree.nodeCount;
+		double nb[] = new double[tree.nodeBounds.length];
+		computeBounds(nb);
+		nodeBounds = nb;
+	}
+
+	/**
+	 * Copy with the tree of the given hierarchy over the replaced objects, the bounds are computed from the replacements
+	 */
+	private BoundingVolumeHierarchy(BoundingVolumeHierarchy tree, OpticalObject source[], Map<OpticalObject, OpticalObject> replacements)
+	{
+		this.source = source;
+		this.objects = replace(tree.objects, replacements);
+		this.unbounded = replace(tree.unbounded, replacements);
+		this.nodeData = tree.nodeData;
+		this.nodeCount = tree.nodeCount;
+		double nb[] = new double[tree.nodeBounds.length];
+		computeBounds(nb);
+		nodeBounds = nb;
+	}
+
+	private static OpticalObject[] replace(OpticalObject objects[], Map<OpticalObject, OpticalObject> replacements)
+	{
+		OpticalObject res[] = new OpticalObject[objects.length];
+		for (int i = 0; i < objects.length; ++i)
+		{
+			OpticalObject replacement = replacements.get(objects[i]);
+			res[i] = replacement == null ? objects[i] : replacement;
+		}
+		return res;
+	}
+
+	public static BoundingVolumeHierarchy create(OpticalObject source[])
+	{
+		return source == null || source.length < MIN_OBJECTS ? null : new BoundingVolumeHierarchy(source);
+	}
+
+	private static boolean getBounds(OpticalObject obj, double bounds[], int offset)
+	{
+		if (!obj.getBounds(bounds, offset))
+		{
+			return false;
+		}
+		for (int i = offset; i < offset + 3; ++i)
+		{
+			if (!Double.isFinite(bounds[i]) || !Double.isFinite(bounds[i + 3]))
+			{
+				return false;
+			}
+			double pad = PADDING * (Math.abs(bounds[i]) + Math.abs(bounds[i + 3]) + 1);
+			bounds[i] -= pad;
+			bounds[i + 3] += pad;
+		}
+		return true;
+	}
+
+	private int build(int begin, int end, int order[], double centroid[])
+	{
+		int node = nodeCount++;
+		int n = node * NODE_STRIDE;
+		nodeData[n + 1] = begin;
+		nodeData[n + 2] = end;
+		if (end - begin <= LEAF_SIZE)
+		{
+			nodeData[n] = -1;
+			return node;
+		}
+		int axis = 0;
+		double maxExtent = -1;
+		for (int j = 0; j < 3; ++j)
+		{
+			double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+			for (int i = begin; i < end; ++i)
+			{
+				double c = centroid[order[i] * 3 + j];
+				min = Math.min(min, c);
+				max = Math.max(max, c);
+			}
+			if (max - min > maxExtent)
+			{
+				maxExtent = max - min;
+				axis = j;
+			}
+		}
+		int mid = (begin + end) >>> 1;
+		select(order, centroid, axis, begin, end - 1, mid);
+		nodeData[n + 3] = axis;
+		build(begin, mid, order, centroid);
+		nodeData[n] = build(mid, end, order, centroid);
+		return node;
+	}
+
+	private static void select(int order[], double centroid[], int axis, int left, int right, int k)
+	{
+		while (left < right)
+		{
+			double pivot = centroid[order[(left + right) >>> 1] * 3 + axis];
+			int i = left, j = right;
+			while (i <= j)
+			{
+				while (centroid[order[i] * 3 + axis] < pivot) {++i;}
+				while (centroid[order[j] * 3 + axis] > pivot) {--j;}
+				if (i <= j)
+				{
+					int tmp = order[i];
+					order[i++] = order[j];
+					order[j--] = tmp;
+				}
+			}
+			if (k <= j)		{right = j;}
+			else if (k >= i){left = i;}
+			else			{return;}
+		}
+	}
+
+	private void computeBounds(double nb[])
+	{
+		double tmp[] = new double[6];
+		for (int node = nodeCount - 1; node >= 0; --node)
+		{
+			int n = node * NODE_STRIDE, b = node * 6;
+			int right = nodeData[n];
+			if (right < 0)
+			{
+				for (int j = 0; j < 3; ++j)
+				{
+					nb[b + j] = Double.POSITIVE_INFINITY;
+					nb[b + j + 3] = Double.NEGATIVE_INFINITY;
+				}
+				for (int i = nodeData[n + 1]; i < nodeData[n + 2]; ++i)
+				{
+					if (!getBounds(objects[i], tmp, 0))
+					{
+						for (int j = 0; j < 3; ++j)
+						{
+							tmp[j] = Double.NEGATIVE_INFINITY;
+							tmp[j + 3] = Double.POSITIVE_INFINITY;
+						}
+					}
+					for (int j = 0; j < 3; ++j)
+					{
+						nb[b + j] = Math.min(nb[b + j], tmp[j]);
+						nb[b + j + 3] = Math.max(nb[b + j + 3], tmp[j + 3]);
+					}
+				}
+			}
+			else
+			{
+				int l = (node + 1) * 6, r = right * 6;
+				for (int j = 0; j < 3; ++j)
+				{
+					nb[b + j] = Math.min(nb[l + j], nb[r + j]);
+					nb[b + j + 3] = Math.max(nb[l + j + 3], nb[r + j + 3]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Recomputes the node bounds from the current object geometry without changing the tree topology.
+	 * This hierarchy is never changed, so jobs which are still traversing it keep consistent bounds.
+	 * @return hierarchy with the same tree and the new bounds
+	 */
+	public BoundingVolumeHierarchy refit()
+	{
+		return new BoundingVolumeHierarchy(this);
+	}
+
+	/**
+	 * @param source the replaced source objects in the same order
+	 * @return hierarchy with the same tree over the replaced objects
+	 */
+	final BoundingVolumeHierarchy replace(OpticalObject source[], Map<OpticalObject, OpticalObject> replacements)
+	{
+		return new BoundingVolumeHierarchy(this, source, replacements);
+	}
+
+	public final int size()
+	{
+		return source.length;
+	}
+
+	public final int modificationStamp()
+	{
+		int res = 0;
+		for (int i = 0; i < source.length; ++i)
+		{
+			res += source[i].modCount();
+		}
+		return res;
+	}
+
+	private static boolean intersects(double nb[], int b, double px, double py, double pz, double ix, double iy, double iz, double tmin, double tmax)
+	{
+		double t0 = (nb[b] - px) * ix, t1 = (nb[b + 3] - px) * ix;
+		if (t0 > t1){double tmp = t0; t0 = t1; t1 = tmp;}
+		if (t0 > tmin){tmin = t0;}
+		if (t1 < tmax){tmax = t1;}
+		t0 = (nb[b + 1] - py) * iy; t1 = (nb[b + 4] - py) * iy;
+		if (t0 > t1){double tmp = t0; t0 = t1; t1 = tmp;}
+		if (t0 > tmin){tmin = t0;}
+		if (t1 < tmax){tmax = t1;}
+		t0 = (nb[b + 2] - pz) * iz; t1 = (nb[b + 5] - pz) * iz;
+		if (t0 > t1){double tmp = t0; t0 = t1; t1 = tmp;}
+		if (t0 > tmin){tmin = t0;}
+		if (t1 < tmax){tmax = t1;}
+		return tmin <= tmax;
+	}
+
+	/**
+	 * Same contract as calling {@link OpticalObject#getIntersection} on every object of {@link #source} with the current nearest distance as upper bound.
+	 */
+	public final void getIntersection(Vector3d position, Vector3d direction, Intersection nearest, double lowerBound, int stack[])
+	{
+		for (int i = 0; i < unbounded.length; ++i)
+		{
+			unbounded[i].getIntersection(position, direction, nearest, lowerBound, nearest.distance);
+		}
+		if (objects.length == 0)
+		{
+			return;
+		}
+		final double nb[] = nodeBounds;
+		final double px = position.x, py = position.y, pz = position.z;
+		final double ix = 1 / direction.x, iy = 1 / direction.y, iz = 1 / direction.z;
+		int sp = 0;
+		stack[sp++] = 0;
+		while (sp > 0)
+		{
+			int node = stack[--sp];
+			if (!intersects(nb, node * 6, px, py, pz, ix, iy, iz, lowerBound, nearest.distance))
+			{
+				continue;
+			}
+			int n = node * NODE_STRIDE;
+			int right = nodeData[n];
+			if (right < 0)
+			{
+				for (int i = nodeData[n + 1]; i < nodeData[n + 2]; ++i)
+				{
+					objects[i].getIntersection(position, direction, nearest, lowerBound, nearest.distance);
+				}
+			}
+			else
+			{
+				double d = nodeData[n + 3] == 0 ? direction.x : nodeData[n + 3] == 1 ? direction.y : direction.z;
+				if (d < 0)
+				{
+					stack[sp++] = node + 1;
+					stack[sp++] = right;
+				}
+				else
+				{
+					stack[sp++] = right;
+					stack[sp++] = node + 1;
+				}
+			}
+		}
+	}
+}
@@ -21,6 +21,7 @@ public class CameraViewRunnable  extends RunnableObject{
 	public CameraViewRunnable(RaytraceScene scene)
 	{
 		super("Scene View", null);
+		setPriority(ThreadPool.PRIORITY_INTERACTIVE);
 		scene.add(this);
 		this.scene = scene;
 	}
@@ -38,6 +39,18 @@ public class CameraViewRunnable  extends RunnableObject{
 	int maxBounces = 10;
 	public GuiTextureObject gto;
 	public int passes = 1;
+	/*publish the image after every pass and only resample tiles which aren't converged*/
+	public boolean progressive = false;
+	/*standard error of the mean brightness of a pixel relative to the color range, tiles below are converged*/
+	public float noiseThreshold = 0.005f;
+	private static final int TILE_SIZE = 1024;
+	private float colorSum[] = UniqueObjects.EMPTY_FLOAT_ARRAY;
+	private float brightnessSumQ[] = UniqueObjects.EMPTY_FLOAT_ARRAY;
+	private float tileError[] = UniqueObjects.EMPTY_FLOAT_ARRAY;
+	private int activeTiles[] = UniqueObjects.EMPTY_INT_ARRAY;
+	private int pass;
+	/*prepared once per frame, so the tiles never update the scene*/
+	private TraceSnapshot snapshot;
 	private volatile boolean calculating = false;
 
 	public boolean isRunning() {
@@ -55,6 +68,7 @@ public class CameraViewRunnable  extends RunnableObject{
 			{
 				rso.set(r = new RaySimulationObject());
 			}
+			r.snapshot = snapshot;
 
 			if (passes > 1)
 			{
@@ -62,6 +76,7 @@ public class CameraViewRunnable  extends RunnableObject{
 			}
 			for (int i = 0; i < passes; ++i)
 			{
+				r.pass = i;
 				scene.calculateRays(from, to, numPixels, gen, from, from, null, null, endpoints, enddirs, sceneEndpointColor, null, accepted, bounces, lastObject, maxBounces, false, r, RaytraceScene.UNACCEPTED_MARK);
 				if (passes > 1)
 				{
@@ -91,6 +106,88 @@ public class CameraViewRunnable  extends RunnableObject{
 		public void finished() {CameraViewRunnable.this.finished();}
 	};
 
+	private final ThreadPool.ParallelRangeRunnable progressivePrr = new ThreadPool.ParallelRangeRunnable() {
+
+		@Override
+		public void run(int from, int to) {
+			WritableRaster raster = gto.raster;
+			RaySimulationObject r = rso.get();
+			if (r == null)
+			{
+				rso.set(r = new RaySimulationObject());
+			}
+			r.snapshot = snapshot;
+			r.pass = pass;
+			/*active tiles got a sample in every pass*/
+			final float invSamples = 1f / (pass + 1);
+			float pixel[] = r.color;
+			int width = raster.getWidth();
+			for (int t = from; t < to; ++t)
+			{
+				int tile = activeTiles[t];
+				int begin = tile * TILE_SIZE, end = Math.min(begin + TILE_SIZE, numPixels);
+				Arrays.fill(sceneEndpointColor, begin * 4, end * 4, 0);
+				scene.calculateRays(begin, end, numPixels, gen, begin, begin, null, null, endpoints, enddirs, sceneEndpointColor, null, accepted, bounces, lastObject, maxBounces, false, r, RaytraceScene.UNACCEPTED_MARK);
+				float maxErrorQ = 0;
+				for (int i = begin; i < end; ++i)
+				{
+					float brightness = 0;
+					for (int j = 0; j < 3; ++j)
+					{
+						float c = sceneEndpointColor[i * 4 + j];
+						brightness += c;
+						pixel[j] = (colorSum[i * 4 + j] += c) * invSamples;
+					}
+					brightness *= 1f / 3;
+					brightnessSumQ[i] += brightness * brightness;
+					float mean = (pixel[0] + pixel[1] + pixel[2]) * (1f / 3);
+					maxErrorQ = Math.max(maxErrorQ, (brightnessSumQ[i] * invSamples - mean * mean) * invSamples);
+					pixel[3] = 255;
+					raster.setPixel(i % width, i / width, pixel);
+				}
+				tileError[tile] = (float)Math.sqrt(maxErrorQ) / 255;
+			}
+			gto.modified();
+		}
+
+		@Override
+		public void finished() {}
+	};
+
+	private void runProgressive()
+	{
+		int numTiles = (numPixels + TILE_SIZE - 1) / TILE_SIZE;
+		if (colorSum.length != numPixels * 4)
+		{
+			colorSum = new float[numPixels * 4];
+			brightnessSumQ = new float[numPixels];
+			tileError = new float[numTiles];
+			activeTiles = new int[numTiles];
+		}
+		Arrays.fill(colorSum, 0);
+		Arrays.fill(brightnessSumQ, 0);
+		ArrayUtil.iota(activeTiles);
+		int activeTileCount = numTiles;
+		for (pass = 0; pass < passes && activeTileCount != 0; ++pass)
+		{
+			DataHandler.runnableRunner.runParallel(progressivePrr, "Scene View", null, 0, activeTileCount, Math.max(1, 200000 / TILE_SIZE), true, ThreadPool.PRIORITY_INTERACTIVE, null);
+			gto.triggerModificationEvents();
+			if (pass != 0)
+			{
+				int write = 0;
+				for (int read = 0; read < activeTileCount; ++read)
+				{
+					if (tileError[activeTiles[read]] > noiseThreshold)
+					{
+						activeTiles[write++] = activeTiles[read];
+					}
+				}
+				activeTileCount = write;
+			}
+		}
+		finished();
+	}
+
 		@Override
 		public void run()
 		{
@@ -114,13 +211,20 @@ public class CameraViewRunnable  extends RunnableObject{
 				bounces = new int[numPixels];
 				lastObject = new OpticalObject[numPixels];
 			}
-			if (passes > 1 && sceneEndpointColorAdded.length != numPixels * 4)
+			snapshot = scene.updateScene();
+			if (progressive)
 			{
-				sceneEndpointColorAdded = new float[numPixels * 4];
+				runProgressive();
+			}
+			else
+			{
+				if (passes > 1 && sceneEndpointColorAdded.length != numPixels * 4)
+				{
+					sceneEndpointColorAdded = new float[numPixels * 4];
+				}
+				DataHandler.runnableRunner.runParallel(prr, "Scene View", null, 0, numPixels, 200000, true, ThreadPool.PRIORITY_INTERACTIVE, null);
+				gto.triggerModificationEvents();
 			}
-			DataHandler.runnableRunner.runParallel(prr, "Scene View", null, 0, numPixels, 200000, true);
-
-			gto.triggerModificationEvents();
 			synchronized(CameraViewRunnable.this)
 			{
 	   			calculating=false;
@@ -0,0 +1,188 @@
+package data.raytrace;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.jdom2.JDOMException;
+
+import data.raytrace.RaytraceScene.RaySimulationObject;
+import data.raytrace.raygen.RayGenerator;
+import io.raytrace.SceneIO;
+
+/**
+ * Description of a run which is split into ranges of rangeSize rays. The scene is transferred as the output of SceneIO.saveScene.
+ * Every range is traced in blocks of blockSize rays into its own sink and the ranges are merged in their order,
+ * so the result only depends on the seed of the scene and the range size, not on the number of workers or threads.
+ */
+public class DistributedTraceJob {
+	public static final byte RESULT_STATISTICS = 0, RESULT_TEXTURE = 1;
+	/*limits of lengths received from the network, so a broken or hostile peer can't make us allocate arbitrary memory*/
+	public static final int MAX_SCENE_LENGTH = 1 << 28, MAX_BLOCK_SIZE = 1 << 24, MAX_TEXTURE_PIXELS = 1 << 26, MAX_RESULT_LENGTH = 1 << 30;
+	public byte scene[];
+	public String sourceId;
+	public int numRays;
+	public int maxBounces = 20;
+	public byte unacceptedBehavior = RaytraceScene.UNACCEPTED_MARK;
+	public int blockSize = 10000;
+	public int rangeSize = 100000;
+	public boolean threeDimensional = true;
+	public byte resultType = RESULT_STATISTICS;
+	/*evaluation surface, width and height of the accumulated texture, only used by RESULT_TEXTURE*/
+	public String objectId;
+	public int width, height;
+
+	public DistributedTraceJob(RaytraceScene scene, String sourceId, int numRays) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		SceneIO.saveScene(out, false, scene, null);
+		this.scene = out.toByteArray();
+		this.sourceId = sourceId;
+		this.numRays = numRays;
+	}
+
+	private DistributedTraceJob(){}
+
+	public final int getRangeCount()
+	{
+		return (int)(((long)numRays + rangeSize - 1) / rangeSize);
+	}
+
+	public void write(DataOutput out) throws IOException
+	{
+		out.writeInt(scene.length);
+		out.write(scene);
+		out.writeUTF(sourceId);
+		out.writeInt(numRays);
+		out.writeInt(maxBounces);
+		out.writeByte(unacceptedBehavior);
+		out.writeInt(blockSize);
+		out.writeInt(rangeSize);
+		out.writeBoolean(threeDimensional);
+		out.writeByte(resultType);
+		if (resultType == RESULT_TEXTURE)
+		{
+			out.writeUTF(objectId);
+			out.writeInt(width);
+			out.writeInt(height);
+		}
+	}
+
+	public static DistributedTraceJob read(DataInput in) throws IOException
+	{
+		DistributedTraceJob job = new DistributedTraceJob();
+		job.scene = new byte[readLength(in, 0, MAX_SCENE_LENGTH, "scene length")];
+		in.readFully(job.scene);
+		job.sourceId = in.readUTF();
+		job.numRays = readLength(in, 0, Integer.MAX_VALUE, "number of rays");
+		job.maxBounces = readLength(in, 0, Integer.MAX_VALUE, "maximum bounces");
+		job.unacceptedBehavior = in.readByte();
+		job.blockSize = readLength(in, 1, MAX_BLOCK_SIZE, "block size");
+		job.rangeSize = readLength(in, 1, Integer.MAX_VALUE, "range size");
+		job.threeDimensional = in.readBoolean();
+		job.resultType = in.readByte();
+		switch (job.resultType)
+		{
+			case RESULT_STATISTICS:	break;
+			case RESULT_TEXTURE:
+			{
+				job.objectId = in.readUTF();
+				job.width = readLength(in, 1, MAX_TEXTURE_PIXELS, "width");
+				job.height = readLength(in, 1, MAX_TEXTURE_PIXELS / job.width, "height");
+				break;
+			}
+			default: throw new IOException("Unknown result type " + job.resultType);
+		}
+		return job;
+	}
+
+	/**
+	 * Reads an int and checks that it is in [min, max]
+	 */
+	public static int readLength(DataInput in, int min, int max, String name) throws IOException
+	{
+		int res = in.readInt();
+		if (res < min || res > max)
+		{
+			throw new IOException("Invalid " + name + ' ' + res + ", expected [" + min + ", " + max + ']');
+		}
+		return res;
+	}
+
+	public RaytraceScene loadScene(String id) throws IOException
+	{
+		RaytraceScene result = new RaytraceScene(id);
+		try
+		{
+			SceneIO.loadScene(new ByteArrayInputStream(scene), result, null);
+		}
+		catch (JDOMException e)
+		{
+			throw new IOException("Can't parse scene", e);
+		}
+		return result;
+	}
+
+	/**
+	 * @return an empty sink for the results of this job, referencing the objects of the given scene
+	 */
+	public MergeableRayResultSink createSink(RaytraceScene scene)
+	{
+		switch (resultType)
+		{
+			case RESULT_STATISTICS:	return new StatisticsRayResultSink();
+			case RESULT_TEXTURE:
+			{
+				OpticalObject obj = scene.getOpticalObject(objectId);
+				if (!(obj instanceof SurfaceObject))
+				{
+					throw new IllegalArgumentException("No surface " + objectId);
+				}
+				return new TextureRayResultSink((SurfaceObject)obj, width, height);
+			}
+			default: throw new IllegalArgumentException("Unknown result type " + resultType);
+		}
+	}
+
+	/**
+	 * Holds the buffers of one thread, all ranges are traced with the given snapshot
+	 */
+	public final class RangeTracer
+	{
+		private final RaytraceScene scene;
+		private final RayGenerator gen = new RayGenerator();
+		private final boolean bidir;
+		private final RaySimulationData data;
+		private final RaySimulationObject currentRay = new RaySimulationObject();
+
+		public RangeTracer(RaytraceScene scene, TraceSnapshot snapshot)
+		{
+			OpticalObject source = scene.getOpticalObject(sourceId);
+			if (source == null)
+			{
+				throw new IllegalArgumentException("No source " + sourceId);
+			}
+			this.scene = scene;
+			gen.setSource(source);
+			gen.threeDimensional = threeDimensional;
+			bidir = source instanceof OpticalSurfaceObject && ((OpticalSurfaceObject)source).bidirectional;
+			data = new RaySimulationData(blockSize, bidir);
+			currentRay.snapshot = snapshot;
+			currentRay.endWeight = data.weight;
+		}
+
+		public final void traceRange(int range, RayResultSink sink)
+		{
+			int begin = range * rangeSize;
+			int end = (int)Math.min(numRays, (long)begin + rangeSize);
+			for (int from = begin; from < end; from += blockSize)
+			{
+				int count = Math.min(blockSize, end - from);
+				scene.calculateRays(0, count, numRays, gen, from, 0, null, null, data.endpoints, data.enddirs, data.endcolor, null, data.accepted, data.bounces, data.lastObject, maxBounces, bidir, currentRay, unacceptedBehavior);
+				sink.write(from, count, data);
+			}
+		}
+	}
+}
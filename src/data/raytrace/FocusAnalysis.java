@@ -13,7 +13,6 @@ import geometry.Geometry.NearestPointCalculator;
 import geometry.Matrix4d;
 import geometry.Vector2d;
 import geometry.Vector3d;
-import jcomponents.raytrace.RaySimulationData;
 import maths.exception.OperationParseException;
 import util.ThreadPool;
 import util.ThreadPool.ParallelRangeRunnable;
@@ -85,6 +84,7 @@ public class FocusAnalysis {
 		pixelVariance = new float[width * height];
 		pixelCount = new int[width * height];
 		vertices = new double[startIndex[numElevations] * 3];
+		final TraceSnapshot snapshot = scene.updateScene();
 		ParallelRangeRunnable prr = new ThreadPool.ParallelRangeRunnable() {
 
 
@@ -95,6 +95,7 @@ public class FocusAnalysis {
 				Vector2d tc = new Vector2d();
 				RaySimulationData rsd = new RaySimulationData(raycount, false);
 				RaySimulationObject currentRay = new RaySimulationObject();
+				currentRay.snapshot = snapshot;
 				Vector3d bundleWeightPoint = new Vector3d();
 				RayGenerator gen = new RayGenerator();
 				gen.threeDimensional = true;
@@ -115,6 +116,7 @@ public class FocusAnalysis {
 						Arrays.fill(rsd.lastObject, null);//TODO popably much unecessary memory
 						bundleWeightPoint.set(0,0,0);
 						gen.setArcs(sourceElevations[i], azimuths[i][j]);
+						currentRay.pass = startIndex[i] + j;
 						scene.calculateRays(0, raycount, raycount, gen, 0, 0, null, null, rsd.endpoints, rsd.enddirs, rsd.endcolor, null, rsd.accepted, rsd.bounces, rsd.lastObject, maxBounces, false, currentRay, RaytraceScene.UNACCEPTED_DELETE);
 
 						npc.reset();
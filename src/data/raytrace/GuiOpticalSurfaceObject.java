@@ -53,6 +53,7 @@ public class GuiOpticalSurfaceObject extends OpticalSurfaceObject {
     		SCENE_OBJECT_COLUMN_TYPE.BIDIRECTIONAL,
     		SCENE_OBJECT_COLUMN_TYPE.INVERT_INOUT,
     		SCENE_OBJECT_COLUMN_TYPE.CONIC_CONSTANT,
+    		SCENE_OBJECT_COLUMN_TYPE.ABBE_NUMBER,
     		SCENE_OBJECT_COLUMN_TYPE.PREVIOUS_OBJECTS,
     		SCENE_OBJECT_COLUMN_TYPE.FOLLOWING_OBJECTS,
     		SCENE_OBJECT_COLUMN_TYPE.COLOR,
@@ -154,6 +155,7 @@ public class GuiOpticalSurfaceObject extends OpticalSurfaceObject {
 	String maxRadiusStr;
 	String minRadiusStr;
 	String conicConstantStr;
+	String abbeNumberStr;
 	String diffuseStr;
 	private String successorStr;
 	private String predessorStr;
@@ -256,6 +258,7 @@ public class GuiOpticalSurfaceObject extends OpticalSurfaceObject {
 			case INVERT_INOUT:break;
 			case ALPHA_TO_RADIUS: break;
 			case CONIC_CONSTANT:conicConstant = parser.parseDoubleString(conicConstantStr, variables, controll);break;
+			case ABBE_NUMBER:abbeNumber = parser.parseDoubleString(abbeNumberStr, variables, controll);break;
 			case FOLLOWING_OBJECTS:	successorArray = parser.parseStringArray(successorStr, controll);break;
 			case PREVIOUS_OBJECTS:predessorArray= parser.parseStringArray(predessorStr, controll);break;
 			case END_OBJECTS: endObjectArray = parser.parseStringArray(endObjectStr, controll);break;
@@ -347,6 +350,10 @@ public class GuiOpticalSurfaceObject extends OpticalSurfaceObject {
 				conicConstant = parser.parseDoubleString(o, variables, controll);
 				conicConstantStr = parser.str;
 				break;
+			case ABBE_NUMBER:
+				abbeNumber = parser.parseDoubleString(o, variables, controll);
+				abbeNumberStr = parser.str;
+				break;
 			case FOLLOWING_OBJECTS:
 				successorArray = parser.parseStringArray(o, controll);
 				successorStr = parser.str;break;
@@ -425,6 +432,7 @@ public class GuiOpticalSurfaceObject extends OpticalSurfaceObject {
 		case BIDIRECTIONAL:			return bidirectional;
 		case INVERT_INOUT:			return invertInsideOutside;
 		case CONIC_CONSTANT:		return conicConstantStr;
+		case ABBE_NUMBER:			return abbeNumberStr;
 		case ANCHOR_POINT:			return anchorPoint;
 		case PREVIOUS_OBJECTS:		return predessorStr;
 		case FOLLOWING_OBJECTS:		return successorStr;
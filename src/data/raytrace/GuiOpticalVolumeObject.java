@@ -27,7 +27,6 @@ import maths.Controller;
 import maths.data.ArrayOperation;
 import maths.exception.OperationParseException;
 import maths.variable.VariableAmount;
-import util.ArrayUtil;
 import util.JFrameUtils;
 import util.data.DoubleArrayList;
 import util.data.IntegerArrayList;
@@ -121,9 +120,9 @@ public class GuiOpticalVolumeObject extends OpticalVolumeObject {
 	}
 
 	@Override
-	public void readBinaryFile(String file) throws IOException
+	public void readBinaryFile(String file, boolean map) throws IOException
 	{
-		super.readBinaryFile(file);
+		super.readBinaryFile(file, map);
 		strB.setLength(0);
 		transformationStr = new ArrayOperation(unitVolumeToGlobal).toString(strB).toString();
 		strB.setLength(0);
@@ -218,7 +217,11 @@ public class GuiOpticalVolumeObject extends OpticalVolumeObject {
 		public void actionPerformed(ActionEvent ae)
 		{
 		    Object source = ae.getSource();
-		    if (source == exportAsMesh)
+		    if (source == exportAsMesh && vol.isMapped())
+		    {
+		        JFrameUtils.logErrorAndShow("Mapped volumes can't be exported as mesh", new UnsupportedOperationException(), logger);
+		    }
+		    else if (source == exportAsMesh)
 		    {
 		        IntegerArrayList ial = new IntegerArrayList();
 		        DoubleArrayList dal = new DoubleArrayList();
@@ -240,8 +243,7 @@ public class GuiOpticalVolumeObject extends OpticalVolumeObject {
 		private void updateGraphic()
 		{
 			int width = vol.width, height = vol.height, depth = vol.depth;
-			float data[] = vol.data;
-			float minMax[] = ArrayUtil.minMax(data, new float[2]);
+			float minMax[] = vol.minMaxData(new float[2]);
 			int pixel[] = new int[4];
 			BufferedImage bi = getImage();
 			if (bi.getWidth() != width || bi.getHeight() != height)
@@ -264,7 +266,7 @@ public class GuiOpticalVolumeObject extends OpticalVolumeObject {
 				{
 					for (int x = 0; x < width; ++x)
 					{
-						Arrays.fill(pixel, 0, 3, (int)((data[x + width * (y + height * layer)] - minMax[0]) * 255 / range));
+						Arrays.fill(pixel, 0, 3, (int)((vol.getData(x + width * (y + height * (long)layer)) - minMax[0]) * 255 / range));
 						raster.setPixel(x, y, pixel);
 					}
 				}
@@ -377,7 +379,8 @@ public class GuiOpticalVolumeObject extends OpticalVolumeObject {
 		if (obj instanceof GuiOpticalVolumeObject)
 		{
 			GuiOpticalVolumeObject ovo = (GuiOpticalVolumeObject) obj;
-			this.vol = new Volume(ovo.vol);
+			/*mapped volumes are shared instead of being copied to the heap*/
+			this.vol = ovo.vol.isMapped() ? ovo.vol : new Volume(ovo.vol);
 			this.dcm = ovo.dcm;
 			this.vs = ovo.vs;
 			this.ip = ovo.ip;
@@ -10,4 +10,6 @@ public class Intersection{
 	double c;
 	double textureX, textureY;
 	public int faceIndex;
+	/*traversal stack of the mesh hierarchies, reused by every query through this intersection*/
+	int meshStack[];
 }
\ No newline at end of file
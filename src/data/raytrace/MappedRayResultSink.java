@@ -0,0 +1,215 @@
+package data.raytrace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Writes the results of a run to a memory mapped binary file with one column per property, so the heap usage doesn't depend on the number of rays.
+ * The file starts with a header of HEADER_SIZE bytes (magic, version, number of rays, entries per ray, offset of the object table),
+ * followed by the columns endpoints, enddirs, endcolor (floats), accepted (bytes), bounces (ints) and last objects (ints) in little endian.
+ * Last objects are written as indices into the object table at the end of the file, which contains the ids of the objects, -1 marks no object.
+ */
+public class MappedRayResultSink implements RayResultSink {
+	public static final int MAGIC = 0x52415953;
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 64;
+	public static final int COLUMN_ENDPOINTS = 0, COLUMN_ENDDIRS = 1, COLUMN_ENDCOLOR = 2, COLUMN_ACCEPTED = 3, COLUMN_BOUNCES = 4, COLUMN_LAST_OBJECT = 5;
+	private static final int WINDOW_BITS = 26;
+	private static final long WINDOW_MASK = (1L << WINDOW_BITS) - 1;
+	public final long numRays;
+	public final int entries;
+	private final long columnOffset[] = new long[6];
+	private final long tableOffset;
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	/*the file is mapped in windows, which are created when they are written the first time and published to the other writing threads by the atomic array*/
+	private final AtomicReferenceArray<MappedByteBuffer> windows;
+	private final IdentityHashMap<OpticalObject, Integer> objectIndices = new IdentityHashMap<>();
+	private final ArrayList<String> objectIds = new ArrayList<>();
+	private boolean closed = false;
+
+	public MappedRayResultSink(File output, long numRays, boolean bidir) throws IOException
+	{
+		this.numRays = numRays;
+		this.entries = bidir ? 2 : 1;
+		long entryCount = numRays * entries;
+		long columnSize[] = {entryCount * 12, entryCount * 12, entryCount * 16, numRays, numRays * 4, entryCount * 4};
+		long offset = HEADER_SIZE;
+		for (int i = 0; i < columnSize.length; ++i)
+		{
+			columnOffset[i] = offset;
+			offset = (offset + columnSize[i] + 7) & ~7L;
+		}
+		tableOffset = offset;
+		file = new RandomAccessFile(output, "rw");
+		file.setLength(tableOffset);
+		channel = file.getChannel();
+		windows = new AtomicReferenceArray<>((int)((tableOffset + WINDOW_MASK) >>> WINDOW_BITS));
+	}
+
+	private final MappedByteBuffer window(long position) throws IOException
+	{
+		int index = (int)(position >>> WINDOW_BITS);
+		MappedByteBuffer res = windows.get(index);
+		if (res == null)
+		{
+			synchronized(windows)
+			{
+				res = windows.get(index);
+				if (res == null)
+				{
+					long begin = (long)index << WINDOW_BITS;
+					res = channel.map(FileChannel.MapMode.READ_WRITE, begin, Math.min(WINDOW_MASK + 1, tableOffset - begin));
+					res.order(ByteOrder.LITTLE_ENDIAN);
+					windows.set(index, res);
+				}
+			}
+		}
+		return res;
+	}
+
+	/*values of four bytes never cross a window, because columns and windows are aligned*/
+	private final void putFloats(int column, long element, int stride, float values[], int begin, int count) throws IOException
+	{
+		long position = columnOffset[column] + element * stride * 4;
+		for (int i = begin; i < begin + count; ++i, position += 4)
+		{
+			window(position).putFloat((int)(position & WINDOW_MASK), values[i]);
+		}
+	}
+
+	private final void putInt(int column, long element, int value) throws IOException
+	{
+		long position = columnOffset[column] + element * 4;
+		window(position).putInt((int)(position & WINDOW_MASK), value);
+	}
+
+	private final int getObjectIndex(OpticalObject obj)
+	{
+		if (obj == null){return -1;}
+		synchronized(objectIndices)
+		{
+			Integer index = objectIndices.get(obj);
+			if (index == null)
+			{
+				objectIndices.put(obj, index = objectIds.size());
+				objectIds.add(obj.id);
+			}
+			return index;
+		}
+	}
+
+	@Override
+	public void write(long begin, int count, RaySimulationData data)
+	{
+		try
+		{
+			int entryCount = count * entries;
+			long entryBegin = begin * entries;
+			putFloats(COLUMN_ENDPOINTS, entryBegin, 3, data.endpoints, 0, entryCount * 3);
+			putFloats(COLUMN_ENDDIRS, entryBegin, 3, data.enddirs, 0, entryCount * 3);
+			putFloats(COLUMN_ENDCOLOR, entryBegin, 4, data.endcolor, 0, entryCount * 4);
+			for (int i = 0; i < count; ++i)
+			{
+				long position = columnOffset[COLUMN_ACCEPTED] + begin + i;
+				window(position).put((int)(position & WINDOW_MASK), data.accepted[i]);
+				putInt(COLUMN_BOUNCES, begin + i, data.bounces[i]);
+			}
+			for (int i = 0; i < entryCount; ++i)
+			{
+				putInt(COLUMN_LAST_OBJECT, entryBegin + i, getObjectIndex(data.lastObject[i]));
+			}
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("Can't map ray output", e);
+		}
+	}
+
+	public final byte getAccepted(long ray) throws IOException
+	{
+		long position = columnOffset[COLUMN_ACCEPTED] + ray;
+		return window(position).get((int)(position & WINDOW_MASK));
+	}
+
+	public final int getBounces(long ray) throws IOException
+	{
+		long position = columnOffset[COLUMN_BOUNCES] + ray * 4;
+		return window(position).getInt((int)(position & WINDOW_MASK));
+	}
+
+	/**
+	 * Reads stride floats of the endpoint, enddir or endcolor column
+	 */
+	public final void getFloats(int column, long entry, float result[]) throws IOException
+	{
+		int stride = column == COLUMN_ENDCOLOR ? 4 : 3;
+		long position = columnOffset[column] + entry * stride * 4;
+		for (int i = 0; i < stride; ++i, position += 4)
+		{
+			result[i] = window(position).getFloat((int)(position & WINDOW_MASK));
+		}
+	}
+
+	/**
+	 * @return the id of the last object of the entry or null
+	 */
+	public final String getLastObjectId(long entry) throws IOException
+	{
+		long position = columnOffset[COLUMN_LAST_OBJECT] + entry * 4;
+		int index = window(position).getInt((int)(position & WINDOW_MASK));
+		if (index < 0){return null;}
+		synchronized(objectIndices)
+		{
+			return objectIds.get(index);
+		}
+	}
+
+	/**
+	 * Writes the object table and the header. The mapped windows stay readable after closing.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if (closed){return;}
+		closed = true;
+		MappedByteBuffer header = window(0);
+		header.putInt(0, MAGIC).putInt(4, VERSION).putLong(8, numRays).putInt(16, entries).putLong(20, tableOffset);
+		for (int i = 0; i < windows.length(); ++i)
+		{
+			MappedByteBuffer window = windows.get(i);
+			if (window != null)
+			{
+				window.force();
+			}
+		}
+		int tableSize = 4;
+		ArrayList<byte[]> encoded = new ArrayList<>();
+		for (String id : objectIds)
+		{
+			byte bytes[] = id.getBytes(StandardCharsets.UTF_8);
+			encoded.add(bytes);
+			tableSize += 4 + bytes.length;
+		}
+		ByteBuffer table = ByteBuffer.allocate(tableSize).order(ByteOrder.LITTLE_ENDIAN);
+		table.putInt(encoded.size());
+		for (byte bytes[] : encoded)
+		{
+			table.putInt(bytes.length);
+			table.put(bytes);
+		}
+		table.flip();
+		channel.write(table, tableOffset);
+		channel.close();
+		file.close();
+	}
+}
@@ -0,0 +1,22 @@
+package data.raytrace;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Sink which holds accumulated values only, so partial results of disjoint ray ranges can be transferred and added up.
+ */
+public interface MergeableRayResultSink extends RayResultSink {
+	/**
+	 * @return an empty sink with the same configuration
+	 */
+	public MergeableRayResultSink createEmpty();
+
+	public void writeContent(DataOutput out) throws IOException;
+
+	/**
+	 * Adds the content written by writeContent of a sink with the same configuration
+	 */
+	public void addContent(DataInput in) throws IOException;
+}
@@ -46,6 +46,8 @@ public class MeshObject extends SurfaceObject {
 	private final ArrayList<MeshObjectChangeListener> changeListeners = new ArrayList<>();
 	private final Vector3d weightPoint = new Vector3d();
 	private double radiusQ;
+	private final double vertexBounds[] = new double[6];
+	private TriangleHierarchy hierarchy;
 	private double normalizedIncrementingArea[] = UniqueObjects.EMPTY_DOUBLE_ARRAY;
 	public boolean smooth;
 
@@ -107,6 +109,42 @@ public class MeshObject extends SurfaceObject {
 		setValues(defaultValues, va, parser);
 	}
 
+	/**
+	 * Frozen copy, the arrays are shared because setData replaces them instead of writing them
+	 */
+	private MeshObject(MeshObject source)
+	{
+		super(source);
+		faces = source.faces;
+		lines = source.lines;
+		vertices = source.vertices;
+		vertexNormals = source.vertexNormals;
+		faceNormals = source.faceNormals;
+		faceNormalsInversedLength = source.faceNormalsInversedLength;
+		textureCoordinates = source.textureCoordinates;
+		meshToGlobal.set(source.meshToGlobal);
+		globalToMesh.set(source.globalToMesh);
+		weightPoint.set(source.weightPoint);
+		radiusQ = source.radiusQ;
+		System.arraycopy(source.vertexBounds, 0, vertexBounds, 0, 6);
+		hierarchy = source.hierarchy;
+		normalizedIncrementingArea = source.normalizedIncrementingArea;
+		smooth = source.smooth;
+	}
+
+	@Override
+	OpticalObject freeze()
+	{
+		MeshObject res;
+		int mod;
+		do
+		{
+			mod = modCount();
+			res = new MeshObject(this);
+		}while (mod != modCount());
+		return res;
+	}
+
 	public MeshObject(ArrayList<SCENE_OBJECT_COLUMN_TYPE> vctList, ArrayList<? extends Object> valueList, VariableAmount va, ParseUtil parser) {
 		super();
 		setValues(vctList, valueList, va, parser);
@@ -178,6 +216,7 @@ public class MeshObject extends SurfaceObject {
 
 	@Override
 	public Intersection getIntersection(Vector3d position, Vector3d direction, Intersection intersection, double lowerBound, double upperBound) {
+		if (RaytraceMetrics.ENABLED)	{RaytraceMetrics.intersectionTests(RaytraceMetrics.TYPE_MESH, 1);}
 		//Geometry.calcTriangleMeshVertexFaceNormals(vertices, faces, vertexNormals, faceNormals);
 		final double px = globalToMesh.rdotAffineX(position.x, position.y, position.z);
 		final double py = globalToMesh.rdotAffineY(position.x, position.y, position.z);
@@ -208,49 +247,72 @@ public class MeshObject extends SurfaceObject {
 				return null;
 			}
 		}
-		for (int i = 0; i < faces.length; i += 3)
+		final TriangleHierarchy hierarchy = this.hierarchy;
+		if (hierarchy == null)
 		{
-			final int v0 = faces[i] * 3;
-			final double xfn = faceNormalsInversedLength[i], yfn = faceNormalsInversedLength[i + 1], zfn = faceNormalsInversedLength[i + 2];
-			final double x0 = vertices[v0], y0 = vertices[v0 + 1], z0 = vertices[v0 + 2];
-			final double pxr = x0 - px, pyr = y0 - py, pzr = z0 - pz; //position relative
-			final double dist = (pxr * xfn + pyr * yfn + pzr * zfn) / (xfn * dx + yfn * dy + zfn * dz);
-			if (lowerBound > dist || dist > upperBound)
+			for (int i = 0; i < faces.length; i += 3)
 			{
-				continue;
+				upperBound = getFaceIntersection(i, px, py, pz, dx, dy, dz, intersection, lowerBound, upperBound);
 			}
-			final double xir = dist * dx - pxr, yir = dist * dy - pyr, zir = dist * dz - pzr;
-			final double cx = zir * yfn - yir * zfn, cy = xir * zfn - zir * xfn, cz = yir * xfn - xir * yfn;
-
-			final int v1 = faces[i + 1] * 3;
-			final double u1 = cx * (vertices[v1] - x0) + cy * (vertices[v1 + 1] - y0) + cz * (vertices[v1 + 2] - z0);
-			if (u1 < 0 || u1 > 1)
+		}
+		else
+		{
+			final int nodes[] = hierarchy.nodes;
+			final float bounds[] = hierarchy.bounds;
+			final int faceOrder[] = hierarchy.faceOrder;
+			final double ix = 1 / dx, iy = 1 / dy, iz = 1 / dz;
+			int stack[] = intersection.meshStack;
+			if (stack == null)
 			{
-				continue;
+				intersection.meshStack = stack = new int[TriangleHierarchy.MAX_DEPTH + 1];
 			}
-			final int v2 = faces[i + 2] * 3;
-			final double u2 = -(cx * (vertices[v2] - x0) + cy * (vertices[v2 + 1] - y0) + cz * (vertices[v2 + 2] - z0));
-			if (u2 < 0 || u1 + u2 > 1)
+			int sp = 0;
+			stack[sp++] = 0;
+			while (sp > 0)
 			{
-				continue;
-			}
-			intersection.position.set(xir + x0, yir + y0, zir + z0);
-			{
-				final double u0 = 1 - u1 - u2;
-				intersection.normal.x = u2 * vertexNormals[v1]     + u1 * vertexNormals[v2]     + u0 * vertexNormals[v0];
-				intersection.normal.y = u2 * vertexNormals[v1 + 1] + u1 * vertexNormals[v2 + 1] + u0 * vertexNormals[v0 + 1];
-				intersection.normal.z = u2 * vertexNormals[v1 + 2] + u1 * vertexNormals[v2 + 2] + u0 * vertexNormals[v0 + 2];
-				if (textureCoordinates != null)
+				final int node = stack[--sp];
+				final int b = node * 6;
+				double tmin = lowerBound, tmax = upperBound;
+				double t0 = (bounds[b] - px) * ix, t1 = (bounds[b + 3] - px) * ix;
+				if (t0 > t1){double tmp = t0; t0 = t1; t1 = tmp;}
+				if (t0 > tmin){tmin = t0;}
+				if (t1 < tmax){tmax = t1;}
+				t0 = (bounds[b + 1] - py) * iy; t1 = (bounds[b + 4] - py) * iy;
+				if (t0 > t1){double tmp = t0; t0 = t1; t1 = tmp;}
+				if (t0 > tmin){tmin = t0;}
+				if (t1 < tmax){tmax = t1;}
+				t0 = (bounds[b + 2] - pz) * iz; t1 = (bounds[b + 5] - pz) * iz;
+				if (t0 > t1){double tmp = t0; t0 = t1; t1 = tmp;}
+				if (t0 > tmin){tmin = t0;}
+				if (t1 < tmax){tmax = t1;}
+				if (tmin > tmax)
+				{
+					continue;
+				}
+				final int n = node * TriangleHierarchy.NODE_STRIDE;
+				final int count = nodes[n + 1];
+				if (count >= 0)
+				{
+					for (int i = nodes[n]; i < nodes[n] + count; ++i)
+					{
+						upperBound = getFaceIntersection(faceOrder[i] * 3, px, py, pz, dx, dy, dz, intersection, lowerBound, upperBound);
+					}
+				}
+				else
 				{
-					final int v0t = v0 * 2 / 3, v1t = v1 * 2 / 3, v2t = v2 * 2 / 3;
-					intersection.textureX = u2 * textureCoordinates[v1t]     + u1 * textureCoordinates[v2t]     + u0 * textureCoordinates[v0t];
-					intersection.textureY = u2 * textureCoordinates[v1t + 1] + u1 * textureCoordinates[v2t + 1] + u0 * textureCoordinates[v0t + 1];
+					final int axis = nodes[n + 2];
+					if ((axis == 0 ? dx : axis == 1 ? dy : dz) < 0)
+					{
+						stack[sp++] = node + 1;
+						stack[sp++] = nodes[n];
+					}
+					else
+					{
+						stack[sp++] = nodes[n];
+						stack[sp++] = node + 1;
+					}
 				}
 			}
-			//intersection.normal.set(xfn, yfn, zfn);
-			upperBound = dist;
-			intersection.object = this;
-			intersection.faceIndex = i / 3;
 		}
 		if (intersection.object == this)
 		{
@@ -262,10 +324,114 @@ public class MeshObject extends SurfaceObject {
 		return null;
 	}
 
+	@Override
+	public void getIntersections(RayBatch batch, int rays[], int count, double lowerBound, int objectIndex)
+	{
+		final Vector3d position = batch.position, direction = batch.direction;
+		Intersection intersection = batch.intersection;
+		final double wx = weightPoint.x, wy = weightPoint.y, wz = weightPoint.z, radiusQ = this.radiusQ;
+		for (int i = 0; i < count; ++i)
+		{
+			final int ray = rays[i];
+			final double ox = batch.ox[ray], oy = batch.oy[ray], oz = batch.oz[ray];
+			final double rdx = batch.dx[ray], rdy = batch.dy[ray], rdz = batch.dz[ray];
+			final double px = globalToMesh.rdotAffineX(ox, oy, oz) - wx, py = globalToMesh.rdotAffineY(ox, oy, oz) - wy, pz = globalToMesh.rdotAffineZ(ox, oy, oz) - wz;
+			final double dx = globalToMesh.rdotX(rdx, rdy, rdz), dy = globalToMesh.rdotY(rdx, rdy, rdz), dz = globalToMesh.rdotZ(rdx, rdy, rdz);
+			final double a = dx * dx + dy * dy + dz * dz;
+			final double b = px * dx + py * dy + pz * dz;
+			final double c = px * px + py * py + pz * pz - radiusQ;
+			if (b * b - a * c < 0 || (c > 0 && b > 0))
+			{
+				continue;
+			}
+			position.set(ox, oy, oz);
+			direction.set(rdx, rdy, rdz);
+			intersection.object = null;
+			if (getIntersection(position, direction, intersection, lowerBound, batch.tMax[ray]) != null)
+			{
+				batch.tMax[ray] = intersection.distance;
+				batch.objectIndex[ray] = objectIndex;
+				intersection = batch.swapHit(ray);
+			}
+		}
+	}
+
+	/**
+	 * Intersects the face beginning at index i of the face-array with a ray given in mesh coordinates and returns the new upper bound
+	 */
+	private final double getFaceIntersection(int i, double px, double py, double pz, double dx, double dy, double dz, Intersection intersection, double lowerBound, double upperBound)
+	{
+		final int v0 = faces[i] * 3;
+		final double xfn = faceNormalsInversedLength[i], yfn = faceNormalsInversedLength[i + 1], zfn = faceNormalsInversedLength[i + 2];
+		final double x0 = vertices[v0], y0 = vertices[v0 + 1], z0 = vertices[v0 + 2];
+		final double pxr = x0 - px, pyr = y0 - py, pzr = z0 - pz; //position relative
+		final double dist = (pxr * xfn + pyr * yfn + pzr * zfn) / (xfn * dx + yfn * dy + zfn * dz);
+		if (lowerBound > dist || dist > upperBound)
+		{
+			return upperBound;
+		}
+		final double xir = dist * dx - pxr, yir = dist * dy - pyr, zir = dist * dz - pzr;
+		final double cx = zir * yfn - yir * zfn, cy = xir * zfn - zir * xfn, cz = yir * xfn - xir * yfn;
+
+		final int v1 = faces[i + 1] * 3;
+		final double u1 = cx * (vertices[v1] - x0) + cy * (vertices[v1 + 1] - y0) + cz * (vertices[v1 + 2] - z0);
+		if (u1 < 0 || u1 > 1)
+		{
+			return upperBound;
+		}
+		final int v2 = faces[i + 2] * 3;
+		final double u2 = -(cx * (vertices[v2] - x0) + cy * (vertices[v2 + 1] - y0) + cz * (vertices[v2 + 2] - z0));
+		if (u2 < 0 || u1 + u2 > 1)
+		{
+			return upperBound;
+		}
+		intersection.position.set(xir + x0, yir + y0, zir + z0);
+		{
+			final double u0 = 1 - u1 - u2;
+			intersection.normal.x = u2 * vertexNormals[v1]     + u1 * vertexNormals[v2]     + u0 * vertexNormals[v0];
+			intersection.normal.y = u2 * vertexNormals[v1 + 1] + u1 * vertexNormals[v2 + 1] + u0 * vertexNormals[v0 + 1];
+			intersection.normal.z = u2 * vertexNormals[v1 + 2] + u1 * vertexNormals[v2 + 2] + u0 * vertexNormals[v0 + 2];
+			if (textureCoordinates != null)
+			{
+				final int v0t = v0 * 2 / 3, v1t = v1 * 2 / 3, v2t = v2 * 2 / 3;
+				intersection.textureX = u2 * textureCoordinates[v1t]     + u1 * textureCoordinates[v2t]     + u0 * textureCoordinates[v0t];
+				intersection.textureY = u2 * textureCoordinates[v1t + 1] + u1 * textureCoordinates[v2t + 1] + u0 * textureCoordinates[v0t + 1];
+			}
+		}
+		//intersection.normal.set(xfn, yfn, zfn);
+		intersection.object = this;
+		intersection.faceIndex = i / 3;
+		return dist;
+	}
+
 	public void applyMatrix()
 	{
 		globalToMesh.invert(meshToGlobal);
 		meshToGlobal.getCol(3, midpoint);
+		modified();
+	}
+
+	@Override
+	public boolean getBounds(double bounds[], int offset)
+	{
+		if (vertices.length == 0)
+		{
+			return false;
+		}
+		for (int i = 0; i < 3; ++i)
+		{
+			bounds[offset + i] = Double.POSITIVE_INFINITY;
+			bounds[offset + i + 3] = Double.NEGATIVE_INFINITY;
+		}
+		for (int i = 0; i < 8; ++i)
+		{
+			double x = vertexBounds[(i & 1) * 3], y = vertexBounds[((i >> 1) & 1) * 3 + 1], z = vertexBounds[((i >> 2) & 1) * 3 + 2];
+			double gx = meshToGlobal.rdotAffineX(x, y, z), gy = meshToGlobal.rdotAffineY(x, y, z), gz = meshToGlobal.rdotAffineZ(x, y, z);
+			bounds[offset]     = Math.min(bounds[offset],     gx); bounds[offset + 3] = Math.max(bounds[offset + 3], gx);
+			bounds[offset + 1] = Math.min(bounds[offset + 1], gy); bounds[offset + 4] = Math.max(bounds[offset + 4], gy);
+			bounds[offset + 2] = Math.min(bounds[offset + 2], gz); bounds[offset + 5] = Math.max(bounds[offset + 5], gz);
+		}
+		return true;
 	}
 
 	@Override
@@ -442,6 +608,19 @@ public class MeshObject extends SurfaceObject {
 			weightPoint.add(vertices, i);
 		}
 		weightPoint.multiply(1. / vertices.length);
+		for (int i = 0; i < 3; ++i)
+		{
+			vertexBounds[i] = Double.POSITIVE_INFINITY;
+			vertexBounds[i + 3] = Double.NEGATIVE_INFINITY;
+		}
+		for (int i = 0; i < vertices.length; i += 3)
+		{
+			for (int j = 0; j < 3; ++j)
+			{
+				vertexBounds[j] = Math.min(vertexBounds[j], vertices[i + j]);
+				vertexBounds[j + 3] = Math.max(vertexBounds[j + 3], vertices[i + j]);
+			}
+		}
 		for (int i = 0; i < vertices.length; i += 3)
 		{
 			radiusQ = Math.max(radiusQ, weightPoint.distanceQ(vertices, i));
@@ -506,6 +685,7 @@ public class MeshObject extends SurfaceObject {
 
 		DoubleMatrixUtil.multiply(normalizedIncrementingArea, 0, normalizedIncrementingArea.length, 1/sum);
 		DoubleMatrixUtil.partialSum(normalizedIncrementingArea, 0, normalizedIncrementingArea.length);
+		hierarchy = faces.length >= TriangleHierarchy.MIN_FACES * 3 ? new TriangleHierarchy(vertices, faces) : null;
 		modified();
 		triggerModificationEvents();
 	}
@@ -33,7 +33,7 @@ public abstract class OpticalObject {
 	public MaterialType materialType = null;
 	public static final OpticalObject[] EMPTY_ARRAY = new OpticalObject[0];
 	private static int createdObjects = 0;
-	public final int iid = createdObjects++;
+	public final int iid;
 	protected String id = "";
 	public boolean active = true;
 	protected boolean isUpdating = false;
@@ -51,6 +51,12 @@ public abstract class OpticalObject {
 	public MeshObject meshPredessor[] = MeshObject.EMPTY_MESH_ARRAY;
 	public OpticalObject successor[] = EMPTY_ARRAY;
 	public OpticalObject predessor[] = EMPTY_ARRAY;
+	public BoundingVolumeHierarchy successorHierarchy;
+	public BoundingVolumeHierarchy predessorHierarchy;
+	/*links of the latest snapshot, older snapshots look them up*/
+	TraceSnapshot.Links links;
+	/*object this is a frozen copy of, the object itself otherwise*/
+	OpticalObject original = this;
 	public abstract Intersection getIntersection(Vector3d position, Vector3d direction, Intersection intersection, double lowerBound, double upperBound);
 	protected int includedVariableIds[] = UniqueObjects.EMPTY_INT_ARRAY;
 	protected byte includedVariableTypes[] = UniqueObjects.EMPTY_BYTE_ARRAY;
@@ -59,9 +65,46 @@ public abstract class OpticalObject {
 	private static final Logger logger = LoggerFactory.getLogger(OpticalObject.class);
 	private int oldModCount = 0;
 	private int modCount = 0;
+	/*modCount at the last time the scene computed the neighbours of this object, -1 forces a recomputation*/
+	int preparedModCount = -1;
 
 	private final ArrayList<DataChangeListener> dataChangeListeners = new ArrayList<>();
 
+	protected OpticalObject()
+	{
+		iid = createdObjects++;
+	}
+
+	/**
+	 * Copies the identity and position of the object, used by frozen copies
+	 */
+	OpticalObject(OpticalObject source)
+	{
+		iid = source.iid;
+		original = source.original;
+		materialType = source.materialType;
+		id = source.id;
+		active = source.active;
+		midpoint.set(source.midpoint);
+		modCount = source.modCount;
+	}
+
+	/**
+	 * @return copy of the geometry and material which isn't changed by later edits, or this object if it can't be copied
+	 */
+	OpticalObject freeze()
+	{
+		return this;
+	}
+
+	/**
+	 * @return the object a frozen copy was made of, or this object
+	 */
+	public final OpticalObject original()
+	{
+		return original;
+	}
+
 	public final void addDataChangeListener(DataChangeListener tcl) {
 		dataChangeListeners.add(tcl);
 	}
@@ -80,6 +123,37 @@ public abstract class OpticalObject {
 		return modCount;
 	}
 
+	/**
+	 * Writes an axis aligned box (min x, y, z, max x, y, z) containing every point this object can report as intersection.
+	 * @return false if the object is unbounded
+	 */
+	public boolean getBounds(double bounds[], int offset)
+	{
+		return false;
+	}
+
+	/**
+	 * Intersects the rays with the given indices of the batch. For every ray which hits this object between lowerBound and tMax, tMax is set to the distance and objectIndex to the given index.
+	 */
+	public void getIntersections(RayBatch batch, int rays[], int count, double lowerBound, int objectIndex)
+	{
+		final Vector3d position = batch.position, direction = batch.direction;
+		Intersection intersection = batch.intersection;
+		for (int i = 0; i < count; ++i)
+		{
+			final int ray = rays[i];
+			position.set(batch.ox[ray], batch.oy[ray], batch.oz[ray]);
+			direction.set(batch.dx[ray], batch.dy[ray], batch.dz[ray]);
+			intersection.object = null;
+			if (getIntersection(position, direction, intersection, lowerBound, batch.tMax[ray]) != null)
+			{
+				batch.tMax[ray] = intersection.distance;
+				batch.objectIndex[ray] = objectIndex;
+				intersection = batch.swapHit(ray);
+			}
+		}
+	}
+
 	protected final void updateIds(byte ordinal, Operation op)
 	{
 		removeType(ordinal);
@@ -188,6 +262,7 @@ public abstract class OpticalObject {
 		SMOOTH            ("Smooth",      null,   TYPE_CHECKBOX, false, null),
 		INVERT_INOUT      ("InvertInsideOutside", null,   TYPE_CHECKBOX, false, null),
 		CONIC_CONSTANT    ("ConicConstant", null,   TYPE_TEXTFIELD, 1, null),
+		ABBE_NUMBER       ("AbbeNumber",  null,   TYPE_TEXTFIELD, 0, null),
 		PREVIOUS_OBJECTS  ("PreviousObjects", null,   TYPE_TEXTFIELD, null, null),
 		FOLLOWING_OBJECTS ("FollowingObjects", null,   TYPE_TEXTFIELD, null, null),
 		END_OBJECTS       ("EndObjects",  null,   TYPE_TEXTFIELD, null, null),
@@ -21,6 +21,7 @@
  ******************************************************************************/
 package data.raytrace;
 
+import data.raytrace.RaySimulation.MaterialType;
 import data.raytrace.RaySimulation.SurfaceType;
 import geometry.Geometry;
 import geometry.Matrix4d;
@@ -32,7 +33,11 @@ import opengl.BufferUtils;
 
 public class OpticalSurfaceObject extends SurfaceObject{
 	public static final OpticalSurfaceObject EMPTY_SURFACE_ARRAY[] = new OpticalSurfaceObject[0];
-	public double abbeNumber = 1;
+	/*Fraunhofer d, F and C lines in nm, which define the Abbe number*/
+	public static final double WAVELENGTH_D = 587.56, WAVELENGTH_F = 486.13, WAVELENGTH_C = 656.27;
+	private static final double DISPERSION_FC = 1 / (WAVELENGTH_F * WAVELENGTH_F) - 1 / (WAVELENGTH_C * WAVELENGTH_C);
+	/*0 for surfaces without dispersion*/
+	public double abbeNumber = 0;
 	public double conicConstant = 1;
 	public final Vector3d direction = new Vector3d();
 	public final Vector3d directionNormalized = new Vector3d();
@@ -59,6 +64,67 @@ public class OpticalSurfaceObject extends SurfaceObject{
 	public boolean alphaAsMask;
 	public OpticalSurfaceObject() {}
 
+	private OpticalSurfaceObject(OpticalSurfaceObject source)
+	{
+		super(source);
+		abbeNumber = source.abbeNumber;
+		conicConstant = source.conicConstant;
+		direction.set(source.direction);
+		directionNormalized.set(source.directionNormalized);
+		surf = source.surf;
+		maxRadiusGeometric = source.maxRadiusGeometric;
+		radiusGeometricQ = source.radiusGeometricQ;
+		minRadiusGeometric = source.minRadiusGeometric;
+		minRadiusGeometricQ = source.minRadiusGeometricQ;
+		directionLength = source.directionLength;
+		directionLengthQ = source.directionLengthQ;
+		invDirectionLengthQ = source.invDirectionLengthQ;
+		matGlobalToSurface.set(source.matGlobalToSurface);
+		matSurfaceToGlobal.set(source.matSurfaceToGlobal);
+		invDirectionLength = source.invDirectionLength;
+		dotProdUpperBound = source.dotProdUpperBound;
+		dotProdLowerBound = source.dotProdLowerBound;
+		dotProdUpperBound2 = source.dotProdUpperBound2;
+		dotProdLowerBound2 = source.dotProdLowerBound2;
+		maxArcOpen = source.maxArcOpen;
+		minArcOpen = source.minArcOpen;
+		textureMapping = source.textureMapping;
+		alphaAsRadius = source.alphaAsRadius;
+		mapLocal = source.mapLocal;
+		alphaAsMask = source.alphaAsMask;
+	}
+
+	/**
+	 * Copies all fields, the copy is retaken if the surface was updated while copying
+	 */
+	@Override
+	OpticalObject freeze()
+	{
+		OpticalSurfaceObject res;
+		int mod;
+		do
+		{
+			mod = modCount();
+			res = new OpticalSurfaceObject(this);
+		}while (mod != modCount());
+		return res;
+	}
+
+	@Override
+	public boolean isDispersive()
+	{
+		return materialType == MaterialType.REFRACTION && abbeNumber > 0 && abbeNumber != Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Cauchy's equation n = A + B / wavelength^2 through the index at the d-line, with n_F - n_C = (n_d - 1) / abbeNumber. Indices of 1 stay unchanged.
+	 */
+	@Override
+	public double getDispersedIor(double ior, double wavelength)
+	{
+		return ior + (ior - 1) / abbeNumber * (1 / (wavelength * wavelength) - 1 / (WAVELENGTH_D * WAVELENGTH_D)) / DISPERSION_FC;
+	}
+
 	public double getMaxArcOpen()
 	{
 		return maxArcOpen;
@@ -187,6 +253,69 @@ public class OpticalSurfaceObject extends SurfaceObject{
 				dotProdUpperBound2 += directionLength;
 			}
 		}
+		/*after all derived values, so frozen copies taken during an update are retaken*/
+		modified();
+	}
+
+	private final boolean getAxialBounds(double axialBegin, double axialEnd, double radius, double bounds[], int offset)
+	{
+		final Vector3d n = directionNormalized;
+		for (int i = 0; i < 3; ++i)
+		{
+			double ni = i == 0 ? n.x : i == 1 ? n.y : n.z;
+			double mi = i == 0 ? midpoint.x : i == 1 ? midpoint.y : midpoint.z;
+			double extent = radius * Math.sqrt(Math.max(0, 1 - ni * ni));
+			double p0 = mi + ni * axialBegin, p1 = mi + ni * axialEnd;
+			bounds[offset + i] = Math.min(p0, p1) - extent;
+			bounds[offset + i + 3] = Math.max(p0, p1) + extent;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean getBounds(double bounds[], int offset)
+	{
+		/*dmin and dmax limit dotProd of getIntersection, which determines the axial position of accepted hitpoints*/
+		final double dmin = Math.min(dotProdLowerBound2, dotProdUpperBound2), dmax = Math.max(dotProdLowerBound2, dotProdUpperBound2);
+		switch (surf)
+		{
+			case FLAT:
+				return !invertInsideOutside && getAxialBounds(0, 0, maxRadiusGeometric, bounds, offset);
+			case SPHERICAL:
+				bounds[offset]     = midpoint.x - directionLength; bounds[offset + 3] = midpoint.x + directionLength;
+				bounds[offset + 1] = midpoint.y - directionLength; bounds[offset + 4] = midpoint.y + directionLength;
+				bounds[offset + 2] = midpoint.z - directionLength; bounds[offset + 5] = midpoint.z + directionLength;
+				return true;
+			case CYLINDER:
+				return getAxialBounds(-dmax, -dmin, directionLength, bounds, offset);
+			case PARABOLIC:
+			{
+				double radiusQ = 2 * directionLength * Math.max(Math.abs(dmin), Math.abs(dmax));
+				return getAxialBounds(directionLength - dmax, directionLength - dmin, Math.sqrt(radiusQ), bounds, offset);
+			}
+			case HYPERBOLIC:
+			{
+				double tmp = Math.max(Math.abs(dmin + directionLength), Math.abs(dmax + directionLength));
+				double radiusQ = tmp * tmp - directionLengthQ;
+				return getAxialBounds(directionLength - dmax, directionLength - dmin, Math.sqrt(Math.max(radiusQ, 0)), bounds, offset);
+			}
+			case CUSTOM:
+			{
+				double k = 1 + conicConstant;
+				double radiusQ = Math.max(dmin * (2 * directionLength - k * dmin), dmax * (2 * directionLength - k * dmax));
+				if (k > 0)
+				{
+					double dopt = directionLength / k;
+					if (dmin < dopt && dopt < dmax)
+					{
+						radiusQ = Math.max(radiusQ, directionLengthQ / k);
+					}
+				}
+				return getAxialBounds(directionLength - dmax, directionLength - dmin, Math.sqrt(Math.max(radiusQ, 0)), bounds, offset);
+			}
+			default:
+				return false;
+		}
 	}
 
 	public static final double asinh(double x)
@@ -333,6 +462,7 @@ public class OpticalSurfaceObject extends SurfaceObject{
 	@Override
 	public Intersection getIntersection(Vector3d ray_pos, Vector3d ray_dir, Intersection intersection, double ray_tmin, double ray_tmax)
 	{
+		if (RaytraceMetrics.ENABLED)	{RaytraceMetrics.intersectionTests(RaytraceMetrics.TYPE_SURFACE, 1);}
 		final double x = ray_pos.x - this.midpoint.x, y = ray_pos.y - this.midpoint.y, z = ray_pos.z - this.midpoint.z;
 		switch (surf)
 		{
@@ -504,6 +634,143 @@ public class OpticalSurfaceObject extends SurfaceObject{
 		return null;
 	}
 
+	@Override
+	public void getIntersections(RayBatch batch, int rays[], int count, double lowerBound, int objectIndex)
+	{
+		if (RaytraceMetrics.ENABLED)	{RaytraceMetrics.intersectionTests(RaytraceMetrics.TYPE_SURFACE, count);}
+		switch (surf)
+		{
+			case FLAT:		getFlatIntersections(batch, rays, count, lowerBound, objectIndex);break;
+			case HYPERBOLIC:getQuadricIntersections(batch, rays, count, lowerBound, objectIndex, directionLength, -2, dotProdLowerBound2, dotProdUpperBound2);break;
+			case PARABOLIC:	getQuadricIntersections(batch, rays, count, lowerBound, objectIndex, directionLength, -1, dotProdLowerBound2, dotProdUpperBound2);break;
+			case CUSTOM:	getQuadricIntersections(batch, rays, count, lowerBound, objectIndex, directionLength, conicConstant, dotProdLowerBound2, dotProdUpperBound2);break;
+			case SPHERICAL:	getQuadricIntersections(batch, rays, count, lowerBound, objectIndex, 0, 0, -dotProdLowerBound2, -dotProdUpperBound2);break;
+			case CYLINDER:	getQuadricIntersections(batch, rays, count, lowerBound, objectIndex, 0, -1, dotProdUpperBound2, dotProdLowerBound2);break;
+			default:		super.getIntersections(batch, rays, count, lowerBound, objectIndex);break;
+		}
+	}
+
+	private final void getFlatIntersections(RayBatch batch, int rays[], int count, double lowerBound, int objectIndex)
+	{
+		final double mx = midpoint.x, my = midpoint.y, mz = midpoint.z;
+		final double nx = direction.x, ny = direction.y, nz = direction.z;
+		final double minQ = minRadiusGeometricQ, maxQ = radiusGeometricQ;
+		final double ox[] = batch.ox, oy[] = batch.oy, oz[] = batch.oz;
+		final double dx[] = batch.dx, dy[] = batch.dy, dz[] = batch.dz;
+		final double tMax[] = batch.tMax;
+		for (int i = 0; i < count; ++i)
+		{
+			final int ray = rays[i];
+			final double x = ox[ray] - mx, y = oy[ray] - my, z = oz[ray] - mz;
+			final double alpha = -(nx * x + ny * y + nz * z) / (nx * dx[ray] + ny * dy[ray] + nz * dz[ray]);
+			if (lowerBound < alpha && alpha < tMax[ray])
+			{
+				final double px = x + dx[ray] * alpha, py = y + dy[ray] * alpha, pz = z + dz[ray] * alpha;
+				final double distanceQ = px * px + py * py + pz * pz;
+				if ((minQ < distanceQ && distanceQ < maxQ) != invertInsideOutside)
+				{
+					setHit(batch, ray, alpha, objectIndex);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Solves the quadratic equation of all rotational symmetric quadrics. The axial coordinate of the hitpoint is offset - (n, x) - (n, d) * alpha
+	 * and has to lie between lower and upper, the surface is given by |x|^2 + k * axial^2 - directionLengthQ = 0.
+	 */
+	private final void getQuadricIntersections(RayBatch batch, int rays[], int count, double lowerBound, int objectIndex, double offset, double k, double lower, double upper)
+	{
+		final double mx = midpoint.x, my = midpoint.y, mz = midpoint.z;
+		final double nx = directionNormalized.x, ny = directionNormalized.y, nz = directionNormalized.z;
+		final double lengthQ = directionLengthQ;
+		final double ox[] = batch.ox, oy[] = batch.oy, oz[] = batch.oz;
+		final double dx[] = batch.dx, dy[] = batch.dy, dz[] = batch.dz;
+		final double tMax[] = batch.tMax;
+		for (int i = 0; i < count; ++i)
+		{
+			final int ray = rays[i];
+			final double x = ox[ray] - mx, y = oy[ray] - my, z = oz[ray] - mz;
+			final double rdx = dx[ray], rdy = dy[ray], rdz = dz[ray];
+			final double dirproj = offset - (nx * x + ny * y + nz * z);
+			final double scal = nx * rdx + ny * rdy + nz * rdz;
+			final double a = 1 / (1 + k * scal * scal);
+			final double c = (x * x + y * y + z * z + k * dirproj * dirproj - lengthQ) * a;
+			final double b = (rdx * x + rdy * y + rdz * z - k * scal * dirproj) * a;
+			final double sqrt = Math.sqrt(b * b - c);
+			final double upperBound = tMax[ray];
+			double alpha = -b - sqrt;
+			double dotProd = dirproj - scal * alpha;
+			if (!(lowerBound < alpha && alpha < upperBound && lower <= dotProd && dotProd <= upper))
+			{
+				alpha = -b + sqrt;
+				dotProd = dirproj - scal * alpha;
+				if (!(lowerBound < alpha && alpha < upperBound && lower <= dotProd && dotProd <= upper))
+				{
+					continue;
+				}
+			}
+			setHit(batch, ray, alpha, objectIndex);
+		}
+	}
+
+	/**
+	 * Stores a hit found by the batched intersection tests, the position and normal are written like in getIntersection, so the tracer doesn't have to intersect again
+	 */
+	private final void setHit(RayBatch batch, int ray, double alpha, int objectIndex)
+	{
+		batch.tMax[ray] = alpha;
+		batch.objectIndex[ray] = objectIndex;
+		final Vector3d ray_pos = batch.position, ray_dir = batch.direction;
+		batch.getPosition(ray, ray_pos);
+		batch.getDirection(ray, ray_dir);
+		final Intersection intersection = batch.hit[ray];
+		final double x = ray_pos.x - this.midpoint.x, y = ray_pos.y - this.midpoint.y, z = ray_pos.z - this.midpoint.z;
+		switch (surf)
+		{
+			case FLAT:
+			{
+				intersection.position.set(ray_pos, ray_dir, alpha);
+				intersection.normal.set(this.direction);
+				break;
+			}
+			case HYPERBOLIC:
+			case PARABOLIC:
+			{
+				final double dotProd = this.directionLength - this.directionNormalized.dot(x,y,z) - this.directionNormalized.dot(ray_dir) * alpha;
+				final double dax = ray_dir.x * alpha, day = ray_dir.y * alpha, daz = ray_dir.z * alpha;
+				intersection.position.setAdd(ray_pos, dax, day, daz);
+				intersection.normal.set(x + dax, y + day, z + daz, this.directionNormalized, surf == SurfaceType.HYPERBOLIC ? 2 * dotProd : dotProd);
+				break;
+			}
+			case CUSTOM:
+			{
+				final double dotProd = this.directionLength - this.directionNormalized.dot(x,y,z) - this.directionNormalized.dot(ray_dir) * alpha;
+				intersection.position.set(ray_pos, ray_dir, alpha);
+				intersection.normal.set(intersection.position, this.midpoint, this.directionNormalized, -this.conicConstant * dotProd);
+				break;
+			}
+			case SPHERICAL:
+			{
+				final double dax = ray_dir.x * alpha, day = ray_dir.y * alpha, daz = ray_dir.z * alpha;
+				intersection.position.setAdd(ray_pos, dax, day, daz);
+				intersection.normal.set(x + dax, y + day, z + daz);
+				break;
+			}
+			case CYLINDER:
+			{
+				final double dotProd = -this.directionNormalized.dot(x,y,z) - this.directionNormalized.dot(ray_dir) * alpha;
+				intersection.position.set(ray_pos, ray_dir, alpha);
+				intersection.normal.set(intersection.position, this.midpoint, this.directionNormalized, dotProd);
+				break;
+			}
+			default:
+				break;
+		}
+		intersection.object = this;
+		intersection.distance = alpha;
+	}
+
 	@Override
 	public void densityCompensation(int width, int height, int imageColorArray[], int channels, int stride)
 	{
@@ -55,6 +55,7 @@ import ij.ImagePlus;
 import ij.ImageStack;
 import ij.plugin.DICOM;
 import jcomponents.raytrace.Volume;
+import jcomponents.raytrace.VolumeBricks;
 import maths.Armadillo;
 import maths.Controller;
 import maths.Operation;
@@ -64,16 +65,22 @@ import maths.variable.Variable;
 import maths.variable.VariableStack;
 import util.ArrayUtil;
 import util.Buffers;
-import util.Interpolator;
+import util.DiffusionSolver;
 import util.JFrameUtils;
+import util.OperationBytecodeCompiler;
 import util.StringUtils;
+import util.ThreadPool;
 import util.data.DoubleArrayList;
 import util.data.IntegerArrayList;
 import util.data.SortedIntegerArrayList;
+import util.functional.DoubleArrayFunction;
 
 public abstract class OpticalVolumeObject extends OpticalObject{
 	public static final OpticalVolumeObject EMPTY_VOLUME_ARRAY[] = new OpticalVolumeObject[0];
 	private static final Logger logger = LoggerFactory.getLogger(OpticalVolumeObject.class);
+	/*z-slices per block of the parallel passes of editValues*/
+	private static final int EDIT_SLAB_DEPTH = 1;
+	private static final double DIFFUSION_TOLERANCE = 1e-10;
 
 	private static final boolean loadIfExists(String library)
 	{
@@ -86,6 +93,8 @@ public abstract class OpticalVolumeObject extends OpticalObject{
 	}
 
 	private static boolean native_raytrace = false;
+	/*cleared at the first call which can't link armadillo_java*/
+	private static boolean native_diffusion = true;
 	static
 	{
 		try
@@ -171,6 +180,8 @@ public abstract class OpticalVolumeObject extends OpticalObject{
     private Vector3d spacing = new Vector3d(Double.NaN, Double.NaN, Double.NaN);
     private Vector3d spacingInf = new Vector3d(Double.NaN, Double.NaN, Double.NaN);
 	VolumeScene vs;
+	/*cache of the java marcher, rebuilt when the volume is replaced or modified*/
+	private VolumeBricks bricks;
 	public DICOM dcm = null;
 	public ImagePlus ip;
 	public Color color = Color.BLACK;
@@ -275,6 +286,9 @@ public abstract class OpticalVolumeObject extends OpticalObject{
 	}
 
 	static class VolumeCalculationEnvironment{
+		static final String INPUT_NAMES[] = {"x", "y", "z", "lx", "ly", "lz", "index"};
+		/*values of the variables in the order of INPUT_NAMES*/
+		public final double inputs[] = new double[INPUT_NAMES.length];
 		private final Variable xVar = new Variable("x");
 		private final Variable yVar = new Variable("y");
 		private final Variable zVar = new Variable("z");
@@ -308,32 +322,150 @@ public abstract class OpticalVolumeObject extends OpticalObject{
 
 		public void setPosition(int index, int x, int y, int z)
 		{
-			xLocalVar.setValue((double)x/width);
-			yLocalVar.setValue((double)y/height);
-			zLocalVar.setValue((double)z/depth);
+			xLocalVar.setValue(inputs[3] = (double)x/width);
+			yLocalVar.setValue(inputs[4] = (double)y/height);
+			zLocalVar.setValue(inputs[5] = (double)z/depth);
 
 			latticeToGlobal.rdotAffine(x,y,z, position);
-			xVar.setValue(position.x);
-			yVar.setValue(position.y);
-			zVar.setValue(position.z);
+			xVar.setValue(inputs[0] = position.x);
+			yVar.setValue(inputs[1] = position.y);
+			zVar.setValue(inputs[2] = position.z);
 			indexVar.setValue(index);
+			inputs[6] = index;
 		}
 	}
 
+	/**
+	 * Variables of one worker of editValues. Every thread evaluates the operations on its own stack, so the shared Variables are never written concurrently.
+	 */
+	static class VolumeEditEnvironment
+	{
+		private final VariableStack vs;
+		private final VolumeCalculationEnvironment vce;
+		private final Variable datVar = new Variable("data");
+		private final Variable transVar = new Variable("trans");
+		private final Variable eval[];
+		private final Variable equalityOperationResVar;
+		private final Controller control = new Controller();
+		/*inputs of the compiled operations, the limits are constant*/
+		private final double inputs[];
+		private double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+
+		private VolumeEditEnvironment(VariableStack variables, OpticalSurfaceObject oso[], int minMaxTrans[], float minMaxDat[], double eqLimits[], Matrix4d latticeToGlobal, int width, int height, int depth, int inputLength)
+		{
+			vs = new VariableStack(variables);
+			vs.addLocal(datVar);
+			vs.addLocal(transVar);
+			eval = new Variable[oso.length];
+			for (int i = 0; i < oso.length; ++i)
+			{
+				vs.addLocal(eval[i] = new Variable(oso[i].getId()));
+			}
+			vs.addLocal(new Variable("tmin", minMaxTrans[0]));
+			vs.addLocal(new Variable("tmax", minMaxTrans[1]));
+			vs.addLocal(new Variable("dmin", minMaxDat[0]));
+			vs.addLocal(new Variable("dmax", minMaxDat[1]));
+			vce = new VolumeCalculationEnvironment(vs, latticeToGlobal, width, height, depth);
+			control.calculateRandom(true);
+			if (eqLimits == null)
+			{
+				equalityOperationResVar = null;
+			}
+			else
+			{
+				/*local, the parent stack is shared by all workers*/
+				vs.addLocal(equalityOperationResVar = new Variable("lres"));
+				vs.addLocal(new Variable("eqmin", eqLimits[0]));
+				vs.addLocal(new Variable("eqmax", eqLimits[1]));
+			}
+			inputs = new double[inputLength];
+			final int dataInput = VolumeCalculationEnvironment.INPUT_NAMES.length;
+			if (inputLength > dataInput)
+			{
+				inputs[dataInput + 2] = minMaxTrans[0];
+				inputs[dataInput + 3] = minMaxTrans[1];
+				inputs[dataInput + 4] = minMaxDat[0];
+				inputs[dataInput + 5] = minMaxDat[1];
+				if (eqLimits != null)
+				{
+					inputs[dataInput + 6] = eqLimits[0];
+					inputs[dataInput + 7] = eqLimits[1];
+				}
+			}
+		}
+
+		private void setVoxel(int index, int x, int y, int z, float data[], int translucency[], double values[][], double equalityOperationResult[])
+		{
+			vce.setPosition(index, x, y, z);
+			for (int i = 0; i < eval.length; ++i)
+			{
+				eval[i].setValue(values[i][index]);
+			}
+			datVar.setValue(data[index]);
+			transVar.setValue(translucency[index]);
+			if (equalityOperationResult != null)
+			{
+				equalityOperationResVar.setValue(equalityOperationResult[index]);
+			}
+		}
+
+		private void setInputs(int index, float data[], int translucency[], double values[][], double equalityOperationResult[], int evalInput)
+		{
+			final int dataInput = VolumeCalculationEnvironment.INPUT_NAMES.length;
+			System.arraycopy(vce.inputs, 0, inputs, 0, dataInput);
+			inputs[dataInput] = data[index];
+			inputs[dataInput + 1] = translucency[index];
+			if (equalityOperationResult != null)
+			{
+				inputs[dataInput + 8] = equalityOperationResult[index];
+			}
+			for (int i = 0; i < values.length; ++i)
+			{
+				inputs[evalInput + i] = values[i][index];
+			}
+		}
+	}
+
+	/**
+	 * Uses the native armadillo solver if the library is available and the java multigrid solver otherwise
+	 */
+	private static void solveDiffusionEquation(int width, int height, int depth, double values[], int notGivenIndices[], int notGivenCount)
+	{
+		if (native_diffusion)
+		{
+			try
+			{
+				Armadillo.solveDiffusionEquation(width, height, depth, values, notGivenIndices, notGivenCount, Armadillo.Backend.ARMADILLO);
+				return;
+			}
+			catch (LinkageError e)
+			{
+				logger.warn("Can't use native diffusion solver, fallback to java-version", e);
+				native_diffusion = false;
+			}
+		}
+		double residual = DiffusionSolver.solve(width, height, depth, values, notGivenIndices, DataHandler.runnableRunner, DIFFUSION_TOLERANCE);
+		logger.debug("Diffusion residual " + residual);
+	}
+
 	public void editValues(
 	        OpticalSurfaceObject oso[],
 	        Operation operationIOR,
 	        Operation operationTranslucency,
-	        Operation givenValueOperation,
-	        Operation isGivenOperation,
-	        VariableStack variables,
+	        final Operation givenValueOperation,
+	        final Operation isGivenOperation,
+	        final VariableStack variables,
 	        Volume vol)
 	{
+	    if (vol.isMapped())
+	    {
+	        throw new IllegalArgumentException("Mapped volumes can't be edited in place");
+	    }
 	    long time = System.nanoTime();
-		int width = vol.width, height = vol.height, depth = vol.depth;
-		float data[] = vol.data;
-		int translucency[] = vol.translucency;
-		Vector3d position = new Vector3d();
+		final int width = vol.width, height = vol.height, depth = vol.depth;
+		final float data[] = vol.data;
+		final int translucency[] = vol.translucency;
+		final Matrix4d cubesToGlobal = this.cubesToGlobal;
 		SortedIntegerArrayList ial = new SortedIntegerArrayList();
 		if (operationIOR != null)			{OperationCalculate.getVariables(operationIOR, ial);}
 		if (operationTranslucency != null)	{OperationCalculate.getVariables(operationTranslucency, ial);}
@@ -347,35 +479,44 @@ public abstract class OpticalVolumeObject extends OpticalObject{
 				tmpList.add(oso[i]);
 			}
 		}
-		float minMaxDat[] = ArrayUtil.minMax(data, new float[2]);
-		int minMaxTrans[] = ArrayUtil.minMax(translucency, new int[2]);
+		final float minMaxDat[] = ArrayUtil.minMax(data, new float[2]);
+		final int minMaxTrans[] = ArrayUtil.minMax(translucency, new int[2]);
 
-		oso = tmpList.toArray(new OpticalSurfaceObject[tmpList.size()]);
-		final double values[][] = new double[oso.length][width * height * depth];
+		final OpticalSurfaceObject evalObjects[] = tmpList.toArray(new OpticalSurfaceObject[tmpList.size()]);
+		final double values[][] = new double[evalObjects.length][width * height * depth];
 
-		for (int z = 0, index = 0; z < depth; ++z)
-		{
-			for (int y = 0; y < height; ++y)
-			{
-				for (int x = 0; x <width; ++x, ++index)
+		DataHandler.runnableRunner.runParallel(new ThreadPool.ParallelRangeRunnable() {
+			@Override
+			public void run(int from, int to) {
+				Vector3d position = new Vector3d();
+				for (int z = from, index = from * height * width; z < to; ++z)
 				{
-                    this.cubesToGlobal.rdotAffine(x, y, z, position);
-			        for (int i = 0; i < oso.length; ++i)
-			        {
-						values[i][index] = oso[i].evaluate_inner_outer(position);
+					for (int y = 0; y < height; ++y)
+					{
+						for (int x = 0; x <width; ++x, ++index)
+						{
+							cubesToGlobal.rdotAffine(x, y, z, position);
+							for (int i = 0; i < evalObjects.length; ++i)
+							{
+								values[i][index] = evalObjects[i].evaluate_inner_outer(position);
+							}
+						}
 					}
 				}
 			}
-		}
+
+			@Override
+			public void finished() {}
+		}, "Volume Surfaces", null, 0, depth, EDIT_SLAB_DEPTH, true);
 		VariableStack vs = new VariableStack(variables);
 		Variable datVar = new Variable("data");
 		vs.addLocal(datVar);
 		Variable transVar = new Variable("trans");
 		vs.addLocal(transVar);
-		Variable eval[] = new Variable[oso.length];
-		for (int i = 0; i < oso.length; ++i)
+		Variable eval[] = new Variable[evalObjects.length];
+		for (int i = 0; i < evalObjects.length; ++i)
 		{
-			vs.addLocal(eval[i] = new Variable(oso[i].getId()));
+			vs.addLocal(eval[i] = new Variable(evalObjects[i].getId()));
 		}
 		Variable minTransVar = new Variable("tmin", minMaxTrans[0]);
 		vs.addLocal(minTransVar);
@@ -385,47 +526,61 @@ public abstract class OpticalVolumeObject extends OpticalObject{
 		vs.addLocal(minDataVar);
 		Variable maxDataVar = new Variable("dmax", minMaxDat[1]);
 		vs.addLocal(maxDataVar);
-		VolumeCalculationEnvironment vce = new VolumeCalculationEnvironment(vs, this.cubesToGlobal, width, height, depth);
+		/*registers the position variables, so the simplification keeps them*/
+		new VolumeCalculationEnvironment(vs, cubesToGlobal, width, height, depth);
 
 		Controller control = new Controller();
-		control.calculateRandom(true);
-		ImageStack is = dcm == null ? null : dcm.getImageStack();
+		final ImageStack is = dcm == null ? null : dcm.getImageStack();
 		double equalityOperationResult[] = null;
-		Variable equalityOperationResVar = null;
-		int notGivenIndices[] = new int[width * height * depth];
+		final int notGivenIndices[] = new int[width * height * depth];
 		int notGivenCount = 0;
+		double eqLimits[] = null;
 		if (givenValueOperation != null && isGivenOperation != null)
 		{
-			equalityOperationResult = new double[width * height * depth];
-			for (int z = 0, index = 0; z < depth; ++z)
-			{
-				for (int y = 0; y < height; ++y)
-				{
-					for (int x = 0; x < width; ++x, ++index)
+			final double givenValues[] = equalityOperationResult = new double[width * height * depth];
+			final ThreadPool.ThreadLocal<VolumeEditEnvironment> environments = DataHandler.runnableRunner.new ThreadLocal<>();
+			DataHandler.runnableRunner.runParallel(new ThreadPool.ParallelRangeRunnable() {
+				@Override
+				public void run(int from, int to) {
+					VolumeEditEnvironment env = environments.get();
+					if (env == null)
 					{
-                        vce.setPosition(index, x, y, z);
-						for (int i = 0; i < oso.length; ++i)
+						environments.set(env = new VolumeEditEnvironment(variables, evalObjects, minMaxTrans, minMaxDat, null, cubesToGlobal, width, height, depth, 0));
+					}
+					for (int z = from, index = from * height * width; z < to; ++z)
+					{
+						for (int y = 0; y < height; ++y)
 						{
-							eval[i].setValue(values[i][index]);
+							for (int x = 0; x < width; ++x, ++index)
+							{
+								env.setVoxel(index, x, y, z, data, translucency, values, null);
+								givenValues[index] = givenValueOperation.calculate(env.vs, env.control).doubleValue();
+								notGivenIndices[index] = isGivenOperation.calculate(env.vs, env.control).booleanValue() ? -1 : 0;
+							}
 						}
-						datVar.setValue(data[index]);
-						transVar.setValue(translucency[index]);
-
-						equalityOperationResult[index] = givenValueOperation.calculate(vs, control).doubleValue();
-						notGivenIndices[index] =  isGivenOperation.calculate(vs, control).booleanValue() ? -1 : notGivenCount++;
 					}
 				}
+
+				@Override
+				public void finished() {}
+			}, "Volume Given Values", null, 0, depth, EDIT_SLAB_DEPTH, true);
+			/*the unknowns are numbered in lattice order, as the serial pass did*/
+			for (int index = 0; index < notGivenIndices.length; ++index)
+			{
+				if (notGivenIndices[index] != -1)
+				{
+					notGivenIndices[index] = notGivenCount++;
+				}
 			}
-			Armadillo.solveDiffusionEquation(width, height, depth, equalityOperationResult, notGivenIndices, notGivenCount, Armadillo.Backend.ARMADILLO);
-			vs.add(equalityOperationResVar = new Variable("lres"));
-			double eqLimits[] = ArrayUtil.minMax(equalityOperationResult, new double[2]);
+			solveDiffusionEquation(width, height, depth, equalityOperationResult, notGivenIndices, notGivenCount);
+			vs.add(new Variable("lres"));
+			eqLimits = ArrayUtil.minMax(equalityOperationResult, new double[2]);
 			Variable minEqVar = new Variable("eqmin", eqLimits[0]);
 			vs.addLocal(minEqVar);
 			Variable maxEqVar = new Variable("eqmax", eqLimits[1]);
 			vs.addLocal(maxEqVar);
 			logger.debug(new StringBuilder().append('(').append(eqLimits[0]).append(',').append(eqLimits[1]).append(')').toString());
 		}
-		double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
 		datVar.setValue((Operation)null);
 		transVar.setValue((Operation)null);
 		for (int i = 0; i < eval.length; ++i){eval[i].setValue((Operation)null);}
@@ -434,47 +589,76 @@ public abstract class OpticalVolumeObject extends OpticalObject{
         control.connectEmptyVariables(true);
         if (operationIOR != null) {operationIOR.calculate(vs, control);}
         if (operationTranslucency != null) {operationTranslucency = operationTranslucency.calculate(vs, control);}
-        control.calculateLoop(true);
-        control.calculateRandom(true);
-        double translucencyf[] = null;
-        if (operationTranslucency != null)
+        final double translucencyf[] = operationTranslucency == null ? null : new double[depth * height * width];
+        ArrayList<String> inputNames = new ArrayList<>(Arrays.asList(VolumeCalculationEnvironment.INPUT_NAMES));
+        inputNames.addAll(Arrays.asList("data", "trans", "tmin", "tmax", "dmin", "dmax"));
+        if (equalityOperationResult != null)
         {
-            translucencyf = new double[depth * height * width];
+            inputNames.addAll(Arrays.asList("eqmin", "eqmax", "lres"));
         }
-		for (int z = 0, index = 0; z < depth; ++z)
-		{
-			for (int y = 0; y < height; ++y)
-			{
-				for (int x = 0; x < width; ++x, ++index)
+        final int evalInput = inputNames.size();
+        for (int i = 0; i < evalObjects.length; ++i)
+        {
+            inputNames.add(evalObjects[i].getId());
+        }
+        final String inputNameArray[] = inputNames.toArray(new String[inputNames.size()]);
+        final DoubleArrayFunction compiledIOR = OperationBytecodeCompiler.compile(operationIOR, inputNameArray);
+        final DoubleArrayFunction compiledTranslucency = OperationBytecodeCompiler.compile(operationTranslucency, inputNameArray);
+        final Operation ior = operationIOR, trans = operationTranslucency;
+        final double lres[] = equalityOperationResult, limits[] = eqLimits;
+		final ThreadPool.ThreadLocal<VolumeEditEnvironment> environments = DataHandler.runnableRunner.new ThreadLocal<>();
+		DataHandler.runnableRunner.runParallel(new ThreadPool.ParallelRangeRunnable() {
+			@Override
+			public void run(int from, int to) {
+				VolumeEditEnvironment env = environments.get();
+				if (env == null)
 				{
-                    vce.setPosition(index, x, y, z);
-					for (int i = 0; i < oso.length; ++i)
-					{
-                        eval[i].setValue(values[i][index]);
-					}
-					datVar.setValue(data[index]);
-					transVar.setValue(translucency[index]);
-					if (equalityOperationResult != null)
-					{
-						equalityOperationResVar.setValue(equalityOperationResult[index]);
-					}
-					if (operationIOR != null)
+					environments.set(env = new VolumeEditEnvironment(variables, evalObjects, minMaxTrans, minMaxDat, limits, cubesToGlobal, width, height, depth, inputNameArray.length));
+					env.control.calculateLoop(true);
+					env.control.connectEmptyVariables(true);
+				}
+				for (int z = from, index = from * height * width; z < to; ++z)
+				{
+					for (int y = 0; y < height; ++y)
 					{
-						double res = operationIOR.calculate(vs, control).doubleValue();
-						data[index] = (float)res;
-						if (is != null)
+						for (int x = 0; x < width; ++x, ++index)
 						{
-							is.setVoxel(x, y, z, res);
+							env.setVoxel(index, x, y, z, data, translucency, values, lres);
+							if (compiledIOR != null || compiledTranslucency != null)
+							{
+								env.setInputs(index, data, translucency, values, lres, evalInput);
+							}
+							if (ior != null)
+							{
+								double res = compiledIOR != null ? compiledIOR.eval(env.inputs) : ior.calculate(env.vs, env.control).doubleValue();
+								data[index] = (float)res;
+								if (is != null)
+								{
+									is.setVoxel(x, y, z, res);
+								}
+								env.min = Math.min(res, env.min);
+								env.max = Math.max(res, env.max);
+							}
+							if (trans != null)
+							{
+							    translucencyf[index] = compiledTranslucency != null ? compiledTranslucency.eval(env.inputs) : trans.calculate(env.vs, env.control).doubleValue();
+							}
 						}
-						min = Math.min(res, min);
-						max = Math.max(res, max);
-					}
-					if (operationTranslucency != null)
-					{
-					    translucencyf[index] = operationTranslucency.calculate(vs, control).doubleValue();
 					}
 				}
 			}
+
+			@Override
+			public void finished() {}
+		}, "Volume Values", null, 0, depth, EDIT_SLAB_DEPTH, true);
+		double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+		for (VolumeEditEnvironment env : environments)
+		{
+			if (env != null)
+			{
+				min = Math.min(env.min, min);
+				max = Math.max(env.max, max);
+			}
 		}
 		if (translucencyf != null)
 		{
@@ -486,7 +670,7 @@ public abstract class OpticalVolumeObject extends OpticalObject{
             }
 		}
 		logger.debug(new StringBuilder().append('(').append(min).append(',').append(max).append(')').append(' ').append((System.nanoTime() - time) / 1000000000f).toString());
-		ArrayUtil.minMax(vol.data, refMinMax);
+		vol.minMaxData(refMinMax);
 		vol.modified();
 	}
 
@@ -500,7 +684,19 @@ public abstract class OpticalVolumeObject extends OpticalObject{
 		stream.close();
 	}
 
+	/**
+	 * Maps files which are larger than the mapsize option or don't fit into arrays and reads all others
+	 */
 	public void readBinaryFile(String file) throws IOException
+	{
+		long length = new File(file).length();
+		readBinaryFile(file, length > ((long)mapSize << 20) || length / 8 > Integer.MAX_VALUE - 8);
+	}
+
+	/**
+	 * @param map opens the volume as memory mapped file instead of reading it, the values are loaded on access
+	 */
+	public void readBinaryFile(String file, boolean map) throws IOException
 	{
 		InputStream stream = new FileInputStream(file);
 		DataInputStream inBuf = new DataInputStream(stream);
@@ -514,7 +710,7 @@ public abstract class OpticalVolumeObject extends OpticalObject{
 		Vector3d vec = new Vector3d();
 		unitVolumeToGlobal.getColDot3(vec);
 		vec.sqrt();
-		vol = new Volume(inBuf);
+		vol = map ? Volume.map(new File(file), unitVolumeToGlobal.size() * 8L, false) : new Volume(inBuf);
 		unitVolumeToGlobal.preScale((vol.width - 1)* 0.5, (vol.height - 1) * 0.5, (vol.depth - 1) * 0.5);
         applyMatrix();
         vs = null;
@@ -529,6 +725,7 @@ public abstract class OpticalVolumeObject extends OpticalObject{
 		setSize(ip.getWidth(), ip.getHeight(), ip.getNFrames());
 		ImageStack is = ip.getImageStack();
 		readVoxels(is, vol.data, width, height, depth);
+		vol.modified();
 		dcm = null;
 	}
 
@@ -556,6 +753,7 @@ public abstract class OpticalVolumeObject extends OpticalObject{
             int width = is.getWidth(), height = is.getHeight(), depth = is.getSize();
 	        setSize(width, height, depth);
 	        readVoxels(is, vol.data, width, height, depth);
+	        vol.modified();
 	        String properties = (String)dcm.getProperty("Info");
 			StringReader reader = new StringReader(properties);
 			BufferedReader inBuf = new BufferedReader(reader);
@@ -719,6 +917,11 @@ public abstract class OpticalVolumeObject extends OpticalObject{
 	public int numInnerTrajectoryPoints = 10;
 	private static int raytraceLoglevel;
 	private static Boolean raytraceWriteInstance;
+	public static enum RaytraceEngine {AUTO, NATIVE, JAVA};
+	public static RaytraceEngine raytraceEngine = RaytraceEngine.AUTO;
+	public static VolumeRayMarcher.Integrator raytraceIntegrator = VolumeRayMarcher.Integrator.RK4;
+	/*binary volume files larger than this number of MiB are mapped instead of read*/
+	public static int mapSize = 1024;
 	private static Runnable optionRunnable = new Runnable()
 	{
 		@Override
@@ -726,6 +929,15 @@ public abstract class OpticalVolumeObject extends OpticalObject{
 			Options.OptionTreeNode raytrace = Options.getNode("raytrace");
 			raytraceLoglevel = Options.getInteger(raytrace, "loglevel");
 			raytraceWriteInstance = Options.getBoolean(raytrace, "writeinstance");
+			try
+			{
+				raytraceEngine = RaytraceEngine.valueOf(Options.getString(raytrace, "engine", "auto").toUpperCase());
+				raytraceIntegrator = VolumeRayMarcher.Integrator.valueOf(Options.getString(raytrace, "integrator", "rk4").toUpperCase());
+			}catch(IllegalArgumentException e)
+			{
+				logger.error("Unknown volume raytrace option", e);
+			}
+			mapSize = Options.getInteger(raytrace, "mapsize", 1024);
 		}
 	};
 
@@ -739,7 +951,12 @@ public abstract class OpticalVolumeObject extends OpticalObject{
 	    {
     		vertexPositions.clear();
     		faceIndices.clear();
-    		ArrayUtil.minMax(vol.data, refMinMax);
+    		vol.minMaxData(refMinMax);
+    		if (vol.isMapped())
+    		{
+    		    /*the mesh of a mapped scan would have to read the whole file*/
+    		    return;
+    		}
             Geometry.volumeToMesh(vol.data, vol.width, vol.height, vol.depth, (refMinMax[0] * 0.75 + refMinMax[1] * 0.25), faceIndices, vertexPositions);
             Geometry.volumeToMesh(vol.data, vol.width, vol.height, vol.depth, (refMinMax[0] + refMinMax[1]) * 0.5, faceIndices, vertexPositions);
             Geometry.volumeToMesh(vol.data, vol.width, vol.height, vol.depth, (refMinMax[0] * 0.25+ refMinMax[1] * 0.75), faceIndices, vertexPositions);
@@ -774,7 +991,7 @@ public abstract class OpticalVolumeObject extends OpticalObject{
         {
             return -1;
         }
-        return Interpolator.interpolatePoint(tx, ty, tz, vol.data, vol.width, vol.height, vol.depth);
+        return vol.interpolateData(tx, ty, tz);
     }
 
 
@@ -786,24 +1003,24 @@ public abstract class OpticalVolumeObject extends OpticalObject{
         {
             return -1;
         }
-        return Interpolator.interpolateUnsignedPoint(tx, ty, tz, vol.translucency, vol.width, vol.height, vol.depth);
+        return vol.interpolateTranslucency(tx, ty, tz);
     }
 
 	public float[] getVolumeColor(float color[])
 	{
 		int num_vertices = vol.width * vol.height * vol.depth;
         color = ArrayUtil.setToLength(color, num_vertices);
-		ArrayUtil.minMax(vol.data, refMinMax);
+		vol.minMaxData(refMinMax);
 		double mult = 1. / (refMinMax[1] - refMinMax[0]);
 		double add = -refMinMax[0] * mult;
 		for (int i = 0; i < num_vertices; ++i)
 		{
 			int index = i * 4;
-			float p = (float)(vol.data[i] * mult + add);
+			float p = (float)(vol.getData(i) * mult + add);
 			color[index] = p;
 			color[index + 1] = 1 - p;
 			color[index + 2] = 1;
-			color[index + 3] = (float)vol.translucency[i] / 0x7FFFFFFF;
+			color[index + 3] = (float)vol.getTranslucency(i) / 0x7FFFFFFF;
 		}
 		return color;
 	}
@@ -831,16 +1048,32 @@ public abstract class OpticalVolumeObject extends OpticalObject{
 		VolumeScene res = vs;
 		if (res == null)
 		{
+			if (vol.size > Integer.MAX_VALUE)
+			{
+				throw new IllegalStateException("Volume of " + vol.size + " voxels is too large for the native raytracer");
+			}
 			IntBuffer bounds = Buffers.createIntBuffer(3);
 			bounds.put(0, vol.depth);
 			bounds.put(1, vol.height);
 			bounds.put(2, vol.width);
-			IntBuffer translucency = Buffers.createIntBuffer(vol.translucency);
+			IntBuffer translucency;
+			if (vol.isMapped())
+			{
+				translucency = Buffers.createIntBuffer((int)vol.size);
+				for (int i = 0; i < vol.size; ++i)
+				{
+					translucency.put(i, vol.getTranslucency(i));
+				}
+			}
+			else
+			{
+				translucency = Buffers.createIntBuffer(vol.translucency);
+			}
 			//IntBuffer ior = Buffers.createIntBuffer(vol.data);
-			FloatBuffer ior = Buffers.createFloatBuffer(vol.data.length);
-			for (int i=0;i<vol.data.length;i++)
+			FloatBuffer ior = Buffers.createFloatBuffer((int)vol.size);
+			for (int i=0;i<vol.size;i++)
 			{
-				float value = vol.data[i];
+				float value = vol.getData(i);
 				if (!(value > 0)){throw new RuntimeException("Refractive-index underflow:" + value + "<=" + 0);}
 	            ior.put(i,value * 0x100);
 			}
@@ -866,9 +1099,35 @@ public abstract class OpticalVolumeObject extends OpticalObject{
         //options.setMinimumGpu(0);
     }
 
+	private static final boolean useNativeRaytrace()
+	{
+		return raytraceEngine == RaytraceEngine.NATIVE || (raytraceEngine == RaytraceEngine.AUTO && native_raytrace);
+	}
+
+	private void traceRays(IntBuffer startPosition, FloatBuffer startDirection, IntBuffer endIteration, IntBuffer path)
+	{
+		/*the native scene is uploaded from buffers with int indices*/
+		if (useNativeRaytrace() && vol.size <= Integer.MAX_VALUE)
+		{
+			VolumeScene vs = getVolumeScene();
+			initOptions();
+			vs.traceRays(startPosition, startDirection, endIteration, scale, 0, maxSteps, path, options);
+		}
+		else
+		{
+			VolumeBricks current = bricks;
+			if (current == null || current.vol != vol || !current.isUpToDate())
+			{
+				bricks = current = new VolumeBricks(vol);
+			}
+			VolumeRayMarcher marcher = new VolumeRayMarcher(vol, current, spacing.x * 2, spacing.y * 2, spacing.z * 2, raytraceIntegrator);
+			marcher.traceRays(startPosition, startDirection, endIteration, 0, maxSteps, path);
+		}
+	}
+
 	public void calculateRays(Object position, Object direction, int directionBegin, int directionEnd, OpticalObject object[], int objectBegin, Object path, int iteration[])
 	{
-		if (!native_raytrace){return;}
+		if (useNativeRaytrace() && !native_raytrace){return;}
 		int count = ArrayUtil.count(object, objectBegin, objectBegin + (directionEnd - directionBegin) / 3, this);
 		try {
 			IntBuffer startPosition = Buffers.createIntBuffer(count * 3);
@@ -892,10 +1151,8 @@ public abstract class OpticalVolumeObject extends OpticalObject{
 					writeIndex += 3;
 				}
 			}
-			VolumeScene vs = getVolumeScene();
-			initOptions();
        		IntBuffer pathBuffer = path != null ? Buffers.createIntBuffer(maxSteps * 3 * count) : null;
-			vs.traceRays(startPosition, startDirection, endIteration, scale, 0, maxSteps, pathBuffer, options);
+			traceRays(startPosition, startDirection, endIteration, pathBuffer);
 			for (int i = directionBegin, readIndex = 0, j = 0; i < directionEnd; i += 3, ++j)
 			{
 				if (object[j] == this)
@@ -925,7 +1182,7 @@ public abstract class OpticalVolumeObject extends OpticalObject{
 
 	public void calculateRays(float position[], float direction[], int iteration[], int fromIndex, int toIndex)
 	{
-		if (!native_raytrace){return;}
+		if (useNativeRaytrace() && !native_raytrace){return;}
         int count = (toIndex - fromIndex) / 3;
         try {
 			IntBuffer startPosition = Buffers.createIntBuffer(count * 3);
@@ -944,10 +1201,7 @@ public abstract class OpticalVolumeObject extends OpticalObject{
 				startPosition.put(writeIndex + 1, clip((int)tmp.y, 0x10000, maxY));
 				startPosition.put(writeIndex + 2, clip((int)tmp.x, 0x10000, maxX));
 			}
-			VolumeScene vs = getVolumeScene();
-			initOptions();
-			IntBuffer path = null;
-			vs.traceRays(startPosition, startDirection, endIteration, scale, 0, maxSteps, path, options);
+			traceRays(startPosition, startDirection, endIteration, null);
 			for (int i = fromIndex, readIndex = 0; i < toIndex; i += 3, readIndex += 3)
 			{
 				Buffers.getRev(startDirection, tmp, readIndex);
@@ -1005,6 +1259,7 @@ public abstract class OpticalVolumeObject extends OpticalObject{
 	@Override
 	public Intersection getIntersection(Vector3d position, Vector3d direction, Intersection intersection, double lowerBound, double upperBound)
 	{
+		if (RaytraceMetrics.ENABLED)	{RaytraceMetrics.intersectionTests(RaytraceMetrics.TYPE_VOLUME, 1);}
 		double x = this.midpoint.x - position.x, y = this.midpoint.y - position.y, z = this.midpoint.z - position.z;
 		int mindir = -1;
 		for (int i = 0; i < 3; ++i)
@@ -1046,6 +1301,25 @@ public abstract class OpticalVolumeObject extends OpticalObject{
 		return intersection;
 	}
 
+	@Override
+	public boolean getBounds(double bounds[], int offset)
+	{
+		for (int i = 0; i < 3; ++i)
+		{
+			bounds[offset + i] = Double.POSITIVE_INFINITY;
+			bounds[offset + i + 3] = Double.NEGATIVE_INFINITY;
+		}
+		for (int i = 0; i < 8; ++i)
+		{
+			double x = (i & 1) * 2 - 1, y = ((i >> 1) & 1) * 2 - 1, z = ((i >> 2) & 1) * 2 - 1;
+			double gx = unitVolumeToGlobal.rdotAffineX(x, y, z), gy = unitVolumeToGlobal.rdotAffineY(x, y, z), gz = unitVolumeToGlobal.rdotAffineZ(x, y, z);
+			bounds[offset]     = Math.min(bounds[offset],     gx); bounds[offset + 3] = Math.max(bounds[offset + 3], gx);
+			bounds[offset + 1] = Math.min(bounds[offset + 1], gy); bounds[offset + 4] = Math.max(bounds[offset + 4], gy);
+			bounds[offset + 2] = Math.min(bounds[offset + 2], gz); bounds[offset + 5] = Math.max(bounds[offset + 5], gz);
+		}
+		return true;
+	}
+
 	public void setVolume(Volume vol)
 	{
 		this.vol = vol;
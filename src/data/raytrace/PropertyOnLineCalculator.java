@@ -15,7 +15,6 @@ import geometry.Geometry;
 import geometry.Geometry.NearestPointCalculator;
 import geometry.Vector3d;
 import io.Drawer;
-import jcomponents.raytrace.RaySimulationData;
 import maths.Controller;
 import maths.Operation.CalculationController;
 import maths.data.ArrayOperation;
@@ -47,9 +46,9 @@ public class PropertyOnLineCalculator {
 		ArrayList<OpticalObject> objects = new ArrayList<>();
 		DoubleArrayList rayObjectIntersectionDistances = new DoubleArrayList();
 		DoubleArrayList focusIntersectionDistances = new DoubleArrayList();
-		OpticalObject nextSurfaces[] = scene.copyActiveSurfaces();
-		OpticalObject nextVolumes[] = scene.getActiveVolumes();
-		OpticalObject nextMeshes[] = scene.getActiveMeshes();
+		final TraceSnapshot snapshot = scene.updateScene();
+		BoundingVolumeHierarchy nextHierarchy = snapshot.hierarchy;
+		OpticalObject next[] = nextHierarchy != null ? nextHierarchy.source : snapshot.objects;
 
         RaytraceScene.RaySimulationObject ray = new RaytraceScene.RaySimulationObject();
         Intersection intersection = ray.nearest;
@@ -91,9 +90,9 @@ public class PropertyOnLineCalculator {
                                 direction,
                                 intersection,
                                 lastDist + 1e-10,
-                                nextSurfaces,
-                                nextVolumes,
-                                nextMeshes);
+                                next,
+                                nextHierarchy,
+                                ray.hierarchyStack);
                         if (intersection.object instanceof SurfaceObject)
                         {
                             refracted_direction.set(direction);
@@ -113,9 +112,9 @@ public class PropertyOnLineCalculator {
 								direction,
 								intersection,
 								lastDist + 1e-10,
-								nextSurfaces,
-								nextVolumes,
-								nextMeshes);
+								next,
+								nextHierarchy,
+								ray.hierarchyStack);
 					rayObjectIntersectionDistances.add(intersection.distance);
 					OpticalObject object = intersection.object;
 					if (object == null || objects.size() > 100)
@@ -124,9 +123,9 @@ public class PropertyOnLineCalculator {
 					}
 					objects.add(object);
 
-					nextSurfaces = object.surfaceSuccessor;
-					nextVolumes = object.volumeSuccessor;
-					nextMeshes = object.meshSuccessor;
+					TraceSnapshot.Links links = snapshot.getLinks(object);
+					next = links.successor;
+					nextHierarchy = links.successorHierarchy;
 					npc.reset();
 				}
 				CalculationController control = new Controller();
@@ -203,6 +202,7 @@ public class PropertyOnLineCalculator {
                     gen.setSource(oso.get(i));
                     double[] trajectory = new double[num_rays * (maxBounces + 2) * 3];
                     Arrays.fill(trajectory, Double.NaN);
+                    rso.pass = i;
                     scene.calculateRays(0, num_rays, num_rays, gen, 0, 0, null, null, rsd.endpoints, rsd.enddirs, rsd.endcolor, trajectory , rsd.accepted, rsd.bounces, rsd.lastObject, maxBounces, false, rso, RaytraceScene.UNACCEPTED_MARK);
                     double distances[] = ArrayUtil.fillEquidistant(rangeBegin, rangeEnd, new double[num_evaluations]);
                     final NearestPointCalculator npc = new NearestPointCalculator(3);
@@ -293,6 +293,7 @@ public class PropertyOnLineCalculator {
 				{
 					gen.threeDimensional = true;
 					gen.setSource(oso.get(i));
+					rso.pass = i;
 					scene.calculateRays(0, num_rays, num_rays, gen, 0, 0, null, null, rsd.endpoints, rsd.enddirs, rsd.endcolor, null, rsd.accepted, rsd.bounces, rsd.lastObject, 10, false, rso, RaytraceScene.UNACCEPTED_MARK);
 
 					double distances[] = ArrayUtil.fillEquidistant(rangeBegin, rangeEnd, new double[num_evaluations]);
@@ -0,0 +1,87 @@
+package data.raytrace;
+
+import geometry.Vector3d;
+
+/**
+ * Packet of rays stored as structure of arrays, used by {@link RaytraceScene#calculateRays(RayBatch, int, RaytraceScene.RaySimulationObject)}
+ * and {@link OpticalObject#getIntersections(RayBatch, int[], int, double, int)}.
+ */
+public class RayBatch {
+	public final int capacity;
+	public int size;
+	/*global index of the first ray, the random numbers of ray i are selected by rayOffset + i and the pass of the RaySimulationObject*/
+	public long rayOffset;
+	public final double ox[], oy[], oz[];
+	public final double dx[], dy[], dz[];
+	/*distance to the nearest intersection found so far*/
+	public final double tMax[];
+	/*index of the nearest object in the successor array of the ray, -1 if none was hit*/
+	public final int objectIndex[];
+	/*nearest intersection found so far, valid if objectIndex is not negative*/
+	public final Intersection hit[];
+	/*one of the RaytraceScene.STATUS_ values*/
+	public final byte status[];
+	public final int bounces[];
+	public final float color[];
+	public final OpticalObject lastObject[];
+	final OpticalObject successor[][];
+	final int indices[];
+	final Vector3d position = new Vector3d();
+	final Vector3d direction = new Vector3d();
+	/*scratch intersection of the scalar fallbacks, swapped with hit on success*/
+	Intersection intersection = new Intersection();
+
+	public RayBatch(int capacity)
+	{
+		this.capacity = capacity;
+		ox = new double[capacity];
+		oy = new double[capacity];
+		oz = new double[capacity];
+		dx = new double[capacity];
+		dy = new double[capacity];
+		dz = new double[capacity];
+		tMax = new double[capacity];
+		objectIndex = new int[capacity];
+		status = new byte[capacity];
+		bounces = new int[capacity];
+		color = new float[capacity * 4];
+		lastObject = new OpticalObject[capacity];
+		successor = new OpticalObject[capacity][];
+		indices = new int[capacity];
+		hit = new Intersection[capacity];
+		for (int i = 0; i < capacity; ++i)
+		{
+			hit[i] = new Intersection();
+		}
+	}
+
+	public final void setRay(int index, Vector3d position, Vector3d direction)
+	{
+		ox[index] = position.x;
+		oy[index] = position.y;
+		oz[index] = position.z;
+		dx[index] = direction.x;
+		dy[index] = direction.y;
+		dz[index] = direction.z;
+	}
+
+	public final void getPosition(int index, Vector3d position)
+	{
+		position.set(ox[index], oy[index], oz[index]);
+	}
+
+	public final void getDirection(int index, Vector3d direction)
+	{
+		direction.set(dx[index], dy[index], dz[index]);
+	}
+
+	/**
+	 * Keeps the scratch intersection as the nearest hit of the ray and takes the previous hit as new scratch
+	 */
+	final Intersection swapHit(int index)
+	{
+		final Intersection tmp = hit[index];
+		hit[index] = intersection;
+		return intersection = tmp;
+	}
+}
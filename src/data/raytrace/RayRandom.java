@@ -0,0 +1,77 @@
+package data.raytrace;
+
+/**
+ * Counter based random numbers. The stream only depends on the seed, the pass, the index of the ray, the attempt, the wavelength and the bounce,
+ * so results don't depend on the number of threads or on how the rays are split into blocks.
+ */
+public final class RayRandom {
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+	private long passKey;
+	private long rayKey;
+	private long key;
+	private long state;
+
+	private static final long mix(long z)
+	{
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Starts the stream of the first pass used for the generation of the ray
+	 */
+	public final void setRay(long seed, long ray, int attempt)
+	{
+		setRay(seed, 0, ray, attempt);
+	}
+
+	/**
+	 * Starts the stream used for the generation of the ray. The pass is mixed on its own, so neighbouring seeds and passes give unrelated streams.
+	 */
+	public final void setRay(long seed, int pass, long ray, int attempt)
+	{
+		passKey = mix(mix(seed) ^ mix((pass + 1) * GOLDEN_GAMMA));
+		rayKey = key = mix(passKey + ray * GOLDEN_GAMMA) + attempt;
+		state = mix(key);
+	}
+
+	/**
+	 * Starts the stream of one wavelength of a ray which was split by dispersion, the following bounces depend on the wavelength
+	 */
+	public final void setWavelength(int wavelength)
+	{
+		key = mix(rayKey ^ mix((wavelength + 1) * GOLDEN_GAMMA));
+		state = mix(key);
+	}
+
+	public final void setBounce(int bounce)
+	{
+		state = mix(key + (bounce + 1) * GOLDEN_GAMMA);
+	}
+
+	/**
+	 * @return uniformly distributed value in [0,1) which only depends on the seed and the index
+	 */
+	public static final double uniform(long seed, long index)
+	{
+		return (mix(mix(seed) + (index + 1) * GOLDEN_GAMMA) >>> 11) * 0x1.0p-53;
+	}
+
+	/**
+	 * @return uniformly distributed value in [0,1) which only depends on the seed and the pass of the current ray and the dimension, so it is shared by all rays of a pass
+	 */
+	public final double passUniform(int dimension)
+	{
+		return uniform(passKey, dimension);
+	}
+
+	/**
+	 * @return uniformly distributed value in [0,1)
+	 */
+	public final double nextDouble()
+	{
+		state += GOLDEN_GAMMA;
+		return (mix(state) >>> 11) * 0x1.0p-53;
+	}
+}
@@ -0,0 +1,15 @@
+package data.raytrace;
+
+import java.io.Closeable;
+
+/**
+ * Receives the results of a tracing run block by block, so a run doesn't need arrays for all of its rays.
+ */
+public interface RayResultSink extends Closeable {
+	/**
+	 * Receives the rays [begin, begin + count) of the run. Blocks of different threads may arrive concurrently and in any order.
+	 * The i-th ray of the block is at index i of data, its endpoints, directions, colors and last objects at 2 * i and 2 * i + 1 if data is bidirectional.
+	 * The arrays of data are reused after this call returns.
+	 */
+	public void write(long begin, int count, RaySimulationData data);
+}
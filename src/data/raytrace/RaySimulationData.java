@@ -1,6 +1,6 @@
-package jcomponents.raytrace;
+package data.raytrace;
 
-import data.raytrace.OpticalObject;
+import java.util.Arrays;
 
 public class RaySimulationData
 {
@@ -10,14 +10,19 @@ public class RaySimulationData
 	public final int bounces[];
 	public final float endcolor[];
 	public OpticalObject lastObject[];
+	/*roulette weight of every entry, which already scales endcolor, counts of rays have to be scaled the same way*/
+	public final float weight[];
+	public final boolean bidirectional;
 	
 	public RaySimulationData(int numRays, boolean bidir) {
 		endpoints = new float[numRays * (bidir ? 6 : 3)];
 		enddirs = new float[numRays * (bidir ? 6 : 3)];
 		accepted = new byte[numRays];
 		bounces = new int[numRays];
-		endcolor = new float[numRays * 4];
+		endcolor = new float[numRays * (bidir ? 8 : 4)];
 		lastObject = new OpticalObject[numRays * (bidir ? 2 : 1)];
+		weight = new float[numRays * (bidir ? 2 : 1)];
+		Arrays.fill(weight, 1);
+		bidirectional = bidir;
 	}
 }
-
@@ -1,5 +1,6 @@
 package data.raytrace;
 
+import java.awt.GraphicsEnvironment;
 import java.awt.image.BufferedImage;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -11,6 +12,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -34,7 +38,6 @@ import geometry.Vector2d;
 import geometry.Vector3d;
 import io.Drawer.SvgDrawer;
 import io.raytrace.SceneIO;
-import jcomponents.raytrace.RaySimulationData;
 import jcomponents.raytrace.RaySimulationGui;
 import jcomponents.raytrace.TextureView;
 import logging.LockbackUtil;
@@ -60,10 +63,37 @@ public class RaytraceCommandLine {
 	ArrayList<String> split = new ArrayList<>();
 	ParseUtil parser = new ParseUtil();
 	CalculationController control = new Controller();
+	/*scenes loaded without a gui, which would otherwise only be weakly referenced. Entries are replaced by reloading, removed by unload and cleared at the end of the session*/
+	private static final ArrayList<RaytraceScene> headlessScenes = new ArrayList<>();
 	public static enum InterpreterState{
 		TRUE_IF, FALSE_IF;
 	}
 
+	private static final boolean removeHeadlessScene(String id)
+	{
+		boolean removed = false;
+		for (int i = headlessScenes.size() - 1; i >= 0; --i)
+		{
+			if (headlessScenes.get(i).getId().equals(id))
+			{
+				headlessScenes.remove(i);
+				removed = true;
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * Releases the scenes loaded without a gui, called when the headless session ends
+	 */
+	public static void clearHeadlessScenes()
+	{
+		synchronized(headlessScenes)
+		{
+			headlessScenes.clear();
+		}
+	}
+
 	public static class ExecEnv
 	{
 		public final File scriptDir;
@@ -86,6 +116,12 @@ public class RaytraceCommandLine {
 		}
 	}
 
+	private static void writeHeadlessError(BufferedWriter out) throws IOException
+	{
+		out.write("Not available in headless mode");
+		out.flush();
+	}
+
 	private void exec_impl(
 			String command,
 			ExecEnv env,
@@ -162,7 +198,7 @@ public class RaytraceCommandLine {
 			{
 				case "help":
 				{
-					out.write("load\nmodify\nstp");
+					out.write("load\nunload\nmodify\nstp\nstats\ntrace\nspectral\nworker\ndistribute");
 					break;
 				}
 				case "opt":
@@ -203,6 +239,26 @@ public class RaytraceCommandLine {
 				}
 				case "load":
 				{
+					if (GraphicsEnvironment.isHeadless())
+					{
+						RaytraceScene scene = new RaytraceScene(split.get(1));
+						FileInputStream fis = new FileInputStream(split.get(2));
+						try {
+							SceneIO.loadScene(fis, scene, null);
+							synchronized(headlessScenes)
+							{
+								removeHeadlessScene(scene.getId());
+								headlessScenes.add(scene);
+							}
+						} catch (JDOMException e) {
+							out.write(e.toString());
+						}
+						finally
+						{
+							fis.close();
+						}
+						break;
+					}
 					final RaySimulationGui gui = new RaySimulationGui(new RaytraceScene(split.get(1)));
 					FileInputStream fis = new FileInputStream(split.get(2));
 					try {
@@ -223,6 +279,19 @@ public class RaytraceCommandLine {
 					});
 					break;
 				}
+				case "unload":
+				{
+					boolean removed;
+					synchronized(headlessScenes)
+					{
+						removed = removeHeadlessScene(split.get(1));
+					}
+					if (!removed)
+					{
+						out.write("Error, no headless scene " + split.get(1));
+					}
+					break;
+				}
 				case "save":
 				{
 					RaytraceScene scene = RaytraceScene.getScene(split.get(1));
@@ -381,11 +450,16 @@ public class RaytraceCommandLine {
 					{
 						Options.set(split.get(1), split.get(2));
 					}
+					break;
 				}
 				case "window":
 				{
 					final RaytraceScene scene = RaytraceScene.getScene(split.get(1));
-					if (scene == null)
+					if (GraphicsEnvironment.isHeadless())
+					{
+						writeHeadlessError(out);
+					}
+					else if (scene == null)
 					{
 						out.write(new NullPointerException("Scene not found").toString());
 						out.flush();
@@ -557,10 +631,13 @@ public class RaytraceCommandLine {
 					final Vector3d vec = new Vector3d();
 
 					double result = Calculate.binarySearch(Double.parseDouble(split.get(5)), Double.parseDouble(split.get(6)), 0, 0.0001, new DoubleFunctionDouble() {
+						private int evaluation = 0;
+
 						@Override
 						public double apply(double value) {
 							v.setValue(value);
 							scene.blockOnPipelineCalculations();
+							rayObject.pass = evaluation++;
 							scene.calculateRays(0, numRays, numRays, gen, 0, 0, null, null, endpos, enddir, endpointColors, null, accepted, bounces, endObject, maxBounces, source.bidirectional, rayObject, RaytraceScene.UNACCEPTED_MARK);
 							for (int j = 0; j < numRays; ++j)
 							{
@@ -628,7 +705,11 @@ public class RaytraceCommandLine {
 				case "screenshot":
 				{
 					final RaytraceScene scene = RaytraceScene.getScene(split.get(1));
-					if (scene == null)
+					if (GraphicsEnvironment.isHeadless())
+					{
+						writeHeadlessError(out);
+					}
+					else if (scene == null)
 					{
 						out.write(new NullPointerException("Scene not found").toString());
 						out.flush();
@@ -778,6 +859,11 @@ public class RaytraceCommandLine {
 								}
 								case "show":
 								{
+									if (GraphicsEnvironment.isHeadless())
+									{
+										writeHeadlessError(out);
+										break;
+									}
 									TextureView tv = new TextureView(spp.getImg());
 									tv.setVisible(true);
 									break;
@@ -800,6 +886,166 @@ public class RaytraceCommandLine {
 					}
 					break;
 				}
+				case "stats":
+				{
+					if (split.size() > 1 && split.get(1).equals("reset"))
+					{
+						RaytraceMetrics.INSTANCE.reset();
+					}
+					else
+					{
+						out.write(RaytraceMetrics.INSTANCE.fillWithSummary(new StringBuilder()).toString());
+						out.flush();
+					}
+					break;
+				}
+				case "trace":
+				{
+					if (split.size() < 5 || split.get(1).equals("--help"))
+					{
+						out.write("<scene> <source> <num_rays> <output_file|stats> [max_bounces]");
+						out.flush();
+						break;
+					}
+					final RaytraceScene scene = RaytraceScene.getScene(split.get(1));
+					if (scene == null)
+					{
+						out.write(new NullPointerException("Scene " + split.get(1) + " not found").toString());
+						out.flush();
+						break;
+					}
+					final OpticalSurfaceObject source = scene.getSurfaceObject(split.get(2));
+					if (source == null)
+					{
+						out.write(new NullPointerException("Object " + split.get(2) + " not found").toString());
+						out.flush();
+						break;
+					}
+					final int numRays = Integer.parseInt(split.get(3));
+					final int maxBounces = split.size() > 5 ? Integer.parseInt(split.get(5)) : 20;
+					final RayGenerator gen = new RayGenerator();
+					gen.setSource(source);
+					RayResultSink sink = split.get(4).equals("stats") ? new StatisticsRayResultSink() : new MappedRayResultSink(new File(split.get(4)), numRays, source.bidirectional);
+					try
+					{
+						scene.calculateRays(gen, numRays, 10000, maxBounces, source.bidirectional, RaytraceScene.UNACCEPTED_MARK, sink);
+					}
+					finally
+					{
+						sink.close();
+					}
+					if (sink instanceof StatisticsRayResultSink)
+					{
+						out.write(((StatisticsRayResultSink)sink).fillWithSummary(new StringBuilder()).toString());
+					}
+					else
+					{
+						out.write("Wrote " + numRays + " rays to " + split.get(4));
+					}
+					out.flush();
+					break;
+				}
+				case "spectral":
+				{
+					if (split.size() < 9 || split.get(1).equals("--help"))
+					{
+						out.write("<scene> <source> <num_rays> <object> <width> <height> <wavelength,...> <output> [max_bounces]");
+						out.flush();
+						break;
+					}
+					final RaytraceScene scene = RaytraceScene.getScene(split.get(1));
+					if (scene == null)
+					{
+						out.write(new NullPointerException("Scene " + split.get(1) + " not found").toString());
+						out.flush();
+						break;
+					}
+					final RayGenerator gen = new RayGenerator();
+					gen.setSource(scene.getSurfaceObject(split.get(2)));
+					final int numRays = Integer.parseInt(split.get(3));
+					String wavelengthStr[] = split.get(7).split(",");
+					double wavelengths[] = new double[wavelengthStr.length];
+					for (int i = 0; i < wavelengths.length; ++i)
+					{
+						wavelengths[i] = Double.parseDouble(wavelengthStr[i]);
+					}
+					final int maxBounces = split.size() > 9 ? Integer.parseInt(split.get(9)) : 20;
+					SpectralTextureRayResultSink sink = new SpectralTextureRayResultSink(scene.getSurfaceObject(split.get(4)), Integer.parseInt(split.get(5)), Integer.parseInt(split.get(6)), wavelengths.length);
+					scene.calculateSpectralRays(gen, numRays, 10000, wavelengths, maxBounces, sink);
+					/*one image per wavelength, the wavelength is inserted in front of the file extension*/
+					String filename = split.get(8);
+					int dot = filename.lastIndexOf('.');
+					for (int i = 0; i < wavelengths.length; ++i)
+					{
+						String channelFile = filename.substring(0, dot) + '_' + wavelengthStr[i] + filename.substring(dot);
+						ImageIO.write(sink.getImage(i), filename.substring(dot + 1), new File(channelFile));
+						out.write("Wrote " + channelFile);
+						out.newLine();
+					}
+					out.flush();
+					break;
+				}
+				case "worker":
+				{
+					if (split.size() < 2 || split.get(1).equals("--help"))
+					{
+						out.write("<port> [bind_address]");
+						out.flush();
+						break;
+					}
+					/*only local coordinators can connect unless an address is given*/
+					InetAddress bindAddress = split.size() > 2 ? InetAddress.getByName(split.get(2)) : InetAddress.getLoopbackAddress();
+					RaytraceWorker worker = new RaytraceWorker(new ServerSocket(Integer.parseInt(split.get(1)), 50, bindAddress));
+					out.write("worker port " + worker.getPort());
+					out.newLine();
+					out.flush();
+					worker.run();
+					break;
+				}
+				case "distribute":
+				{
+					boolean texture = split.size() > 5 && split.get(5).equals("texture");
+					if (split.size() < (texture ? 10 : 6) || split.get(1).equals("--help") || !(texture || split.get(5).equals("stats")))
+					{
+						out.write("<scene> <source> <num_rays> <host:port,...> stats|texture <object> <width> <height> <output>");
+						out.flush();
+						break;
+					}
+					final RaytraceScene scene = RaytraceScene.getScene(split.get(1));
+					if (scene == null)
+					{
+						out.write(new NullPointerException("Scene " + split.get(1) + " not found").toString());
+						out.flush();
+						break;
+					}
+					DistributedTraceJob job = new DistributedTraceJob(scene, split.get(2), Integer.parseInt(split.get(3)));
+					ArrayList<InetSocketAddress> workers = new ArrayList<>();
+					for (String address : split.get(4).split(","))
+					{
+						int colon = address.lastIndexOf(':');
+						workers.add(new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1))));
+					}
+					if (texture)
+					{
+						job.resultType = DistributedTraceJob.RESULT_TEXTURE;
+						job.objectId = split.get(6);
+						job.width = Integer.parseInt(split.get(7));
+						job.height = Integer.parseInt(split.get(8));
+					}
+					MergeableRayResultSink result = job.createSink(scene);
+					RaytraceCoordinator.run(job, workers, result);
+					if (result instanceof TextureRayResultSink)
+					{
+						String filename = split.get(9);
+						ImageIO.write(((TextureRayResultSink)result).getImage(), filename.substring(filename.lastIndexOf('.') + 1), new File(filename));
+					}
+					else
+					{
+						out.write(((StatisticsRayResultSink)result).fillWithSummary(new StringBuilder()).toString());
+					}
+					out.flush();
+					break;
+				}
 				case "exit":System.exit(0);break;
 				case "":	break;
 				default:	logger.error("Unknown command" + split.get(0));
@@ -0,0 +1,242 @@
+package data.raytrace;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import data.DataHandler;
+import util.ThreadPool;
+
+/**
+ * Distributes the ranges of a DistributedTraceJob to RaytraceWorkers. Every worker gets as many ranges at once as it has threads,
+ * the ranges of a failing worker are handed to the remaining ones. Results are merged in the order of the ranges.
+ */
+public class RaytraceCoordinator {
+	private static final Logger logger = LoggerFactory.getLogger(RaytraceCoordinator.class);
+	private static final int CONNECT_TIMEOUT = 10000;
+	private final DistributedTraceJob job;
+	private final MergeableRayResultSink result;
+	private final ArrayDeque<Integer> pending = new ArrayDeque<>();
+	/*ranges which are sent to a worker and not answered yet*/
+	private int busy = 0;
+	private final byte rangeResults[][];
+	private int nextMerge = 0;
+	private IOException mergeException;
+
+	private RaytraceCoordinator(DistributedTraceJob job, MergeableRayResultSink result)
+	{
+		this.job = job;
+		this.result = result;
+		int rangeCount = job.getRangeCount();
+		rangeResults = new byte[rangeCount][];
+		for (int i = 0; i < rangeCount; ++i)
+		{
+			pending.add(i);
+		}
+	}
+
+	/**
+	 * @param idle if true waits until a range is available or all ranges are answered
+	 * @return the next range or null
+	 */
+	private synchronized Integer nextRange(boolean idle) throws InterruptedException
+	{
+		while (idle && pending.isEmpty() && busy != 0)
+		{
+			wait();
+		}
+		Integer range = pending.poll();
+		if (range != null)
+		{
+			++busy;
+		}
+		return range;
+	}
+
+	private synchronized void returnRanges(ArrayDeque<Integer> ranges)
+	{
+		pending.addAll(ranges);
+		busy -= ranges.size();
+		notifyAll();
+	}
+
+	private synchronized void rangeAnswered(int range, byte content[])
+	{
+		--busy;
+		finishRange(range, content);
+	}
+
+	private synchronized void finishRange(int range, byte content[])
+	{
+		rangeResults[range] = content;
+		for (; nextMerge < rangeResults.length && rangeResults[nextMerge] != null && mergeException == null; ++nextMerge)
+		{
+			try
+			{
+				result.addContent(new DataInputStream(new ByteArrayInputStream(rangeResults[nextMerge])));
+			}
+			catch (IOException e)
+			{
+				mergeException = e;
+			}
+			rangeResults[nextMerge] = null;
+		}
+		notifyAll();
+	}
+
+	private final void serve(InetSocketAddress address)
+	{
+		ArrayDeque<Integer> outstanding = new ArrayDeque<>();
+		try (Socket socket = new Socket())
+		{
+			socket.connect(address, CONNECT_TIMEOUT);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			job.write(out);
+			out.flush();
+			int parallelism = in.readInt();
+			while (true)
+			{
+				Integer range;
+				while (outstanding.size() < parallelism && (range = nextRange(outstanding.isEmpty())) != null)
+				{
+					out.writeInt(range);
+					outstanding.add(range);
+				}
+				out.flush();
+				if (outstanding.isEmpty())
+				{
+					break;
+				}
+				int answered = in.readInt();
+				int length = in.readInt();
+				if (length < 0)
+				{
+					throw new IOException("Worker " + address + " failed: " + in.readUTF());
+				}
+				if (length > DistributedTraceJob.MAX_RESULT_LENGTH)
+				{
+					throw new IOException("Worker " + address + " sent " + length + " bytes");
+				}
+				byte content[] = new byte[length];
+				in.readFully(content);
+				outstanding.remove(answered);
+				rangeAnswered(answered, content);
+			}
+			out.writeInt(-1);
+			out.flush();
+		}
+		catch (IOException | InterruptedException e)
+		{
+			logger.error("Lost worker " + address, e);
+		}
+		finally
+		{
+			returnRanges(outstanding);
+		}
+	}
+
+	private synchronized void checkFinished() throws IOException
+	{
+		if (mergeException != null)
+		{
+			throw mergeException;
+		}
+		if (nextMerge != rangeResults.length)
+		{
+			throw new IOException((rangeResults.length - nextMerge) + " ranges couldn't be traced");
+		}
+	}
+
+	/**
+	 * Traces the job on the given workers and adds the results to the sink. Blocks until all ranges are merged.
+	 */
+	public static void run(DistributedTraceJob job, List<InetSocketAddress> workers, MergeableRayResultSink result) throws IOException
+	{
+		final RaytraceCoordinator coordinator = new RaytraceCoordinator(job, result);
+		ArrayList<Thread> threads = new ArrayList<>();
+		for (final InetSocketAddress address : workers)
+		{
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					coordinator.serve(address);
+				}
+			}, "Raytrace Coordinator " + address);
+			thread.start();
+			threads.add(thread);
+		}
+		try
+		{
+			for (Thread thread : threads)
+			{
+				thread.join();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			throw new IOException("Interrupted", e);
+		}
+		coordinator.checkFinished();
+	}
+
+	/**
+	 * Traces the job in this vm the same way the workers do, so the result is identical to a distributed run.
+	 */
+	public static void runLocal(final DistributedTraceJob job, final RaytraceScene scene, MergeableRayResultSink result) throws IOException
+	{
+		final RaytraceCoordinator coordinator = new RaytraceCoordinator(job, result);
+		final TraceSnapshot snapshot = scene.updateScene();
+		final MergeableRayResultSink template = job.createSink(scene);
+		final ThreadPool.ThreadLocal<DistributedTraceJob.RangeTracer> tracers = DataHandler.runnableRunner.new ThreadLocal<>();
+		DataHandler.runnableRunner.runParallel(new ThreadPool.ParallelRangeRunnable() {
+			@Override
+			public void run(int from, int to) {
+				DistributedTraceJob.RangeTracer tracer = tracers.get();
+				if (tracer == null)
+				{
+					tracers.set(tracer = job.new RangeTracer(scene, snapshot));
+				}
+				for (int range = from; range < to; ++range)
+				{
+					coordinator.finishRange(range, traceRange(tracer, range, template));
+				}
+			}
+
+			@Override
+			public void finished() {}
+		}, "Trace Ranges", null, 0, job.getRangeCount(), 1, true);
+		coordinator.checkFinished();
+	}
+
+	/**
+	 * @return the serialized content of the range
+	 */
+	static byte[] traceRange(DistributedTraceJob.RangeTracer tracer, int range, MergeableRayResultSink template)
+	{
+		MergeableRayResultSink sink = template.createEmpty();
+		tracer.traceRange(range, sink);
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		try
+		{
+			sink.writeContent(new DataOutputStream(bout));
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException(e);
+		}
+		return bout.toByteArray();
+	}
+}
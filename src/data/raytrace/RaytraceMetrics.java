@@ -0,0 +1,218 @@
+package data.raytrace;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import data.DataHandler;
+import util.ThreadPool;
+
+/**
+ * Counters of the raytracing hot path. Every counter is a LongAdder, so threads increment their own cell and the cells are only summed up when read.
+ * The counters are only touched if the system property raytrace.metrics is set. Call sites check ENABLED first, as ENABLED is static final the JIT drops the disabled branches.
+ */
+public final class RaytraceMetrics implements RaytraceMetricsMBean, ThreadPool.JobListener {
+	private static final Logger logger = LoggerFactory.getLogger(RaytraceMetrics.class);
+	public static final boolean ENABLED = Boolean.getBoolean("raytrace.metrics");
+	public static final int TYPE_SURFACE = 0, TYPE_MESH = 1, TYPE_VOLUME = 2, NUM_TYPES = 3;
+	private static final String TYPE_NAMES[] = {"surface", "mesh", "volume"};
+	/*the last bin counts all rays with more bounces*/
+	public static final int HISTOGRAM_SIZE = 64;
+	public static final RaytraceMetrics INSTANCE = new RaytraceMetrics();
+
+	private final LongAdder raysGenerated = new LongAdder();
+	private final LongAdder intersectionTests[] = createAdders(NUM_TYPES);
+	private final LongAdder status[] = createAdders(RaytraceScene.STATUS_COUNT);
+	private final LongAdder bounceHistogram[] = createAdders(HISTOGRAM_SIZE);
+	private final ConcurrentHashMap<String, LongAdder> hits = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, JobStatistic> jobs = new ConcurrentHashMap<>();
+
+	private static final class JobStatistic
+	{
+		private long runs;
+		private long items;
+		private long nanos;
+	}
+
+	static
+	{
+		if (ENABLED)
+		{
+			DataHandler.runnableRunner.setJobListener(INSTANCE);
+			try
+			{
+				ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName("data.raytrace:type=RaytraceMetrics"));
+			}catch(Exception e)
+			{
+				logger.error("Can't register metrics bean", e);
+			}
+		}
+	}
+
+	private RaytraceMetrics() {}
+
+	private static final LongAdder[] createAdders(int size)
+	{
+		LongAdder result[] = new LongAdder[size];
+		for (int i = 0; i < size; ++i)
+		{
+			result[i] = new LongAdder();
+		}
+		return result;
+	}
+
+	private static final long[] sum(LongAdder adder[])
+	{
+		long result[] = new long[adder.length];
+		for (int i = 0; i < adder.length; ++i)
+		{
+			result[i] = adder[i].sum();
+		}
+		return result;
+	}
+
+	public static final void rayGenerated()
+	{
+		INSTANCE.raysGenerated.increment();
+	}
+
+	public static final void intersectionTests(int type, int count)
+	{
+		INSTANCE.intersectionTests[type].add(count);
+	}
+
+	public static final void hit(OpticalObject obj)
+	{
+		String id = obj.getId();
+		LongAdder adder = INSTANCE.hits.get(id == null ? "" : id);
+		if (adder == null)
+		{
+			adder = INSTANCE.hits.computeIfAbsent(id == null ? "" : id, k -> new LongAdder());
+		}
+		adder.increment();
+	}
+
+	public static final void rayFinished(byte status, int bounces)
+	{
+		INSTANCE.status[status].increment();
+		INSTANCE.bounceHistogram[Math.min(bounces, HISTOGRAM_SIZE - 1)].increment();
+	}
+
+	@Override
+	public void jobFinished(String name, int count, long nanos)
+	{
+		JobStatistic stat = jobs.computeIfAbsent(name == null ? "" : name, k -> new JobStatistic());
+		synchronized(stat)
+		{
+			++stat.runs;
+			stat.items += count;
+			stat.nanos += nanos;
+		}
+	}
+
+	@Override
+	public boolean isEnabled()				{return ENABLED;}
+
+	@Override
+	public long getRaysGenerated()			{return raysGenerated.sum();}
+
+	@Override
+	public long getAcceptedCount()			{return status[RaytraceScene.STATUS_ACCEPTED].sum();}
+
+	@Override
+	public long getRejectedCount()			{return status[RaytraceScene.STATUS_REJECTED].sum();}
+
+	@Override
+	public long getVolumeCount()			{return status[RaytraceScene.STATUS_VOLUME].sum();}
+
+	@Override
+	public long getTerminatedCount()		{return status[RaytraceScene.STATUS_TERMINATED].sum();}
+
+	@Override
+	public long[] getIntersectionTests()	{return sum(intersectionTests);}
+
+	@Override
+	public long[] getBounceHistogram()		{return sum(bounceHistogram);}
+
+	@Override
+	public String[] getHits()
+	{
+		ArrayList<String> result = new ArrayList<>();
+		for (Map.Entry<String, LongAdder> entry : hits.entrySet())
+		{
+			result.add(entry.getKey() + '=' + entry.getValue().sum());
+		}
+		return result.toArray(new String[result.size()]);
+	}
+
+	@Override
+	public String[] getJobs()
+	{
+		ArrayList<String> result = new ArrayList<>();
+		for (Map.Entry<String, JobStatistic> entry : jobs.entrySet())
+		{
+			JobStatistic stat = entry.getValue();
+			synchronized(stat)
+			{
+				result.add(entry.getKey() + ':' + stat.runs + ',' + stat.items + ',' + (stat.nanos == 0 ? 0 : stat.items * 1e9 / stat.nanos));
+			}
+		}
+		return result.toArray(new String[result.size()]);
+	}
+
+	@Override
+	public void reset()
+	{
+		raysGenerated.reset();
+		for (LongAdder adder : intersectionTests)	{adder.reset();}
+		for (LongAdder adder : status)				{adder.reset();}
+		for (LongAdder adder : bounceHistogram)		{adder.reset();}
+		hits.clear();
+		jobs.clear();
+	}
+
+	public StringBuilder fillWithSummary(StringBuilder strB)
+	{
+		if (!ENABLED)
+		{
+			return strB.append("metrics disabled, start with -Draytrace.metrics=true\n");
+		}
+		strB.append("rays generated:").append(getRaysGenerated()).append('\n');
+		strB.append("accepted:").append(getAcceptedCount()).append(" rejected:").append(getRejectedCount()).append(" volume:").append(getVolumeCount()).append(" terminated:").append(getTerminatedCount()).append('\n');
+		long tests[] = getIntersectionTests();
+		strB.append("intersection tests");
+		for (int i = 0; i < NUM_TYPES; ++i)
+		{
+			strB.append(' ').append(TYPE_NAMES[i]).append(':').append(tests[i]);
+		}
+		long histogram[] = getBounceHistogram();
+		int last = histogram.length;
+		while (last > 0 && histogram[last - 1] == 0)
+		{
+			--last;
+		}
+		strB.append("\nbounces");
+		for (int i = 0; i < last; ++i)
+		{
+			strB.append(' ').append(histogram[i]);
+		}
+		strB.append("\nhits");
+		for (String hit : getHits())
+		{
+			strB.append(' ').append(hit);
+		}
+		strB.append("\njobs (runs,items,items/s)\n");
+		for (String job : getJobs())
+		{
+			strB.append(job).append('\n');
+		}
+		return strB;
+	}
+}
@@ -0,0 +1,31 @@
+package data.raytrace;
+
+/**
+ * JMX view of the raytracing counters, see RaytraceMetrics
+ */
+public interface RaytraceMetricsMBean {
+	public boolean isEnabled();
+
+	public long getRaysGenerated();
+
+	public long getAcceptedCount();
+
+	public long getRejectedCount();
+
+	public long getVolumeCount();
+
+	public long getTerminatedCount();
+
+	/*indexed by surface, mesh, volume*/
+	public long[] getIntersectionTests();
+
+	public long[] getBounceHistogram();
+
+	/*entries of the form id=count*/
+	public String[] getHits();
+
+	/*entries of the form name:runs,items,items per second*/
+	public String[] getJobs();
+
+	public void reset();
+}
@@ -4,8 +4,14 @@ import java.lang.ref.WeakReference;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,7 +39,9 @@ import maths.variable.VariableStack.VariableObserver.PendendList;
 import util.ArrayUtil;
 import util.JFrameUtils;
 import util.ListTools;
+import util.ThreadPool;
 import util.TimedUpdateHandler;
+import util.functional.DoubleArrayFunction;
 
 public class RaytraceScene {
 	public static final byte FORCE_STARTPOINT = 0;
@@ -57,7 +65,20 @@ public class RaytraceScene {
 	private GuiOpticalVolumeObject activeVolumes[] = GuiOpticalVolumeObject.EMPTY_VOLUME_ARRAY;
 	private MeshObject activeMeshes[] = MeshObject.EMPTY_MESH_ARRAY;
 	private OpticalObject activeObjects[] = OpticalObject.EMPTY_ARRAY;
+	private BoundingVolumeHierarchy activeHierarchy;
+	private final Set<BoundingVolumeHierarchy> hierarchies = Collections.newSetFromMap(new IdentityHashMap<>());
+	private int hierarchyModificationStamp;
 	private GuiTextureObject activeTextures[] = GuiTextureObject.EMPTY_TEXTTURE_ARRAY;
+	private IdIndex<GuiOpticalSurfaceObject> activeSurfaceIndex = new IdIndex<>(activeSurfaces);
+	private IdIndex<GuiOpticalSurfaceObject> activeEmissionIndex = new IdIndex<>(activeEmissions);
+	private IdIndex<GuiOpticalVolumeObject> activeVolumeIndex = new IdIndex<>(activeVolumes);
+	private IdIndex<MeshObject> activeMeshIndex = new IdIndex<>(activeMeshes);
+	private IdIndex<GuiTextureObject> activeTextureIndex = new IdIndex<>(activeTextures);
+	private IdIndex<GuiOpticalSurfaceObject> surfaceIndex = activeSurfaceIndex;
+	private IdIndex<GuiOpticalVolumeObject> volumeIndex = activeVolumeIndex;
+	private IdIndex<GuiTextureObject> textureIndex = activeTextureIndex;
+	private int indexedStructureCount = -1;
+	private final HashSet<String> changedIds = new HashSet<>();
 	private ArrayList<GuiOpticalSurfaceObject> tmpSurfaceArrayList = new ArrayList<>();
 	private ArrayList<GuiOpticalVolumeObject> tmpVolumeArrayList = new ArrayList<>();
 	private ArrayList<MeshObject> tmpMeshArrayList = new ArrayList<>();
@@ -88,6 +109,11 @@ public class RaytraceScene {
 
 	private int updateCount = 0;
 	private int lastSceneUpdate = 0;
+	/*counts the changes which need a complete rebuild, like added, removed, activated objects or changed ids*/
+	private int structureCount = 0;
+	private int lastStructureUpdate = 0;
+	private volatile TraceSnapshot snapshot = TraceSnapshot.EMPTY;
+	private final ReentrantLock updateLock = new ReentrantLock();
 	private Object forceEndpointObject;
 	private Object forceStartpointObject;
 
@@ -161,6 +187,7 @@ public class RaytraceScene {
 
 	public void valueChanged(byte sct, Object o)
 	{
+		++structureCount;
 		++updateCount;
 		for (int i = 0; i < sceneChangeListener.size(); ++i)
 		{
@@ -168,26 +195,48 @@ public class RaytraceScene {
 		}
 	}
 
+	private final boolean isIorMatching(double ior, Operation ior0, Operation ior1)
+	{
+		return !verifyRefractionIndices || Double.isNaN(ior) || ior1.doubleValue() == ior || ior0.doubleValue() == ior;
+	}
+
+	/**
+	 * Adds the active objects with the given sorted ids, or all active objects if ids is null
+	 */
 	private void getObjects(String ids[], double ior, ArrayList<GuiOpticalSurfaceObject> surfaces, ArrayList<GuiOpticalVolumeObject> volumes, ArrayList<MeshObject> meshes) {
-		for (GuiOpticalSurfaceObject goo : activeSurfaces)
+		if (ids == null)
 		{
-			if ((ids == null || Arrays.binarySearch(ids, goo.id) >= 0) && (!verifyRefractionIndices || Double.isNaN(ior) || goo.ior1.doubleValue() == ior || goo.ior0.doubleValue() == ior))
+			for (GuiOpticalSurfaceObject goo : activeSurfaces)
 			{
-				tmpSurfaceArrayList.add(goo);
+				if (isIorMatching(ior, goo.ior0, goo.ior1)){surfaces.add(goo);}
 			}
-		}
-		for (GuiOpticalVolumeObject gov : activeVolumes)
-		{
-			if (ids == null || Arrays.binarySearch(ids, gov.id) >= 0)
+			volumes.addAll(Arrays.asList(activeVolumes));
+			for (MeshObject mo : activeMeshes)
 			{
-				tmpVolumeArrayList.add(gov);
+				if (isIorMatching(ior, mo.ior0, mo.ior1)){meshes.add(mo);}
 			}
+			return;
 		}
-		for (MeshObject mo : activeMeshes)
+		for (int i = 0; i < ids.length; ++i)
 		{
-			if ((ids == null || Arrays.binarySearch(ids, mo.id) >= 0) && (!verifyRefractionIndices || Double.isNaN(ior) || mo.ior1.doubleValue() == ior || mo.ior0.doubleValue() == ior))
+			String id = ids[i];
+			if (i != 0 && id.equals(ids[i - 1]))
+			{
+				continue;
+			}
+			for (int j = activeSurfaceIndex.first(id); j != -1; j = activeSurfaceIndex.next(j))
 			{
-				tmpMeshArrayList.add(mo);
+				GuiOpticalSurfaceObject goo = activeSurfaceIndex.get(j);
+				if (isIorMatching(ior, goo.ior0, goo.ior1)){surfaces.add(goo);}
+			}
+			for (int j = activeVolumeIndex.first(id); j != -1; j = activeVolumeIndex.next(j))
+			{
+				volumes.add(activeVolumeIndex.get(j));
+			}
+			for (int j = activeMeshIndex.first(id); j != -1; j = activeMeshIndex.next(j))
+			{
+				MeshObject mo = activeMeshIndex.get(j);
+				if (isIorMatching(ior, mo.ior0, mo.ior1)){meshes.add(mo);}
 			}
 		}
 	}
@@ -197,11 +246,13 @@ public class RaytraceScene {
 	public void setCameraStartObjects(String cameraStartObjects[])
 	{
 		this.cameraStartObjects = cameraStartObjects;
+		++structureCount;
 		++updateCount;
 	}
 
 	private void updateNeighbours(OpticalObject current)
 	{
+		current.preparedModCount = current.modCount();
 		double ior0 = Double.NaN, ior1 = Double.NaN;
 		if (current instanceof OpticalSurfaceObject)
 		{
@@ -217,29 +268,12 @@ public class RaytraceScene {
 				Arrays.sort(current.successorArray);
 			}
 			getObjects(current.successorArray, ior1,tmpSurfaceArrayList, tmpVolumeArrayList, tmpMeshArrayList);
-			if (current.surfaceSuccessor == activeSurfaces || current.surfaceSuccessor.length != tmpSurfaceArrayList.size())
-			{
-				current.surfaceSuccessor = new GuiOpticalSurfaceObject[tmpSurfaceArrayList.size()];
-			}
-			current.surfaceSuccessor = tmpSurfaceArrayList.toArray(current.surfaceSuccessor);
-
-			if (current.volumeSuccessor == activeVolumes || current.volumeSuccessor.length != tmpVolumeArrayList.size())
-			{
-				current.volumeSuccessor = new GuiOpticalVolumeObject[tmpVolumeArrayList.size()];
-			}
-			current.volumeSuccessor = tmpVolumeArrayList.toArray(current.volumeSuccessor);
-
-			if (current.meshSuccessor == activeMeshes || current.meshSuccessor.length != tmpMeshArrayList.size())
-			{
-				current.meshSuccessor = new MeshObject[tmpMeshArrayList.size()];
-			}
-			current.meshSuccessor = tmpMeshArrayList.toArray(current.meshSuccessor);
-
-			if (current.successor == activeObjects || current.successor.length != current.surfaceSuccessor.length + current.meshSuccessor.length + current.volumeSuccessor.length)
-			{
-				current.successor = new OpticalObject[current.surfaceSuccessor.length + current.meshSuccessor.length + current.volumeSuccessor.length];
-			}
-			current.successor = concatenate(current.surfaceSuccessor, current.meshSuccessor, current.volumeSuccessor, current.successor);
+			current.surfaceSuccessor = tmpSurfaceArrayList.toArray(new GuiOpticalSurfaceObject[tmpSurfaceArrayList.size()]);
+			current.volumeSuccessor = tmpVolumeArrayList.toArray(new GuiOpticalVolumeObject[tmpVolumeArrayList.size()]);
+			current.meshSuccessor = tmpMeshArrayList.toArray(new MeshObject[tmpMeshArrayList.size()]);
+			current.successor = concatenate(current.surfaceSuccessor, current.meshSuccessor, current.volumeSuccessor, OpticalObject.EMPTY_ARRAY);
+			releaseHierarchy(current.successorHierarchy);
+			current.successorHierarchy = createHierarchy(current.successor);
 			tmpMeshArrayList.clear();
 			tmpSurfaceArrayList.clear();
 			tmpVolumeArrayList.clear();
@@ -250,6 +284,8 @@ public class RaytraceScene {
 			current.volumeSuccessor = activeVolumes;
 			current.meshSuccessor = activeMeshes;
 			current.successor = activeObjects;
+			releaseHierarchy(current.successorHierarchy);
+			current.successorHierarchy = activeHierarchy;
 		}
 		if (current.predessorArray != null || verifyRefractionIndices)
 		{
@@ -258,26 +294,12 @@ public class RaytraceScene {
 				Arrays.sort(current.successorArray);
 			}
 			getObjects(current.successorArray, ior0,tmpSurfaceArrayList, tmpVolumeArrayList, tmpMeshArrayList);
-			if (current.surfacePredessor == activeSurfaces || current.surfacePredessor.length != tmpSurfaceArrayList.size())
-			{
-				current.surfacePredessor = new GuiOpticalSurfaceObject[tmpSurfaceArrayList.size()];
-			}
-			current.surfacePredessor = tmpSurfaceArrayList.toArray(current.surfacePredessor);
-			if (current.volumePredessor == activeVolumes || current.volumePredessor.length != tmpVolumeArrayList.size())
-			{
-				current.volumePredessor = new GuiOpticalVolumeObject[tmpVolumeArrayList.size()];
-			}
-			current.volumePredessor = tmpVolumeArrayList.toArray(current.volumePredessor);
-			if (current.meshPredessor == activeMeshes || current.meshPredessor.length != tmpMeshArrayList.size())
-			{
-				current.meshPredessor = new MeshObject[tmpMeshArrayList.size()];
-			}
-			current.meshPredessor = tmpMeshArrayList.toArray(current.meshPredessor);
-			if (current.predessor == activeObjects || current.predessor.length != current.surfacePredessor.length + current.meshPredessor.length + current.volumePredessor.length)
-			{
-				current.predessor = new OpticalObject[current.surfacePredessor.length + current.meshPredessor.length + current.volumePredessor.length];
-			}
-			current.predessor = concatenate(current.surfacePredessor, current.meshPredessor, current.volumePredessor, current.predessor);
+			current.surfacePredessor = tmpSurfaceArrayList.toArray(new GuiOpticalSurfaceObject[tmpSurfaceArrayList.size()]);
+			current.volumePredessor = tmpVolumeArrayList.toArray(new GuiOpticalVolumeObject[tmpVolumeArrayList.size()]);
+			current.meshPredessor = tmpMeshArrayList.toArray(new MeshObject[tmpMeshArrayList.size()]);
+			current.predessor = concatenate(current.surfacePredessor, current.meshPredessor, current.volumePredessor, OpticalObject.EMPTY_ARRAY);
+			releaseHierarchy(current.predessorHierarchy);
+			current.predessorHierarchy = createHierarchy(current.predessor);
 			tmpMeshArrayList.clear();
 			tmpSurfaceArrayList.clear();
 			tmpVolumeArrayList.clear();
@@ -288,6 +310,8 @@ public class RaytraceScene {
 			current.volumePredessor = activeVolumes;
 			current.meshPredessor = activeMeshes;
 			current.predessor = activeObjects;
+			releaseHierarchy(current.predessorHierarchy);
+			current.predessorHierarchy = activeHierarchy;
 		}
 	}
 
@@ -303,94 +327,269 @@ public class RaytraceScene {
 		return result;
 	}
 
-	public final void updateScene()
+	private BoundingVolumeHierarchy createHierarchy(OpticalObject objects[])
+	{
+		BoundingVolumeHierarchy res = BoundingVolumeHierarchy.create(objects);
+		if (res != null)
+		{
+			hierarchies.add(res);
+		}
+		return res;
+	}
+
+	private void releaseHierarchy(BoundingVolumeHierarchy hierarchy)
 	{
-		if (lastSceneUpdate != updateCount)
+		if (hierarchy != activeHierarchy)
 		{
-			lastSceneUpdate = updateCount;
-			activeSurfaces = getActiveSurfaces(activeSurfaces);
-			activeEmissions = getActiveEmissions(activeEmissions);
-			activeLights = getActiveLightSources(activeLights);
-			activeVolumes = getActiveVolumes(false, activeVolumes);
-			activeTextures = getActiveTextures(activeTextures);
-			activeMeshes = getActiveMeshes(activeMeshes);
-			activeObjects = concatenate(activeSurfaces, activeMeshes, activeVolumes, activeObjects);
+			hierarchies.remove(hierarchy);
+		}
+	}
+
+	private static BoundingVolumeHierarchy replace(IdentityHashMap<BoundingVolumeHierarchy, BoundingVolumeHierarchy> refitted, BoundingVolumeHierarchy hierarchy)
+	{
+		BoundingVolumeHierarchy res = refitted.get(hierarchy);
+		return res == null ? hierarchy : res;
+	}
+
+	private <E extends OpticalObject> void replaceHierarchies(IdentityHashMap<BoundingVolumeHierarchy, BoundingVolumeHierarchy> refitted, ArrayList<E> list)
+	{
+		for (int i = 0; i < list.size(); ++i)
+		{
+			E current = list.get(i);
+			current.successorHierarchy = replace(refitted, current.successorHierarchy);
+			current.predessorHierarchy = replace(refitted, current.predessorHierarchy);
+		}
+	}
+
+	/**
+	 * Replaces the hierarchies by refitted copies if the geometry changed. Published snapshots keep the old hierarchies, which are never changed.
+	 * @return true if the hierarchies were replaced and a new snapshot has to be published
+	 */
+	private boolean refitHierarchies()
+	{
+		int stamp = activeHierarchy == null ? 0 : activeHierarchy.modificationStamp();
+		if (stamp == hierarchyModificationStamp)
+		{
+			return false;
+		}
+		hierarchyModificationStamp = stamp;
+		IdentityHashMap<BoundingVolumeHierarchy, BoundingVolumeHierarchy> refitted = new IdentityHashMap<>();
+		for (BoundingVolumeHierarchy hierarchy : hierarchies)
+		{
+			refitted.put(hierarchy, hierarchy.refit());
+		}
+		hierarchies.clear();
+		hierarchies.addAll(refitted.values());
+		activeHierarchy = replace(refitted, activeHierarchy);
+		replaceHierarchies(refitted, surfaceObjectList);
+		replaceHierarchies(refitted, meshObjectList);
+		replaceHierarchies(refitted, volumeObjectList);
+		return true;
+	}
 
-			if (cameraStartObjects != null)
+	/**
+	 * Prepares the scene for tracing and publishes a new snapshot if anything changed, waits if another thread is preparing the scene
+	 * @return the snapshot containing all changes made before this call
+	 */
+	public final TraceSnapshot updateScene()
+	{
+		updateLock.lock();
+		try
+		{
+			prepareScene();
+			return snapshot;
+		}
+		finally
+		{
+			updateLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the latest published snapshot without preparing the scene, so tracing threads never wait for or run an update.
+	 * The scene is only prepared if nothing was published yet, jobs which need the latest edits call updateScene.
+	 */
+	public final TraceSnapshot getSnapshot()
+	{
+		TraceSnapshot res = snapshot;
+		return res == TraceSnapshot.EMPTY ? updateScene() : res;
+	}
+
+	private final void prepareScene()
+	{
+		int count = updateCount;
+		boolean changed = true;
+		if (lastSceneUpdate != count)
+		{
+			lastSceneUpdate = count;
+			if (lastStructureUpdate != structureCount)
 			{
-				getObjects(cameraStartObjects, Double.NaN, tmpSurfaceArrayList, tmpVolumeArrayList, tmpMeshArrayList);
-				if (cameraStartObjects != null)
-				{
-					Arrays.sort(cameraStartObjects);
-				}
-				getObjects(cameraStartObjects, Double.NaN,tmpSurfaceArrayList, tmpVolumeArrayList, tmpMeshArrayList);
-				if (cameraViewRunnable.gen.surfaceSuccessor == activeSurfaces || cameraViewRunnable.gen.surfaceSuccessor.length != tmpSurfaceArrayList.size())
-				{
-					cameraViewRunnable.gen.surfaceSuccessor = new GuiOpticalSurfaceObject[tmpSurfaceArrayList.size()];
-				}
-				cameraViewRunnable.gen.surfaceSuccessor = tmpSurfaceArrayList.toArray(cameraViewRunnable.gen.surfaceSuccessor);
-				if (cameraViewRunnable.gen.volumeSuccessor == activeVolumes || cameraViewRunnable.gen.volumeSuccessor.length != tmpVolumeArrayList.size())
-				{
-					cameraViewRunnable.gen.volumeSuccessor = new GuiOpticalVolumeObject[tmpVolumeArrayList.size()];
-				}
-				cameraViewRunnable.gen.volumeSuccessor = tmpVolumeArrayList.toArray(cameraViewRunnable.gen.volumeSuccessor);
-				if (cameraViewRunnable.gen.meshSuccessor == activeMeshes || cameraViewRunnable.gen.meshSuccessor.length != tmpMeshArrayList.size())
-				{
-					cameraViewRunnable.gen.meshSuccessor = new MeshObject[tmpMeshArrayList.size()];
-				}
-				cameraViewRunnable.gen.meshSuccessor = tmpMeshArrayList.toArray(cameraViewRunnable.gen.meshSuccessor);
-				tmpSurfaceArrayList.clear();
-				tmpVolumeArrayList.clear();
-				tmpMeshArrayList.clear();
+				lastStructureUpdate = structureCount;
+				rebuildScene();
 			}
 			else
 			{
-				cameraViewRunnable.gen.surfaceSuccessor = activeSurfaces;
-				cameraViewRunnable.gen.volumeSuccessor = activeVolumes;
-				cameraViewRunnable.gen.meshSuccessor = activeMeshes;
+				updateChangedObjects();
+				refitHierarchies();
 			}
-			for (int i = cameraViewRunnables.size() - 1; i >= 0; --i)
+		}
+		else
+		{
+			changed = refitHierarchies();
+		}
+		if (changed)
+		{
+			TraceSnapshot res = new TraceSnapshot(count, activeSurfaces, activeEmissions, activeLights, activeVolumes, activeMeshes, activeTextures, activeObjects, activeHierarchy, forceStartpoint, forceEndpoint, environmentTexture, writableEnvironmentTexture, renderToTextureObject);
+			res.link(surfaceObjectList);
+			res.link(meshObjectList);
+			res.link(volumeObjectList);
+			snapshot = res;
+		}
+	}
+
+	/**
+	 * Only the objects which changed since the last update and the objects referencing them by id get new neighbours, the hierarchies of the others are refitted
+	 */
+	private void updateChangedObjects()
+	{
+		changedIds.clear();
+		addChangedIds(surfaceObjectList);
+		addChangedIds(meshObjectList);
+		addChangedIds(volumeObjectList);
+		if (changedIds.isEmpty())
+		{
+			return;
+		}
+		for (int i = 0; i < surfaceObjectList.size(); ++i)
+		{
+			updateChangedNeighbours(surfaceObjectList.get(i));
+		}
+		for (int i = 0; i < meshObjectList.size(); ++i)
+		{
+			updateChangedNeighbours(meshObjectList.get(i));
+		}
+		for (int i = 0; i < volumeObjectList.size(); ++i)
+		{
+			if (updateChangedNeighbours(volumeObjectList.get(i)))
 			{
-				CameraViewRunnable r = cameraViewRunnables.get(i).get();
-				if (r == null)
-				{
-					cameraViewRunnables.remove(i);
-					continue;
-				}
-				if (r == cameraViewRunnable)
-				{
-					continue;
-				}
-				r.gen.meshSuccessor = cameraViewRunnable.gen.meshSuccessor;
-				r.gen.volumeSuccessor = cameraViewRunnable.gen.volumeSuccessor;
-				r.gen.surfaceSuccessor = cameraViewRunnable.gen.surfaceSuccessor;
+				volumeObjectList.get(i).volumeSuccessor = OpticalVolumeObject.EMPTY_VOLUME_ARRAY;
+			}
+		}
+	}
 
+	private void addChangedIds(ArrayList<? extends OpticalObject> list)
+	{
+		for (int i = 0; i < list.size(); ++i)
+		{
+			OpticalObject current = list.get(i);
+			if (current.preparedModCount != current.modCount())
+			{
+				changedIds.add(current.id);
 			}
-			for (int i = 0; i < surfaceObjectList.size(); ++i)
+		}
+	}
+
+	private boolean isReferencingChanged(String ids[])
+	{
+		if (ids == null)
+		{
+			/*without ids the neighbours are all active objects, which are only filtered by their refraction indices*/
+			return verifyRefractionIndices;
+		}
+		for (int i = 0; i < ids.length; ++i)
+		{
+			if (changedIds.contains(ids[i]))
 			{
-				updateNeighbours(surfaceObjectList.get(i));
+				return true;
 			}
-			for (int i = 0; i < meshObjectList.size(); ++i)
+		}
+		return false;
+	}
+
+	private boolean updateChangedNeighbours(OpticalObject current)
+	{
+		if (current.preparedModCount != current.modCount() || isReferencingChanged(current.successorArray) || isReferencingChanged(current.predessorArray))
+		{
+			updateNeighbours(current);
+			return true;
+		}
+		return false;
+	}
+
+	private void rebuildScene()
+	{
+		/*published snapshots share these arrays, so they are never written again*/
+		activeSurfaces = getActiveSurfaces(null);
+		activeEmissions = getActiveEmissions(null);
+		activeLights = getActiveLightSources(null);
+		activeVolumes = getActiveVolumes(false, null);
+		activeTextures = getActiveTextures(GuiTextureObject.EMPTY_TEXTTURE_ARRAY);
+		activeMeshes = getActiveMeshes(null);
+		activeObjects = concatenate(activeSurfaces, activeMeshes, activeVolumes, OpticalObject.EMPTY_ARRAY);
+		activeSurfaceIndex = new IdIndex<>(activeSurfaces);
+		activeEmissionIndex = new IdIndex<>(activeEmissions);
+		activeVolumeIndex = new IdIndex<>(activeVolumes);
+		activeMeshIndex = new IdIndex<>(activeMeshes);
+		activeTextureIndex = new IdIndex<>(activeTextures);
+		hierarchies.clear();
+		activeHierarchy = createHierarchy(activeObjects);
+		hierarchyModificationStamp = activeHierarchy == null ? 0 : activeHierarchy.modificationStamp();
+
+		if (cameraStartObjects != null)
+		{
+			Arrays.sort(cameraStartObjects);
+			getObjects(cameraStartObjects, Double.NaN,tmpSurfaceArrayList, tmpVolumeArrayList, tmpMeshArrayList);
+			cameraViewRunnable.gen.surfaceSuccessor = tmpSurfaceArrayList.toArray(new GuiOpticalSurfaceObject[tmpSurfaceArrayList.size()]);
+			cameraViewRunnable.gen.volumeSuccessor = tmpVolumeArrayList.toArray(new GuiOpticalVolumeObject[tmpVolumeArrayList.size()]);
+			cameraViewRunnable.gen.meshSuccessor = tmpMeshArrayList.toArray(new MeshObject[tmpMeshArrayList.size()]);
+			tmpSurfaceArrayList.clear();
+			tmpVolumeArrayList.clear();
+			tmpMeshArrayList.clear();
+		}
+		else
+		{
+			cameraViewRunnable.gen.surfaceSuccessor = activeSurfaces;
+			cameraViewRunnable.gen.volumeSuccessor = activeVolumes;
+			cameraViewRunnable.gen.meshSuccessor = activeMeshes;
+		}
+		for (int i = cameraViewRunnables.size() - 1; i >= 0; --i)
+		{
+			CameraViewRunnable r = cameraViewRunnables.get(i).get();
+			if (r == null)
 			{
-				updateNeighbours(meshObjectList.get(i));
+				cameraViewRunnables.remove(i);
+				continue;
 			}
-			for (int i = 0; i < volumeObjectList.size(); ++i)
+			if (r == cameraViewRunnable)
 			{
-				updateNeighbours(volumeObjectList.get(i));
-				volumeObjectList.get(i).volumeSuccessor = OpticalVolumeObject.EMPTY_VOLUME_ARRAY;
+				continue;
 			}
-			forceEndpoint = getForceEndpointObject(forceEndpointObject);
-			forceStartpoint = getForceEndpointObject(forceStartpointObject);
-			environmentTexture = getActiveTexture(environmentTextureString);
-			writableEnvironmentTexture = getActiveTexture(writableEnvironmentTextureString);
-			renderToTextureObject = getActiveTexture(renderToTextureString);
+			r.gen.meshSuccessor = cameraViewRunnable.gen.meshSuccessor;
+			r.gen.volumeSuccessor = cameraViewRunnable.gen.volumeSuccessor;
+			r.gen.surfaceSuccessor = cameraViewRunnable.gen.surfaceSuccessor;
+
 		}
+		for (int i = 0; i < surfaceObjectList.size(); ++i)
+		{
+			updateNeighbours(surfaceObjectList.get(i));
+		}
+		for (int i = 0; i < meshObjectList.size(); ++i)
+		{
+			updateNeighbours(meshObjectList.get(i));
+		}
+		for (int i = 0; i < volumeObjectList.size(); ++i)
+		{
+			updateNeighbours(volumeObjectList.get(i));
+			volumeObjectList.get(i).volumeSuccessor = OpticalVolumeObject.EMPTY_VOLUME_ARRAY;
+		}
+		forceEndpoint = getForceEndpointObject(forceEndpointObject);
+		forceStartpoint = getForceEndpointObject(forceStartpointObject);
+		environmentTexture = getActiveTexture(environmentTextureString);
+		writableEnvironmentTexture = getActiveTexture(writableEnvironmentTextureString);
+		renderToTextureObject = getActiveTexture(renderToTextureString);
 	}
 
-	private GuiTextureObject getActiveTexture(String id) {
-		int index = getIndex(id, activeTextures);
-		return index == -1 ? null : activeTextures[index];
-	}
+	private GuiTextureObject getActiveTexture(String id) {return getActive(activeTextureIndex, id);}
 
 	private GuiTextureObject[] getActiveTextures(GuiTextureObject[] textures) {return getActive(textureObjectList, textures);}
 
@@ -444,84 +643,116 @@ public class RaytraceScene {
 		}
 	}
 
-	private static int getIndex(String id, ArrayList<? extends OpticalObject> oo)
+	/**
+	 * Hash index from the ids to the objects of an immutable copy of a list, objects sharing one id are chained in list order
+	 */
+	private static final class IdIndex<T extends OpticalObject>
 	{
-		if (id != null)
+		private final ArrayList<T> objects;
+		private final HashMap<String, Integer> first;
+		private final int next[];
+
+		public IdIndex(T objects[])
 		{
-			for (int i = 0; i < oo.size(); ++i)
-			{
-				if (id.equals(oo.get(i).id))
-				{
-					return i;
-				}
-			}
+			this(Arrays.asList(objects));
 		}
-		return -1;
-	}
 
-	private static int getIndex(String id, OpticalObject oo[])
-	{
-		if (id != null && id.length() != 0)
+		public IdIndex(List<? extends T> objects)
 		{
-			for (int i = 0; i < oo.length; ++i)
+			this.objects = new ArrayList<>(objects);
+			first = new HashMap<>(objects.size() * 2);
+			next = new int[objects.size()];
+			for (int i = next.length - 1; i >= 0; --i)
 			{
-				if (id.equals(oo[i].id))
-				{
-					return i;
-				}
+				Integer following = first.put(this.objects.get(i).id, i);
+				next[i] = following == null ? -1 : following;
 			}
 		}
-		return -1;
-	}
 
+		public final int first(String id)
+		{
+			Integer index = id == null ? null : first.get(id);
+			return index == null ? -1 : index;
+		}
 
+		public final int next(int index)
+		{
+			return next[index];
+		}
 
-	public GuiOpticalSurfaceObject getActiveEmissionObject(String id) {
-		int index = getIndex(id, activeEmissions);
-		return index == -1 ? null : activeEmissions[index];
-	}
+		public final T get(int index)
+		{
+			return objects.get(index);
+		}
 
-	public GuiOpticalSurfaceObject getActiveSurfaceObject(String id)
-	{
-		int index = getIndex(id, activeSurfaces);
-		return index == -1 ? null : activeSurfaces[index];
+		public final T get(String id)
+		{
+			int index = first(id);
+			return index == -1 ? null : objects.get(index);
+		}
 	}
 
-	public GuiOpticalVolumeObject getActiveVolumeObject(String id)
+	private static <T extends OpticalObject> T getActive(IdIndex<T> index, String id)
 	{
-		int index = getIndex(id, activeVolumes);
-		return index == -1 ? null : activeVolumes[index];
+		return id == null || id.length() == 0 ? null : index.get(id);
 	}
 
-	public MeshObject getActiveMeshObject(String id)
+	/**
+	 * Rebuilds the indices of all objects after objects were added, removed or renamed
+	 */
+	private void updateIndices()
 	{
-		int index = getIndex(id, activeMeshes);
-		return index == -1 ? null : activeMeshes[index];
+		int count = structureCount;
+		if (indexedStructureCount != count)
+		{
+			surfaceIndex = new IdIndex<>(surfaceObjectList);
+			volumeIndex = new IdIndex<>(volumeObjectList);
+			textureIndex = new IdIndex<>(textureObjectList);
+			indexedStructureCount = count;
+		}
 	}
 
+	public GuiOpticalSurfaceObject getActiveEmissionObject(String id) {return getActive(activeEmissionIndex, id);}
+
+	public GuiOpticalSurfaceObject getActiveSurfaceObject(String id){return getActive(activeSurfaceIndex, id);}
+
+	public GuiOpticalVolumeObject getActiveVolumeObject(String id){return getActive(activeVolumeIndex, id);}
+
+	public MeshObject getActiveMeshObject(String id){return getActive(activeMeshIndex, id);}
+
 	public GuiOpticalSurfaceObject getSurfaceObject(String id)
 	{
-		int index = getIndex(id, surfaceObjectList);
-		return index == -1 ? null : surfaceObjectList.get(index);
+		updateIndices();
+		return surfaceIndex.get(id);
 	}
 
 	public GuiOpticalVolumeObject getVolumeObject(String id)
 	{
-		int index = getIndex(id, volumeObjectList);
-		return index == -1 ? null : volumeObjectList.get(index);
+		updateIndices();
+		return volumeIndex.get(id);
 	}
 
 	public GuiTextureObject getTexture(String id)
 	{
-		int index = getIndex(id, textureObjectList);
-		return index == -1 ? null : textureObjectList.get(index);
+		updateIndices();
+		return textureIndex.get(id);
+	}
+
+	private void objectChanged(OpticalObject object, SCENE_OBJECT_COLUMN_TYPE ct)
+	{
+		object.preparedModCount = -1;
+		if (ct == SCENE_OBJECT_COLUMN_TYPE.ID || ct == SCENE_OBJECT_COLUMN_TYPE.ACTIVE || ct == SCENE_OBJECT_COLUMN_TYPE.MATERIAL)
+		{
+			++structureCount;
+		}
+		++updateCount;
 	}
 
 	private final OpticalSurfaceObjectChangeListener osoc = new OpticalSurfaceObjectChangeListener() {
 
 		@Override
 		public void valueChanged(GuiOpticalSurfaceObject object, SCENE_OBJECT_COLUMN_TYPE ct) {
-			++updateCount;
+			objectChanged(object, ct);
 			for (int i = 0; i < surfaceChangeListenerList.size(); ++i)
 			{
 				surfaceChangeListenerList.get(i).valueChanged(object, ct);
@@ -533,7 +764,7 @@ public class RaytraceScene {
 
 		@Override
 		public void valueChanged(GuiOpticalVolumeObject object, SCENE_OBJECT_COLUMN_TYPE ct) {
-			++updateCount;
+			objectChanged(object, ct);
 			for (int i = 0; i < volumeObjectChangeListenerList.size(); ++i)
 			{
 				volumeObjectChangeListenerList.get(i).valueChanged(object, ct);
@@ -557,6 +788,7 @@ public class RaytraceScene {
 
 		@Override
 		public void valueChanged(GuiTextureObject object, SCENE_OBJECT_COLUMN_TYPE ct) {
+			++structureCount;
 			++updateCount;
 			for (int i = 0; i < textureObjectChangeListenerList.size(); ++i)
 			{
@@ -569,7 +801,7 @@ public class RaytraceScene {
 
 		@Override
 		public void valueChanged(MeshObject object, SCENE_OBJECT_COLUMN_TYPE ct) {
-			++updateCount;
+			objectChanged(object, ct);
 			for (int i = 0; i < meshObjectChangeListenerList.size(); ++i)
 			{
 				meshObjectChangeListenerList.get(i).valueChanged(object, ct);
@@ -578,6 +810,10 @@ public class RaytraceScene {
 	};
 	public String author = "";
 	public double epsilon = 0.001;
+	/*seed of the random numbers used for ray generation and surface interactions*/
+	public long seed = 0;
+	/*rays with a throughput below this value take part in russian roulette, 0 disables it*/
+	public float rouletteThreshold = 0;
 
 	public void addObjectChangeListener(OpticalSurfaceObjectChangeListener ooc)		{surfaceChangeListenerList.add(ooc);}
 	public void addObjectChangeListener(OpticalVolumeObjectChangeListener ooc)		{volumeObjectChangeListenerList.add(ooc);}
@@ -813,12 +1049,77 @@ public class RaytraceScene {
 		public final Intersection nearest = new Intersection();
 		public final Vector2d v3 = new Vector2d();
 		public final float color[] = new float[4];
+		public final int hierarchyStack[] = new int[BoundingVolumeHierarchy.STACK_SIZE];
+		public final RayRandom random = new RayRandom();
+		/*snapshot used by calculateRays and calculateRay, if null calculateRays prepares the scene and calculateRay uses the latest published one*/
+		public TraceSnapshot snapshot;
+		/*index of the pass for renderers averaging several passes, selects independent random numbers*/
+		public int pass = 0;
 		public boolean invalidated = false;
+		/*set if the ray was ended by russian roulette*/
+		public boolean terminated = false;
+		/*
+		 * product of the transmittances of the semi transparent surfaces the ray passed. Only surfaces which attenuate the color lower it,
+		 * they are only applied if readColorMiddle is set, otherwise absorbing surfaces end the ray, so the roulette of the scene only acts on color reading rays
+		 */
+		public float throughput = 1;
+		/*factor by which the colors of surviving rays are scaled to keep the estimate unbiased*/
+		public float rouletteWeight = 1;
+		/*if not null, calculateRays and calculateSpectralRays write the roulette weight of every entry they write a color for*/
+		public float endWeight[];
 		public int numBounces = 0;
 		public boolean readColorFront = true;
 		public boolean readColorBack = false;
 		public boolean readColorGen = true;
 		public boolean readColorMiddle = false;
+		/*wavelength in nm for dispersive surfaces, NaN uses the refractive indices at the d-line*/
+		public double wavelength = Double.NaN;
+		/*if set, calculateRay stops in front of dispersive refractions of rays without wavelength and sets dispersed*/
+		public boolean stopAtDispersion = false;
+		public boolean dispersed = false;
+		/*candidates of the next intersection when the ray was stopped*/
+		OpticalObject stopSuccessor[];
+		BoundingVolumeHierarchy stopHierarchy;
+		RefractionEnvironment refractionEnvironment;
+	}
+
+	/**
+	 * Evaluation context for position dependent refractive indices, kept per RaySimulationObject so that no variables have to be created per hit
+	 */
+	static final class RefractionEnvironment{
+		private final VariableStack parent;
+		private final VariableStack vs;
+		private final Variable xVar = new Variable("x");
+		private final Variable yVar = new Variable("y");
+		private final Variable zVar = new Variable("z");
+		private final Controller control = new Controller();
+		private final double position[] = new double[3];
+
+		RefractionEnvironment(VariableStack parent)
+		{
+			this.parent = parent;
+			vs = new VariableStack(parent);
+			vs.addLocal(xVar);
+			vs.addLocal(yVar);
+			vs.addLocal(zVar);
+		}
+
+		final void setPosition(Vector3d position)
+		{
+			xVar.setValue(position.x);
+			yVar.setValue(position.y);
+			zVar.setValue(position.z);
+			position.write(this.position, 0);
+		}
+
+		final double calculate(Operation op, DoubleArrayFunction compiled, double constant)
+		{
+			if (!Double.isNaN(constant))
+			{
+				return constant;
+			}
+			return compiled != null ? compiled.eval(position) : op.calculate(vs, control).doubleValue();
+		}
 	}
 	private static final float multColor = 1f / 0xFF;
 
@@ -880,9 +1181,17 @@ public class RaytraceScene {
 	    }
 	}*/
 
-	private boolean accept(Object res, Object forceEndpoint)
+	private boolean accept(OpticalObject res, Object forceEndpoint)
 	{
-		return (!(res instanceof OpticalSurfaceObject) || ((OpticalSurfaceObject)res).materialType != MaterialType.DELETION) && (forceEndpoint == res || (forceEndpoint == this && res == null) || forceEndpoint == null);
+		return (!(res instanceof OpticalSurfaceObject) || ((OpticalSurfaceObject)res).materialType != MaterialType.DELETION) && (forceEndpoint == original(res) || (forceEndpoint == this && res == null) || forceEndpoint == null);
+	}
+
+	/**
+	 * @return the scene object of a frozen copy, results never expose the copies
+	 */
+	private static OpticalObject original(OpticalObject obj)
+	{
+		return obj == null ? null : obj.original;
 	}
 
 	public static final byte UNACCEPTED_DELETE = 0, UNACCEPTED_RECALCULATE = 1, UNACCEPTED_MARK = 2;
@@ -936,11 +1245,12 @@ public class RaytraceScene {
 		}
 		else
 		{
-			if (environmentTexture != null && environmentTexture.raster != null)
+			GuiTextureObject environment = getSnapshot(currentRay).environmentTexture;
+			if (environment != null && environment.raster != null)
 			{
 				Vector3d dir = currentRay.direction;
 				environment_mapping.mapCartToTex(dir.x, dir.y, dir.z, coord);
-				environmentTexture.getColor(coord.x, coord.y, color);
+				environment.getColor(coord.x, coord.y, color);
 			}
 			else
 			{
@@ -953,6 +1263,9 @@ public class RaytraceScene {
 	public static final byte STATUS_ACCEPTED = 1;
 	public static final byte STATUS_VOLUME = 2;
 	public static final byte STATUS_UNDEFINED = 3;
+	/*ended by russian roulette, neither accepted nor recalculated*/
+	public static final byte STATUS_TERMINATED = 4;
+	public static final int STATUS_COUNT = 5;
 
 
     private static final void writeColor(float[] array, int offset, float color[])
@@ -966,6 +1279,29 @@ public class RaytraceScene {
         }
     }
 
+    /**
+     * Writes the color with the red, green and blue components scaled by weight
+     */
+    private static final void writeColor(float[] array, int offset, float color[], float weight)
+    {
+        if (array != null)
+        {
+            for (int k = 0, wr = offset; k < 3; ++k, ++wr)
+            {
+                array[wr] = color[k] * weight;
+            }
+            array[offset + 3] = color[3];
+        }
+    }
+
+    private static final void writeWeight(RaySimulationObject ray, int entry)
+    {
+        if (ray.endWeight != null)
+        {
+            ray.endWeight[entry] = ray.rouletteWeight;
+        }
+    }
+
     private static final void multColor(float[] sceneEndpointColor, int outIndex, float color[])
     {
         if (sceneEndpointColor != null)
@@ -991,6 +1327,11 @@ public class RaytraceScene {
         }
     }
 
+	/**
+	 * Traces the rays with the snapshot pinned in currentRay, or updates the scene if there is none.
+	 * Ray j is generated with the global index j + genBegnIndex - beginRay of numRays rays, callers tracing a run in blocks have to pass the global index of the block.
+	 * The random numbers only depend on the seed, that index and currentRay.pass, repeated runs with the same rays need different passes.
+	 */
 	public final int calculateRays(
 			int beginRay,
 			int endRay,
@@ -1012,7 +1353,258 @@ public class RaytraceScene {
 			RaySimulationObject currentRay,
 			byte unacceptedBahavior)
 	{
-		updateScene();
+		TraceSnapshot pinned = currentRay.snapshot;
+		if (pinned == null)
+		{
+			currentRay.snapshot = updateScene();
+		}
+		try
+		{
+			return traceRays(beginRay, endRay, numRays, gen, genBegnIndex, outBeginIndex, startpoints, startdirs, endpoints, enddirs, sceneEndpointColor, trajectory, accepted, bounces, lastObject, maxBounces, bidir, currentRay, unacceptedBahavior);
+		}
+		finally
+		{
+			currentRay.snapshot = pinned;
+		}
+	}
+
+	/**
+	 * Traces numRays rays of the generator in blocks of at most blockSize rays and hands every block to the sink.
+	 * Every thread reuses one block, so the memory doesn't grow with the number of rays. All blocks use the same snapshot.
+	 */
+	public final void calculateRays(final AbstractRayGenerator gen, final int numRays, final int blockSize, final int maxBounces, final boolean bidir, final byte unacceptedBahavior, final RayResultSink sink)
+	{
+		final TraceSnapshot snapshot = updateScene();
+		final ThreadPool.ThreadLocal<RaySimulationData> data = DataHandler.runnableRunner.new ThreadLocal<>();
+		final ThreadPool.ThreadLocal<RaySimulationObject> rso = DataHandler.runnableRunner.new ThreadLocal<>();
+		DataHandler.runnableRunner.runParallel(new ThreadPool.ParallelRangeRunnable() {
+			@Override
+			public void run(int from, int to) {
+				RaySimulationData block = data.get();
+				RaySimulationObject currentRay = rso.get();
+				if (block == null)
+				{
+					data.set(block = new RaySimulationData(blockSize, bidir));
+					rso.set(currentRay = new RaySimulationObject());
+					currentRay.snapshot = snapshot;
+					currentRay.endWeight = block.weight;
+				}
+				int count = to - from;
+				calculateRays(0, count, numRays, gen, from, 0, null, null, block.endpoints, block.enddirs, block.endcolor, null, block.accepted, block.bounces, block.lastObject, maxBounces, bidir, currentRay, unacceptedBahavior);
+				sink.write(from, count, block);
+			}
+
+			@Override
+			public void finished() {}
+		}, "Stream Rays", null, 0, numRays, blockSize, true);
+	}
+
+	/**
+	 * Traces packets of wavelengths.length rays, which share the path of the generated ray up to its first dispersive refraction.
+	 * From there on every wavelength is traced on its own. Wavelength k of ray j is written to the entry j * wavelengths.length + k
+	 * of accepted, bounces, lastObject and the three or four components of endpoints, enddirs and endcolor.
+	 * Rays ending in a volume object are marked with STATUS_VOLUME and not traced further.
+	 * @return number of rays which were split
+	 */
+	public final int calculateSpectralRays(
+			int beginRay,
+			int endRay,
+			int numRays,
+			AbstractRayGenerator gen,
+			int genBeginIndex,
+			double wavelengths[],
+			float endpoints[],
+			float enddirs[],
+			float endcolor[],
+			byte accepted[],
+			int bounces[],
+			OpticalObject lastObject[],
+			int maxBounces,
+			RaySimulationObject currentRay)
+	{
+		TraceSnapshot pinned = currentRay.snapshot;
+		if (pinned == null)
+		{
+			currentRay.snapshot = updateScene();
+		}
+		try
+		{
+			return traceSpectralRays(beginRay, endRay, numRays, gen, genBeginIndex, wavelengths, endpoints, enddirs, endcolor, accepted, bounces, lastObject, maxBounces, currentRay);
+		}
+		finally
+		{
+			currentRay.snapshot = pinned;
+			currentRay.stopAtDispersion = false;
+			currentRay.wavelength = Double.NaN;
+		}
+	}
+
+	/**
+	 * Streaming version of calculateSpectralRays, the sink gets blocks of wavelengths.length entries per ray, beginning at the entry from * wavelengths.length
+	 */
+	public final void calculateSpectralRays(final AbstractRayGenerator gen, final int numRays, final int blockSize, final double wavelengths[], final int maxBounces, final RayResultSink sink)
+	{
+		final TraceSnapshot snapshot = updateScene();
+		final int packet = wavelengths.length;
+		final ThreadPool.ThreadLocal<RaySimulationData> data = DataHandler.runnableRunner.new ThreadLocal<>();
+		final ThreadPool.ThreadLocal<RaySimulationObject> rso = DataHandler.runnableRunner.new ThreadLocal<>();
+		DataHandler.runnableRunner.runParallel(new ThreadPool.ParallelRangeRunnable() {
+			@Override
+			public void run(int from, int to) {
+				RaySimulationData block = data.get();
+				RaySimulationObject currentRay = rso.get();
+				if (block == null)
+				{
+					data.set(block = new RaySimulationData(blockSize * packet, false));
+					rso.set(currentRay = new RaySimulationObject());
+					currentRay.snapshot = snapshot;
+					currentRay.endWeight = block.weight;
+				}
+				int count = to - from;
+				calculateSpectralRays(0, count, numRays, gen, from, wavelengths, block.endpoints, block.enddirs, block.endcolor, block.accepted, block.bounces, block.lastObject, maxBounces, currentRay);
+				sink.write((long)from * packet, count * packet, block);
+			}
+
+			@Override
+			public void finished() {}
+		}, "Stream Spectral Rays", null, 0, numRays, blockSize, true);
+	}
+
+	private final int traceSpectralRays(
+			int beginRay,
+			int endRay,
+			int numRays,
+			AbstractRayGenerator gen,
+			int genBeginIndex,
+			double wavelengths[],
+			float endpoints[],
+			float enddirs[],
+			float endcolor[],
+			byte accepted[],
+			int bounces[],
+			OpticalObject lastObject[],
+			int maxBounces,
+			RaySimulationObject currentRay)
+	{
+		final TraceSnapshot snapshot = currentRay.snapshot;
+		final int packet = wavelengths.length;
+		final Vector3d position = currentRay.position, direction = currentRay.direction;
+		final Vector3d splitPosition = new Vector3d(), splitDirection = new Vector3d();
+		final float color[] = currentRay.color, splitColor[] = new float[4];
+		final OpticalObject source = gen.getSource();
+		int splitCount = 0;
+		for (int j = beginRay; j < endRay; ++j)
+		{
+			final int ray = j + genBeginIndex - beginRay;
+			currentRay.random.setRay(seed, currentRay.pass, ray, 0);
+			gen.generate(ray, numRays, position, direction, currentRay.v3, color, currentRay.random);
+			if (RaytraceMetrics.ENABLED)	{RaytraceMetrics.rayGenerated();}
+			OpticalObject successor[] = gen.getSuccessors();
+			if (successor == null)			{successor = snapshot.objects;}
+			BoundingVolumeHierarchy hierarchy = snapshot.getHierarchy(successor);
+			currentRay.nearest.object = source;
+			if (source != null)
+			{
+				TraceSnapshot.Links links = snapshot.getLinks(source);
+				successor = links.successor;
+				hierarchy = links.successorHierarchy;
+			}
+			currentRay.numBounces = 0;
+			currentRay.throughput = 1;
+			currentRay.rouletteWeight = 1;
+			currentRay.wavelength = Double.NaN;
+			currentRay.stopAtDispersion = true;
+			currentRay.dispersed = false;
+			OpticalObject res = traceRay(currentRay, maxBounces, null, 0, successor, hierarchy, null, 0);
+			if (!currentRay.dispersed)
+			{
+				for (int k = 0; k < packet; ++k)
+				{
+					writeSpectralResult(currentRay, res, j * packet + k, endpoints, enddirs, endcolor, accepted, bounces, lastObject, snapshot);
+				}
+				continue;
+			}
+			++splitCount;
+			splitPosition.set(position);
+			splitDirection.set(direction);
+			System.arraycopy(color, 0, splitColor, 0, 4);
+			final int splitBounces = currentRay.numBounces;
+			final float splitThroughput = currentRay.throughput, splitWeight = currentRay.rouletteWeight;
+			final OpticalObject splitObject = currentRay.nearest.object;
+			successor = currentRay.stopSuccessor;
+			hierarchy = currentRay.stopHierarchy;
+			currentRay.stopAtDispersion = false;
+			for (int k = 0; k < packet; ++k)
+			{
+				position.set(splitPosition);
+				direction.set(splitDirection);
+				System.arraycopy(splitColor, 0, color, 0, 4);
+				currentRay.numBounces = splitBounces;
+				currentRay.throughput = splitThroughput;
+				currentRay.rouletteWeight = splitWeight;
+				currentRay.nearest.object = splitObject;
+				currentRay.wavelength = wavelengths[k];
+				currentRay.random.setWavelength(k);
+				res = traceRay(currentRay, maxBounces, null, 0, successor, hierarchy, null, 0);
+				writeSpectralResult(currentRay, res, j * packet + k, endpoints, enddirs, endcolor, accepted, bounces, lastObject, snapshot);
+			}
+		}
+		return splitCount;
+	}
+
+	private final void writeSpectralResult(RaySimulationObject currentRay, OpticalObject res, int entry, float endpoints[], float enddirs[], float endcolor[], byte accepted[], int bounces[], OpticalObject lastObject[], TraceSnapshot snapshot)
+	{
+		lastObject[entry] = original(res);
+		bounces[entry] = currentRay.numBounces;
+		currentRay.position.write(endpoints, entry * 3);
+		currentRay.direction.write(enddirs, entry * 3);
+		if (currentRay.terminated)
+		{
+			accepted[entry] = STATUS_TERMINATED;
+		}
+		else if (res instanceof OpticalVolumeObject)
+		{
+			accepted[entry] = STATUS_VOLUME;
+		}
+		else if (accept(res, snapshot.forceEndpoint))
+		{
+			accepted[entry] = STATUS_ACCEPTED;
+			if (currentRay.readColorFront)
+			{
+				readColor(currentRay, res, currentRay.color);
+			}
+		}
+		else
+		{
+			accepted[entry] = STATUS_REJECTED;
+		}
+		writeColor(endcolor, entry * 4, currentRay.color, currentRay.rouletteWeight);
+		writeWeight(currentRay, entry);
+		if (RaytraceMetrics.ENABLED)	{RaytraceMetrics.rayFinished(accepted[entry], bounces[entry]);}
+	}
+
+	private final int traceRays(
+			int beginRay,
+			int endRay,
+			int numRays,
+			AbstractRayGenerator gen,
+			int genBegnIndex,
+			int outBeginIndex,
+			float[] startpoints,
+			float[] startdirs,
+			Object endpoints,
+			float[] enddirs,
+			float[] sceneEndpointColor,
+			double[] trajectory,
+			byte[] accepted,
+			int[] bounces,
+			OpticalObject[] lastObject,
+			int maxBounces,
+			boolean bidir,
+			RaySimulationObject currentRay,
+			byte unacceptedBahavior)
+	{
+		final TraceSnapshot snapshot = currentRay.snapshot;
 		float color[] = currentRay.color;
 		int notAcceptedCount = 0;
 		Vector2d coord = currentRay.v3;
@@ -1026,25 +1618,30 @@ public class RaytraceScene {
 		Arrays.fill(bounces, beginRay, endRay, 0);
 		Arrays.fill(accepted, beginRay, endRay, STATUS_UNDEFINED);
 		OpticalObject successor[] = null;
+		BoundingVolumeHierarchy hierarchy = null;
 		OpticalObject source = gen.getSource();
 		Arrays.fill(lastObject, outBeginIndex, outBeginIndex + (endRay - beginRay) * (bidir ? 2 : 1), source);
+		int attempts[] = unacceptedBahavior == UNACCEPTED_RECALCULATE ? new int[endRay - beginRay] : null;
 		while (true)
 		{
 			for (int j = beginRay; j < endRay; ++j)
 			{
-				if (accepted[j] == STATUS_REJECTED || accepted[j] == STATUS_ACCEPTED || bounces[j] > maxBounces)
+				if (accepted[j] == STATUS_REJECTED || accepted[j] == STATUS_ACCEPTED || accepted[j] == STATUS_TERMINATED || bounces[j] > maxBounces)
 				{
 					continue;
 				}
 				final int outIndex = outBeginIndex + (j - beginRay) * (bidir ? 2 : 1);
 				final int trajectoryBeginIndex = outIndex * trajectoryStep;
+				currentRay.random.setRay(seed, currentRay.pass, j + genBegnIndex - beginRay, attempts == null ? 0 : attempts[j - beginRay]);
 				if (accepted[j] == STATUS_UNDEFINED)
 				{
-					gen.generate(j + genBegnIndex - beginRay, numRays, position, direction, coord, color);
+					gen.generate(j + genBegnIndex - beginRay, numRays, position, direction, coord, color, currentRay.random);
+					if (RaytraceMetrics.ENABLED)	{RaytraceMetrics.rayGenerated();}
 					if (startpoints != null){position.write(startpoints, outIndex * 3);}
 					if (startdirs != null)	{direction.write(startdirs, outIndex * 3);}
 					successor = gen.getSuccessors();
-					if (successor == null)			{successor = this.activeObjects;}
+					if (successor == null)			{successor = snapshot.objects;}
+					hierarchy = snapshot.getHierarchy(successor);
 					startpx = position.x; startpy = position.y; startpz = position.z;
 					startdx = position.x; startdy = position.y; startdz = position.z;
 					if (currentRay.readColorGen)	{writeColor(sceneEndpointColor, outIndex * 4, color);}
@@ -1058,17 +1655,27 @@ public class RaytraceScene {
 				currentRay.numBounces = bounces[j];
 				if (lastObject[outIndex] != null)
 				{
-					successor = lastObject[outIndex].successor;
+					TraceSnapshot.Links links = snapshot.getLinks(lastObject[outIndex]);
+					successor = links.successor;
+					hierarchy = links.successorHierarchy;
 					currentRay.nearest.object = lastObject[outIndex];
 				}
 				final int oldNumBounces = currentRay.numBounces;
-				OpticalObject res = calculateRay(currentRay, maxBounces, trajectory, trajectoryBeginIndex, successor, sceneEndpointColor, outIndex);
+				currentRay.throughput = 1;
+				currentRay.rouletteWeight = 1;
+				OpticalObject res = traceRay(currentRay, maxBounces, trajectory, trajectoryBeginIndex, successor, hierarchy, sceneEndpointColor, outIndex);
 				if (lastObject != null)
 				{
-					lastObject[outIndex] = res;
+					lastObject[outIndex] = original(res);
 				}
 				bounces[j] = currentRay.numBounces;
-				if (res instanceof OpticalVolumeObject && oldNumBounces + 1 != currentRay.numBounces)
+				if (currentRay.terminated)
+				{
+					accepted[j] = STATUS_TERMINATED;
+					position.write(endpoints, outIndex * 3);
+					direction.write(enddirs, outIndex * 3);
+				}
+				else if (res instanceof OpticalVolumeObject && oldNumBounces + 1 != currentRay.numBounces)
 				{
 					if (ovo == null)
 					{
@@ -1078,7 +1685,7 @@ public class RaytraceScene {
 					position.write(endpoints, outIndex * 3);
 					direction.write(enddirs, outIndex * 3);
 				}
-				else if (accept(res, forceEndpoint))
+				else if (accept(res, snapshot.forceEndpoint))
 				{
 					if (currentRay.readColorFront)
 					{
@@ -1086,7 +1693,8 @@ public class RaytraceScene {
 					}
 					position.write(endpoints, outIndex * 3);
 					direction.write(enddirs, outIndex * 3);
-					writeColor(sceneEndpointColor, outIndex * 4, color);
+					writeColor(sceneEndpointColor, outIndex * 4, color, currentRay.rouletteWeight);
+					writeWeight(currentRay, outIndex);
 					if (bidir)
 					{
 						if (accepted[j] == STATUS_UNDEFINED)
@@ -1099,19 +1707,24 @@ public class RaytraceScene {
 							position.set(endpoints, outIndex * 3 + 3);
 							direction.set(enddirs, outIndex * 3 + 3);
 						}
-						res = calculateRay(currentRay, maxBounces, trajectory, trajectoryBeginIndex + trajectoryStep, successor, sceneEndpointColor, outIndex);
-						if (accept(res, forceStartpoint))
+						res = traceRay(currentRay, maxBounces, trajectory, trajectoryBeginIndex + trajectoryStep, successor, hierarchy, sceneEndpointColor, outIndex);
+						if (currentRay.terminated)
+						{
+							accepted[j] = STATUS_TERMINATED;
+						}
+						else if (accept(res, snapshot.forceStartpoint))
 						{
 							accepted[j] = STATUS_ACCEPTED;
 							position.write(endpoints, outIndex * 3 + 3);
 							direction.write(enddirs, outIndex * 3 + 3);
-							writeColor(sceneEndpointColor, outIndex * 4 + 4, color);
+							writeColor(sceneEndpointColor, outIndex * 4 + 4, color, currentRay.rouletteWeight);
+							writeWeight(currentRay, outIndex + 1);
 						}
 						else
 						{
 							switch(unacceptedBahavior)
 							{
-								case UNACCEPTED_RECALCULATE:accepted[j] = STATUS_UNDEFINED;--j;break;
+								case UNACCEPTED_RECALCULATE:accepted[j] = STATUS_UNDEFINED;++attempts[j - beginRay];--j;break;
 								case UNACCEPTED_MARK:
 								case UNACCEPTED_DELETE:accepted[j] = STATUS_REJECTED;break;
 							}
@@ -1127,7 +1740,7 @@ public class RaytraceScene {
 				{
 					switch(unacceptedBahavior)
 					{
-						case UNACCEPTED_RECALCULATE:accepted[j] = STATUS_UNDEFINED;--j;break;
+						case UNACCEPTED_RECALCULATE:accepted[j] = STATUS_UNDEFINED;++attempts[j - beginRay];--j;break;
 						case UNACCEPTED_MARK:
 						case UNACCEPTED_DELETE:accepted[j] = STATUS_REJECTED;break;
 					}
@@ -1175,9 +1788,175 @@ public class RaytraceScene {
 				}
 			}
 		}
+		if (RaytraceMetrics.ENABLED)
+		{
+			for (int j = beginRay; j < endRay; ++j)
+			{
+				RaytraceMetrics.rayFinished(accepted[j], bounces[j]);
+			}
+		}
 		return notAcceptedCount;
 	}
 
+	private final void getNextIntersections(RayBatch batch)
+	{
+		final int size = batch.size;
+		final int objectIndex[] = batch.objectIndex;
+		final int indices[] = batch.indices;
+		for (int i = 0; i < size; ++i)
+		{
+			if (batch.status[i] == STATUS_UNDEFINED)
+			{
+				objectIndex[i] = -2;
+				batch.tMax[i] = Double.POSITIVE_INFINITY;
+			}
+		}
+		for (int i = 0; i < size; ++i)
+		{
+			if (objectIndex[i] != -2)
+			{
+				continue;
+			}
+			final OpticalObject successor[] = batch.successor[i];
+			int count = 0;
+			for (int j = i; j < size; ++j)
+			{
+				if (objectIndex[j] == -2 && batch.successor[j] == successor)
+				{
+					objectIndex[j] = -1;
+					indices[count++] = j;
+				}
+			}
+			for (int l = 0; l < successor.length; ++l)
+			{
+				successor[l].getIntersections(batch, indices, count, epsilon, l);
+			}
+		}
+	}
+
+	private final void finishRay(RayBatch batch, int index, RaySimulationObject currentRay)
+	{
+		OpticalObject res = batch.lastObject[index];
+		if (accept(res, currentRay.snapshot.forceEndpoint))
+		{
+			batch.status[index] = STATUS_ACCEPTED;
+			if (currentRay.readColorFront)
+			{
+				readColor(currentRay, res, currentRay.color);
+				writeColor(batch.color, index * 4, currentRay.color);
+			}
+		}
+		else
+		{
+			batch.status[index] = STATUS_REJECTED;
+		}
+	}
+
+	/**
+	 * Traces a packet of rays. Intersections are calculated for all rays sharing the same successor objects at once,
+	 * the surface interaction is applied per ray. Rays which end in a volume object get STATUS_VOLUME and have to be continued by the volume tracer.
+	 * The rays start at the successors of batch.lastObject or at all active objects if it is null.
+	 */
+	public final void calculateRays(RayBatch batch, int maxBounces, RaySimulationObject currentRay)
+	{
+		TraceSnapshot pinned = currentRay.snapshot;
+		if (pinned == null)
+		{
+			currentRay.snapshot = updateScene();
+		}
+		try
+		{
+			traceRays(batch, maxBounces, currentRay);
+		}
+		finally
+		{
+			currentRay.snapshot = pinned;
+		}
+	}
+
+	private final void traceRays(RayBatch batch, int maxBounces, RaySimulationObject currentRay)
+	{
+		final TraceSnapshot snapshot = currentRay.snapshot;
+		final OpticalObject objects[] = snapshot.objects;
+		final int size = batch.size;
+		final Vector3d position = currentRay.position;
+		final Vector3d direction = currentRay.direction;
+		for (int i = 0; i < size; ++i)
+		{
+			batch.status[i] = STATUS_UNDEFINED;
+			batch.bounces[i] = 0;
+			batch.successor[i] = batch.lastObject[i] == null ? objects : snapshot.successor(batch.lastObject[i]);
+			double len = 1 / Math.sqrt(batch.dx[i] * batch.dx[i] + batch.dy[i] * batch.dy[i] + batch.dz[i] * batch.dz[i]);
+			batch.dx[i] *= len;
+			batch.dy[i] *= len;
+			batch.dz[i] *= len;
+		}
+		int remaining = size;
+		while (remaining != 0)
+		{
+			getNextIntersections(batch);
+			remaining = 0;
+			for (int i = 0; i < size; ++i)
+			{
+				if (batch.status[i] != STATUS_UNDEFINED)
+				{
+					continue;
+				}
+				batch.getPosition(i, position);
+				batch.getDirection(i, direction);
+				/*the intersection tests already stored the nearest hit*/
+				final Intersection nearest = batch.hit[i];
+				if (batch.objectIndex[i] < 0)
+				{
+					position.add(direction, 10000);
+					batch.setRay(i, position, direction);
+					finishRay(batch, i, currentRay);
+					continue;
+				}
+				OpticalObject obj = nearest.object;
+				if (RaytraceMetrics.ENABLED)	{RaytraceMetrics.hit(obj);}
+				position.set(nearest.position);
+				batch.lastObject[i] = obj;
+				++batch.bounces[i];
+				if (obj instanceof OpticalVolumeObject)
+				{
+					batch.setRay(i, position, direction);
+					batch.status[i] = STATUS_VOLUME;
+					continue;
+				}
+				currentRay.invalidated = false;
+				currentRay.numBounces = batch.bounces[i];
+				currentRay.random.setRay(seed, currentRay.pass, batch.rayOffset + i, 0);
+				currentRay.random.setBounce(batch.bounces[i]);
+				SurfaceObject surf = apply_surface_to_ray(currentRay, null, 0, batch.color, i, nearest, direction);
+				if (surf.diffuse != 0)
+				{
+					direction.add(currentRay.random.nextDouble() - 0.5, currentRay.random.nextDouble() - 0.5, currentRay.random.nextDouble() - 0.5, direction.norm() * surf.diffuse);
+				}
+				direction.normalize();
+				batch.setRay(i, position, direction);
+				if (currentRay.invalidated || batch.bounces[i] >= maxBounces)
+				{
+					finishRay(batch, i, currentRay);
+					continue;
+				}
+				batch.successor[i] = nearest.c < 0 ? snapshot.successor(surf) : snapshot.predessor(surf);
+				++remaining;
+			}
+		}
+		for (int i = 0; i < size; ++i)
+		{
+			batch.lastObject[i] = original(batch.lastObject[i]);
+		}
+		if (RaytraceMetrics.ENABLED)
+		{
+			for (int i = 0; i < size; ++i)
+			{
+				RaytraceMetrics.rayFinished(batch.status[i], batch.bounces[i]);
+			}
+		}
+	}
+
 	public static final void getNextIntersection(
 			Vector3d position,
 			Vector3d direction,
@@ -1192,7 +1971,37 @@ public class RaytraceScene {
 		for (int l = 0; l < meshSuccessor.length;    ++l)	{meshSuccessor[l].getIntersection(position, direction, nearest, epsilon, nearest.distance);}
 	}
 
+	public static final void getNextIntersection(
+			Vector3d position,
+			Vector3d direction,
+			Intersection nearest,
+			double epsilon,
+			OpticalObject successor[],
+			BoundingVolumeHierarchy hierarchy,
+			int hierarchyStack[])
+	{
+		if (hierarchy != null && hierarchy.source == successor)
+		{
+			hierarchy.getIntersection(position, direction, nearest, epsilon, hierarchyStack);
+		}
+		else
+		{
+			for (int l = 0; l < successor.length; ++l)	{successor[l].getIntersection(position, direction, nearest, epsilon, nearest.distance);}
+		}
+	}
+
+	public final BoundingVolumeHierarchy getActiveHierarchy() {return activeHierarchy;}
 
+	public final BoundingVolumeHierarchy getHierarchy(OpticalObject successor[])
+	{
+		return snapshot.getHierarchy(successor);
+	}
+
+	private final TraceSnapshot getSnapshot(RaySimulationObject ray)
+	{
+		TraceSnapshot res = ray.snapshot;
+		return res == null ? snapshot : res;
+	}
 
 	public final OpticalObject calculateRay(
 			RaySimulationObject ray,
@@ -1203,7 +2012,43 @@ public class RaytraceScene {
 			float color[],
 			int colorWriteIndex)
 	{
-		if (successor == null){successor = activeObjects;}
+		TraceSnapshot snapshot = getSnapshot(ray);
+		successor = successor == null ? snapshot.objects : snapshot.get(successor);
+		return original(traceRay(ray, bounces, trajectory, trajectoryWriteIndex, successor, snapshot.getHierarchy(successor), color, colorWriteIndex));
+	}
+
+	/**
+	 * Traces the ray through the frozen copies of the given objects in the snapshot of the ray
+	 * @return the scene object the ray ended at
+	 */
+	public final OpticalObject calculateRay(
+			RaySimulationObject ray,
+			int bounces,
+			double trajectory[],
+			int trajectoryWriteIndex,
+			OpticalObject successor[],
+			BoundingVolumeHierarchy hierarchy,
+			float color[],
+			int colorWriteIndex)
+	{
+		TraceSnapshot snapshot = getSnapshot(ray);
+		successor = successor == null ? snapshot.objects : snapshot.get(successor);
+		return original(traceRay(ray, bounces, trajectory, trajectoryWriteIndex, successor, snapshot.get(hierarchy), color, colorWriteIndex));
+	}
+
+	private final OpticalObject traceRay(
+			RaySimulationObject ray,
+			int bounces,
+			double trajectory[],
+			int trajectoryWriteIndex,
+			OpticalObject successor[],
+			BoundingVolumeHierarchy hierarchy,
+			float color[],
+			int colorWriteIndex)
+	{
+		final TraceSnapshot snapshot = getSnapshot(ray);
+		final float rouletteThreshold = this.rouletteThreshold;
+		if (successor == null){successor = snapshot.objects;}
 		Intersection nearest = ray.nearest;
 		OpticalObject res = nearest.object;
 		Vector3d position = ray.position;
@@ -1214,18 +2059,28 @@ public class RaytraceScene {
 		}
 		++ray.numBounces;
 		ray.invalidated = false;
+		ray.terminated = false;
 		for (; ray.numBounces < bounces +1; ++ ray.numBounces)
 		{
+			ray.random.setBounce(ray.numBounces);
 			direction.normalize();
 			nearest.object = null;
 			nearest.distance = Double.POSITIVE_INFINITY;
-        	for (int l = 0; l < successor.length; ++l)
-			{
-				successor[l].getIntersection(position, direction, nearest, epsilon, nearest.distance);//TODO: origin of null pointer exceptions
-			}
+			getNextIntersection(position, direction, nearest, epsilon, successor, hierarchy, ray.hierarchyStack);
 
 			if (Double.isFinite(nearest.distance))
 			{
+				if (ray.stopAtDispersion && Double.isNaN(ray.wavelength) && nearest.object instanceof SurfaceObject && ((SurfaceObject)nearest.object).isDispersive())
+				{
+					/*position and direction stay in front of the surface, so the ray can be continued once per wavelength*/
+					ray.dispersed = true;
+					ray.stopSuccessor = successor;
+					ray.stopHierarchy = hierarchy;
+					nearest.object = res;
+					--ray.numBounces;
+					return res;
+				}
+				if (RaytraceMetrics.ENABLED)	{RaytraceMetrics.hit(nearest.object);}
 				position.set(nearest.position);
 				res = nearest.object;
 				if (res instanceof OpticalVolumeObject)
@@ -1251,10 +2106,33 @@ public class RaytraceScene {
 				    ++ray.numBounces;
                     return res;
 				}
-				successor = nearest.c < 0 ? obj.successor : obj.predessor;
+				if (ray.throughput < rouletteThreshold)
+				{
+					/*russian roulette, the survivors carry the weight of the terminated rays*/
+					float survival = ray.throughput / rouletteThreshold;
+					if (ray.random.nextDouble() >= survival)
+					{
+						ray.terminated = true;
+						++ray.numBounces;
+						return res;
+					}
+					ray.rouletteWeight /= survival;
+					ray.throughput = rouletteThreshold;
+				}
+				TraceSnapshot.Links links = snapshot.getLinks(obj);
+				if (nearest.c < 0)
+				{
+					successor = links.successor;
+					hierarchy = links.successorHierarchy;
+				}
+				else
+				{
+					successor = links.predessor;
+					hierarchy = links.predessorHierarchy;
+				}
 				if (obj.diffuse != 0)
 				{
-					direction.add(Math.random() - 0.5, Math.random() - 0.5, Math.random() - 0.5, direction.norm() * obj.diffuse);
+					direction.add(ray.random.nextDouble() - 0.5, ray.random.nextDouble() - 0.5, ray.random.nextDouble() - 0.5, direction.norm() * obj.diffuse);
 				}
 			}
 			else
@@ -1287,10 +2165,12 @@ public class RaytraceScene {
         				case MULT:
         					readColor(ray, obj, ray.color);
         					multColor(color, colorWriteIndex, ray.color);
+        					ray.throughput *= Math.max(ray.color[0], Math.max(ray.color[1], ray.color[2])) * multColor;
         					break;
         				case MIX:
         					readColor(ray, obj, ray.color);
         					mixColor(color, colorWriteIndex, ray.color);
+        					ray.throughput *= 1 - ray.color[3] * multColor;
         					break;
         				default:
         					break;
@@ -1303,19 +2183,24 @@ public class RaytraceScene {
         	case REFRACTION:
         		double normaldot = nearest.normal.dot();
         		double iorq = obj.iorq;
-        		if (Double.isNaN(iorq))
+        		boolean dispersive = !Double.isNaN(ray.wavelength) && obj.isDispersive();
+        		if (Double.isNaN(iorq) || dispersive)
         		{
-        			VariableStack vs = new VariableStack(this.vs);
-        			Variable x = new Variable("x", nearest.position.x);
-        			Variable y = new Variable("y", nearest.position.y);
-        			Variable z = new Variable("z", nearest.position.z);
-        			vs.addLocal(x);
-        			vs.addLocal(y);
-        			vs.addLocal(z);
-        			Controller control = new Controller();
-        			double ior0 = obj.ior0.calculate(vs, control).doubleValue();
-        			double ior1 = obj.ior1.calculate(vs, control).doubleValue();
-        			double ior = obj.invertNormal == nearest.c > 0 ? ior1 / ior0 : ior0 / ior1;
+        			RefractionEnvironment env = ray.refractionEnvironment;
+        			if (env == null || env.parent != this.vs)
+        			{
+        				ray.refractionEnvironment = env = new RefractionEnvironment(this.vs);
+        			}
+        			env.setPosition(nearest.position);
+        			double ior0 = env.calculate(obj.ior0, obj.compiledIor0, obj.constantIor0);
+        			double ior1 = env.calculate(obj.ior1, obj.compiledIor1, obj.constantIor1);
+        			if (dispersive)
+        			{
+        				ior0 = obj.getDispersedIor(ior0, ray.wavelength);
+        				ior1 = obj.getDispersedIor(ior1, ray.wavelength);
+        			}
+        			/*constant indices are oriented like in updateIOR, so the d-line gives the undispersed result*/
+        			double ior = (Double.isNaN(obj.iorq) ? obj.invertNormal == nearest.c > 0 : obj.invertNormal) ? ior1 / ior0 : ior0 / ior1;
         			iorq = ior * ior - 1;
         		}
         		double c = nearest.c;
@@ -1323,7 +2208,7 @@ public class RaytraceScene {
                 direction.add(nearest.normal,(tmp > 0 ? (Math.sqrt(tmp) - 1) : -2.) * c / normaldot);
         		break;
         	case REFLECTION:direction.add(nearest.normal, -2 * nearest.c/nearest.normal.dot());break;
-        	case RANDOM:	direction.setAdd(nearest.normal, Math.random() - 0.5, Math.random() - 0.5, Math.random() - 0.5);break;
+        	case RANDOM:	direction.setAdd(nearest.normal, ray.random.nextDouble() - 0.5, ray.random.nextDouble() - 0.5, ray.random.nextDouble() - 0.5);break;
         	default:
         		throw new IllegalArgumentException("Object with illegal material: " + obj.id);
         }
@@ -0,0 +1,133 @@
+package data.raytrace;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import data.DataHandler;
+import util.ThreadPool;
+
+/**
+ * Accepts connections of RaytraceCoordinators. A connection starts with a DistributedTraceJob, the worker answers with the number of ranges it traces at once.
+ * Then the coordinator sends range indices, which are answered by the index, the length and the content of the range sink. A negative index ends the connection.
+ */
+public class RaytraceWorker implements Runnable {
+	private static final Logger logger = LoggerFactory.getLogger(RaytraceWorker.class);
+	private final ServerSocket server;
+
+	public RaytraceWorker(ServerSocket server)
+	{
+		this.server = server;
+	}
+
+	public int getPort()
+	{
+		return server.getLocalPort();
+	}
+
+	@Override
+	public void run()
+	{
+		while (!server.isClosed())
+		{
+			try
+			{
+				final Socket socket = server.accept();
+				new Thread(new Runnable() {
+					@Override
+					public void run() {
+						try
+						{
+							serve(socket);
+						}
+						catch (IOException e)
+						{
+							logger.error("Connection to " + socket.getRemoteSocketAddress() + " failed", e);
+						}
+					}
+				}, "Raytrace Worker " + socket.getRemoteSocketAddress()).start();
+			}
+			catch (IOException e)
+			{
+				if (!server.isClosed())
+				{
+					logger.error("Can't accept connection", e);
+				}
+			}
+		}
+	}
+
+	private static void serve(Socket socket) throws IOException
+	{
+		try
+		{
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			final DistributedTraceJob job = DistributedTraceJob.read(in);
+			final RaytraceScene scene = job.loadScene("Worker " + socket.getRemoteSocketAddress());
+			final TraceSnapshot snapshot = scene.updateScene();
+			final MergeableRayResultSink template = job.createSink(scene);
+			final ThreadPool.ThreadLocal<DistributedTraceJob.RangeTracer> tracers = DataHandler.runnableRunner.new ThreadLocal<>();
+			out.writeInt(DataHandler.runnableRunner.getMaxThreads());
+			out.flush();
+			for (int range; (range = in.readInt()) >= 0;)
+			{
+				final int current = range;
+				DataHandler.runnableRunner.run(new Runnable() {
+					@Override
+					public void run() {
+						byte content[] = null;
+						String error = null;
+						try
+						{
+							DistributedTraceJob.RangeTracer tracer = tracers.get();
+							if (tracer == null)
+							{
+								tracers.set(tracer = job.new RangeTracer(scene, snapshot));
+							}
+							content = RaytraceCoordinator.traceRange(tracer, current, template);
+						}
+						catch (RuntimeException e)
+						{
+							logger.error("Can't trace range " + current, e);
+							error = e.toString();
+						}
+						synchronized(out)
+						{
+							try
+							{
+								out.writeInt(current);
+								if (content == null)
+								{
+									out.writeInt(-1);
+									out.writeUTF(error);
+								}
+								else
+								{
+									out.writeInt(content.length);
+									out.write(content);
+								}
+								out.flush();
+							}
+							catch (IOException e)
+							{
+								logger.error("Can't send range " + current, e);
+							}
+						}
+					}
+				}, "Distributed Range");
+			}
+		}
+		finally
+		{
+			socket.close();
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package data.raytrace;
+
+import java.awt.image.BufferedImage;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import geometry.Vector2d;
+import geometry.Vector3d;
+import jcomponents.util.ImageUtil;
+
+/**
+ * Accumulates the results of RaytraceScene.calculateSpectralRays on one surface, every wavelength of the packet gets its own channel.
+ * The counts are kept in fixed point (1 = 0x10000), so the sums don't depend on the order in which blocks arrive.
+ */
+public class SpectralTextureRayResultSink implements MergeableRayResultSink {
+	public final SurfaceObject object;
+	public final int width, height, channels;
+	public final long image[];
+
+	public SpectralTextureRayResultSink(SurfaceObject object, int width, int height, int channels)
+	{
+		this.object = object;
+		this.width = width;
+		this.height = height;
+		this.channels = channels;
+		this.image = new long[width * height * channels];
+	}
+
+	@Override
+	public void write(long begin, int count, RaySimulationData data)
+	{
+		final long blockImage[] = new long[image.length];
+		final Vector3d position = new Vector3d(), direction = new Vector3d();
+		final Vector2d tc = new Vector2d();
+		final float add[] = new float[channels];
+		boolean hit = false;
+		for (int i = 0; i < count; ++i)
+		{
+			if (data.accepted[i] != RaytraceScene.STATUS_ACCEPTED || data.lastObject[i] != object)
+			{
+				continue;
+			}
+			position.set(data.endpoints, i * 3);
+			direction.set(data.enddirs, i * 3);
+			object.getTextureCoordinates(position, direction, tc);
+			if (!(tc.x >= 0 && tc.x <= 1 && tc.y >= 0 && tc.y <= 1))
+			{
+				continue;
+			}
+			int channel = (int)((begin + i) % channels);
+			add[channel] = 1;
+			ImageUtil.addToPixel(tc.x * (width - 1), tc.y * (height - 1), width, height, add, 0, channels, 1, blockImage);
+			add[channel] = 0;
+			hit = true;
+		}
+		if (hit)
+		{
+			synchronized(image)
+			{
+				for (int i = 0; i < image.length; ++i)
+				{
+					image[i] += blockImage[i];
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return accumulated number of rays of the wavelength in the pixel
+	 */
+	public final double getCount(int x, int y, int channel)
+	{
+		synchronized(image)
+		{
+			return image[(y * width + x) * channels + channel] * 0x1.0p-16;
+		}
+	}
+
+	/**
+	 * @return the channel as gray image, scaled so that the largest value of all channels is white
+	 */
+	public BufferedImage getImage(int channel)
+	{
+		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+		synchronized(image)
+		{
+			long max = 1;
+			for (long value : image)
+			{
+				max = Math.max(max, value);
+			}
+			for (int y = 0; y < height; ++y)
+			{
+				for (int x = 0; x < width; ++x)
+				{
+					int gray = (int)(Math.max(0, image[(y * width + x) * channels + channel]) * 255 / max);
+					img.setRGB(x, y, (gray << 16) | (gray << 8) | gray);
+				}
+			}
+		}
+		return img;
+	}
+
+	@Override
+	public MergeableRayResultSink createEmpty()
+	{
+		return new SpectralTextureRayResultSink(object, width, height, channels);
+	}
+
+	@Override
+	public void writeContent(DataOutput out) throws IOException
+	{
+		synchronized(image)
+		{
+			for (long value : image)
+			{
+				out.writeLong(value);
+			}
+		}
+	}
+
+	@Override
+	public void addContent(DataInput in) throws IOException
+	{
+		synchronized(image)
+		{
+			for (int i = 0; i < image.length; ++i)
+			{
+				image[i] += in.readLong();
+			}
+		}
+	}
+
+	@Override
+	public void close() {}
+}
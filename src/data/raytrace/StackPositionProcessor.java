@@ -1,5 +1,6 @@
 package data.raytrace;
 
+import java.awt.GraphicsEnvironment;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -24,7 +25,6 @@ import geometry.Matrix4d;
 import geometry.Vector2d;
 import geometry.Vector3d;
 import jcomponents.Interface;
-import jcomponents.raytrace.RaySimulationData;
 import jcomponents.util.ImageUtil;
 import maths.Controller;
 import maths.Operation;
@@ -37,6 +37,7 @@ import util.ImageSaver;
 import util.JFrameUtils;
 import util.StringUtils;
 import util.ThreadPool;
+import util.TileAccumulator;
 import util.data.DoubleArrayList;
 import util.io.IOUtil;
 
@@ -165,8 +166,11 @@ public class StackPositionProcessor {
 					if (dal != null)
 					{
 						tmp.set(dal, index);
-						Interface.scene.cameraPosition.set(tmp);
-						Interface.scene.cameraRotation.setRadians(dal, index + 3);
+						if (!GraphicsEnvironment.isHeadless())
+						{
+							Interface.scene.cameraPosition.set(tmp);
+							Interface.scene.cameraRotation.setRadians(dal, index + 3);
+						}
 						tmp.multiply(dScale);
 						scene.cameraViewRunnable.gen.position.set(tmp);
 						scene.cameraViewRunnable.gen.rotation.setRadians(dal, index + 3);
@@ -211,12 +215,13 @@ public class StackPositionProcessor {
 			{
 				case SINGLE:
 				{
-					final int countArray[] = new int[trWidth * trHeight];
-					final float imageColorArray[] = new float[trWidth * trHeight * 5];
+					final long imageColorSum[] = new long[trWidth * trHeight * 5];
+					final TileAccumulator tiles = new TileAccumulator(DataHandler.runnableRunner, imageColorSum.length);
 					img = new BufferedImage(trWidth, trHeight, BufferedImage.TYPE_4BYTE_ABGR);
 					numIterations = rangeEnd - rangeBegin;
 					final double avarage[] = new double[2 * (rangeEnd - rangeBegin)];
 					System.out.println(rangeBegin + '-' + rangeEnd);
+					final TraceSnapshot snapshot = scene.updateScene();
 					DataHandler.runnableRunner.runParallel(new ThreadPool.ParallelRangeRunnable() {
 						@Override
 						public void run(int from, int to)
@@ -235,6 +240,7 @@ public class StackPositionProcessor {
 								}
 								threadLocal.rsd = new RaySimulationData(numRays, bidir);
 								threadLocal.rso = new RaySimulationObject();
+								threadLocal.rso.endWeight = threadLocal.rsd.weight;
 								threadLocal.variables = new VariableStack(scene.vs);
 								threadLocal.color = new float[5];
 								threadLocal.rso.readColorGen = true;
@@ -244,12 +250,14 @@ public class StackPositionProcessor {
 							}
 							RaySimulationData rsd = threadLocal.rsd;
 							RaySimulationObject currentRay = threadLocal.rso;
+							currentRay.snapshot = snapshot;
+							long tile[] = tiles.getTile();
 							//TODO
 							Matrix4d tmp = new Matrix4d();
 							ParseUtil parser = new ParseUtil();
 							for (int i = from; i < to && isRunning; ++i, progress.incrementAndGet())
 							{
-								int idx = i - from;
+								int idx = i - rangeBegin;
 								if (source instanceof OpticalSurfaceObject)
 								{
 									if (dal != null)
@@ -260,7 +268,7 @@ public class StackPositionProcessor {
 										{
 											continue;
 										}
-										gen.setArcs(elevation, azimuth);
+										threadLocal.gen.setArcs(elevation, azimuth);
 									}
 								}
 								else if (source instanceof MeshObject)
@@ -275,10 +283,11 @@ public class StackPositionProcessor {
 										logger.error("Can't update Transformation", e);
 									}
 								}
-								scene.calculateRays(0, numRays, numRays, gen, 0, 0, null, null, rsd.endpoints, rsd.enddirs, rsd.endcolor, null, rsd.accepted, rsd.bounces, rsd.lastObject, 10, bidir, currentRay, RaytraceScene.UNACCEPTED_DELETE);
+								/*every position gets its own random numbers*/
+								currentRay.pass = i;
+								scene.calculateRays(0, numRays, numRays, source instanceof OpticalSurfaceObject ? threadLocal.gen : gen, 0, 0, null, null, rsd.endpoints, rsd.enddirs, rsd.endcolor, null, rsd.accepted, rsd.bounces, rsd.lastObject, 10, bidir, currentRay, RaytraceScene.UNACCEPTED_DELETE);
 								int count = 0;
 								float tt[] = new float[5];
-								tt[4] = 1;
 								for (int j = 0; j < numRays; ++j)
 								{
 									if (rsd.lastObject[j] == evaluationObject && rsd.accepted[j] == RaytraceScene.STATUS_ACCEPTED)
@@ -287,20 +296,27 @@ public class StackPositionProcessor {
 										currentRay.direction.set(rsd.enddirs, j * 3);
 										evaluationObject.getTextureCoordinates(currentRay.position, currentRay.direction, currentRay.v3);
 										++count;
-										ImageUtil.addToPixel(currentRay.v3.x * trWidth, currentRay.v3.y * trHeight, trWidth, trHeight, 1, countArray);
 										currentRay.v3.addTo(avarage, idx * 2);
 										System.arraycopy(rsd.endcolor, j * 4, tt, 0, 4);
-										ImageUtil.addToPixel(currentRay.v3.x * trWidth, currentRay.v3.y * trHeight, trWidth, trHeight, tt, 0, 5, 1, imageColorArray);
+										/*the colors are scaled by the roulette weight, so the count has to be*/
+										tt[4] = rsd.weight[j];
+										ImageUtil.addToPixel(currentRay.v3.x * trWidth, currentRay.v3.y * trHeight, trWidth, trHeight, tt, 0, 5, 1, tile);
 									}
 								}
-								ArrayUtil.mult(avarage, idx * 2, idx * 2 + 1, 1. / count);
+								ArrayUtil.mult(avarage, idx * 2, idx * 2 + 2, 1. / count);
 								if (updateProgressBarRunnable != null) {JFrameUtils.runByDispatcher(updateProgressBarRunnable);}
 							}
 						}
 
 						@Override
 						public void finished() {}
-					}, "StackPositionProcessor", null, rangeBegin, rangeEnd, 1000, true);
+					}, "StackPositionProcessor", null, rangeBegin, rangeEnd, 1000, true, ThreadPool.PRIORITY_BATCH, null);
+					tiles.merge(imageColorSum);
+					final float imageColorArray[] = new float[imageColorSum.length];
+					for (int i = 0; i < imageColorSum.length; ++i)
+					{
+						imageColorArray[i] = imageColorSum[i];
+					}
 					if (outputStr.length() != 0)
 					{
 						StringUtils.writeTapSeperated(avarage, new File(outputStr), 2);
@@ -344,6 +360,7 @@ public class StackPositionProcessor {
 				case ARRAY:
 				{
 					final long imageColorArray[] = new long[trWidth * trHeight * 5];
+					final TileAccumulator tiles = new TileAccumulator(DataHandler.runnableRunner, imageColorArray.length);
 
 					//BufferedImage bi = gto.image;
 					/*if (bi == null)
@@ -393,6 +410,7 @@ public class StackPositionProcessor {
 								logger.error("Can't update Transformation", e);
 							}
 						}
+						final TraceSnapshot snapshot = scene.updateScene();
 						DataHandler.runnableRunner.runParallel(new ThreadPool.ParallelRangeRunnable() {
 							@Override
 							public void run(int from, int to) {
@@ -412,6 +430,7 @@ public class StackPositionProcessor {
 									threadLocal.rso.readColorBack = false;
 									threadLocal.rso.readColorGen = true;
 									threadLocal.rsd = new RaySimulationData(blocksize, bidir);
+									threadLocal.rso.endWeight = threadLocal.rsd.weight;
 									threadLocal.startdirs = new float[threadLocal.rsd.enddirs.length];
 									threadLocal.startpoints = new float[threadLocal.rsd.endpoints.length];
 									threadLocal.color = new float[5];
@@ -419,7 +438,9 @@ public class StackPositionProcessor {
 								}
 								RaySimulationData rsd = threadLocal.rsd;
 								RaySimulationObject currentRay = threadLocal.rso;
+								currentRay.snapshot = snapshot;
 								currentRay.readColorFront = backward;
+								long tile[] = tiles.getTile();
 								OpticalObject lastObject[] = threadLocal.rsd.lastObject;
 
 								if (rsd == null)
@@ -427,15 +448,17 @@ public class StackPositionProcessor {
 									throw new NullPointerException();
 								}
 								int toCalculate = to - from;
-								scene.calculateRays(0, toCalculate, numRays, gen, 0, 0, threadLocal.startpoints, threadLocal.startdirs, rsd.endpoints, rsd.enddirs, rsd.endcolor, null, rsd.accepted, rsd.bounces, lastObject, 10, bidir, currentRay, RaytraceScene.UNACCEPTED_DELETE);
+								/*the rays are keyed by their global index and the position, so blocks and positions don't repeat each other*/
+								currentRay.pass = index;
+								scene.calculateRays(0, toCalculate, numRays, gen, from, 0, threadLocal.startpoints, threadLocal.startdirs, rsd.endpoints, rsd.enddirs, rsd.endcolor, null, rsd.accepted, rsd.bounces, lastObject, 10, bidir, currentRay, RaytraceScene.UNACCEPTED_DELETE);
 
 								Vector2d v2 = currentRay.v3;
                                 float color[] = threadLocal.color;
-                                color[4] = 255;
                                 for (int j = 0; j < toCalculate; ++j)
 								{
 									if (lastObject[j] == evaluationObject && rsd.accepted[j] == RaytraceScene.STATUS_ACCEPTED)
 									{
+										color[4] = 255 * rsd.weight[j];
 										if (backward)
 										{
 										    //Read from endpoint, write to source
@@ -443,7 +466,7 @@ public class StackPositionProcessor {
                                             currentRay.position.set(threadLocal.startpoints, j * 3);
                                             currentRay.direction.set(threadLocal.startdirs, j * 3);
                                             ((OpticalSurfaceObject)source).getTextureCoordinates(currentRay.position, currentRay.direction, v2);
-											ImageUtil.addToPixel(v2.x * trWidth, v2.y * trHeight, trWidth, trHeight, color, 0, 5, 1f/255, imageColorArray);
+											ImageUtil.addToPixel(v2.x * trWidth, v2.y * trHeight, trWidth, trHeight, color, 0, 5, 1f/255, tile);
 										}
 										else
 										{
@@ -452,7 +475,7 @@ public class StackPositionProcessor {
 											currentRay.direction.set(rsd.enddirs, j * 3);
 											System.arraycopy(rsd.endcolor, 4*j, color, 0, 4);
 								            evaluationObject.getTextureCoordinates(currentRay.position, currentRay.direction, v2);
-											ImageUtil.addToPixel(v2.x * trWidth, v2.y * trHeight, trWidth, trHeight, color, 0, 5, 1f/255, imageColorArray);
+											ImageUtil.addToPixel(v2.x * trWidth, v2.y * trHeight, trWidth, trHeight, color, 0, 5, 1f/255, tile);
 										}
 									}
 								}
@@ -462,7 +485,8 @@ public class StackPositionProcessor {
 
 							@Override
 							public void finished() {}
-						}, "StackPositionProcessor", null, 0, numRays, blocksize, true);
+						}, "StackPositionProcessor", null, 0, numRays, blocksize, true, ThreadPool.PRIORITY_BATCH, null);
+						tiles.merge(imageColorArray);
 						strB.setLength(0);
 						DataHandler.runnableRunner.run(new Runnable() {
 							final long imageColorArrayCopy[] = imageColorArray.clone();
@@ -484,7 +508,7 @@ public class StackPositionProcessor {
 							    {
 					                for (int i = 0; i < trWidth * trHeight; ++i)
 				                    {
-				                        if (imageColorArray[i * 5 + 4] > 255)
+				                        if (imageColorArrayCopy[i * 5 + 4] > 255)
 				                        {
 				                            ArrayUtil.divide(imageColorArrayCopy, i * 5, i * 5 + 4, imageColorArrayCopy[i * 5 + 3] / 255);
 				                        }
@@ -525,6 +549,7 @@ public class StackPositionProcessor {
 					Arrays.fill(midPos, Float.NaN);
 					Arrays.fill(midDir, Float.NaN);
 					Arrays.fill(textureCoords, Float.NaN);
+					final TraceSnapshot snapshot = scene.updateScene();
 					DataHandler.runnableRunner.runParallel(new ThreadPool.ParallelRangeRunnable() {
 						@Override
 						public void run(int from, int to) {
@@ -552,6 +577,7 @@ public class StackPositionProcessor {
 							}
 							RaySimulationData rsd = threadLocal.rsd;
 							RaySimulationObject currentRay = threadLocal.rso;
+							currentRay.snapshot = snapshot;
 							OpticalObject lastObject[] = threadLocal.rsd.lastObject;
 
 							if (rsd == null)
@@ -559,7 +585,7 @@ public class StackPositionProcessor {
 								throw new NullPointerException();
 							}
 							int toCalculate = to - from;
-							scene.calculateRays(0, toCalculate, numRays, gen, 0, 0, threadLocal.startpoints, threadLocal.startdirs, rsd.endpoints, rsd.enddirs, rsd.endcolor, null, rsd.accepted, rsd.bounces, lastObject, 10, bidir, currentRay, RaytraceScene.UNACCEPTED_DELETE);
+							scene.calculateRays(0, toCalculate, numRays, gen, from, 0, threadLocal.startpoints, threadLocal.startdirs, rsd.endpoints, rsd.enddirs, rsd.endcolor, null, rsd.accepted, rsd.bounces, lastObject, 10, bidir, currentRay, RaytraceScene.UNACCEPTED_DELETE);
 
 							Vector2d v2 = currentRay.v3;
 							for (int j = 0; j < toCalculate; ++j)
@@ -581,7 +607,7 @@ public class StackPositionProcessor {
 
 						@Override
 						public void finished() {}
-					}, "StackPositionProcessor", null, 0, numRays, blocksize, true);
+					}, "StackPositionProcessor", null, 0, numRays, blocksize, true, ThreadPool.PRIORITY_BATCH, null);
 					int numAcceptedRays = 0;
 					for (int read = 0; read < numRays; ++read)
 					{
@@ -607,6 +633,7 @@ public class StackPositionProcessor {
 						{
 							break;
 						}
+						final TraceSnapshot snapshot = scene.updateScene();
 						DataHandler.runnableRunner.runParallel(new ThreadPool.ParallelRangeRunnable() {
 							@Override
 							public void run(int from, int to) {
@@ -635,6 +662,7 @@ public class StackPositionProcessor {
 								}
 								RaySimulationData rsd = threadLocal.rsd;
 								RaySimulationObject currentRay = threadLocal.rso;
+								currentRay.snapshot = snapshot;
 								OpticalObject lastObject[] = threadLocal.rsd.lastObject;
 
 								if (rsd == null)
@@ -663,7 +691,7 @@ public class StackPositionProcessor {
 
 							@Override
 							public void finished() {}
-						}, "StackPositionProcessor", null, 0, numAcceptedRays, blocksize, true);
+						}, "StackPositionProcessor", null, 0, numAcceptedRays, blocksize, true, ThreadPool.PRIORITY_BATCH, null);
 
 
 					}
@@ -0,0 +1,235 @@
+package data.raytrace;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map.Entry;
+
+/**
+ * Keeps only aggregated values of a run: the number of rays per status, the bounces, the accepted rays per last object
+ * and the bounds and the mean of the accepted endpoints.
+ */
+public class StatisticsRayResultSink implements MergeableRayResultSink {
+	private final long statusCount[] = new long[RaytraceScene.STATUS_COUNT];
+	private long bounceSum;
+	private int maxBounces;
+	private final double endpointSum[] = new double[3];
+	private final double endpointBounds[] = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+	private final HashMap<String, long[]> acceptedPerObject = new HashMap<>();
+
+	@Override
+	public void write(long begin, int count, RaySimulationData data)
+	{
+		final int entries = data.bidirectional ? 2 : 1;
+		final long blockStatus[] = new long[statusCount.length];
+		final double blockSum[] = new double[3];
+		final double blockBounds[] = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+		long blockBounceSum = 0;
+		int blockMaxBounces = 0;
+		/*last objects are counted per block first, so the shared map is only locked once per object and block*/
+		OpticalObject lastCounted = null;
+		long lastCount = 0;
+		final HashMap<OpticalObject, long[]> blockObjects = new HashMap<>();
+		for (int i = 0; i < count; ++i)
+		{
+			byte status = data.accepted[i];
+			++blockStatus[status];
+			blockBounceSum += data.bounces[i];
+			blockMaxBounces = Math.max(blockMaxBounces, data.bounces[i]);
+			if (status != RaytraceScene.STATUS_ACCEPTED)
+			{
+				continue;
+			}
+			int entry = i * entries;
+			for (int j = 0; j < 3; ++j)
+			{
+				double value = data.endpoints[entry * 3 + j];
+				blockSum[j] += value;
+				blockBounds[j] = Math.min(blockBounds[j], value);
+				blockBounds[j + 3] = Math.max(blockBounds[j + 3], value);
+			}
+			OpticalObject obj = data.lastObject[entry];
+			if (obj != lastCounted)
+			{
+				addCount(blockObjects, lastCounted, lastCount);
+				lastCounted = obj;
+				lastCount = 0;
+			}
+			++lastCount;
+		}
+		addCount(blockObjects, lastCounted, lastCount);
+		synchronized(this)
+		{
+			for (int i = 0; i < statusCount.length; ++i)
+			{
+				statusCount[i] += blockStatus[i];
+			}
+			bounceSum += blockBounceSum;
+			maxBounces = Math.max(maxBounces, blockMaxBounces);
+			for (int j = 0; j < 3; ++j)
+			{
+				endpointSum[j] += blockSum[j];
+				endpointBounds[j] = Math.min(endpointBounds[j], blockBounds[j]);
+				endpointBounds[j + 3] = Math.max(endpointBounds[j + 3], blockBounds[j + 3]);
+			}
+			for (Entry<OpticalObject, long[]> entry : blockObjects.entrySet())
+			{
+				String id = entry.getKey() == null ? "Environment" : entry.getKey().id;
+				long counter[] = acceptedPerObject.get(id);
+				if (counter == null)
+				{
+					acceptedPerObject.put(id, counter = new long[1]);
+				}
+				counter[0] += entry.getValue()[0];
+			}
+		}
+	}
+
+	private static final void addCount(HashMap<OpticalObject, long[]> counts, OpticalObject obj, long count)
+	{
+		if (count == 0){return;}
+		long counter[] = counts.get(obj);
+		if (counter == null)
+		{
+			counts.put(obj, counter = new long[1]);
+		}
+		counter[0] += count;
+	}
+
+	public synchronized long getCount(byte status)
+	{
+		return statusCount[status];
+	}
+
+	public synchronized long getRayCount()
+	{
+		long sum = 0;
+		for (long count : statusCount)
+		{
+			sum += count;
+		}
+		return sum;
+	}
+
+	public synchronized double getMeanBounces()
+	{
+		return (double)bounceSum / getRayCount();
+	}
+
+	public synchronized int getMaxBounces()
+	{
+		return maxBounces;
+	}
+
+	/**
+	 * Writes the mean of the accepted endpoints to the first three elements of result
+	 */
+	public synchronized void getMeanEndpoint(double result[])
+	{
+		long accepted = statusCount[RaytraceScene.STATUS_ACCEPTED];
+		for (int j = 0; j < 3; ++j)
+		{
+			result[j] = endpointSum[j] / accepted;
+		}
+	}
+
+	/**
+	 * Writes the bounds (min x, y, z, max x, y, z) of the accepted endpoints to the first six elements of result
+	 */
+	public synchronized void getEndpointBounds(double result[])
+	{
+		System.arraycopy(endpointBounds, 0, result, 0, 6);
+	}
+
+	public synchronized long getAcceptedCount(String objectId)
+	{
+		long counter[] = acceptedPerObject.get(objectId);
+		return counter == null ? 0 : counter[0];
+	}
+
+	public synchronized StringBuilder fillWithSummary(StringBuilder strB)
+	{
+		strB.append("rays:").append(getRayCount()).append('\n');
+		strB.append("accepted:").append(statusCount[RaytraceScene.STATUS_ACCEPTED]).append(" rejected:").append(statusCount[RaytraceScene.STATUS_REJECTED]).append(" volume:").append(statusCount[RaytraceScene.STATUS_VOLUME]).append(" terminated:").append(statusCount[RaytraceScene.STATUS_TERMINATED]).append('\n');
+		strB.append("bounces mean:").append(getMeanBounces()).append(" max:").append(maxBounces).append('\n');
+		double tmp[] = new double[6];
+		getMeanEndpoint(tmp);
+		strB.append("accepted endpoints mean:").append(Arrays.toString(Arrays.copyOf(tmp, 3)));
+		strB.append(" bounds:").append(Arrays.toString(endpointBounds)).append('\n');
+		strB.append("accepted per object");
+		for (Entry<String, long[]> entry : acceptedPerObject.entrySet())
+		{
+			strB.append(' ').append(entry.getKey()).append(':').append(entry.getValue()[0]);
+		}
+		return strB.append('\n');
+	}
+
+	@Override
+	public MergeableRayResultSink createEmpty()
+	{
+		return new StatisticsRayResultSink();
+	}
+
+	@Override
+	public synchronized void writeContent(DataOutput out) throws IOException
+	{
+		for (long count : statusCount)
+		{
+			out.writeLong(count);
+		}
+		out.writeLong(bounceSum);
+		out.writeInt(maxBounces);
+		for (double value : endpointSum)
+		{
+			out.writeDouble(value);
+		}
+		for (double value : endpointBounds)
+		{
+			out.writeDouble(value);
+		}
+		out.writeInt(acceptedPerObject.size());
+		for (Entry<String, long[]> entry : acceptedPerObject.entrySet())
+		{
+			out.writeUTF(entry.getKey());
+			out.writeLong(entry.getValue()[0]);
+		}
+	}
+
+	@Override
+	public synchronized void addContent(DataInput in) throws IOException
+	{
+		for (int i = 0; i < statusCount.length; ++i)
+		{
+			statusCount[i] += in.readLong();
+		}
+		bounceSum += in.readLong();
+		maxBounces = Math.max(maxBounces, in.readInt());
+		for (int j = 0; j < 3; ++j)
+		{
+			endpointSum[j] += in.readDouble();
+		}
+		for (int j = 0; j < 3; ++j)
+		{
+			endpointBounds[j] = Math.min(endpointBounds[j], in.readDouble());
+		}
+		for (int j = 3; j < 6; ++j)
+		{
+			endpointBounds[j] = Math.max(endpointBounds[j], in.readDouble());
+		}
+		for (int i = in.readInt(); i > 0; --i)
+		{
+			String id = in.readUTF();
+			long counter[] = acceptedPerObject.get(id);
+			if (counter == null)
+			{
+				acceptedPerObject.put(id, counter = new long[1]);
+			}
+			counter[0] += in.readLong();
+		}
+	}
+
+	@Override
+	public void close() {}
+}
@@ -7,6 +7,8 @@ import geometry.Vector2d;
 import geometry.Vector3d;
 import maths.Operation;
 import maths.data.RealLongOperation;
+import util.OperationBytecodeCompiler;
+import util.functional.DoubleArrayFunction;
 
 public abstract class SurfaceObject extends OpticalObject{
 	public double iorq = 1;
@@ -17,6 +19,12 @@ public abstract class SurfaceObject extends OpticalObject{
 	public Operation ior1 = RealLongOperation.POSITIVE_ONE;
 	public double ior = 1;
 	public double invior = 1;
+	/*values of ior0 and ior1, NaN if they depend on the position*/
+	public double constantIor0 = 1;
+	public double constantIor1 = 1;
+	/*ior0 and ior1 compiled with the inputs x, y, z, null if they are constant or couldn't be compiled*/
+	public DoubleArrayFunction compiledIor0, compiledIor1;
+	private Operation compiledIor0Source, compiledIor1Source;
 	public boolean invertNormal;
 	public String textureObjectStr;
 	public GuiTextureObject textureObject;
@@ -26,10 +34,48 @@ public abstract class SurfaceObject extends OpticalObject{
 	public boolean invertInsideOutside = false;
 	public AlphaCalculation alphaCalculation = AlphaCalculation.MULT;
 
+	protected SurfaceObject() {}
+
+	/**
+	 * Copies the material, used by frozen copies
+	 */
+	SurfaceObject(SurfaceObject source)
+	{
+		super(source);
+		iorq = source.iorq;
+		inviorq = source.inviorq;
+		diffuse = source.diffuse;
+		color = source.color;
+		ior0 = source.ior0;
+		ior1 = source.ior1;
+		ior = source.ior;
+		invior = source.invior;
+		constantIor0 = source.constantIor0;
+		constantIor1 = source.constantIor1;
+		compiledIor0 = source.compiledIor0;
+		compiledIor1 = source.compiledIor1;
+		compiledIor0Source = source.compiledIor0Source;
+		compiledIor1Source = source.compiledIor1Source;
+		invertNormal = source.invertNormal;
+		textureObjectStr = source.textureObjectStr;
+		textureObject = source.textureObject;
+		bidirectional = source.bidirectional;
+		invertInsideOutside = source.invertInsideOutside;
+		alphaCalculation = source.alphaCalculation;
+	}
+
 	public final void updateIOR()
 	{
-		double ior0 = this.ior0.doubleValue();
-		double ior1 = this.ior1.doubleValue();
+		double ior0 = constantIor0 = this.ior0.doubleValue();
+		double ior1 = constantIor1 = this.ior1.doubleValue();
+		if (Double.isNaN(ior0) && compiledIor0Source != this.ior0)
+		{
+			compiledIor0 = OperationBytecodeCompiler.compile(compiledIor0Source = this.ior0, "x", "y", "z");
+		}
+		if (Double.isNaN(ior1) && compiledIor1Source != this.ior1)
+		{
+			compiledIor1 = OperationBytecodeCompiler.compile(compiledIor1Source = this.ior1, "x", "y", "z");
+		}
 		if (invertNormal)
 		{
 			ior = ior1 / ior0;
@@ -44,6 +90,24 @@ public abstract class SurfaceObject extends OpticalObject{
 		inviorq = invior * invior - 1;
 	}
 
+	/**
+	 * @return true if the refractive indices of this surface depend on the wavelength
+	 */
+	public boolean isDispersive()
+	{
+		return false;
+	}
+
+	/**
+	 * @param ior refractive index at the Fraunhofer d-line
+	 * @param wavelength in nm
+	 * @return the refractive index at the wavelength
+	 */
+	public double getDispersedIor(double ior, double wavelength)
+	{
+		return ior;
+	}
+
 	public abstract void getTextureCoordinates(Vector3d position, Vector3d direction, Vector2d v3);
 
     public abstract void densityCompensation(int trWidth, int trHeight, int[] imageColorArray, int channels, int stride);
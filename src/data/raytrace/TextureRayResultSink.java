@@ -0,0 +1,149 @@
+package data.raytrace;
+
+import java.awt.image.BufferedImage;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import geometry.Vector2d;
+import geometry.Vector3d;
+import jcomponents.util.ImageUtil;
+
+/**
+ * Accumulates the accepted rays ending on one surface in its texture space. Every pixel holds the red, green and blue sums and the count,
+ * both scaled by the roulette weights of the rays, in fixed point (1 = 0x10000), so the sums don't depend on the order in which blocks arrive.
+ */
+public class TextureRayResultSink implements MergeableRayResultSink {
+	public static final int CHANNELS = 4;
+	public final SurfaceObject object;
+	public final int width, height;
+	public final long image[];
+
+	public TextureRayResultSink(SurfaceObject object, int width, int height)
+	{
+		this.object = object;
+		this.width = width;
+		this.height = height;
+		this.image = new long[width * height * CHANNELS];
+	}
+
+	@Override
+	public void write(long begin, int count, RaySimulationData data)
+	{
+		final int entries = data.bidirectional ? 2 : 1;
+		final long blockImage[] = new long[image.length];
+		final Vector3d position = new Vector3d(), direction = new Vector3d();
+		final Vector2d tc = new Vector2d();
+		final float add[] = new float[CHANNELS];
+		boolean hit = false;
+		for (int i = 0; i < count; ++i)
+		{
+			if (data.accepted[i] != RaytraceScene.STATUS_ACCEPTED)
+			{
+				continue;
+			}
+			for (int entry = i * entries; entry < (i + 1) * entries; ++entry)
+			{
+				if (data.lastObject[entry] != object)
+				{
+					continue;
+				}
+				position.set(data.endpoints, entry * 3);
+				direction.set(data.enddirs, entry * 3);
+				object.getTextureCoordinates(position, direction, tc);
+				if (!(tc.x >= 0 && tc.x <= 1 && tc.y >= 0 && tc.y <= 1))
+				{
+					continue;
+				}
+				System.arraycopy(data.endcolor, entry * 4, add, 0, 3);
+				add[3] = data.weight[entry];
+				ImageUtil.addToPixel(tc.x * (width - 1), tc.y * (height - 1), width, height, add, 0, CHANNELS, 1, blockImage);
+				hit = true;
+			}
+		}
+		if (hit)
+		{
+			synchronized(image)
+			{
+				for (int i = 0; i < image.length; ++i)
+				{
+					image[i] += blockImage[i];
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return accumulated number of rays of the pixel
+	 */
+	public final double getCount(int x, int y)
+	{
+		synchronized(image)
+		{
+			return image[(y * width + x) * CHANNELS + 3] * 0x1.0p-16;
+		}
+	}
+
+	/**
+	 * @return the accumulated colors, scaled so that the largest channel value is white
+	 */
+	public BufferedImage getImage()
+	{
+		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		synchronized(image)
+		{
+			long max = 1;
+			for (int i = 0; i < image.length; i += CHANNELS)
+			{
+				max = Math.max(max, Math.max(image[i], Math.max(image[i + 1], image[i + 2])));
+			}
+			for (int y = 0; y < height; ++y)
+			{
+				for (int x = 0; x < width; ++x)
+				{
+					int index = (y * width + x) * CHANNELS;
+					int rgb = 0;
+					for (int i = 0; i < 3; ++i)
+					{
+						rgb = (rgb << 8) | (int)(Math.max(0, image[index + i]) * 255 / max);
+					}
+					img.setRGB(x, y, rgb);
+				}
+			}
+		}
+		return img;
+	}
+
+	@Override
+	public MergeableRayResultSink createEmpty()
+	{
+		return new TextureRayResultSink(object, width, height);
+	}
+
+	@Override
+	public void writeContent(DataOutput out) throws IOException
+	{
+		synchronized(image)
+		{
+			for (long value : image)
+			{
+				out.writeLong(value);
+			}
+		}
+	}
+
+	@Override
+	public void addContent(DataInput in) throws IOException
+	{
+		synchronized(image)
+		{
+			for (int i = 0; i < image.length; ++i)
+			{
+				image[i] += in.readLong();
+			}
+		}
+	}
+
+	@Override
+	public void close() {}
+}
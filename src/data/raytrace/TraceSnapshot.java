@@ -0,0 +1,227 @@
+package data.raytrace;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Prepared structure of a scene which is used by a tracing job. The scene never changes a published snapshot, after edits or refits a new one is published.
+ * Surfaces and meshes are frozen copies which hold the geometry and material of the objects when the snapshot was published, the arrays, successor links and hierarchies reference only these copies,
+ * so jobs which pinned an older snapshot never see a partly applied edit. Results are reported with the original objects, see {@link OpticalObject#original()}.
+ * Volumes and textures are shared with the scene, their data is too large to be copied.
+ */
+public final class TraceSnapshot {
+	/**
+	 * Frozen copy, successors and predessors of an object as they were when the snapshot was published
+	 */
+	public static final class Links {
+		final TraceSnapshot snapshot;
+		public final OpticalObject object;
+		public final OpticalObject successor[];
+		public final OpticalObject predessor[];
+		public final BoundingVolumeHierarchy successorHierarchy;
+		public final BoundingVolumeHierarchy predessorHierarchy;
+
+		Links(TraceSnapshot snapshot, OpticalObject object, OpticalObject successor[], OpticalObject predessor[], BoundingVolumeHierarchy successorHierarchy, BoundingVolumeHierarchy predessorHierarchy)
+		{
+			this.snapshot = snapshot;
+			this.object = object;
+			this.successor = successor;
+			this.predessor = predessor;
+			this.successorHierarchy = successorHierarchy;
+			this.predessorHierarchy = predessorHierarchy;
+		}
+	}
+
+	public static final TraceSnapshot EMPTY = new TraceSnapshot(-1, GuiOpticalSurfaceObject.EMPTY_SURFACE_ARRAY, GuiOpticalSurfaceObject.EMPTY_SURFACE_ARRAY, OpticalObject.EMPTY_ARRAY, GuiOpticalVolumeObject.EMPTY_VOLUME_ARRAY, MeshObject.EMPTY_MESH_ARRAY, GuiTextureObject.EMPTY_TEXTTURE_ARRAY, OpticalObject.EMPTY_ARRAY, null, null, null, null, null, null);
+	/*update count of the scene this snapshot was built from*/
+	public final int version;
+	public final OpticalSurfaceObject surfaces[];
+	public final OpticalSurfaceObject emissions[];
+	public final OpticalObject lights[];
+	public final GuiOpticalVolumeObject volumes[];
+	public final MeshObject meshes[];
+	public final GuiTextureObject textures[];
+	/*surfaces, meshes and volumes in this order*/
+	public final OpticalObject objects[];
+	public final BoundingVolumeHierarchy hierarchy;
+	/*null, an original OpticalObject or the scene itself for the environment*/
+	public final Object forceStartpoint;
+	public final Object forceEndpoint;
+	public final GuiTextureObject environmentTexture;
+	public final GuiTextureObject writableEnvironmentTexture;
+	public final GuiTextureObject renderToTexture;
+	/*filled while the snapshot is built and only read after it is published*/
+	private final IdentityHashMap<OpticalObject, Links> links = new IdentityHashMap<>();
+	private final IdentityHashMap<OpticalObject, OpticalObject> frozen = new IdentityHashMap<>();
+	private final IdentityHashMap<OpticalObject[], OpticalObject[]> frozenArrays = new IdentityHashMap<>();
+	private final IdentityHashMap<BoundingVolumeHierarchy, BoundingVolumeHierarchy> frozenHierarchies = new IdentityHashMap<>();
+
+	TraceSnapshot(
+			int version,
+			GuiOpticalSurfaceObject surfaces[],
+			GuiOpticalSurfaceObject emissions[],
+			OpticalObject lights[],
+			GuiOpticalVolumeObject volumes[],
+			MeshObject meshes[],
+			GuiTextureObject textures[],
+			OpticalObject objects[],
+			BoundingVolumeHierarchy hierarchy,
+			Object forceStartpoint,
+			Object forceEndpoint,
+			GuiTextureObject environmentTexture,
+			GuiTextureObject writableEnvironmentTexture,
+			GuiTextureObject renderToTexture)
+	{
+		this.version = version;
+		this.surfaces = (OpticalSurfaceObject[])freeze(surfaces, new OpticalSurfaceObject[surfaces.length]);
+		this.emissions = (OpticalSurfaceObject[])freeze(emissions, new OpticalSurfaceObject[emissions.length]);
+		this.meshes = (MeshObject[])freeze(meshes, new MeshObject[meshes.length]);
+		this.lights = freeze(lights, new OpticalObject[lights.length]);
+		this.volumes = volumes;
+		this.textures = textures;
+		this.objects = freeze(objects, new OpticalObject[objects.length]);
+		this.hierarchy = freeze(hierarchy);
+		this.forceStartpoint = forceStartpoint;
+		this.forceEndpoint = forceEndpoint;
+		this.environmentTexture = environmentTexture;
+		this.writableEnvironmentTexture = writableEnvironmentTexture;
+		this.renderToTexture = renderToTexture;
+	}
+
+	private OpticalObject freeze(OpticalObject obj)
+	{
+		OpticalObject res = frozen.get(obj);
+		if (res == null)
+		{
+			frozen.put(obj, res = obj.freeze());
+		}
+		return res;
+	}
+
+	private OpticalObject[] freeze(OpticalObject objects[])
+	{
+		return objects == null ? null : freeze(objects, new OpticalObject[objects.length]);
+	}
+
+	private OpticalObject[] freeze(OpticalObject objects[], OpticalObject res[])
+	{
+		OpticalObject known[] = frozenArrays.get(objects);
+		if (known != null)
+		{
+			return known;
+		}
+		for (int i = 0; i < objects.length; ++i)
+		{
+			res[i] = freeze(objects[i]);
+		}
+		frozenArrays.put(objects, res);
+		frozenArrays.put(res, res);
+		return res;
+	}
+
+	private BoundingVolumeHierarchy freeze(BoundingVolumeHierarchy hierarchy)
+	{
+		if (hierarchy == null)
+		{
+			return null;
+		}
+		BoundingVolumeHierarchy res = frozenHierarchies.get(hierarchy);
+		if (res == null)
+		{
+			res = hierarchy.replace(freeze(hierarchy.source), frozen);
+			frozenHierarchies.put(hierarchy, res);
+			frozenHierarchies.put(res, res);
+		}
+		return res;
+	}
+
+	/**
+	 * @return the hierarchy of all objects if the given successors are all objects, otherwise null
+	 */
+	public final BoundingVolumeHierarchy getHierarchy(OpticalObject successor[])
+	{
+		return hierarchy != null && hierarchy.source == successor ? hierarchy : null;
+	}
+
+	/**
+	 * Freezes the objects and records their current links, has to be called before the snapshot is published
+	 */
+	final void link(List<? extends OpticalObject> list)
+	{
+		for (int i = 0; i < list.size(); ++i)
+		{
+			OpticalObject obj = list.get(i);
+			Links res = new Links(
+					this,
+					freeze(obj),
+					freeze(obj.successor),
+					freeze(obj.predessor),
+					freeze(obj.successorHierarchy),
+					freeze(obj.predessorHierarchy));
+			links.put(obj, res);
+			obj.links = res;
+		}
+	}
+
+	/**
+	 * @return the links of the object or its original in this snapshot, objects which aren't part of the scene, like copies, give their current links
+	 */
+	public final Links getLinks(OpticalObject obj)
+	{
+		OpticalObject original = obj.original;
+		Links res = original.links;
+		if (res != null && res.snapshot == this)
+		{
+			return res;
+		}
+		res = links.get(original);
+		return res == null ? new Links(null, obj, obj.successor, obj.predessor, obj.successorHierarchy, obj.predessorHierarchy) : res;
+	}
+
+	/**
+	 * @return the frozen copies of the objects, objects which aren't part of the snapshot are kept
+	 */
+	public final OpticalObject[] get(OpticalObject objects[])
+	{
+		OpticalObject res[] = frozenArrays.get(objects);
+		if (res != null)
+		{
+			return res;
+		}
+		res = new OpticalObject[objects.length];
+		for (int i = 0; i < objects.length; ++i)
+		{
+			OpticalObject copy = frozen.get(objects[i]);
+			res[i] = copy == null ? objects[i] : copy;
+		}
+		return res;
+	}
+
+	/**
+	 * @return the hierarchy over the frozen copies, or null if the hierarchy isn't part of the snapshot
+	 */
+	public final BoundingVolumeHierarchy get(BoundingVolumeHierarchy hierarchy)
+	{
+		return hierarchy == null ? null : frozenHierarchies.get(hierarchy);
+	}
+
+	public final OpticalObject[] successor(OpticalObject obj)
+	{
+		return getLinks(obj).successor;
+	}
+
+	public final BoundingVolumeHierarchy successorHierarchy(OpticalObject obj)
+	{
+		return getLinks(obj).successorHierarchy;
+	}
+
+	public final OpticalObject[] predessor(OpticalObject obj)
+	{
+		return getLinks(obj).predessor;
+	}
+
+	public final BoundingVolumeHierarchy predessorHierarchy(OpticalObject obj)
+	{
+		return getLinks(obj).predessorHierarchy;
+	}
+}
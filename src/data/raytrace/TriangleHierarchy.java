@@ -0,0 +1,195 @@
+package data.raytrace;
+
+/**
+ * Bounding volume hierarchy over the faces of a triangle mesh, built with a binned surface area heuristic.
+ * The tree is flattened in preorder, the left child of an inner node directly follows its parent.
+ */
+public class TriangleHierarchy {
+	public static final int MIN_FACES = 16;
+	public static final int MAX_DEPTH = 48;
+	public static final int NODE_STRIDE = 3;
+	private static final int BINS = 16;
+	private static final int MIN_LEAF_SIZE = 2;
+	private static final int MAX_LEAF_SIZE = 8;
+	private static final double TRAVERSAL_COST = 1;
+	/*right child or first face, face count (-1 for inner nodes), split axis*/
+	public final int nodes[];
+	/*minX, minY, minZ, maxX, maxY, maxZ per node, rounded outwards*/
+	public final float bounds[];
+	/*face indices, leafs reference ranges of this array*/
+	public final int faceOrder[];
+	public final int nodeCount;
+	private double faceBounds[];
+	private double centroids[];
+	private final int binCount[] = new int[BINS];
+	private final double binBounds[] = new double[BINS * 6];
+	private final double rightArea[] = new double[BINS];
+	private int nodeIndex;
+
+	public TriangleHierarchy(double vertices[], int faces[])
+	{
+		int faceCount = faces.length / 3;
+		faceOrder = new int[faceCount];
+		faceBounds = new double[faceCount * 6];
+		centroids = new double[faceCount * 3];
+		for (int i = 0; i < faceCount; ++i)
+		{
+			faceOrder[i] = i;
+			int v0 = faces[i * 3] * 3, v1 = faces[i * 3 + 1] * 3, v2 = faces[i * 3 + 2] * 3;
+			for (int j = 0; j < 3; ++j)
+			{
+				double min = Math.min(vertices[v0 + j], Math.min(vertices[v1 + j], vertices[v2 + j]));
+				double max = Math.max(vertices[v0 + j], Math.max(vertices[v1 + j], vertices[v2 + j]));
+				faceBounds[i * 6 + j] = min;
+				faceBounds[i * 6 + j + 3] = max;
+				centroids[i * 3 + j] = (min + max) * 0.5;
+			}
+		}
+		int maxNodes = Math.max(1, faceCount * 2 - 1);
+		nodes = new int[maxNodes * NODE_STRIDE];
+		bounds = new float[maxNodes * 6];
+		build(0, faceCount, 0);
+		nodeCount = nodeIndex;
+		faceBounds = null;
+		centroids = null;
+	}
+
+	private static double area(double b[], int offset)
+	{
+		double x = b[offset + 3] - b[offset], y = b[offset + 4] - b[offset + 1], z = b[offset + 5] - b[offset + 2];
+		return x < 0 ? 0 : x * y + y * z + z * x;
+	}
+
+	private static void clear(double b[], int offset)
+	{
+		for (int j = 0; j < 3; ++j)
+		{
+			b[offset + j] = Double.POSITIVE_INFINITY;
+			b[offset + j + 3] = Double.NEGATIVE_INFINITY;
+		}
+	}
+
+	private static void include(double b[], int offset, double other[], int otherOffset)
+	{
+		for (int j = 0; j < 3; ++j)
+		{
+			b[offset + j] = Math.min(b[offset + j], other[otherOffset + j]);
+			b[offset + j + 3] = Math.max(b[offset + j + 3], other[otherOffset + j + 3]);
+		}
+	}
+
+	private int build(int begin, int end, int depth)
+	{
+		int node = nodeIndex++;
+		int n = node * NODE_STRIDE;
+		double nodeBounds[] = new double[6];
+		double centroidMin[] = new double[3], centroidMax[] = new double[3];
+		clear(nodeBounds, 0);
+		for (int j = 0; j < 3; ++j)
+		{
+			centroidMin[j] = Double.POSITIVE_INFINITY;
+			centroidMax[j] = Double.NEGATIVE_INFINITY;
+		}
+		for (int i = begin; i < end; ++i)
+		{
+			int face = faceOrder[i];
+			include(nodeBounds, 0, faceBounds, face * 6);
+			for (int j = 0; j < 3; ++j)
+			{
+				centroidMin[j] = Math.min(centroidMin[j], centroids[face * 3 + j]);
+				centroidMax[j] = Math.max(centroidMax[j], centroids[face * 3 + j]);
+			}
+		}
+		for (int j = 0; j < 3; ++j)
+		{
+			float min = (float)nodeBounds[j], max = (float)nodeBounds[j + 3];
+			bounds[node * 6 + j] = min > nodeBounds[j] ? Math.nextDown(min) : min;
+			bounds[node * 6 + j + 3] = max < nodeBounds[j + 3] ? Math.nextUp(max) : max;
+		}
+		int count = end - begin;
+		int axis = 0;
+		for (int j = 1; j < 3; ++j)
+		{
+			if (centroidMax[j] - centroidMin[j] > centroidMax[axis] - centroidMin[axis])
+			{
+				axis = j;
+			}
+		}
+		double extent = centroidMax[axis] - centroidMin[axis];
+		if (count <= MIN_LEAF_SIZE || depth >= MAX_DEPTH || !(extent > 0))
+		{
+			return leaf(n, begin, count);
+		}
+		double scale = BINS / extent, min = centroidMin[axis];
+		for (int b = 0; b < BINS; ++b)
+		{
+			binCount[b] = 0;
+			clear(binBounds, b * 6);
+		}
+		for (int i = begin; i < end; ++i)
+		{
+			int face = faceOrder[i];
+			int b = bin(centroids[face * 3 + axis], min, scale);
+			++binCount[b];
+			include(binBounds, b * 6, faceBounds, face * 6);
+		}
+		double acc[] = new double[6];
+		clear(acc, 0);
+		for (int b = BINS - 1; b > 0; --b)
+		{
+			include(acc, 0, binBounds, b * 6);
+			rightArea[b] = area(acc, 0);
+		}
+		clear(acc, 0);
+		double bestCost = Double.POSITIVE_INFINITY;
+		int bestSplit = -1, leftCount = 0;
+		for (int b = 0; b < BINS - 1; ++b)
+		{
+			include(acc, 0, binBounds, b * 6);
+			leftCount += binCount[b];
+			if (leftCount == 0 || leftCount == count)
+			{
+				continue;
+			}
+			double cost = area(acc, 0) * leftCount + rightArea[b + 1] * (count - leftCount);
+			if (cost < bestCost)
+			{
+				bestCost = cost;
+				bestSplit = b;
+			}
+		}
+		double nodeArea = area(nodeBounds, 0);
+		if (bestSplit < 0 || (count <= MAX_LEAF_SIZE && (nodeArea == 0 || TRAVERSAL_COST + bestCost / nodeArea >= count)))
+		{
+			return leaf(n, begin, count);
+		}
+		int mid = begin;
+		for (int i = begin; i < end; ++i)
+		{
+			int face = faceOrder[i];
+			if (bin(centroids[face * 3 + axis], min, scale) <= bestSplit)
+			{
+				faceOrder[i] = faceOrder[mid];
+				faceOrder[mid++] = face;
+			}
+		}
+		nodes[n + 1] = -1;
+		nodes[n + 2] = axis;
+		build(begin, mid, depth + 1);
+		nodes[n] = build(mid, end, depth + 1);
+		return node;
+	}
+
+	private static int bin(double centroid, double min, double scale)
+	{
+		return Math.min(BINS - 1, (int)((centroid - min) * scale));
+	}
+
+	private int leaf(int n, int begin, int count)
+	{
+		nodes[n] = begin;
+		nodes[n + 1] = count;
+		nodes[n + 2] = 0;
+		return n / NODE_STRIDE;
+	}
+}
@@ -0,0 +1,240 @@
+package data.raytrace;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import data.DataHandler;
+import jcomponents.raytrace.Volume;
+import jcomponents.raytrace.VolumeBricks;
+import util.ThreadPool;
+
+/**
+ * Java implementation of the gradient-index volume tracer. Works on the same fixed point lattice buffers as the native tracer,
+ * positions are given in units of 1/0x10000 voxel, directions are scaled by the spacing of the lattice and stored in reversed order.
+ * The ray equation d/ds (n dx/ds) = grad(n) is integrated with a fixed step of half a voxel.
+ * Steps starting in a homogeneous brick are straight lines, all steps until the ray leaves the brick are taken at once.
+ */
+public class VolumeRayMarcher {
+	public static enum Integrator {RK2, RK4};
+	private static final int BLOCK_SIZE = 256;
+	private static final double FIXED_POINT = 0x10000;
+	private static final ThreadPool.ThreadLocal<double[]> scratch = DataHandler.runnableRunner.new ThreadLocal<>();
+	private final Volume vol;
+	private final VolumeBricks bricks;
+	private final Integrator integrator;
+	private final double voxelSizeX, voxelSizeY, voxelSizeZ;
+	private final double step;
+
+	/**
+	 * @param voxelSizeX global length of one voxel in x-direction
+	 */
+	public VolumeRayMarcher(Volume vol, double voxelSizeX, double voxelSizeY, double voxelSizeZ, Integrator integrator)
+	{
+		this(vol, null, voxelSizeX, voxelSizeY, voxelSizeZ, integrator);
+	}
+
+	/**
+	 * @param bricks bricks of vol or null to march without empty space skipping
+	 */
+	public VolumeRayMarcher(Volume vol, VolumeBricks bricks, double voxelSizeX, double voxelSizeY, double voxelSizeZ, Integrator integrator)
+	{
+		this.vol = vol;
+		this.bricks = bricks;
+		this.voxelSizeX = voxelSizeX;
+		this.voxelSizeY = voxelSizeY;
+		this.voxelSizeZ = voxelSizeZ;
+		this.integrator = integrator;
+		this.step = 0.5 * Math.min(voxelSizeX, Math.min(voxelSizeY, voxelSizeZ));
+	}
+
+	public void traceRays(final IntBuffer position, final FloatBuffer direction, final IntBuffer endIteration, final float minimumBrightness, final int iterations, final IntBuffer path)
+	{
+		int count = endIteration.capacity();
+		if (count <= BLOCK_SIZE)
+		{
+			traceRays(position, direction, endIteration, minimumBrightness, iterations, path, 0, count, new double[30]);
+			return;
+		}
+		DataHandler.runnableRunner.runParallel(new ThreadPool.ParallelRangeRunnable() {
+			@Override
+			public void run(int from, int to) {
+				double tmp[] = scratch.get();
+				if (tmp == null)
+				{
+					scratch.set(tmp = new double[30]);
+				}
+				traceRays(position, direction, endIteration, minimumBrightness, iterations, path, from, to, tmp);
+			}
+
+			@Override
+			public void finished() {}
+		}, "Volume Trace", null, 0, count, BLOCK_SIZE, true);
+	}
+
+	private final float sample(double x, double y, double z)
+	{
+		x = x < 0 ? 0 : x > vol.width - 1 ? vol.width - 1 : x;
+		y = y < 0 ? 0 : y > vol.height - 1 ? vol.height - 1 : y;
+		z = z < 0 ? 0 : z > vol.depth - 1 ? vol.depth - 1 : z;
+		return vol.interpolateData(x, y, z);
+	}
+
+	/**
+	 * Writes the derivative of the state (position in voxels, n times the unit direction) at the given offset with respect to the global arc length
+	 */
+	private final void derivative(double state[], int stateOffset, double out[], int outOffset)
+	{
+		double x = state[stateOffset], y = state[stateOffset + 1], z = state[stateOffset + 2];
+		double n = sample(x, y, z);
+		out[outOffset]     = state[stateOffset + 3] / (n * voxelSizeX);
+		out[outOffset + 1] = state[stateOffset + 4] / (n * voxelSizeY);
+		out[outOffset + 2] = state[stateOffset + 5] / (n * voxelSizeZ);
+		out[outOffset + 3] = (sample(x + 0.5, y, z) - sample(x - 0.5, y, z)) / voxelSizeX;
+		out[outOffset + 4] = (sample(x, y + 0.5, z) - sample(x, y - 0.5, z)) / voxelSizeY;
+		out[outOffset + 5] = (sample(x, y, z + 0.5) - sample(x, y, z - 0.5)) / voxelSizeZ;
+	}
+
+	private final void integrate(double tmp[])
+	{
+		/*tmp: state, k1, k2, k3, k4*/
+		derivative(tmp, 0, tmp, 6);
+		if (integrator == Integrator.RK2)
+		{
+			for (int i = 0; i < 6; ++i)	{tmp[i + 24] = tmp[i] + tmp[i + 6] * step * 0.5;}
+			derivative(tmp, 24, tmp, 12);
+			for (int i = 0; i < 6; ++i)	{tmp[i] += tmp[i + 12] * step;}
+			return;
+		}
+		for (int i = 0; i < 6; ++i)	{tmp[i + 24] = tmp[i] + tmp[i + 6] * step * 0.5;}
+		derivative(tmp, 24, tmp, 12);
+		for (int i = 0; i < 6; ++i)	{tmp[i + 24] = tmp[i] + tmp[i + 12] * step * 0.5;}
+		derivative(tmp, 24, tmp, 18);
+		for (int i = 0; i < 6; ++i)	{tmp[i + 24] = tmp[i] + tmp[i + 18] * step;}
+		for (int i = 0; i < 6; ++i)	{tmp[i + 6] += 2 * (tmp[i + 12] + tmp[i + 18]);}
+		derivative(tmp, 24, tmp, 12);
+		for (int i = 0; i < 6; ++i)	{tmp[i] += (tmp[i + 6] + tmp[i + 12]) * step / 6;}
+	}
+
+	/**
+	 * Steps in a region of constant refractive index n, where the direction doesn't change
+	 */
+	private final void straightStep(double tmp[], double n, int steps)
+	{
+		tmp[0] += tmp[3] / (n * voxelSizeX) * (step * steps);
+		tmp[1] += tmp[4] / (n * voxelSizeY) * (step * steps);
+		tmp[2] += tmp[5] / (n * voxelSizeZ) * (step * steps);
+	}
+
+	/**
+	 * Arc length until the coordinate leaves [low, high] with the given velocity
+	 */
+	private static final double exitLength(double position, double velocity, double low, double high)
+	{
+		return velocity > 0 ? (high - position) / velocity : velocity < 0 ? (low - position) / velocity : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * @return number of steps until the ray leaves the homogeneous brick at its position or the interior of the volume, at least 1
+	 */
+	private final int getStraightSteps(double tmp[], double n)
+	{
+		int bx = ((int)tmp[0]) >> VolumeBricks.BRICK_SHIFT, by = ((int)tmp[1]) >> VolumeBricks.BRICK_SHIFT, bz = ((int)tmp[2]) >> VolumeBricks.BRICK_SHIFT;
+		double length = Math.min(exitLength(tmp[0], tmp[3] / (n * voxelSizeX), Math.max(1, bx << VolumeBricks.BRICK_SHIFT), Math.min(vol.width - 2, (bx + 1) << VolumeBricks.BRICK_SHIFT)),
+				Math.min(exitLength(tmp[1], tmp[4] / (n * voxelSizeY), Math.max(1, by << VolumeBricks.BRICK_SHIFT), Math.min(vol.height - 2, (by + 1) << VolumeBricks.BRICK_SHIFT)),
+						exitLength(tmp[2], tmp[5] / (n * voxelSizeZ), Math.max(1, bz << VolumeBricks.BRICK_SHIFT), Math.min(vol.depth - 2, (bz + 1) << VolumeBricks.BRICK_SHIFT))));
+		double steps = Math.ceil(length / step);
+		return steps >= Integer.MAX_VALUE ? Integer.MAX_VALUE : Math.max(1, (int)steps);
+	}
+
+	private final boolean isInside(double tmp[])
+	{
+		return tmp[0] >= 1 && tmp[0] <= vol.width - 2 && tmp[1] >= 1 && tmp[1] <= vol.height - 2 && tmp[2] >= 1 && tmp[2] <= vol.depth - 2;
+	}
+
+	private final void writePath(IntBuffer path, double tmp[], int index)
+	{
+		path.put(index,     (int)(tmp[2] * FIXED_POINT));
+		path.put(index + 1, (int)(tmp[1] * FIXED_POINT));
+		path.put(index + 2, (int)(tmp[0] * FIXED_POINT));
+	}
+
+	private final void traceRays(IntBuffer position, FloatBuffer direction, IntBuffer endIteration, float minimumBrightness, int iterations, IntBuffer path, int from, int to, double tmp[])
+	{
+		for (int ray = from; ray < to; ++ray)
+		{
+			int index = ray * 3;
+			tmp[0] = position.get(index + 2) / FIXED_POINT;
+			tmp[1] = position.get(index + 1) / FIXED_POINT;
+			tmp[2] = position.get(index) / FIXED_POINT;
+			double dx = direction.get(index + 2), dy = direction.get(index + 1), dz = direction.get(index);
+			double mult = sample(tmp[0], tmp[1], tmp[2]) / Math.sqrt(dx * dx + dy * dy + dz * dz);
+			tmp[3] = dx * mult;
+			tmp[4] = dy * mult;
+			tmp[5] = dz * mult;
+			double brightness = 1;
+			int iteration = 0;
+			while (iteration < iterations && brightness > minimumBrightness)
+			{
+				if (path != null)
+				{
+					writePath(path, tmp, (ray * iterations + iterations - iteration - 1) * 3);
+				}
+				int brick = bricks == null ? -1 : bricks.getBrick(tmp[0], tmp[1], tmp[2]);
+				if (bricks != null && bricks.isHomogeneous(brick))
+				{
+					double n = bricks.minData[brick];
+					/*the steps stay in the neighbourhood of the brick, which has the same translucency*/
+					double transmission = Math.min(1, (bricks.minTranslucency[brick] & 0xFFFFFFFFL) / (double)0x7FFFFFFF);
+					int steps = Math.min(iterations - iteration, getStraightSteps(tmp, n));
+					if (transmission < 1)
+					{
+						/*stops after the step which lowers the brightness to the minimum, like single steps do*/
+						double dimming = transmission > 0 ? Math.ceil(Math.log(minimumBrightness / brightness) / Math.log(transmission)) : 1;
+						steps = dimming < steps ? Math.max(1, (int)dimming) : steps;
+					}
+					if (path == null)
+					{
+						straightStep(tmp, n, steps);
+					}
+					else
+					{
+						straightStep(tmp, n, 1);
+						for (int i = 1; i < steps; ++i)
+						{
+							writePath(path, tmp, (ray * iterations + iterations - iteration - i - 1) * 3);
+							straightStep(tmp, n, 1);
+						}
+					}
+					iteration += steps;
+					if (!isInside(tmp))
+					{
+						break;
+					}
+					brightness *= Math.pow(transmission, steps);
+					continue;
+				}
+				integrate(tmp);
+				++iteration;
+				if (!isInside(tmp))
+				{
+					break;
+				}
+				brightness *= Math.min(1, vol.interpolateTranslucency(tmp[0], tmp[1], tmp[2]) / (double)0x7FFFFFFF);
+			}
+			if (path != null)
+			{
+				for (int i = iteration; i < iterations; ++i)
+				{
+					writePath(path, tmp, (ray * iterations + iterations - i - 1) * 3);
+				}
+			}
+			position.put(index,     (int)(tmp[2] * FIXED_POINT));
+			position.put(index + 1, (int)(tmp[1] * FIXED_POINT));
+			position.put(index + 2, (int)(tmp[0] * FIXED_POINT));
+			direction.put(index,     (float)tmp[5]);
+			direction.put(index + 1, (float)tmp[4]);
+			direction.put(index + 2, (float)tmp[3]);
+			endIteration.put(ray, iteration);
+		}
+	}
+}
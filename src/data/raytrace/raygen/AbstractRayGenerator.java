@@ -4,11 +4,20 @@ import data.raytrace.MeshObject;
 import data.raytrace.OpticalObject;
 import data.raytrace.OpticalSurfaceObject;
 import data.raytrace.OpticalVolumeObject;
+import data.raytrace.RayRandom;
 import geometry.Vector2d;
 import geometry.Vector3d;
 
 public abstract class AbstractRayGenerator {
 	public abstract void generate(int index, int numrays, Vector3d position, Vector3d direction, Vector2d textureCoordinate, float[] color);
+
+	/**
+	 * @param random stream of the ray, generators which don't need random numbers ignore it
+	 */
+	public void generate(int index, int numrays, Vector3d position, Vector3d direction, Vector2d textureCoordinate, float[] color, RayRandom random)
+	{
+		generate(index, numrays, position, direction, textureCoordinate, color);
+	}
 	
 	public OpticalObject getSource()
 	{
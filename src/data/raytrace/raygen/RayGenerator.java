@@ -2,16 +2,41 @@ package data.raytrace.raygen;
 
 import java.util.Random;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import data.Options;
 import data.raytrace.MeshObject;
 import data.raytrace.OpticalObject;
 import data.raytrace.OpticalSurfaceObject;
 import data.raytrace.OpticalVolumeObject;
+import data.raytrace.RayRandom;
 import data.raytrace.RaytraceScene;
+import data.raytrace.raygen.SampleSequence.SamplingMode;
 import geometry.Geometry;
 import geometry.Vector2d;
 import geometry.Vector3d;
 
 public class RayGenerator extends AbstractRayGenerator{
+	private static final Logger logger = LoggerFactory.getLogger(RayGenerator.class);
+	public static SamplingMode defaultSampling = SamplingMode.RANDOM;
+	private static final Runnable optionRunnable = new Runnable()
+	{
+		@Override
+		public void run() {
+			try
+			{
+				defaultSampling = SamplingMode.valueOf(Options.getString(Options.getNode("raytrace"), "sampling", "random").toUpperCase());
+			}catch(IllegalArgumentException e)
+			{
+				logger.error("Unknown sampling mode", e);
+			}
+		}
+	};
+
+	static {
+		Options.addInvokeModificationListener(optionRunnable);
+	}
 	private OpticalObject source;
 	private int modCount;
 	public boolean threeDimensional;
@@ -23,6 +48,8 @@ public class RayGenerator extends AbstractRayGenerator{
 	double elevation = Double.NaN, azimuth = Double.NaN;
 	public Random rand;
 	boolean ignoreRandom = false;
+	/*sampling of the aperture of flat and the arcs of spherical sources*/
+	public SamplingMode sampling = defaultSampling;
 
 	public RayGenerator(RayGenerator gen) {
 		this.source = gen.source;
@@ -32,6 +59,7 @@ public class RayGenerator extends AbstractRayGenerator{
 		this.arcOpen = gen.arcOpen;
 		this.elevation = gen.elevation;
 		this.azimuth = gen.azimuth;
+		this.sampling = gen.sampling;
 	}
 
 	public RayGenerator() {}
@@ -106,13 +134,28 @@ public class RayGenerator extends AbstractRayGenerator{
 		}
 	}
 
-	private double rand()
+	private double rand(RayRandom random)
 	{
-		return ignoreRandom ? 0.5 : rand == null ? Math.random() : rand.nextDouble();
+		return ignoreRandom ? 0.5 : rand != null ? rand.nextDouble() : random != null ? random.nextDouble() : Math.random();
 	}
 
 	@Override
 	public void generate(int index, int numrays, Vector3d position, Vector3d direction, Vector2d textureCoordinate, float[] color)
+	{
+		generate(index, numrays, position, direction, textureCoordinate, color, null);
+	}
+
+	/**
+	 * The Cranley-Patterson rotation of the quasi random sequences is taken from the seed and pass of the ray stream, so every pass gets other samples. Without stream it is fixed.
+	 */
+	private double sample(int dimension, int index, int numrays, RayRandom random)
+	{
+		double jitter = sampling == SamplingMode.STRATIFIED ? rand(random) : 0.5;
+		return SampleSequence.sample(sampling, dimension, index, numrays, jitter, random == null ? RayRandom.uniform(0, dimension) : random.passUniform(dimension));
+	}
+
+	@Override
+	public void generate(int index, int numrays, Vector3d position, Vector3d direction, Vector2d textureCoordinate, float[] color, RayRandom random)
 	{
 		if (source.modCount() != modCount)
 		{
@@ -129,13 +172,19 @@ public class RayGenerator extends AbstractRayGenerator{
 				case FLAT:
 				{
 					direction.set(surf.direction);
-					if (threeDimensional)
+					if (threeDimensional && sampling != SamplingMode.RANDOM)
+					{
+						double a = 2 * sample(0, index, numrays, random) - 1, b = 2 * sample(1, index, numrays, random) - 1;
+						double r = SampleSequence.concentricRadius(a, b), phi = SampleSequence.concentricAngle(a, b);
+						position.set(surf.midpoint, v0, r * Math.cos(phi), v1, r * Math.sin(phi));
+					}
+					else if (threeDimensional)
 					{
 						double alpha, beta;
 						do
 						{
-							alpha = rand() - 0.5;
-							beta = rand() - 0.5;
+							alpha = rand(random) - 0.5;
+							beta = rand(random) - 0.5;
 						}while(alpha * alpha + beta * beta > 0.25);
 						position.set(surf.midpoint, v0, alpha * 2, v1, beta * 2);
 					}
@@ -157,14 +206,19 @@ public class RayGenerator extends AbstractRayGenerator{
 						if (threeDimensional)
 						{
 							double elevation = this.elevation;
+							double azimuth = this.azimuth;
+							if (sampling != SamplingMode.RANDOM)
+							{
+								if (Double.isNaN(elevation))	{elevation = Math.acos(1 - sample(0, index, numrays, random) * cosArcOpen);}
+								if (Double.isNaN(azimuth))		{azimuth = sample(1, index, numrays, random) * (2 * Math.PI);}
+							}
 							if (Double.isNaN(elevation))
 							{
-								elevation = Math.acos(1 - rand() * cosArcOpen);
+								elevation = Math.acos(1 - rand(random) * cosArcOpen);
 							}
-							double azimuth = this.azimuth;
 							if (Double.isNaN(azimuth))
 							{
-								azimuth = rand() * (2 * Math.PI);
+								azimuth = rand(random) * (2 * Math.PI);
 							}
 							double sin =  Math.sin(elevation);
 							direction.set(surf.direction, Math.cos(elevation), v0, sin * Math.sin(azimuth), v1, sin * Math.cos(azimuth));
@@ -204,9 +258,9 @@ public class RayGenerator extends AbstractRayGenerator{
 		else if (source instanceof MeshObject)
 		{
 			MeshObject mesh = (MeshObject)source;
-			int face = mesh.getFace(rand());
+			int face = mesh.getFace(rand(random));
 			diffuse = mesh.diffuse;
-			double alpha = rand(), beta = rand();
+			double alpha = rand(random), beta = rand(random);
 			if (alpha + beta > 1)
 			{
 				alpha = 1 - alpha;
@@ -233,8 +287,8 @@ public class RayGenerator extends AbstractRayGenerator{
 			if (threeDimensional || source instanceof MeshObject)
 			{
 	            /*Use Householder transformation H=I-2/(v^t*v)*v*v^t with v=dir-e_3 mirror the distribution from the x-y-plane to the v-orthorgonal plane*/
-				double w = rand() * diffuse * diffuse;
-				double rho = rand() * (Math.PI * 2);
+				double w = rand(random) * diffuse * diffuse;
+				double rho = rand(random) * (Math.PI * 2);
 				double xf = Math.sqrt(w)*Math.cos(rho);
 				double yf = Math.sqrt(w)*Math.sin(rho);
 				double zf = Math.sqrt(1-w);
@@ -248,7 +302,7 @@ public class RayGenerator extends AbstractRayGenerator{
 			}
 			else
 			{
-				double w  = (2 * rand() - 1) * diffuse;
+				double w  = (2 * rand(random) - 1) * diffuse;
 				double h  = Math.sqrt(1 - w * w);
 				double x = direction.x * h + direction.y * w;
 				double y = direction.y * h - direction.x * w;
@@ -0,0 +1,95 @@
+package data.raytrace.raygen;
+
+/**
+ * Two dimensional sample points in [0,1)^2 for the index-th of numrays rays.
+ */
+public final class SampleSequence {
+	public static enum SamplingMode {RANDOM, STRATIFIED, HALTON, SOBOL};
+	private static final double INV_2_32 = 0x1.0p-32;
+
+	private SampleSequence(){}
+
+	private static final double radicalInverse2(int index)
+	{
+		return (Integer.reverse(index) & 0xFFFFFFFFL) * INV_2_32;
+	}
+
+	private static final double radicalInverse3(int index)
+	{
+		long reversed = 0, base = 1;
+		for (; index != 0; index /= 3, base *= 3)
+		{
+			reversed = reversed * 3 + index % 3;
+		}
+		return (double)reversed / base;
+	}
+
+	/**
+	 * Second dimension of the Sobol sequence, the first one is the radical inverse in base 2
+	 */
+	private static final double sobol2(int index)
+	{
+		int result = 0;
+		for (int v = 1 << 31; index != 0; index >>>= 1, v ^= v >>> 1)
+		{
+			if ((index & 1) != 0)
+			{
+				result ^= v;
+			}
+		}
+		return (result & 0xFFFFFFFFL) * INV_2_32;
+	}
+
+	private static final double rotate(double value, double shift)
+	{
+		value += shift;
+		return value >= 1 ? value - 1 : value;
+	}
+
+	/**
+	 * @param dimension 0 or 1
+	 * @param index index of the ray in the whole run, not in the block traced by the current thread
+	 * @param numrays number of rays of the whole run
+	 * @param jitter uniform random value, only used by RANDOM and STRATIFIED
+	 * @param rotation Cranley-Patterson shift, has to be the same for all rays of one run
+	 */
+	public static final double sample(SamplingMode mode, int dimension, int index, int numrays, double jitter, double rotation)
+	{
+		switch (mode)
+		{
+			case STRATIFIED:
+			{
+				int cols = Math.max(1, (int)Math.sqrt(numrays));
+				int rows = Math.max(1, numrays / cols);
+				if (index >= cols * rows)
+				{
+					return jitter;
+				}
+				return dimension == 0 ? (index % cols + jitter) / cols : (index / cols + jitter) / rows;
+			}
+			case HALTON:	return rotate(dimension == 0 ? radicalInverse2(index) : radicalInverse3(index), rotation);
+			case SOBOL:		return rotate(dimension == 0 ? radicalInverse2(index) : sobol2(index), rotation);
+			default:		return jitter;
+		}
+	}
+
+	/**
+	 * Radius of the concentric mapping of the square [-1,1]^2 to the unit disk, which needs no rejection
+	 */
+	public static final double concentricRadius(double a, double b)
+	{
+		return a * a > b * b ? a : b;
+	}
+
+	/**
+	 * Angle of the concentric mapping of the square [-1,1]^2 to the unit disk
+	 */
+	public static final double concentricAngle(double a, double b)
+	{
+		if (a == 0 && b == 0)
+		{
+			return 0;
+		}
+		return a * a > b * b ? (Math.PI / 4) * (b / a) : (Math.PI / 2) - (Math.PI / 4) * (a / b);
+	}
+}
@@ -67,6 +67,9 @@ public class SceneIO {
 		}
 	}
 
+    /**
+     * @param gui may be null, entries only used by the gui are skipped then
+     */
     public static void loadScene(InputStream in, RaytraceScene scene, final RaySimulationGui gui) throws JDOMException, IOException
     {
         ParseUtil parser = new ParseUtil();
@@ -128,9 +131,20 @@ public class SceneIO {
         				}
         			}
     				break;
-    			case "Tool":gui.panelTools.add(InterfacePanelFactory.getInstance(elem.getText(), scene.vs));break;
+    			case "Tool":
+    				if (gui != null)	{gui.panelTools.add(InterfacePanelFactory.getInstance(elem.getText(), scene.vs));}
+    				break;
     			case "Pipeline":
-    				VolumePipeline pipeline = gui.volumePipelines.addPipeline().pipeline;
+    				VolumePipeline pipeline;
+    				if (gui != null)
+    				{
+    					pipeline = gui.volumePipelines.addPipeline().pipeline;
+    				}
+    				else
+    				{
+    					pipeline = new VolumePipeline(scene);
+    					scene.add(pipeline);
+    				}
 
         			for (Element child : elem.getChildren())
         			{
@@ -165,7 +179,11 @@ public class SceneIO {
     			case "Unit":        scene.spatialUnit = SpatialUnit.valueOf(elem.getText());
     			case "Author":		scene.author = elem.getText();break;
     			case "Epsilon":		scene.epsilon = Double.parseDouble(elem.getText());break;
-    			case "Description": gui.textAreaProjectInformation.setText(elem.getValue());break;
+    			case "Seed":		scene.seed = Long.parseLong(elem.getText());break;
+    			case "RouletteThreshold":	scene.rouletteThreshold = Float.parseFloat(elem.getText());break;
+    			case "Description":
+    				if (gui != null)	{gui.textAreaProjectInformation.setText(elem.getValue());}
+    				break;
     			case "Variables":
         			for (Element child : elem.getChildren())
         			{
@@ -177,6 +195,10 @@ public class SceneIO {
         			}
         			break;
     			case "Gui":
+    				if (gui == null)
+    				{
+    					break;
+    				}
     				for (Attribute attr : elem.getAttributes())
         			{
         				try {
@@ -212,12 +234,15 @@ public class SceneIO {
     		}
     	}
     	scene.updateScene();
-        JFrameUtils.runByDispatcher(new Runnable() {
-            @Override
-            public void run() {
-                gui.updateAllTables();
-            }
-        });
+    	if (gui != null)
+    	{
+	        JFrameUtils.runByDispatcher(new Runnable() {
+	            @Override
+	            public void run() {
+	                gui.updateAllTables();
+	            }
+	        });
+    	}
 
     	for (VolumePipeline vp : scene.getVolumePipelines())
     	{
@@ -256,16 +281,51 @@ public class SceneIO {
     	}
     }
 
+    private static final Element writePipeline(VolumePipeline pipeline)
+    {
+    	Element elem = new Element("Pipeline");
+    	for (CalculationStep step : pipeline.steps)
+    	{
+    		if (step instanceof GenerationCalculationStep)
+    		{
+    			GenerationCalculationStep gps = (GenerationCalculationStep)step;
+    			Element child = new Element("Generate");
+    			child.setAttribute("Bounds", gps.size);
+    			elem.addContent(child);
+    		}
+    		else if (step instanceof CalculationCalcuationStep)
+    		{
+    			CalculationCalcuationStep cps = (CalculationCalcuationStep)step;
+    			Element child = new Element("Calculate");
+    			child.setAttribute("Ior", cps.ior);
+    			child.setAttribute("Translucency", cps.translucency);
+    			child.setAttribute("EqValue", cps.givenValues);
+    			child.setAttribute("EqGiven", cps.isGiven);
+    			elem.addContent(child);
+    		}
+    	}
+    	elem.setAttribute("AutoUpdate", Boolean.toString(pipeline.getAutoUpdate()));
+    	elem.setAttribute("CalculateAtStartup", Boolean.toString(pipeline.calcuteAtCreation));
+    	if (pipeline.ovo != null)
+    	{
+    		elem.setAttribute("Volume", pipeline.ovo.getId());
+    	}
+    	return elem;
+    }
+
+    /**
+     * @param gui may be null, entries only used by the gui are skipped then and onlySelected has to be false
+     */
    	public static void saveScene(OutputStream out, boolean onlySelected, RaytraceScene scene, RaySimulationGui gui) throws IOException
     {
     	Document doc = new Document();
     	Element root = new Element("scene");
     	doc.setRootElement(root);
     	root.setAttribute("version", Integer.toString(version));
-    	writeXmlList(root, scene.surfaceObjectList, gui.tableSurfaces, "surface", onlySelected);
-    	writeXmlList(root, scene.volumeObjectList,  gui.tableVolumes, "volume", onlySelected);
-    	writeXmlList(root, scene.textureObjectList, gui.tableTextures, "texture", onlySelected);
-    	writeXmlList(root, scene.meshObjectList, 	gui.tableMeshes, "mesh", onlySelected);
+    	writeXmlList(root, scene.surfaceObjectList, gui == null ? null : gui.tableSurfaces, "surface", onlySelected);
+    	writeXmlList(root, scene.volumeObjectList,  gui == null ? null : gui.tableVolumes, "volume", onlySelected);
+    	writeXmlList(root, scene.textureObjectList, gui == null ? null : gui.tableTextures, "texture", onlySelected);
+    	writeXmlList(root, scene.meshObjectList, 	gui == null ? null : gui.tableMeshes, "mesh", onlySelected);
 
     	if (!onlySelected)
     	{
@@ -273,7 +333,10 @@ public class SceneIO {
 	    	elem.setAttribute("Start", scene.getForceStartpointStr());
 	    	elem.setAttribute("End", scene.getForceEndpointStr());
 	    	root.addContent(elem);
-	    	root.addContent(new Element("Description", gui.textAreaProjectInformation.getText()));
+	    	if (gui != null)
+	    	{
+	    		root.addContent(new Element("Description", gui.textAreaProjectInformation.getText()));
+	    	}
 	    	elem = new Element("Environment");
 	    	elem.setAttribute("Read", scene.environmentTextureString == null ? "" : scene.environmentTextureString);
 	    	elem.setAttribute("Write", scene.writableEnvironmentTextureString == null ? "" : scene.writableEnvironmentTextureString);
@@ -281,7 +344,7 @@ public class SceneIO {
 	    	elem.setAttribute("VerifyRefractionIndex", Boolean.toString(scene.isVerifyRefractionIndexActivated()));
 	    	elem.setAttribute("Mapping", scene.environment_mapping.name);
 	    	root.addContent(elem);
-	    	for (int i = 0; i < gui.panelTools.getComponentCount(); ++i)
+	    	for (int i = 0; gui != null && i < gui.panelTools.getComponentCount(); ++i)
 	    	{
 	    		elem = new Element("Tool");
 	    		Component comp = gui.panelTools.getComponent(i);
@@ -292,43 +355,27 @@ public class SceneIO {
 				}
 	    		root.addContent(elem);
 	    	}
-	    	for (VolumePipelinePanel vp : gui.volumePipelines.getPipelines())
+	    	if (gui != null)
 	    	{
-	    		VolumePipeline pipeline = vp.pipeline;
-	    		elem = new Element("Pipeline");
-	    		for (CalculationStep step : pipeline.steps)
-	    		{
-	    			if (step instanceof GenerationCalculationStep)
-	    			{
-	    				GenerationCalculationStep gps = (GenerationCalculationStep)step;
-	    				Element child = new Element("Generate");
-	    				child.setAttribute("Bounds", gps.size);
-	    				elem.addContent(child);
-	    			}
-	    			else if (step instanceof CalculationCalcuationStep)
-					{
-	    				CalculationCalcuationStep cps = (CalculationCalcuationStep)step;
-	        			Element child = new Element("Calculate");
-	    				child.setAttribute("Ior", cps.ior);
-	    				child.setAttribute("Translucency", cps.translucency);
-	    				child.setAttribute("EqValue", cps.givenValues);
-	    				child.setAttribute("EqGiven", cps.isGiven);
-	    				elem.addContent(child);
-					}
-	    		}
-	    		elem.setAttribute("AutoUpdate", Boolean.toString(pipeline.getAutoUpdate()));
-	    		elem.setAttribute("CalculateAtStartup", Boolean.toString(pipeline.calcuteAtCreation));
-	    		if (pipeline.ovo != null)
-	    		{
-	    			elem.setAttribute("Volume", pipeline.ovo.getId());
-	    		}
-    			root.addContent(elem);
+		    	for (VolumePipelinePanel vp : gui.volumePipelines.getPipelines())
+		    	{
+		    		root.addContent(writePipeline(vp.pipeline));
+		    	}
+	    	}
+	    	else
+	    	{
+		    	for (VolumePipeline pipeline : scene.getVolumePipelines())
+		    	{
+		    		root.addContent(writePipeline(pipeline));
+		    	}
 	    	}
 	        if (scene.spatialUnit != null) {
 	            root.addContent(new Element("Unit").setText(scene.spatialUnit.name()));
 	        }
 	    	root.addContent(new Element("Author").setText(scene.author));
 	    	root.addContent(new Element("Epsilon").setText(Double.toString(scene.epsilon)));
+	    	root.addContent(new Element("Seed").setText(Long.toString(scene.seed)));
+	    	root.addContent(new Element("RouletteThreshold").setText(Float.toString(scene.rouletteThreshold)));
     		elem = new Element("Variables");
 	    	for (int i = 0; i < scene.vs.sizeLocal(); ++i)
 	    	{
@@ -336,9 +383,12 @@ public class SceneIO {
 	    		elem.addContent(new Element(v.nameObject.string).setText(v.stringValue()));
 	    	}
 	    	root.addContent(elem);
-	    	elem = new Element("Gui");
-	    	elem.setAttribute("Position", gui.paintOffset.toString());
-	    	elem.setAttribute("Scale", Double.toString(gui.panelVisualization.scale));
+	    	if (gui != null)
+	    	{
+		    	elem = new Element("Gui");
+		    	elem.setAttribute("Position", gui.paintOffset.toString());
+		    	elem.setAttribute("Scale", Double.toString(gui.panelVisualization.scale));
+	    	}
     	}
     	new XMLOutputter(Format.getPrettyFormat()).output(doc, out);
     }
@@ -76,6 +76,7 @@ import scene.object.SceneObjectPointCloud;
 import scene.object.SceneObjectVektor;
 import util.ArrayTools;
 import util.JFrameUtils;
+import util.OperationBytecodeCompiler;
 import util.OperationGeometry;
 import util.SaveLineCreator;
 import util.StringUtils;
@@ -83,6 +84,7 @@ import util.ThreadPool;
 import util.data.SortedIntegerArrayList;
 import util.data.SortedIntegerArrayList.ReadOnlySortedIntegerArrayList;
 import util.data.UniqueObjects;
+import util.functional.DoubleArrayFunction;
 /**
 * @author  Paul Stahr
 * @version 04.02.2012
@@ -190,6 +192,7 @@ public final class Graph extends JPanel implements MouseListener, ChangeListener
     private final Graph graph = this;
     private final ArrayList<GraphListener> graphListener = new ArrayList<>(2);
     private final Controller controller = new Controller();
+    private final CompiledFunction compiledFunction0 = new CompiledFunction(), compiledFunction1 = new CompiledFunction(), compiledFunction2 = new CompiledFunction();
 	private DoubleLine line0, line1;
     private WeakReference<GraphWindow> window = null;
 
@@ -361,6 +364,26 @@ public final class Graph extends JPanel implements MouseListener, ChangeListener
         setBackground(uic != null ? uic : selected ? Color.BLUE : Color.WHITE);
     }
 
+    /**
+     * Bytecode of one function of the graph. It is compiled again only if the parsed expression or the values substituted for its free variables changed,
+     * so redrawing doesn't define a new class every time.
+     */
+    private static final class CompiledFunction{
+    	private Operation source;
+    	private String expression;
+    	private DoubleArrayFunction compiled;
+
+    	private final DoubleArrayFunction get(Operation source, Operation op, String ...inputs){
+    		final String expression = String.join(",", inputs) + ':' + op;
+    		if (source != this.source || !expression.equals(this.expression)){
+    			this.source = source;
+    			this.expression = expression;
+    			compiled = OperationBytecodeCompiler.compile(op, inputs);
+    		}
+    		return compiled;
+    	}
+    }
+
     private static final Operation compile(String str){
     	try {
 			 return OperationCompiler.compile(str);
@@ -916,6 +939,25 @@ public final class Graph extends JPanel implements MouseListener, ChangeListener
             	final float vertexY[] = glObjectPlane.getVerticesY();
             	final float vertexZ[] = glObjectPlane.getVerticesZ();
             	int index =0;
+            	final DoubleArrayFunction compiled0 = compiledFunction0.get(function0Op, operation0, v0.nameObject.string, v1.nameObject.string);
+            	if (compiled0 != null){
+            		final double inputs[] = new double[2];
+            		for (int i=0;i<steps0;i++){
+            			inputs[0] = opsVar0[i].doubleValue();
+            			for (int j=0;j<steps1;j++, index++){
+            				inputs[1] = opsVar1[j].doubleValue();
+            				final double z = compiled0.eval(inputs);
+            				if (useMatrix){
+            					vertexX[index]=(float)graphToGlobal.rdotAffineX(inputs[0], inputs[1], z);
+            					vertexY[index]=(float)graphToGlobal.rdotAffineY(inputs[0], inputs[1], z);
+            					vertexZ[index]=(float)graphToGlobal.rdotAffineZ(inputs[0], inputs[1], z);
+            				}else{
+            					vertexZ[index]=(float)z;
+            				}
+            			}
+            		}
+            		break;
+            	}
             	control.connectEmptyVariables(true);
                 for (int i=0;i<steps0;i++){
                     v0.setValue(opsVar0[i]);
@@ -953,6 +995,29 @@ public final class Graph extends JPanel implements MouseListener, ChangeListener
                 final float vertexY[] = glObjectPlane.getVerticesY();
                 final float vertexZ[] = glObjectPlane.getVerticesZ();
                 int index =0;
+                final DoubleArrayFunction compiled0 = compiledFunction0.get(function0Op, operation0, v0.nameObject.string, v1.nameObject.string);
+                final DoubleArrayFunction compiled1 = compiled0 == null ? null : compiledFunction1.get(function1Op, operation1, v0.nameObject.string, v1.nameObject.string);
+                final DoubleArrayFunction compiled2 = compiled1 == null ? null : compiledFunction2.get(function2Op, operation2, v0.nameObject.string, v1.nameObject.string);
+                if (compiled2 != null){
+                	final double inputs[] = new double[2];
+                	for (int i=0;i<steps0;i++){
+                		inputs[0] = opsVar0[i].doubleValue();
+                		for (int j=0;j<steps1;j++, index++){
+                			inputs[1] = opsVar1[j].doubleValue();
+                			final double x = compiled0.eval(inputs), y = compiled1.eval(inputs), z = compiled2.eval(inputs);
+                			if (useMatrix){
+                				vertexX[index]=(float)graphToGlobal.rdotAffineX(x, y, z);
+                				vertexY[index]=(float)graphToGlobal.rdotAffineY(x, y, z);
+                				vertexZ[index]=(float)graphToGlobal.rdotAffineZ(x, y, z);
+                			}else{
+                				vertexX[index]=(float)x;
+                				vertexY[index]=(float)y;
+                				vertexZ[index]=(float)z;
+                			}
+                		}
+                	}
+                	break;
+                }
                 for (int i=0;i<steps0;i++){
                     v0.setValue(opsVar0[i]);
                     v1.setValue((Operation)null);
@@ -21,6 +21,8 @@ public class ProjectOptionFrame extends JFrame implements ActionListener{
 	private final JTextField textFieldAuthor = new JTextField();
 	private final JLabel labelEpsilon = new JLabel("Epsilon");
 	private final JMathTextField textFieldEpsilon = new JMathTextField();
+	private final JLabel labelRouletteThreshold = new JLabel("Roulette Threshold");
+	private final JMathTextField textFieldRouletteThreshold = new JMathTextField();
 	private final JLabel labelBounds = new JLabel("Bounds");
 	private final JTextField textFieldBounds = new JTextField();
 	private final JButton buttonOk = new JButton("Ok");
@@ -36,9 +38,12 @@ public class ProjectOptionFrame extends JFrame implements ActionListener{
 		textFieldAuthor.setText(scene.author);
 		add(labelEpsilon);
 		add(textFieldEpsilon);
+		add(labelRouletteThreshold);
+		add(textFieldRouletteThreshold);
 		add(labelBounds);
 		add(textFieldBounds);
 		textFieldEpsilon.setText(Double.toString(scene.epsilon));
+		textFieldRouletteThreshold.setText(Float.toString(scene.rouletteThreshold));
 		add(buttonOk);
 		add(buttonCancel);
 		
@@ -51,6 +56,7 @@ public class ProjectOptionFrame extends JFrame implements ActionListener{
 		{
 			scene.author = textFieldAuthor.getText();
 			scene.epsilon = textFieldEpsilon.get().calculate(null, null).doubleValue();
+			scene.rouletteThreshold = (float)textFieldRouletteThreshold.get().calculate(null, null).doubleValue();
 		}
 		dispose();
 	}
@@ -133,6 +133,7 @@ import data.raytrace.OpticalVolumeObject;
 import data.raytrace.ParseUtil;
 import data.raytrace.RaySimulation.MaterialType;
 import data.raytrace.RaySimulation.SurfaceType;
+import data.raytrace.RaySimulationData;
 import data.raytrace.RaytraceScene;
 import data.raytrace.RaytraceScene.RaySimulationObject;
 import data.raytrace.RaytraceSession;
@@ -2,54 +2,91 @@ package jcomponents.raytrace;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 
 import util.ArrayUtil;
+import util.Interpolator;
 
+/**
+ * Lattice of refractive indices and translucencies. The values are either kept in the public arrays on the heap or,
+ * for volumes opened by map, in memory mapped chunks of the file. Mapped volumes have null arrays and are read and written with the long indexed accessors.
+ */
 public class Volume {
 	public static final Volume[] EMPTY_VOLUME_ARRAY = new Volume[0];
+	/*elements per mapped chunk, a single mapping can't be larger than 2GB*/
+	private static final int CHUNK_SHIFT = 28;
+	private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+	private static final int COPY_BLOCK_SIZE = 0x10000;
+	private static final int HEADER_BYTES = 12;
 	public final int width, height, depth;
+	/*number of voxels*/
+	public final long size;
 	public final float data[];
 	public final int translucency[];
+	private final MappedByteBuffer mappedBuffers[];
+	private final FloatBuffer dataChunks[];
+	private final IntBuffer translucencyChunks[];
 	private int modCount = 0;
-	
+
 	public Volume(Volume vol)
 	{
 		this.width = vol.width;
 		this.height = vol.height;
 		this.depth = vol.depth;
-		this.data = vol.data.clone();
-		this.translucency = vol.translucency.clone();
+		this.size = vol.size;
+		this.mappedBuffers = null;
+		this.dataChunks = null;
+		this.translucencyChunks = null;
+		if (vol.data != null)
+		{
+			this.data = vol.data.clone();
+			this.translucency = vol.translucency.clone();
+		}
+		else
+		{
+			this.data = new float[heapSize(width, height, depth)];
+			this.translucency = new int[data.length];
+			copy(vol, this);
+		}
 	}
-	
+
 	public void read(Volume vol)
 	{
 		if (this.width != vol.width || this.height != vol.height || this.depth != vol.depth)
 		{
 			throw new ArrayIndexOutOfBoundsException();
 		}
-		System.arraycopy(vol.data, 0, this.data, 0, this.data.length);
-		System.arraycopy(vol.translucency, 0, this.translucency, 0, this.translucency.length);
+		copy(vol, this);
 	}
-	
+
 	public Volume readOrClone(Volume vol)
 	{
 		if (this.width != vol.width || this.height != vol.height || this.depth != vol.depth)
 		{
 			return new Volume(vol);
 		}
-		System.arraycopy(vol.data, 0, this.data, 0, this.data.length);
-		System.arraycopy(vol.translucency, 0, this.translucency, 0, this.translucency.length);
+		copy(vol, this);
 		return this;
 	}
-	
+
 	public Volume(int width, int height, int depth)
 	{
 		this.width = width;
 		this.height = height;
 		this.depth = depth;
-		data = new float[width * height * depth];
-		translucency = new int[width * height * depth];
+		this.size = (long)width * height * depth;
+		data = new float[heapSize(width, height, depth)];
+		translucency = new int[data.length];
+		mappedBuffers = null;
+		dataChunks = null;
+		translucencyChunks = null;
 	}
 
 
@@ -57,36 +94,358 @@ public class Volume {
 		int depth = inBuf.readInt();
 		int height = inBuf.readInt();
 		int width = inBuf.readInt();
-		long elems = (long)depth * (long)height;
-		if (elems > Integer.MAX_VALUE) {throw new OutOfMemoryError("Can't allocate " + depth + '*' + height + '*' + width + " Elements");}
-        elems = elems * width;
-        if (elems > Integer.MAX_VALUE) {throw new OutOfMemoryError("Can't allocate " + depth + '*' + height + '*' + width + " Elements");}
 		this.width = width;
 		this.height = height;
 		this.depth = depth;
-		data = new float[width * height * depth];
-		translucency = new int[width * height * depth];
-		
+		this.size = (long)width * height * depth;
+		data = new float[heapSize(width, height, depth)];
+		translucency = new int[data.length];
+		mappedBuffers = null;
+		dataChunks = null;
+		translucencyChunks = null;
+
 		ArrayUtil.readFloats(data, 0, data.length, inBuf);
 		ArrayUtil.readIntegers(translucency, 0,translucency.length, inBuf);
 	}
 
+	private Volume(int width, int height, int depth, MappedByteBuffer mappedBuffers[], FloatBuffer dataChunks[], IntBuffer translucencyChunks[])
+	{
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.size = (long)width * height * depth;
+		this.data = null;
+		this.translucency = null;
+		this.mappedBuffers = mappedBuffers;
+		this.dataChunks = dataChunks;
+		this.translucencyChunks = translucencyChunks;
+	}
+
+	private static int heapSize(int width, int height, int depth)
+	{
+		long elems = (long)depth * (long)height;
+		if (elems > Integer.MAX_VALUE) {throw new OutOfMemoryError("Can't allocate " + depth + '*' + height + '*' + width + " Elements");}
+        elems = elems * width;
+        if (elems > Integer.MAX_VALUE) {throw new OutOfMemoryError("Can't allocate " + depth + '*' + height + '*' + width + " Elements");}
+        return (int)elems;
+	}
+
+	/**
+	 * Opens a volume in the format of writeBinary without reading it. The values stay in the file and are paged in on access,
+	 * in writable mode changes are written back to the file.
+	 * @param position offset of the volume in the file
+	 */
+	public static Volume map(File file, long position, boolean writable) throws IOException
+	{
+		try (RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r"))
+		{
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			while (header.hasRemaining())
+			{
+				if (channel.read(header, position + header.position()) < 0)
+				{
+					throw new IOException("Unexpected end of " + file);
+				}
+			}
+			int depth = header.getInt(0), height = header.getInt(4), width = header.getInt(8);
+			long size = (long)width * height * depth;
+			if (width < 0 || height < 0 || depth < 0 || position + HEADER_BYTES + size * 8 > channel.size())
+			{
+				throw new IOException("Volume of size " + depth + '*' + height + '*' + width + " doesn't fit into " + file);
+			}
+			int numChunks = (int)((size + CHUNK_MASK) >> CHUNK_SHIFT);
+			MappedByteBuffer mappedBuffers[] = new MappedByteBuffer[numChunks * 2];
+			FloatBuffer dataChunks[] = new FloatBuffer[numChunks];
+			IntBuffer translucencyChunks[] = new IntBuffer[numChunks];
+			FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+			long dataBegin = position + HEADER_BYTES, translucencyBegin = dataBegin + size * 4;
+			for (int i = 0; i < numChunks; ++i)
+			{
+				long begin = (long)i << CHUNK_SHIFT;
+				long length = Math.min(size - begin, 1L << CHUNK_SHIFT) * 4;
+				/*writeBinary uses the big endian order of DataOutputStream, which is the default of the buffers*/
+				dataChunks[i] = (mappedBuffers[i * 2] = channel.map(mode, dataBegin + begin * 4, length)).asFloatBuffer();
+				translucencyChunks[i] = (mappedBuffers[i * 2 + 1] = channel.map(mode, translucencyBegin + begin * 4, length)).asIntBuffer();
+			}
+			return new Volume(width, height, depth, mappedBuffers, dataChunks, translucencyChunks);
+		}
+	}
+
+	public final boolean isMapped()
+	{
+		return data == null;
+	}
+
+	public final float getData(long index)
+	{
+		return data != null ? data[(int)index] : dataChunks[(int)(index >> CHUNK_SHIFT)].get((int)(index & CHUNK_MASK));
+	}
+
+	public final void setData(long index, float value)
+	{
+		if (data != null)	{data[(int)index] = value;}
+		else				{dataChunks[(int)(index >> CHUNK_SHIFT)].put((int)(index & CHUNK_MASK), value);}
+		++modCount;
+	}
+
+	public final int getTranslucency(long index)
+	{
+		return translucency != null ? translucency[(int)index] : translucencyChunks[(int)(index >> CHUNK_SHIFT)].get((int)(index & CHUNK_MASK));
+	}
+
+	public final void setTranslucency(long index, int value)
+	{
+		if (translucency != null)	{translucency[(int)index] = value;}
+		else						{translucencyChunks[(int)(index >> CHUNK_SHIFT)].put((int)(index & CHUNK_MASK), value);}
+		++modCount;
+	}
+
+	/**
+	 * Reads length values beginning at index
+	 */
+	public final void getData(long index, float dst[], int offset, int length)
+	{
+		if (data != null)
+		{
+			System.arraycopy(data, (int)index, dst, offset, length);
+			return;
+		}
+		while (length > 0)
+		{
+			FloatBuffer chunk = dataChunks[(int)(index >> CHUNK_SHIFT)].duplicate();
+			chunk.position((int)(index & CHUNK_MASK));
+			int count = Math.min(length, chunk.remaining());
+			chunk.get(dst, offset, count);
+			index += count;
+			offset += count;
+			length -= count;
+		}
+	}
+
+	public final void setData(long index, float src[], int offset, int length)
+	{
+		if (data != null)
+		{
+			System.arraycopy(src, offset, data, (int)index, length);
+		}
+		else
+		{
+			while (length > 0)
+			{
+				FloatBuffer chunk = dataChunks[(int)(index >> CHUNK_SHIFT)].duplicate();
+				chunk.position((int)(index & CHUNK_MASK));
+				int count = Math.min(length, chunk.remaining());
+				chunk.put(src, offset, count);
+				index += count;
+				offset += count;
+				length -= count;
+			}
+		}
+		++modCount;
+	}
+
+	public final void getTranslucency(long index, int dst[], int offset, int length)
+	{
+		if (translucency != null)
+		{
+			System.arraycopy(translucency, (int)index, dst, offset, length);
+			return;
+		}
+		while (length > 0)
+		{
+			IntBuffer chunk = translucencyChunks[(int)(index >> CHUNK_SHIFT)].duplicate();
+			chunk.position((int)(index & CHUNK_MASK));
+			int count = Math.min(length, chunk.remaining());
+			chunk.get(dst, offset, count);
+			index += count;
+			offset += count;
+			length -= count;
+		}
+	}
+
+	public final void setTranslucency(long index, int src[], int offset, int length)
+	{
+		if (translucency != null)
+		{
+			System.arraycopy(src, offset, translucency, (int)index, length);
+		}
+		else
+		{
+			while (length > 0)
+			{
+				IntBuffer chunk = translucencyChunks[(int)(index >> CHUNK_SHIFT)].duplicate();
+				chunk.position((int)(index & CHUNK_MASK));
+				int count = Math.min(length, chunk.remaining());
+				chunk.put(src, offset, count);
+				index += count;
+				offset += count;
+				length -= count;
+			}
+		}
+		++modCount;
+	}
+
+	private static void copy(Volume src, Volume dst)
+	{
+		if (src.data != null && dst.data != null)
+		{
+			System.arraycopy(src.data, 0, dst.data, 0, dst.data.length);
+			System.arraycopy(src.translucency, 0, dst.translucency, 0, dst.translucency.length);
+			dst.modified();
+			return;
+		}
+		if (src.data != null)
+		{
+			dst.setData(0, src.data, 0, src.data.length);
+			dst.setTranslucency(0, src.translucency, 0, src.translucency.length);
+			return;
+		}
+		if (dst.data != null)
+		{
+			src.getData(0, dst.data, 0, dst.data.length);
+			src.getTranslucency(0, dst.translucency, 0, dst.translucency.length);
+			dst.modified();
+			return;
+		}
+		float dataBlock[] = new float[COPY_BLOCK_SIZE];
+		int translucencyBlock[] = new int[COPY_BLOCK_SIZE];
+		for (long begin = 0; begin < src.size; begin += COPY_BLOCK_SIZE)
+		{
+			int count = (int)Math.min(COPY_BLOCK_SIZE, src.size - begin);
+			src.getData(begin, dataBlock, 0, count);
+			dst.setData(begin, dataBlock, 0, count);
+			src.getTranslucency(begin, translucencyBlock, 0, count);
+			dst.setTranslucency(begin, translucencyBlock, 0, count);
+		}
+	}
+
+	/**
+	 * Trilinear interpolation, the position is given in voxels and has to be inside of the lattice
+	 */
+	public final float interpolateData(double x, double y, double z)
+	{
+		if (data != null)
+		{
+			return Interpolator.interpolatePoint(x, y, z, data, width, height, depth);
+		}
+		long x0 = lowerCorner(x, width), y0 = lowerCorner(y, height), z0 = lowerCorner(z, depth);
+		double fx = x - x0, fy = y - y0, fz = z - z0;
+		long sx = width > 1 ? 1 : 0, sy = height > 1 ? width : 0, sz = depth > 1 ? (long)width * height : 0;
+		long index = (z0 * height + y0) * width + x0;
+		double v00 = getData(index) * (1 - fx) + getData(index + sx) * fx;
+		double v10 = getData(index + sy) * (1 - fx) + getData(index + sy + sx) * fx;
+		double v01 = getData(index + sz) * (1 - fx) + getData(index + sz + sx) * fx;
+		double v11 = getData(index + sz + sy) * (1 - fx) + getData(index + sz + sy + sx) * fx;
+		return (float)((v00 * (1 - fy) + v10 * fy) * (1 - fz) + (v01 * (1 - fy) + v11 * fy) * fz);
+	}
+
+	/**
+	 * Trilinear interpolation of the translucencies as unsigned integers
+	 */
+	public final float interpolateTranslucency(double x, double y, double z)
+	{
+		if (translucency != null)
+		{
+			return Interpolator.interpolateUnsignedPoint(x, y, z, translucency, width, height, depth);
+		}
+		long x0 = lowerCorner(x, width), y0 = lowerCorner(y, height), z0 = lowerCorner(z, depth);
+		double fx = x - x0, fy = y - y0, fz = z - z0;
+		long sx = width > 1 ? 1 : 0, sy = height > 1 ? width : 0, sz = depth > 1 ? (long)width * height : 0;
+		long index = (z0 * height + y0) * width + x0;
+		double v00 = unsigned(index) * (1 - fx) + unsigned(index + sx) * fx;
+		double v10 = unsigned(index + sy) * (1 - fx) + unsigned(index + sy + sx) * fx;
+		double v01 = unsigned(index + sz) * (1 - fx) + unsigned(index + sz + sx) * fx;
+		double v11 = unsigned(index + sz + sy) * (1 - fx) + unsigned(index + sz + sy + sx) * fx;
+		return (float)((v00 * (1 - fy) + v10 * fy) * (1 - fz) + (v01 * (1 - fy) + v11 * fy) * fz);
+	}
+
+	private final long unsigned(long index)
+	{
+		return getTranslucency(index) & 0xFFFFFFFFL;
+	}
+
+	private static long lowerCorner(double x, int length)
+	{
+		return Math.max(0, Math.min((long)x, length - 2));
+	}
+
+	/**
+	 * @return minimum and maximum of the refractive indices
+	 */
+	public final float[] minMaxData(float result[])
+	{
+		if (data != null)
+		{
+			return ArrayUtil.minMax(data, result);
+		}
+		float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+		float block[] = new float[COPY_BLOCK_SIZE];
+		for (long begin = 0; begin < size; begin += COPY_BLOCK_SIZE)
+		{
+			int count = (int)Math.min(COPY_BLOCK_SIZE, size - begin);
+			getData(begin, block, 0, count);
+			for (int i = 0; i < count; ++i)
+			{
+				min = Math.min(min, block[i]);
+				max = Math.max(max, block[i]);
+			}
+		}
+		result[0] = min;
+		result[1] = max;
+		return result;
+	}
+
+	/**
+	 * Writes the changes of a writable mapped volume to the file
+	 */
+	public void force()
+	{
+		if (mappedBuffers != null)
+		{
+			for (MappedByteBuffer buffer : mappedBuffers)
+			{
+				buffer.force();
+			}
+		}
+	}
 
 	public void writeBinary(DataOutputStream outBuf) throws IOException {
 		outBuf.writeInt(depth);
 		outBuf.writeInt(height);
 		outBuf.writeInt(width);
-		ArrayUtil.write(data, 0, data.length, outBuf);
-		ArrayUtil.write(translucency, 0, translucency.length, outBuf);
+		if (data != null)
+		{
+			ArrayUtil.write(data, 0, data.length, outBuf);
+			ArrayUtil.write(translucency, 0, translucency.length, outBuf);
+			return;
+		}
+		float dataBlock[] = new float[COPY_BLOCK_SIZE];
+		for (long begin = 0; begin < size; begin += COPY_BLOCK_SIZE)
+		{
+			int count = (int)Math.min(COPY_BLOCK_SIZE, size - begin);
+			getData(begin, dataBlock, 0, count);
+			ArrayUtil.write(dataBlock, 0, count, outBuf);
+		}
+		int translucencyBlock[] = new int[COPY_BLOCK_SIZE];
+		for (long begin = 0; begin < size; begin += COPY_BLOCK_SIZE)
+		{
+			int count = (int)Math.min(COPY_BLOCK_SIZE, size - begin);
+			getTranslucency(begin, translucencyBlock, 0, count);
+			ArrayUtil.write(translucencyBlock, 0, count, outBuf);
+		}
 	}
 
+	/**
+	 * Invalidates caches of the volume, like its bricks. The setters and read call it, code writing data or translucency directly has to.
+	 */
 	public void modified() {
-		++modCount;	
+		++modCount;
 	}
-	
+
 	public int modCount()
 	{
 		return modCount;
 	}
-	
+
 }
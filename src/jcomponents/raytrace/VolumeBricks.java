@@ -0,0 +1,117 @@
+package jcomponents.raytrace;
+
+/**
+ * Value ranges of the bricks of a volume for ray marching, the values themselves are read through the accessors of the volume, so heap and mapped volumes are supported.
+ * A brick is homogeneous if it and its 26 neighbours hold one refractive index and translucency,
+ * then every sample and central difference of a marching step starting in the brick sees that constant value and the step is a straight line.
+ */
+public class VolumeBricks {
+	public static final int BRICK_SHIFT = 3, BRICK_SIZE = 1 << BRICK_SHIFT;
+	private static final int BRICK_MASK = BRICK_SIZE - 1;
+	public final Volume vol;
+	/*number of bricks in every direction*/
+	public final int width, height, depth;
+	public final float minData[], maxData[];
+	/*translucencies are unsigned*/
+	public final int minTranslucency[], maxTranslucency[];
+	private final boolean homogeneous[];
+	private final int modCount;
+
+	public VolumeBricks(Volume vol)
+	{
+		this.vol = vol;
+		this.modCount = vol.modCount();
+		width = (vol.width + BRICK_MASK) >> BRICK_SHIFT;
+		height = (vol.height + BRICK_MASK) >> BRICK_SHIFT;
+		depth = (vol.depth + BRICK_MASK) >> BRICK_SHIFT;
+		int numBricks = width * height * depth;
+		minData = new float[numBricks];
+		maxData = new float[numBricks];
+		minTranslucency = new int[numBricks];
+		maxTranslucency = new int[numBricks];
+		homogeneous = new boolean[numBricks];
+		float row[] = new float[vol.width];
+		int translucencyRow[] = new int[vol.width];
+		for (int i = 0; i < numBricks; ++i)
+		{
+			minData[i] = Float.POSITIVE_INFINITY;
+			maxData[i] = Float.NEGATIVE_INFINITY;
+			minTranslucency[i] = -1;
+			maxTranslucency[i] = 0;
+		}
+		for (int z = 0; z < vol.depth; ++z)
+		{
+			for (int y = 0; y < vol.height; ++y)
+			{
+				long index = ((long)z * vol.height + y) * vol.width;
+				vol.getData(index, row, 0, vol.width);
+				vol.getTranslucency(index, translucencyRow, 0, vol.width);
+				for (int x = 0; x < vol.width; ++x)
+				{
+					int brick = ((z >> BRICK_SHIFT) * height + (y >> BRICK_SHIFT)) * width + (x >> BRICK_SHIFT);
+					float value = row[x];
+					int translucency = translucencyRow[x];
+					/*Math.min and max keep NaN, which fails every comparison and ends the homogeneity*/
+					minData[brick] = Math.min(minData[brick], value);
+					maxData[brick] = Math.max(maxData[brick], value);
+					if (Integer.compareUnsigned(translucency, minTranslucency[brick]) < 0)	{minTranslucency[brick] = translucency;}
+					if (Integer.compareUnsigned(translucency, maxTranslucency[brick]) > 0)	{maxTranslucency[brick] = translucency;}
+				}
+			}
+		}
+		for (int bz = 0, brick = 0; bz < depth; ++bz)
+		{
+			for (int by = 0; by < height; ++by)
+			{
+				for (int bx = 0; bx < width; ++bx, ++brick)
+				{
+					homogeneous[brick] = isNeighbourhoodConstant(bx, by, bz, minData[brick], minTranslucency[brick]);
+				}
+			}
+		}
+	}
+
+	private final boolean isNeighbourhoodConstant(int bx, int by, int bz, float value, int translucency)
+	{
+		for (int z = Math.max(0, bz - 1); z <= Math.min(depth - 1, bz + 1); ++z)
+		{
+			for (int y = Math.max(0, by - 1); y <= Math.min(height - 1, by + 1); ++y)
+			{
+				for (int x = Math.max(0, bx - 1); x <= Math.min(width - 1, bx + 1); ++x)
+				{
+					int brick = (z * height + y) * width + x;
+					if (minData[brick] != value || maxData[brick] != value || minTranslucency[brick] != translucency || maxTranslucency[brick] != translucency)
+					{
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return false if the volume was modified after the bricks were built
+	 */
+	public final boolean isUpToDate()
+	{
+		return vol.modCount() == modCount;
+	}
+
+	/**
+	 * @return index of the brick containing the position in voxels or -1 if it is outside of the volume
+	 */
+	public final int getBrick(double x, double y, double z)
+	{
+		if (!(x >= 0 && x < vol.width && y >= 0 && y < vol.height && z >= 0 && z < vol.depth))
+		{
+			return -1;
+		}
+		return ((((int)z) >> BRICK_SHIFT) * height + (((int)y) >> BRICK_SHIFT)) * width + (((int)x) >> BRICK_SHIFT);
+	}
+
+	public final boolean isHomogeneous(int brick)
+	{
+		return brick >= 0 && homogeneous[brick];
+	}
+}
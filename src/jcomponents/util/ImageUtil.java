@@ -67,10 +67,11 @@ public class ImageUtil {
         {
             int addIndex = i + addBegin;
             float toAdd =  add[addIndex] * multiplier;
-            image[pIndex + i]                   += ((0x100 - xMod) * (0x100 - yMod)) * toAdd;
-            image[pIndex + ch + i]              += (xMod           * (0x100 - yMod)) * toAdd;
-            image[pIndex + width * ch + i]      += ((0x100 - xMod) * yMod)           * toAdd;
-            image[pIndex + width * ch + ch + i] += (xMod           * yMod)           * toAdd;
+            /*casting every weight keeps the sum integral, adding the float directly would round the whole sum to float precision*/
+            image[pIndex + i]                   += (long)(((0x100 - xMod) * (0x100 - yMod)) * toAdd);
+            image[pIndex + ch + i]              += (long)((xMod           * (0x100 - yMod)) * toAdd);
+            image[pIndex + width * ch + i]      += (long)(((0x100 - xMod) * yMod)           * toAdd);
+            image[pIndex + width * ch + ch + i] += (long)((xMod           * yMod)           * toAdd);
         }
     }
 
@@ -0,0 +1,91 @@
+package jmh.data.raytrace;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import data.raytrace.Intersection;
+import data.raytrace.MeshObject;
+import data.raytrace.ParseUtil;
+import geometry.Vector3d;
+import maths.variable.VariableStack;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MeshIntersectionBenchmark {
+	static final int NUM_RAYS = 1024;
+
+	/*number of triangles of a uv-sphere*/
+	@Param({"128", "131072"})
+	public int faceCount;
+
+	private MeshObject mesh;
+	private final Vector3d position[] = new Vector3d[NUM_RAYS];
+	private final Vector3d direction[] = new Vector3d[NUM_RAYS];
+	private final Intersection intersection = new Intersection();
+
+	@Setup
+	public void setup()
+	{
+		int rings = Math.max(2, (int)Math.sqrt(faceCount / 4));
+		int segments = faceCount / (2 * rings);
+		double vertices[] = new double[(rings + 1) * segments * 3];
+		for (int i = 0, write = 0; i <= rings; ++i)
+		{
+			double theta = Math.PI * i / rings;
+			for (int j = 0; j < segments; ++j)
+			{
+				double phi = 2 * Math.PI * j / segments;
+				vertices[write++] = 5 * Math.sin(theta) * Math.cos(phi);
+				vertices[write++] = 5 * Math.sin(theta) * Math.sin(phi);
+				vertices[write++] = 5 * Math.cos(theta);
+			}
+		}
+		int faces[] = new int[rings * segments * 6];
+		for (int i = 0, write = 0; i < rings; ++i)
+		{
+			for (int j = 0; j < segments; ++j)
+			{
+				int v00 = i * segments + j, v01 = i * segments + (j + 1) % segments;
+				int v10 = v00 + segments, v11 = v01 + segments;
+				faces[write++] = v00; faces[write++] = v10; faces[write++] = v11;
+				faces[write++] = v00; faces[write++] = v11; faces[write++] = v01;
+			}
+		}
+		mesh = new MeshObject(new VariableStack(), new ParseUtil());
+		mesh.setData(vertices, faces, null);
+		Random rand = new Random(42);
+		for (int i = 0; i < NUM_RAYS; ++i)
+		{
+			position[i] = new Vector3d(rand.nextGaussian() * 10, rand.nextGaussian() * 10, rand.nextGaussian() * 10);
+			direction[i] = new Vector3d(rand.nextGaussian(), rand.nextGaussian(), rand.nextGaussian());
+			direction[i].normalize();
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_RAYS)
+	public double getIntersection()
+	{
+		double sum = 0;
+		for (int i = 0; i < NUM_RAYS; ++i)
+		{
+			intersection.object = null;
+			if (mesh.getIntersection(position[i], direction[i], intersection, 0, Double.POSITIVE_INFINITY) != null)
+			{
+				sum += intersection.distance;
+			}
+		}
+		return sum;
+	}
+}
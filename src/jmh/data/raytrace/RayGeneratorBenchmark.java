@@ -0,0 +1,74 @@
+package jmh.data.raytrace;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import data.raytrace.GuiOpticalSurfaceObject;
+import data.raytrace.OpticalObject.SCENE_OBJECT_COLUMN_TYPE;
+import data.raytrace.ParseUtil;
+import data.raytrace.RayRandom;
+import data.raytrace.RaySimulation.SurfaceType;
+import data.raytrace.raygen.RayGenerator;
+import data.raytrace.raygen.SampleSequence.SamplingMode;
+import geometry.Vector2d;
+import geometry.Vector3d;
+import maths.exception.OperationParseException;
+import maths.variable.VariableStack;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RayGeneratorBenchmark {
+	static final int NUM_RAYS = 1024;
+
+	@Param({"FLAT", "SPHERICAL"})
+	public SurfaceType surface;
+
+	@Param
+	public SamplingMode sampling;
+
+	private final RayGenerator gen = new RayGenerator();
+	private final RayRandom random = new RayRandom();
+	private final Vector3d position = new Vector3d();
+	private final Vector3d direction = new Vector3d();
+	private final Vector2d textureCoordinate = new Vector2d();
+	private final float color[] = new float[4];
+
+	@Setup
+	public void setup() throws OperationParseException
+	{
+		ParseUtil parser = new ParseUtil();
+		VariableStack vs = new VariableStack();
+		GuiOpticalSurfaceObject oso = new GuiOpticalSurfaceObject(vs, parser);
+		oso.setValue(SCENE_OBJECT_COLUMN_TYPE.DIRECTION, new Vector3d(1,0,0), vs, parser);
+		oso.setValue(SCENE_OBJECT_COLUMN_TYPE.SURFACE, surface, vs, parser);
+		oso.setValue(SCENE_OBJECT_COLUMN_TYPE.MAXRADIUS, 2, vs, parser);
+		oso.setValue(SCENE_OBJECT_COLUMN_TYPE.DIFFUSE, 1, vs, parser);
+		gen.setSource(oso);
+		gen.threeDimensional = true;
+		gen.sampling = sampling;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_RAYS)
+	public double generate()
+	{
+		double sum = 0;
+		for (int i = 0; i < NUM_RAYS; ++i)
+		{
+			random.setRay(0, i, 0);
+			gen.generate(i, NUM_RAYS, position, direction, textureCoordinate, color, random);
+			sum += direction.x + position.y;
+		}
+		return sum;
+	}
+}
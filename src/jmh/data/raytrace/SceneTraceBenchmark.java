@@ -0,0 +1,108 @@
+package jmh.data.raytrace;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import data.raytrace.GuiOpticalSurfaceObject;
+import data.raytrace.OpticalObject;
+import data.raytrace.OpticalObject.SCENE_OBJECT_COLUMN_TYPE;
+import data.raytrace.ParseUtil;
+import data.raytrace.RayBatch;
+import data.raytrace.RaySimulation.MaterialType;
+import data.raytrace.RaySimulation.SurfaceType;
+import data.raytrace.RaytraceScene;
+import data.raytrace.RaytraceScene.RaySimulationObject;
+import data.raytrace.raygen.RayGenerator;
+import geometry.Vector3d;
+import maths.exception.OperationParseException;
+import maths.variable.VariableStack;
+
+/**
+ * Traces a disk light through a ball lens onto an absorbing sphere, once ray by ray and once as a RayBatch
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SceneTraceBenchmark {
+	static final int NUM_RAYS = 4096;
+	static final int MAX_BOUNCES = 10;
+
+	private final RaytraceScene scene = new RaytraceScene("Benchmark");
+	private final RayGenerator gen = new RayGenerator();
+	private final RaySimulationObject currentRay = new RaySimulationObject();
+	private final float endpoints[] = new float[NUM_RAYS * 3];
+	private final float enddirs[] = new float[NUM_RAYS * 3];
+	private final float startpoints[] = new float[NUM_RAYS * 3];
+	private final float startdirs[] = new float[NUM_RAYS * 3];
+	private final byte accepted[] = new byte[NUM_RAYS];
+	private final int bounces[] = new int[NUM_RAYS];
+	private final OpticalObject lastObject[] = new OpticalObject[NUM_RAYS];
+	private final RayBatch batch = new RayBatch(NUM_RAYS);
+
+	private static GuiOpticalSurfaceObject createSurface(VariableStack vs, ParseUtil parser, Vector3d position, Vector3d direction, SurfaceType surface, MaterialType material, double ior) throws OperationParseException
+	{
+		GuiOpticalSurfaceObject oso = new GuiOpticalSurfaceObject(vs, parser);
+		oso.setValue(SCENE_OBJECT_COLUMN_TYPE.POSITION, position, vs, parser);
+		oso.setValue(SCENE_OBJECT_COLUMN_TYPE.DIRECTION, direction, vs, parser);
+		oso.setValue(SCENE_OBJECT_COLUMN_TYPE.SURFACE, surface, vs, parser);
+		oso.setValue(SCENE_OBJECT_COLUMN_TYPE.MINRADIUS, 0, vs, parser);
+		oso.setValue(SCENE_OBJECT_COLUMN_TYPE.MAXRADIUS, 100, vs, parser);
+		oso.setValue(SCENE_OBJECT_COLUMN_TYPE.MATERIAL, material, vs, parser);
+		oso.setValue(SCENE_OBJECT_COLUMN_TYPE.IOR0, 1, vs, parser);
+		oso.setValue(SCENE_OBJECT_COLUMN_TYPE.IOR1, ior, vs, parser);
+		oso.setValue(SCENE_OBJECT_COLUMN_TYPE.ACTIVE, true, vs, parser);
+		return oso;
+	}
+
+	@Setup
+	public void setup() throws OperationParseException
+	{
+		ParseUtil parser = new ParseUtil();
+		VariableStack vs = scene.vs;
+		scene.add(createSurface(vs, parser, new Vector3d(0,0,0), new Vector3d(5,0,0), SurfaceType.SPHERICAL, MaterialType.REFRACTION, 1.5));
+		scene.add(createSurface(vs, parser, new Vector3d(0,0,0), new Vector3d(-5,0,0), SurfaceType.SPHERICAL, MaterialType.REFRACTION, 1.5));
+		scene.add(createSurface(vs, parser, new Vector3d(0,0,0), new Vector3d(50,0,0), SurfaceType.SPHERICAL, MaterialType.ABSORBATION, 1));
+		GuiOpticalSurfaceObject light = new GuiOpticalSurfaceObject(vs, parser);
+		light.setValue(SCENE_OBJECT_COLUMN_TYPE.POSITION, new Vector3d(-20,0,0), vs, parser);
+		light.setValue(SCENE_OBJECT_COLUMN_TYPE.DIRECTION, new Vector3d(1,0,0), vs, parser);
+		light.setValue(SCENE_OBJECT_COLUMN_TYPE.SURFACE, SurfaceType.FLAT, vs, parser);
+		light.setValue(SCENE_OBJECT_COLUMN_TYPE.MAXRADIUS, 4, vs, parser);
+		gen.setSource(light);
+		gen.threeDimensional = true;
+		scene.updateScene();
+		/*the batch benchmark starts from the generated rays*/
+		calculateRays();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_RAYS)
+	public int calculateRays()
+	{
+		return scene.calculateRays(0, NUM_RAYS, NUM_RAYS, gen, 0, 0, startpoints, startdirs, endpoints, enddirs, null, null, accepted, bounces, lastObject, MAX_BOUNCES, false, currentRay, RaytraceScene.UNACCEPTED_MARK);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_RAYS)
+	public int calculateRaysBatch()
+	{
+		Vector3d position = currentRay.position, direction = currentRay.direction;
+		batch.size = NUM_RAYS;
+		for (int i = 0; i < NUM_RAYS; ++i)
+		{
+			position.set(startpoints, i * 3);
+			direction.set(startdirs, i * 3);
+			batch.setRay(i, position, direction);
+			batch.lastObject[i] = null;
+		}
+		scene.calculateRays(batch, MAX_BOUNCES, currentRay);
+		return batch.bounces[NUM_RAYS - 1];
+	}
+}
@@ -0,0 +1,74 @@
+package jmh.data.raytrace;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import data.raytrace.GuiOpticalSurfaceObject;
+import data.raytrace.Intersection;
+import data.raytrace.OpticalObject.SCENE_OBJECT_COLUMN_TYPE;
+import data.raytrace.ParseUtil;
+import data.raytrace.RaySimulation.SurfaceType;
+import geometry.Vector3d;
+import maths.exception.OperationParseException;
+import maths.variable.VariableStack;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SurfaceIntersectionBenchmark {
+	static final int NUM_RAYS = 1024;
+
+	/*without values jmh runs every constant of the enum*/
+	@Param
+	public SurfaceType surface;
+
+	private GuiOpticalSurfaceObject oso;
+	private final Vector3d position[] = new Vector3d[NUM_RAYS];
+	private final Vector3d direction[] = new Vector3d[NUM_RAYS];
+	private final Intersection intersection = new Intersection();
+
+	@Setup
+	public void setup() throws OperationParseException
+	{
+		ParseUtil parser = new ParseUtil();
+		VariableStack vs = new VariableStack();
+		oso = new GuiOpticalSurfaceObject(vs, parser);
+		oso.setValue(SCENE_OBJECT_COLUMN_TYPE.SURFACE, surface, vs, parser);
+		oso.setValue(SCENE_OBJECT_COLUMN_TYPE.MINRADIUS, 2, vs, parser);
+		oso.setValue(SCENE_OBJECT_COLUMN_TYPE.MAXRADIUS, 10, vs, parser);
+		oso.setValue(SCENE_OBJECT_COLUMN_TYPE.DIRECTION, new Vector3d(3,1,0), vs, parser);
+		oso.setValue(SCENE_OBJECT_COLUMN_TYPE.CONIC_CONSTANT, -0.5, vs, parser);
+		Random rand = new Random(7);
+		for (int i = 0; i < NUM_RAYS; ++i)
+		{
+			position[i] = new Vector3d(rand.nextGaussian() * 8, rand.nextGaussian() * 8, rand.nextGaussian() * 8);
+			direction[i] = new Vector3d(rand.nextGaussian(), rand.nextGaussian(), rand.nextGaussian());
+			direction[i].normalize();
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_RAYS)
+	public double getIntersection()
+	{
+		double sum = 0;
+		for (int i = 0; i < NUM_RAYS; ++i)
+		{
+			if (oso.getIntersection(position[i], direction[i], intersection, 0, Double.POSITIVE_INFINITY) != null)
+			{
+				sum += intersection.distance;
+			}
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,58 @@
+package jmh.data.raytrace;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import data.raytrace.TextureMapping;
+import geometry.Vector2d;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TextureMappingBenchmark {
+	static final int NUM_POINTS = 1024;
+
+	/*without values jmh runs every constant of the enum*/
+	@Param
+	public TextureMapping tm;
+
+	private final double points[] = new double[NUM_POINTS * 3];
+	private final Vector2d out = new Vector2d();
+
+	@Setup
+	public void setup()
+	{
+		Random rand = new Random(3);
+		for (int i = 0; i < NUM_POINTS; ++i)
+		{
+			double x = rand.nextGaussian(), y = rand.nextGaussian(), z = rand.nextGaussian();
+			double invLen = 1 / Math.sqrt(x * x + y * y + z * z);
+			points[i * 3] = x * invLen;
+			points[i * 3 + 1] = y * invLen;
+			points[i * 3 + 2] = z * invLen;
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_POINTS)
+	public double mapCartToTex()
+	{
+		double sum = 0;
+		for (int i = 0; i < NUM_POINTS * 3; i += 3)
+		{
+			tm.mapCartToTex(points[i], points[i + 1], points[i + 2], out);
+			sum += out.x + out.y;
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Paul Stahr
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package main;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.joran.JoranConfigurator;
+import ch.qos.logback.core.joran.spi.JoranException;
+import data.DataHandler;
+import data.ProgrammData;
+import data.raytrace.RaytraceCommandLine;
+import data.raytrace.RaytraceCommandLine.ExecEnv;
+import maths.algorithm.Calculate;
+
+/**
+ * Entry point for batch nodes without display. No window is created, scenes are loaded without gui and commands are read from scripts or the standard input.
+ * Usage: HeadlessMain [--exec <command>]... [--script <file> [arguments]...]
+ */
+public class HeadlessMain
+{
+	static {
+		/*has to be set before any awt class asks for the graphics environment*/
+		System.setProperty("java.awt.headless", "true");
+		LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+		loggerContext.reset();
+		JoranConfigurator configurator = new JoranConfigurator();
+		InputStream configStream;
+		try {
+			configStream = DataHandler.getResourceAsStream("logback.xml");
+			configurator.setContext(loggerContext);
+			configurator.doConfigure(configStream);
+			configStream.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (JoranException e) {
+			e.printStackTrace();
+		}
+	}
+	private static final Logger logger = LoggerFactory.getLogger(HeadlessMain.class);
+
+	public static final void main(String args[])
+	{
+		ArrayList<String> execList = new ArrayList<>();
+		String script = null;
+		ArrayList<String> scriptArgs = new ArrayList<>();
+		for (int i = 0; i < args.length; ++i)
+		{
+			switch (args[i])
+			{
+				case "--exec":		execList.add(args[++i]);break;
+				case "--script":
+					script = args[++i];
+					scriptArgs.add(script);
+					scriptArgs.addAll(Arrays.asList(args).subList(i + 1, args.length));
+					i = args.length;
+					break;
+				case "--version":
+					System.out.println("version" + ':' + ProgrammData.getVersion());
+					System.exit(0);
+					break;
+				default:			System.out.println("Unknown command-line argument " + args[i]);
+			}
+		}
+		logger.info(new StringBuilder().append("Starting headless ").append(ProgrammData.name).append(" Version:\"").append(ProgrammData.getVersion()).append('"').toString());
+		Calculate.init();
+		BufferedWriter out = new BufferedWriter(new OutputStreamWriter(System.out));
+		int exitCode = 0;
+		try {
+			for (int i = 0; i < execList.size(); ++i)
+			{
+				new RaytraceCommandLine().exec(execList.get(i), out, new ArrayList<String>(), new ExecEnv(new File("./")));
+			}
+			if (script != null)
+			{
+				FileInputStream inStream = new FileInputStream(script);
+				try
+				{
+					new RaytraceCommandLine().run(inStream, out, scriptArgs, new ExecEnv(new File(script).getAbsoluteFile().getParentFile()));
+				}
+				finally
+				{
+					inStream.close();
+				}
+			}
+			else if (execList.isEmpty())
+			{
+				new RaytraceCommandLine().run(System.in, out, new ArrayList<String>(), new ExecEnv(new File("./")));
+			}
+			out.flush();
+		} catch (Exception e) {
+			logger.error("Error at executing Raytrace Command Line", e);
+			exitCode = -1;
+		}
+		finally
+		{
+			RaytraceCommandLine.clearHeadlessScenes();
+		}
+		/*the timed updater and the thread pool would keep the vm alive*/
+		System.exit(exitCode);
+	}
+}
@@ -1,5 +1,7 @@
 package scene.object;
 
+import java.util.SplittableRandom;
+
 import geometry.FloatVectorObject;
 
 public class SceneObjectPointCloud extends SceneObject {
@@ -9,6 +11,8 @@ public class SceneObjectPointCloud extends SceneObject {
 	private int dimX, dimY, dimZ;
 	//private double minX, maxX, minY, maxY, minZ, maxZ;
 	double recreationRate = 0.001;
+	/*only used by the update thread*/
+	private final SplittableRandom random = new SplittableRandom();
 	private int usedMemory;
 	//private int vertexCount;
 
@@ -96,7 +100,7 @@ public class SceneObjectPointCloud extends SceneObject {
 			int xi = (int)x;
 			int yi = (int)y;
 			int zi = (int)z;
-			if (xi >= 0 && xi < dimX && yi >= 0 && yi < dimY && zi >= 0 && zi < dimZ && Math.random() > recreationRate)
+			if (xi >= 0 && xi < dimX && yi >= 0 && yi < dimY && zi >= 0 && zi < dimZ && random.nextDouble() > recreationRate)
 			{
 				int index = (zi * dimY + yi) * dimX + xi;
 				vectorField[i] = x + verticesX[index];
@@ -105,9 +109,9 @@ public class SceneObjectPointCloud extends SceneObject {
 			}
 			else
 			{
-				vectorField[i] = (float)Math.random() * dimX;
-				vectorField[i + 1] = (float)Math.random() * dimY;
-				vectorField[i + 2] = (float)Math.random() * dimZ;
+				vectorField[i] = (float)random.nextDouble() * dimX;
+				vectorField[i + 1] = (float)random.nextDouble() * dimY;
+				vectorField[i + 2] = (float)random.nextDouble() * dimZ;
 				++resetCount[i/3];
 			}	
 		}
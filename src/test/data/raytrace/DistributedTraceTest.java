@@ -0,0 +1,202 @@
+package test.data.raytrace;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Test;
+
+import data.raytrace.DistributedTraceJob;
+import data.raytrace.GuiOpticalSurfaceObject;
+import data.raytrace.MergeableRayResultSink;
+import data.raytrace.OpticalObject.SCENE_OBJECT_COLUMN_TYPE;
+import data.raytrace.ParseUtil;
+import data.raytrace.RaySimulation.MaterialType;
+import data.raytrace.RaySimulation.SurfaceType;
+import data.raytrace.RaytraceCoordinator;
+import data.raytrace.RaytraceScene;
+import data.raytrace.StatisticsRayResultSink;
+import geometry.Vector3d;
+import maths.exception.OperationParseException;
+import maths.variable.VariableStack;
+
+/**
+ * Starts worker vms on localhost and checks that distributed runs give the same results as a local run
+ */
+public class DistributedTraceTest {
+    private static final int NUM_RAYS = 20000;
+    private final ArrayList<Process> workers = new ArrayList<>();
+
+    private InetSocketAddress startWorker() throws IOException
+    {
+        ProcessBuilder pb = new ProcessBuilder(
+                System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+                "-cp", System.getProperty("java.class.path"),
+                "main.HeadlessMain", "--exec", "worker 0");
+        pb.redirectErrorStream(true);
+        Process process = pb.start();
+        workers.add(process);
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        String line;
+        while ((line = reader.readLine()) != null)
+        {
+            if (line.startsWith("worker port "))
+            {
+                /*keeps the output pipe of the worker from filling up*/
+                Thread drain = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            while (reader.readLine() != null) {}
+                        } catch (IOException e) {}
+                    }
+                });
+                drain.setDaemon(true);
+                drain.start();
+                /*workers listen on the loopback address by default*/
+                return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(line.substring(12).trim()));
+            }
+        }
+        throw new IOException("Worker didn't start");
+    }
+
+    @After
+    public void stopWorkers()
+    {
+        for (Process process : workers)
+        {
+            process.destroy();
+        }
+    }
+
+    private static GuiOpticalSurfaceObject createSurface(RaytraceScene scene, String id, Vector3d position, Vector3d direction, SurfaceType surface, MaterialType material, double radius, double ior) throws OperationParseException
+    {
+        VariableStack vs = scene.vs;
+        ParseUtil parser = new ParseUtil();
+        GuiOpticalSurfaceObject oso = new GuiOpticalSurfaceObject(vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.ID, id, vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.POSITION, position, vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.DIRECTION, direction, vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.SURFACE, surface, vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.MINRADIUS, 0, vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.MAXRADIUS, radius, vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.MATERIAL, material, vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.IOR0, 1, vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.IOR1, ior, vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.ACTIVE, true, vs, parser);
+        scene.add(oso);
+        return oso;
+    }
+
+    /**
+     * A disk light shining through a ball lens onto an absorbing screen
+     */
+    private static RaytraceScene createScene() throws OperationParseException
+    {
+        RaytraceScene scene = new RaytraceScene("Distributed");
+        scene.seed = 42;
+        createSurface(scene, "front", new Vector3d(0,0,0), new Vector3d(-5,0,0), SurfaceType.SPHERICAL, MaterialType.REFRACTION, 100, 1.5);
+        createSurface(scene, "back", new Vector3d(0,0,0), new Vector3d(5,0,0), SurfaceType.SPHERICAL, MaterialType.REFRACTION, 100, 1.5);
+        createSurface(scene, "screen", new Vector3d(30,0,0), new Vector3d(-1,0,0), SurfaceType.FLAT, MaterialType.ABSORBATION, 20, 1);
+        createSurface(scene, "light", new Vector3d(-20,0,0), new Vector3d(1,0,0), SurfaceType.FLAT, MaterialType.ABSORBATION, 4, 1);
+        return scene;
+    }
+
+    private static byte[] getContent(MergeableRayResultSink sink) throws IOException
+    {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        sink.writeContent(new DataOutputStream(bout));
+        return bout.toByteArray();
+    }
+
+    /**
+     * The local run uses the transferred scene too, so it sees the same values as the workers
+     * @return the result of the local run
+     */
+    private MergeableRayResultSink testDistributed(DistributedTraceJob job, RaytraceScene scene) throws IOException
+    {
+        RaytraceScene loaded = job.loadScene("Local");
+        MergeableRayResultSink local = job.createSink(loaded);
+        RaytraceCoordinator.runLocal(job, loaded, local);
+        InetSocketAddress first = startWorker(), second = startWorker();
+        MergeableRayResultSink single = job.createSink(scene);
+        RaytraceCoordinator.run(job, Collections.singletonList(first), single);
+        MergeableRayResultSink both = job.createSink(scene);
+        RaytraceCoordinator.run(job, Arrays.asList(first, second), both);
+        assertArrayEquals(getContent(local), getContent(single));
+        assertArrayEquals(getContent(local), getContent(both));
+        return local;
+    }
+
+    @Test(timeout = 120000)
+    public void testStatistics() throws OperationParseException, IOException
+    {
+        RaytraceScene scene = createScene();
+        DistributedTraceJob job = new DistributedTraceJob(scene, "light", NUM_RAYS);
+        job.blockSize = 1000;
+        job.rangeSize = 3000;
+        StatisticsRayResultSink sink = (StatisticsRayResultSink)testDistributed(job, scene);
+        assertEquals(NUM_RAYS, sink.getRayCount());
+        assertTrue(sink.getAcceptedCount("screen") > 0);
+    }
+
+    @Test(timeout = 120000)
+    public void testTexture() throws OperationParseException, IOException
+    {
+        RaytraceScene scene = createScene();
+        DistributedTraceJob job = new DistributedTraceJob(scene, "light", NUM_RAYS);
+        job.blockSize = 1000;
+        job.rangeSize = 3000;
+        job.resultType = DistributedTraceJob.RESULT_TEXTURE;
+        job.objectId = "screen";
+        job.width = 32;
+        job.height = 32;
+        testDistributed(job, scene);
+    }
+
+    @Test
+    public void testInvalidJob() throws OperationParseException, IOException
+    {
+        DistributedTraceJob job = new DistributedTraceJob(createScene(), "light", NUM_RAYS);
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        job.write(new DataOutputStream(bout));
+        byte valid[] = bout.toByteArray();
+        DistributedTraceJob read = DistributedTraceJob.read(new DataInputStream(new ByteArrayInputStream(valid)));
+        assertArrayEquals(job.scene, read.scene);
+        assertEquals(job.blockSize, read.blockSize);
+        /*a scene length which would need a huge allocation is rejected before allocating*/
+        byte invalid[] = valid.clone();
+        invalid[0] = 0x7F;
+        try
+        {
+            DistributedTraceJob.read(new DataInputStream(new ByteArrayInputStream(invalid)));
+            fail("Scene length wasn't checked");
+        }
+        catch (IOException e) {}
+        job.blockSize = 0;
+        bout.reset();
+        job.write(new DataOutputStream(bout));
+        try
+        {
+            DistributedTraceJob.read(new DataInputStream(new ByteArrayInputStream(bout.toByteArray())));
+            fail("Block size wasn't checked");
+        }
+        catch (IOException e) {}
+    }
+}
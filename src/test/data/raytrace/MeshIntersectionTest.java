@@ -0,0 +1,91 @@
+package test.data.raytrace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import data.raytrace.Intersection;
+import data.raytrace.MeshObject;
+import data.raytrace.ParseUtil;
+import geometry.Vector3d;
+import maths.variable.VariableStack;
+
+public class MeshIntersectionTest {
+	private static double intersectTriangle(double vertices[], int v0, int v1, int v2, Vector3d position, Vector3d direction)
+	{
+		double e1x = vertices[v1] - vertices[v0], e1y = vertices[v1 + 1] - vertices[v0 + 1], e1z = vertices[v1 + 2] - vertices[v0 + 2];
+		double e2x = vertices[v2] - vertices[v0], e2y = vertices[v2 + 1] - vertices[v0 + 1], e2z = vertices[v2 + 2] - vertices[v0 + 2];
+		double px = direction.y * e2z - direction.z * e2y, py = direction.z * e2x - direction.x * e2z, pz = direction.x * e2y - direction.y * e2x;
+		double det = e1x * px + e1y * py + e1z * pz;
+		if (det == 0)
+		{
+			return Double.NaN;
+		}
+		double tx = position.x - vertices[v0], ty = position.y - vertices[v0 + 1], tz = position.z - vertices[v0 + 2];
+		double u = (tx * px + ty * py + tz * pz) / det;
+		if (u < 0 || u > 1)
+		{
+			return Double.NaN;
+		}
+		double qx = ty * e1z - tz * e1y, qy = tz * e1x - tx * e1z, qz = tx * e1y - ty * e1x;
+		double v = (direction.x * qx + direction.y * qy + direction.z * qz) / det;
+		if (v < 0 || u + v > 1)
+		{
+			return Double.NaN;
+		}
+		return (e2x * qx + e2y * qy + e2z * qz) / det;
+	}
+
+	@Test
+	public void testHierarchyMatchesBruteForce()
+	{
+		Random rand = new Random(42);
+		int faceCount = 2000;
+		double vertices[] = new double[faceCount * 9];
+		int faces[] = new int[faceCount * 3];
+		for (int i = 0; i < faceCount; ++i)
+		{
+			double x = rand.nextDouble() * 10, y = rand.nextDouble() * 10, z = rand.nextDouble() * 10;
+			for (int j = 0; j < 3; ++j)
+			{
+				int v = i * 3 + j;
+				vertices[v * 3] = x + rand.nextGaussian() * 0.5;
+				vertices[v * 3 + 1] = y + rand.nextGaussian() * 0.5;
+				vertices[v * 3 + 2] = z + rand.nextGaussian() * 0.5;
+				faces[v] = v;
+			}
+		}
+		MeshObject mesh = new MeshObject(new VariableStack(), new ParseUtil());
+		mesh.setData(vertices, faces, null);
+		Vector3d position = new Vector3d(), direction = new Vector3d();
+		for (int i = 0; i < 2000; ++i)
+		{
+			position.set(rand.nextDouble() * 14 - 2, rand.nextDouble() * 14 - 2, rand.nextDouble() * 14 - 2);
+			direction.set(rand.nextGaussian(), rand.nextGaussian(), rand.nextGaussian());
+			direction.normalize();
+			double expected = Double.POSITIVE_INFINITY;
+			for (int j = 0; j < faces.length; j += 3)
+			{
+				double dist = intersectTriangle(vertices, faces[j] * 3, faces[j + 1] * 3, faces[j + 2] * 3, position, direction);
+				if (dist > 0 && dist < expected)
+				{
+					expected = dist;
+				}
+			}
+			Intersection intersection = mesh.getIntersection(position, direction, new Intersection(), 0, Double.POSITIVE_INFINITY);
+			if (expected == Double.POSITIVE_INFINITY)
+			{
+				assertNull(intersection);
+			}
+			else
+			{
+				assertNotNull(intersection);
+				assertEquals(expected, intersection.distance, 1e-8);
+			}
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package test.data.raytrace;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import data.raytrace.GuiOpticalSurfaceObject;
+import data.raytrace.Intersection;
+import data.raytrace.OpticalObject.SCENE_OBJECT_COLUMN_TYPE;
+import data.raytrace.OpticalSurfaceObject;
+import data.raytrace.ParseUtil;
+import data.raytrace.RayBatch;
+import data.raytrace.RaySimulation.SurfaceType;
+import geometry.Vector3d;
+import maths.exception.OperationParseException;
+import maths.variable.VariableStack;
+
+@RunWith(Parameterized.class)
+public class RayBatchTest {
+    static final Logger logger = LoggerFactory.getLogger(RayBatchTest.class);
+    @Parameters
+    public static List<OpticalSurfaceObject> params() {
+        ArrayList<OpticalSurfaceObject> surfaces = new ArrayList<>();
+        ParseUtil p = new ParseUtil();
+        VariableStack vs = new VariableStack();
+        for (SurfaceType st : SurfaceType.values())
+        {
+            OpticalSurfaceObject oso = new GuiOpticalSurfaceObject(vs, p);
+            try {
+                oso.setValue(SCENE_OBJECT_COLUMN_TYPE.SURFACE, st, vs, p);
+                oso.setValue(SCENE_OBJECT_COLUMN_TYPE.MINRADIUS, 2, vs, p);
+                oso.setValue(SCENE_OBJECT_COLUMN_TYPE.MAXRADIUS, 10, vs, p);
+                oso.setValue(SCENE_OBJECT_COLUMN_TYPE.DIRECTION, new Vector3d(3,1,0), vs, p);
+                oso.setValue(SCENE_OBJECT_COLUMN_TYPE.CONIC_CONSTANT, -0.5, vs, p);
+            } catch (OperationParseException | NumberFormatException e) {
+                logger.error("Exception while setting value", e);
+            }
+            surfaces.add(oso);
+        }
+        return surfaces;
+    }
+    final OpticalSurfaceObject oso;
+    public RayBatchTest(OpticalSurfaceObject oso)
+    {
+        this.oso = oso;
+    }
+
+    private static RayBatch createBatch(int count, int rays[])
+    {
+        Random rand = new Random(7);
+        RayBatch batch = new RayBatch(count);
+        batch.size = count;
+        Vector3d position = new Vector3d(), direction = new Vector3d();
+        for (int i = 0; i < count; ++i)
+        {
+            position.set(rand.nextGaussian() * 8, rand.nextGaussian() * 8, rand.nextGaussian() * 8);
+            direction.set(rand.nextGaussian(), rand.nextGaussian(), rand.nextGaussian());
+            direction.normalize();
+            batch.setRay(i, position, direction);
+            batch.tMax[i] = Double.POSITIVE_INFINITY;
+            batch.objectIndex[i] = -1;
+            rays[i] = i;
+        }
+        return batch;
+    }
+
+    @Test
+    public void testBatchMatchesSingleRays()
+    {
+        int count = 1000;
+        int rays[] = new int[count];
+        RayBatch batch = createBatch(count, rays);
+        Vector3d position = new Vector3d(), direction = new Vector3d();
+        oso.getIntersections(batch, rays, count, 0, 0);
+        Intersection intersection = new Intersection();
+        for (int i = 0; i < count; ++i)
+        {
+            batch.getPosition(i, position);
+            batch.getDirection(i, direction);
+            Intersection expected = oso.getIntersection(position, direction, intersection, 0, Double.POSITIVE_INFINITY);
+            if (expected == null)
+            {
+                assertEquals("Ray " + i + " for " + oso.surf, -1, batch.objectIndex[i]);
+            }
+            else
+            {
+                assertEquals("Ray " + i + " for " + oso.surf, 0, batch.objectIndex[i]);
+                assertEquals("Ray " + i + " for " + oso.surf, expected.distance, batch.tMax[i], 1e-8);
+                /*the batch keeps the hit, so the tracer doesn't intersect again*/
+                Intersection hit = batch.hit[i];
+                assertEquals("Ray " + i + " for " + oso.surf, oso, hit.object);
+                assertEquals("Ray " + i + " for " + oso.surf, expected.distance, hit.distance, 1e-8);
+                assertEquals("Ray " + i + " for " + oso.surf, 0, expected.position.distance(hit.position), 1e-6);
+                assertEquals("Ray " + i + " for " + oso.surf, 0, expected.normal.distance(hit.normal), 1e-6);
+            }
+        }
+    }
+}
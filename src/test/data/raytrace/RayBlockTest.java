@@ -0,0 +1,124 @@
+package test.data.raytrace;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import data.raytrace.GuiOpticalSurfaceObject;
+import data.raytrace.OpticalObject.SCENE_OBJECT_COLUMN_TYPE;
+import data.raytrace.ParseUtil;
+import data.raytrace.RaySimulation.MaterialType;
+import data.raytrace.RaySimulation.SurfaceType;
+import data.raytrace.RaySimulationData;
+import data.raytrace.RaytraceScene;
+import data.raytrace.RaytraceScene.RaySimulationObject;
+import data.raytrace.raygen.RayGenerator;
+import data.raytrace.raygen.SampleSequence.SamplingMode;
+import geometry.Vector3d;
+import maths.exception.OperationParseException;
+import maths.variable.VariableStack;
+
+public class RayBlockTest {
+    private static final int NUM_RAYS = 1000;
+
+    /**
+     * A diffuse disk light in front of a screen
+     */
+    private static RaytraceScene createScene() throws OperationParseException
+    {
+        RaytraceScene scene = new RaytraceScene("Blocks");
+        scene.seed = 7;
+        VariableStack vs = scene.vs;
+        ParseUtil parser = new ParseUtil();
+        for (int i = 0; i < 2; ++i)
+        {
+            GuiOpticalSurfaceObject oso = new GuiOpticalSurfaceObject(vs, parser);
+            oso.setValue(SCENE_OBJECT_COLUMN_TYPE.ID, i == 0 ? "light" : "screen", vs, parser);
+            oso.setValue(SCENE_OBJECT_COLUMN_TYPE.POSITION, new Vector3d(i * 20, 0, 0), vs, parser);
+            oso.setValue(SCENE_OBJECT_COLUMN_TYPE.DIRECTION, new Vector3d(1, 0, 0), vs, parser);
+            oso.setValue(SCENE_OBJECT_COLUMN_TYPE.SURFACE, SurfaceType.FLAT, vs, parser);
+            oso.setValue(SCENE_OBJECT_COLUMN_TYPE.MINRADIUS, 0, vs, parser);
+            oso.setValue(SCENE_OBJECT_COLUMN_TYPE.MAXRADIUS, i == 0 ? 4 : 1000, vs, parser);
+            oso.setValue(SCENE_OBJECT_COLUMN_TYPE.DIFFUSE, i == 0 ? 1 : 0, vs, parser);
+            oso.setValue(SCENE_OBJECT_COLUMN_TYPE.MATERIAL, MaterialType.ABSORBATION, vs, parser);
+            oso.setValue(SCENE_OBJECT_COLUMN_TYPE.ACTIVE, true, vs, parser);
+            scene.add(oso);
+        }
+        scene.updateScene();
+        return scene;
+    }
+
+    /**
+     * Traces the rays [from, to) of a run of NUM_RAYS rays
+     * @return start points and directions of the rays
+     */
+    private static float[] trace(RaytraceScene scene, SamplingMode sampling, int from, int to, int pass)
+    {
+        RayGenerator gen = new RayGenerator();
+        gen.threeDimensional = true;
+        gen.sampling = sampling;
+        gen.setSource(scene.getSurfaceObject("light"));
+        RaySimulationObject rso = new RaySimulationObject();
+        rso.pass = pass;
+        int count = to - from;
+        RaySimulationData data = new RaySimulationData(count, false);
+        float startpoints[] = new float[count * 3], startdirs[] = new float[count * 3];
+        scene.calculateRays(0, count, NUM_RAYS, gen, from, 0, startpoints, startdirs, data.endpoints, data.enddirs, data.endcolor, null, data.accepted, data.bounces, data.lastObject, 10, false, rso, RaytraceScene.UNACCEPTED_MARK);
+        float result[] = Arrays.copyOf(startpoints, count * 6);
+        System.arraycopy(startdirs, 0, result, count * 3, count * 3);
+        return result;
+    }
+
+    /**
+     * Start points and directions of [from, to) in the layout of trace
+     */
+    private static float[] range(float single[], int from, int to)
+    {
+        float result[] = new float[(to - from) * 6];
+        System.arraycopy(single, from * 3, result, 0, (to - from) * 3);
+        System.arraycopy(single, (NUM_RAYS + from) * 3, result, (to - from) * 3, (to - from) * 3);
+        return result;
+    }
+
+    @Test
+    public void testBlocksMatchSingleRun() throws OperationParseException
+    {
+        RaytraceScene scene = createScene();
+        float single[] = trace(scene, SamplingMode.RANDOM, 0, NUM_RAYS, 0);
+        int half = NUM_RAYS / 2;
+        float first[] = trace(scene, SamplingMode.RANDOM, 0, half, 0);
+        float second[] = trace(scene, SamplingMode.RANDOM, half, NUM_RAYS, 0);
+        assertArrayEquals(range(single, 0, half), first, 0);
+        assertArrayEquals(range(single, half, NUM_RAYS), second, 0);
+        /*the blocks don't trace the same rays*/
+        assertFalse(Arrays.equals(first, second));
+    }
+
+    @Test
+    public void testBlockedSampling() throws OperationParseException
+    {
+        RaytraceScene scene = createScene();
+        /*the sample sequences get the global index and number of rays, so uneven blocks cover the points of a single run*/
+        int bounds[] = {0, 137, 500, 501, 1000};
+        for (SamplingMode sampling : new SamplingMode[] {SamplingMode.STRATIFIED, SamplingMode.HALTON, SamplingMode.SOBOL})
+        {
+            float single[] = trace(scene, sampling, 0, NUM_RAYS, 0);
+            for (int i = 0; i + 1 < bounds.length; ++i)
+            {
+                assertArrayEquals(sampling.toString(), range(single, bounds[i], bounds[i + 1]), trace(scene, sampling, bounds[i], bounds[i + 1], 0), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testPassesDiffer() throws OperationParseException
+    {
+        RaytraceScene scene = createScene();
+        float pass0[] = trace(scene, SamplingMode.RANDOM, 0, NUM_RAYS, 0);
+        assertArrayEquals(pass0, trace(scene, SamplingMode.RANDOM, 0, NUM_RAYS, 0), 0);
+        assertFalse(Arrays.equals(pass0, trace(scene, SamplingMode.RANDOM, 0, NUM_RAYS, 1)));
+    }
+}
@@ -0,0 +1,78 @@
+package test.data.raytrace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+import data.raytrace.RayRandom;
+
+public class RayRandomTest {
+    private static final int SEEDS = 16, PASSES = 16, RAYS = 4, VALUES = 4;
+
+    private static double[] stream(RayRandom random, long seed, int pass, long ray)
+    {
+        random.setRay(seed, pass, ray, 0);
+        double result[] = new double[VALUES];
+        for (int i = 0; i < VALUES; ++i)
+        {
+            result[i] = random.nextDouble();
+        }
+        return result;
+    }
+
+    @Test
+    public void testSeedsAndPassesDiffer()
+    {
+        RayRandom random = new RayRandom();
+        HashSet<String> streams = new HashSet<>();
+        for (long seed = 0; seed < SEEDS; ++seed)
+        {
+            for (int pass = 0; pass < PASSES; ++pass)
+            {
+                for (long ray = 0; ray < RAYS; ++ray)
+                {
+                    /*seed + 1 with pass p must not repeat seed with pass p + 1*/
+                    assertTrue("Seed " + seed + " pass " + pass + " ray " + ray, streams.add(Arrays.toString(stream(random, seed, pass, ray))));
+                }
+            }
+        }
+        assertEquals(SEEDS * PASSES * RAYS, streams.size());
+    }
+
+    @Test
+    public void testReproducible()
+    {
+        RayRandom random = new RayRandom();
+        double first[] = stream(random, 3, 5, 7);
+        stream(random, 4, 4, 7);
+        assertTrue(Arrays.equals(first, stream(random, 3, 5, 7)));
+        /*the first pass is the stream without pass*/
+        random.setRay(3, 7, 0);
+        assertEquals(stream(new RayRandom(), 3, 0, 7)[0], random.nextDouble(), 0);
+    }
+
+    @Test
+    public void testWavelengthsDiffer()
+    {
+        RayRandom random = new RayRandom();
+        HashSet<String> streams = new HashSet<>();
+        for (int wavelength = 0; wavelength < VALUES; ++wavelength)
+        {
+            random.setRay(3, 5, 7, 0);
+            random.nextDouble();
+            random.setWavelength(wavelength);
+            random.setBounce(2);
+            double first = random.nextDouble();
+            /*the stream of a wavelength doesn't depend on the values consumed before the split*/
+            random.setRay(3, 5, 7, 0);
+            random.setWavelength(wavelength);
+            random.setBounce(2);
+            assertEquals(first, random.nextDouble(), 0);
+            assertTrue(streams.add(Double.toString(first)));
+        }
+    }
+}
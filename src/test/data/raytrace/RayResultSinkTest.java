@@ -0,0 +1,131 @@
+package test.data.raytrace;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import data.raytrace.ArrayRayResultSink;
+import data.raytrace.GuiOpticalSurfaceObject;
+import data.raytrace.MappedRayResultSink;
+import data.raytrace.OpticalObject;
+import data.raytrace.OpticalObject.SCENE_OBJECT_COLUMN_TYPE;
+import data.raytrace.ParseUtil;
+import data.raytrace.RayResultSink;
+import data.raytrace.RaySimulationData;
+import data.raytrace.RaytraceScene;
+import data.raytrace.StatisticsRayResultSink;
+import maths.exception.OperationParseException;
+import maths.variable.VariableStack;
+
+public class RayResultSinkTest {
+    private static final int NUM_RAYS = 10, BLOCK_SIZE = 4;
+    private final ParseUtil parser = new ParseUtil();
+    private final VariableStack va = new VariableStack();
+
+    private OpticalObject createObject(String id) throws OperationParseException
+    {
+        GuiOpticalSurfaceObject goso = new GuiOpticalSurfaceObject(va, parser);
+        goso.setValue(SCENE_OBJECT_COLUMN_TYPE.ID, id, va, parser);
+        return goso;
+    }
+
+    /**
+     * Ray i ends at (i, 2i, 3i) with i % 3 bounces, every second ray is accepted on object a or b
+     */
+    private void writeBlocks(RayResultSink sink, OpticalObject a, OpticalObject b)
+    {
+        RaySimulationData data = new RaySimulationData(BLOCK_SIZE, false);
+        /*blocks in reverse order*/
+        for (int begin = (NUM_RAYS - 1) / BLOCK_SIZE * BLOCK_SIZE; begin >= 0; begin -= BLOCK_SIZE)
+        {
+            int count = Math.min(BLOCK_SIZE, NUM_RAYS - begin);
+            for (int i = 0; i < count; ++i)
+            {
+                int ray = begin + i;
+                for (int k = 0; k < 3; ++k)
+                {
+                    data.endpoints[i * 3 + k] = ray * (k + 1);
+                    data.enddirs[i * 3 + k] = k == 2 ? 1 : 0;
+                }
+                for (int k = 0; k < 4; ++k)
+                {
+                    data.endcolor[i * 4 + k] = ray + k * 0.25f;
+                }
+                data.accepted[i] = ray % 2 == 0 ? RaytraceScene.STATUS_ACCEPTED : RaytraceScene.STATUS_REJECTED;
+                data.bounces[i] = ray % 3;
+                data.lastObject[i] = ray % 2 == 1 ? null : ray < 5 ? a : b;
+            }
+            sink.write(begin, count, data);
+        }
+    }
+
+    @Test
+    public void testArraySink() throws OperationParseException
+    {
+        OpticalObject a = createObject("a"), b = createObject("b");
+        ArrayRayResultSink sink = new ArrayRayResultSink(new RaySimulationData(NUM_RAYS, false));
+        writeBlocks(sink, a, b);
+        for (int ray = 0; ray < NUM_RAYS; ++ray)
+        {
+            assertArrayEquals(new float[] {ray, ray * 2, ray * 3}, new float[] {sink.data.endpoints[ray * 3], sink.data.endpoints[ray * 3 + 1], sink.data.endpoints[ray * 3 + 2]}, 0);
+            assertEquals(ray % 3, sink.data.bounces[ray]);
+            assertEquals(ray % 2 == 1 ? null : ray < 5 ? a : b, sink.data.lastObject[ray]);
+        }
+    }
+
+    @Test
+    public void testMappedSink() throws OperationParseException, IOException
+    {
+        OpticalObject a = createObject("a"), b = createObject("b");
+        File file = File.createTempFile("rays", ".bin");
+        file.deleteOnExit();
+        MappedRayResultSink sink = new MappedRayResultSink(file, NUM_RAYS, false);
+        writeBlocks(sink, a, b);
+        sink.close();
+        float values[] = new float[4];
+        for (int ray = 0; ray < NUM_RAYS; ++ray)
+        {
+            sink.getFloats(MappedRayResultSink.COLUMN_ENDPOINTS, ray, values);
+            assertEquals(ray, values[0], 0);
+            assertEquals(ray * 3, values[2], 0);
+            sink.getFloats(MappedRayResultSink.COLUMN_ENDCOLOR, ray, values);
+            assertArrayEquals(new float[] {ray, ray + 0.25f, ray + 0.5f, ray + 0.75f}, values, 0);
+            assertEquals(ray % 2 == 0 ? RaytraceScene.STATUS_ACCEPTED : RaytraceScene.STATUS_REJECTED, sink.getAccepted(ray));
+            assertEquals(ray % 3, sink.getBounces(ray));
+            if (ray % 2 == 1)
+            {
+                assertNull(sink.getLastObjectId(ray));
+            }
+            else
+            {
+                assertEquals(ray < 5 ? "a" : "b", sink.getLastObjectId(ray));
+            }
+        }
+    }
+
+    @Test
+    public void testStatisticsSink() throws OperationParseException
+    {
+        OpticalObject a = createObject("a"), b = createObject("b");
+        StatisticsRayResultSink sink = new StatisticsRayResultSink();
+        writeBlocks(sink, a, b);
+        assertEquals(NUM_RAYS, sink.getRayCount());
+        assertEquals(5, sink.getCount(RaytraceScene.STATUS_ACCEPTED));
+        assertEquals(5, sink.getCount(RaytraceScene.STATUS_REJECTED));
+        assertEquals(2, sink.getMaxBounces());
+        assertEquals(9. / NUM_RAYS, sink.getMeanBounces(), 1e-10);
+        assertEquals(3, sink.getAcceptedCount("a"));
+        assertEquals(2, sink.getAcceptedCount("b"));
+        double mean[] = new double[3];
+        sink.getMeanEndpoint(mean);
+        assertArrayEquals(new double[] {4, 8, 12}, mean, 1e-10);
+        double bounds[] = new double[6];
+        sink.getEndpointBounds(bounds);
+        assertArrayEquals(new double[] {0, 0, 0, 8, 16, 24}, bounds, 0);
+    }
+}
@@ -0,0 +1,170 @@
+package test.data.raytrace;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import data.raytrace.GuiOpticalSurfaceObject;
+import data.raytrace.OpticalObject;
+import data.raytrace.OpticalObject.SCENE_OBJECT_COLUMN_TYPE;
+import data.raytrace.OpticalSurfaceObject;
+import data.raytrace.ParseUtil;
+import data.raytrace.RaySimulation.MaterialType;
+import data.raytrace.RaytraceScene;
+import data.raytrace.TraceSnapshot;
+import geometry.Vector3d;
+import maths.exception.OperationParseException;
+import maths.variable.VariableStack;
+
+public class RaytraceSceneUpdateTest {
+    private final ParseUtil parser = new ParseUtil();
+    private final VariableStack va = new VariableStack();
+
+    private GuiOpticalSurfaceObject createSurface(RaytraceScene rs, String id, double x, String following) throws OperationParseException
+    {
+        GuiOpticalSurfaceObject goso = new GuiOpticalSurfaceObject(va, parser);
+        goso.setValue(SCENE_OBJECT_COLUMN_TYPE.ID, id, va, parser);
+        goso.setValue(SCENE_OBJECT_COLUMN_TYPE.POSITION, new Vector3d(x, 0, 0), va, parser);
+        goso.setValue(SCENE_OBJECT_COLUMN_TYPE.MATERIAL, MaterialType.REFRACTION, va, parser);
+        goso.setValue(SCENE_OBJECT_COLUMN_TYPE.FOLLOWING_OBJECTS, following, va, parser);
+        rs.add(goso);
+        return goso;
+    }
+
+    private static OpticalObject[] originals(OpticalObject objects[])
+    {
+        OpticalObject res[] = new OpticalObject[objects.length];
+        for (int i = 0; i < objects.length; ++i)
+        {
+            res[i] = objects[i].original();
+        }
+        return res;
+    }
+
+    @Test
+    public void testChangedSuccessors() throws OperationParseException
+    {
+        RaytraceScene rs = new RaytraceScene("Successors");
+        GuiOpticalSurfaceObject a = createSurface(rs, "a", 0, "{\"b\"}");
+        GuiOpticalSurfaceObject b = createSurface(rs, "b", 10, "{\"c\"}");
+        GuiOpticalSurfaceObject c = createSurface(rs, "c", 20, "");
+        rs.updateScene();
+        assertArrayEquals(new OpticalObject[] {b}, a.successor);
+        assertArrayEquals(new OpticalObject[] {c}, b.successor);
+
+        a.setValue(SCENE_OBJECT_COLUMN_TYPE.FOLLOWING_OBJECTS, "{\"b\",\"c\"}", va, parser);
+        rs.updateScene();
+        assertEquals(2, a.successor.length);
+        assertArrayEquals(new OpticalObject[] {c}, b.successor);
+
+        c.setValue(SCENE_OBJECT_COLUMN_TYPE.POSITION, new Vector3d(30, 0, 0), va, parser);
+        rs.updateScene();
+        assertEquals(2, a.successor.length);
+        assertArrayEquals(new OpticalObject[] {c}, b.successor);
+
+        c.setValue(SCENE_OBJECT_COLUMN_TYPE.ACTIVE, false, va, parser);
+        rs.updateScene();
+        assertArrayEquals(new OpticalObject[] {b}, a.successor);
+        assertEquals(0, b.successor.length);
+    }
+
+    @Test
+    public void testReferencingObjectsUpdated() throws OperationParseException
+    {
+        RaytraceScene rs = new RaytraceScene("Refraction Indices");
+        rs.setVerifyRefractionIndices(true);
+        GuiOpticalSurfaceObject a = createSurface(rs, "a", 0, "{\"b\"}");
+        GuiOpticalSurfaceObject b = createSurface(rs, "b", 10, "");
+        a.setValue(SCENE_OBJECT_COLUMN_TYPE.IOR1, 1.5, va, parser);
+        b.setValue(SCENE_OBJECT_COLUMN_TYPE.IOR0, 1.5, va, parser);
+        rs.updateScene();
+        assertArrayEquals(new OpticalObject[] {b}, a.surfaceSuccessor);
+
+        /*only b changes, but a references it*/
+        b.setValue(SCENE_OBJECT_COLUMN_TYPE.IOR0, 1.3, va, parser);
+        rs.updateScene();
+        assertEquals(0, a.surfaceSuccessor.length);
+    }
+
+    @Test
+    public void testIdLookup() throws OperationParseException
+    {
+        RaytraceScene rs = new RaytraceScene("Ids");
+        GuiOpticalSurfaceObject a = createSurface(rs, "a", 0, "");
+        GuiOpticalSurfaceObject b = createSurface(rs, "b", 10, "");
+        createSurface(rs, "a", 20, "");
+        assertEquals(a, rs.getSurfaceObject("a"));
+        assertEquals(b, rs.getSurfaceObject("b"));
+
+        b.setValue(SCENE_OBJECT_COLUMN_TYPE.ID, "d", va, parser);
+        assertNull(rs.getSurfaceObject("b"));
+        assertEquals(b, rs.getSurfaceObject("d"));
+        rs.updateScene();
+        assertEquals(b, rs.getActiveSurfaceObject("d"));
+        assertNull(rs.getActiveSurfaceObject(""));
+    }
+
+    @Test
+    public void testSnapshot() throws OperationParseException
+    {
+        RaytraceScene rs = new RaytraceScene("Snapshot");
+        GuiOpticalSurfaceObject a = createSurface(rs, "a", 0, "");
+        GuiOpticalSurfaceObject b = createSurface(rs, "b", 10, "");
+        TraceSnapshot first = rs.updateScene();
+        assertArrayEquals(new OpticalObject[] {a, b}, originals(first.objects));
+        assertSame(first, rs.getSnapshot());
+
+        b.setValue(SCENE_OBJECT_COLUMN_TYPE.ACTIVE, false, va, parser);
+        /*tracing threads never prepare the scene*/
+        assertSame(first, rs.getSnapshot());
+        TraceSnapshot second = rs.updateScene();
+        assertSame(second, rs.getSnapshot());
+        assertArrayEquals(new OpticalObject[] {a, b}, originals(first.objects));
+        assertArrayEquals(new OpticalObject[] {a}, originals(second.objects));
+        assertArrayEquals(new OpticalObject[] {a}, originals(second.surfaces));
+    }
+
+    @Test
+    public void testSnapshotLinks() throws OperationParseException
+    {
+        RaytraceScene rs = new RaytraceScene("Links");
+        GuiOpticalSurfaceObject a = createSurface(rs, "a", 0, "{\"b\"}");
+        GuiOpticalSurfaceObject b = createSurface(rs, "b", 10, "");
+        GuiOpticalSurfaceObject c = createSurface(rs, "c", 20, "");
+        TraceSnapshot first = rs.updateScene();
+        assertArrayEquals(new OpticalObject[] {b}, originals(first.successor(a)));
+
+        a.setValue(SCENE_OBJECT_COLUMN_TYPE.FOLLOWING_OBJECTS, "{\"b\",\"c\"}", va, parser);
+        TraceSnapshot second = rs.updateScene();
+        assertEquals(2, second.successor(a).length);
+        /*the pinned snapshot keeps the successors it was published with*/
+        assertArrayEquals(new OpticalObject[] {b}, originals(first.successor(a)));
+        assertArrayEquals(a.successor, originals(second.successor(a)));
+        assertSame(second.get(c.successorHierarchy), second.successorHierarchy(c));
+    }
+
+    @Test
+    public void testSnapshotGeometry() throws OperationParseException
+    {
+        RaytraceScene rs = new RaytraceScene("Geometry");
+        GuiOpticalSurfaceObject a = createSurface(rs, "a", 0, "");
+        TraceSnapshot first = rs.updateScene();
+        OpticalSurfaceObject frozen = first.surfaces[0];
+        assertNotSame(a, frozen);
+        assertSame(a, frozen.original());
+        assertSame(frozen, first.objects[0]);
+
+        a.setValue(SCENE_OBJECT_COLUMN_TYPE.POSITION, new Vector3d(5, 0, 0), va, parser);
+        a.setValue(SCENE_OBJECT_COLUMN_TYPE.MATERIAL, MaterialType.ABSORBATION, va, parser);
+        TraceSnapshot second = rs.updateScene();
+        /*the pinned snapshot keeps the geometry and material it was published with*/
+        assertEquals(0, frozen.midpoint.x, 0);
+        assertEquals(MaterialType.REFRACTION, frozen.materialType);
+        assertEquals(5, second.surfaces[0].midpoint.x, 0);
+        assertEquals(MaterialType.ABSORBATION, second.surfaces[0].materialType);
+    }
+}
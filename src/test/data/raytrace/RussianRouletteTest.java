@@ -0,0 +1,171 @@
+package test.data.raytrace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import data.raytrace.DistributedTraceJob;
+import data.raytrace.GuiOpticalSurfaceObject;
+import data.raytrace.OpticalObject.SCENE_OBJECT_COLUMN_TYPE;
+import data.raytrace.ParseUtil;
+import data.raytrace.RaySimulation.MaterialType;
+import data.raytrace.RaySimulation.SurfaceType;
+import data.raytrace.RaySimulationData;
+import data.raytrace.RaytraceScene;
+import data.raytrace.RaytraceScene.RaySimulationObject;
+import data.raytrace.raygen.RayGenerator;
+import geometry.Vector3d;
+import maths.exception.OperationParseException;
+import maths.variable.VariableStack;
+
+public class RussianRouletteTest {
+    private static final int NUM_RAYS = 20000, MAX_BOUNCES = 20, LAYERS = 6;
+
+    private static GuiOpticalSurfaceObject createSurface(RaytraceScene scene, String id, double x, double radius, int alpha) throws OperationParseException
+    {
+        VariableStack vs = scene.vs;
+        ParseUtil parser = new ParseUtil();
+        GuiOpticalSurfaceObject oso = new GuiOpticalSurfaceObject(vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.ID, id, vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.POSITION, new Vector3d(x, 0, 0), vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.DIRECTION, new Vector3d(1, 0, 0), vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.SURFACE, SurfaceType.FLAT, vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.MINRADIUS, 0, vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.MAXRADIUS, radius, vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.MATERIAL, MaterialType.ABSORBATION, vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.COLOR, new int[] {alpha, alpha, alpha, alpha}, vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.ACTIVE, true, vs, parser);
+        scene.add(oso);
+        return oso;
+    }
+
+    /**
+     * A disk light shining through semi transparent layers onto a white screen
+     */
+    private static RaytraceScene createScene() throws OperationParseException
+    {
+        RaytraceScene scene = new RaytraceScene("Roulette");
+        scene.seed = 42;
+        createSurface(scene, "light", -20, 4, 255);
+        for (int i = 0; i < LAYERS; ++i)
+        {
+            createSurface(scene, "layer" + i, -15 + 2 * i, 1000, 128);
+        }
+        createSurface(scene, "screen", 30, 1000, 255);
+        scene.updateScene();
+        return scene;
+    }
+
+    private static RaySimulationData trace(RaytraceScene scene, float threshold)
+    {
+        scene.rouletteThreshold = threshold;
+        RayGenerator gen = new RayGenerator();
+        gen.setSource(scene.getSurfaceObject("light"));
+        RaySimulationObject rso = new RaySimulationObject();
+        rso.readColorMiddle = true;
+        RaySimulationData data = new RaySimulationData(NUM_RAYS, false);
+        rso.endWeight = data.weight;
+        scene.calculateRays(0, NUM_RAYS, NUM_RAYS, gen, 0, 0, null, null, data.endpoints, data.enddirs, data.endcolor, null, data.accepted, data.bounces, data.lastObject, MAX_BOUNCES, false, rso, RaytraceScene.UNACCEPTED_MARK);
+        return data;
+    }
+
+    private static int count(RaySimulationData data, byte status)
+    {
+        int result = 0;
+        for (byte current : data.accepted)
+        {
+            if (current == status)
+            {
+                ++result;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return summed red channel of the rays accepted on the screen
+     */
+    private static double screenIntensity(RaytraceScene scene, RaySimulationData data)
+    {
+        double result = 0;
+        for (int i = 0; i < NUM_RAYS; ++i)
+        {
+            if (data.accepted[i] == RaytraceScene.STATUS_ACCEPTED && data.lastObject[i] == scene.getSurfaceObject("screen"))
+            {
+                result += data.endcolor[i * 4];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return summed red channel divided by the summed count channel of the rays accepted on the screen
+     */
+    private static double normalizedScreenIntensity(RaytraceScene scene, RaySimulationData data)
+    {
+        double weight = 0;
+        for (int i = 0; i < NUM_RAYS; ++i)
+        {
+            if (data.accepted[i] == RaytraceScene.STATUS_ACCEPTED && data.lastObject[i] == scene.getSurfaceObject("screen"))
+            {
+                weight += data.weight[i];
+            }
+        }
+        return screenIntensity(scene, data) / weight;
+    }
+
+    private static long bounceSum(RaySimulationData data)
+    {
+        long result = 0;
+        for (int bounces : data.bounces)
+        {
+            result += bounces;
+        }
+        return result;
+    }
+
+    @Test
+    public void testDisabled() throws OperationParseException
+    {
+        RaySimulationData data = trace(createScene(), 0);
+        assertEquals(0, count(data, RaytraceScene.STATUS_TERMINATED));
+    }
+
+    @Test
+    public void testUnbiased() throws OperationParseException
+    {
+        RaytraceScene scene = createScene();
+        RaySimulationData reference = trace(scene, 0);
+        RaySimulationData roulette = trace(scene, 0.2f);
+        assertTrue(count(roulette, RaytraceScene.STATUS_TERMINATED) > 0);
+        assertTrue(bounceSum(roulette) < bounceSum(reference));
+        double expected = screenIntensity(scene, reference);
+        assertTrue(expected > 0);
+        assertEquals(expected, screenIntensity(scene, roulette), 0.1 * expected);
+    }
+
+    @Test
+    public void testNormalized() throws OperationParseException
+    {
+        RaytraceScene scene = createScene();
+        RaySimulationData reference = trace(scene, 0);
+        RaySimulationData roulette = trace(scene, 0.2f);
+        assertTrue(count(roulette, RaytraceScene.STATUS_TERMINATED) > 0);
+        double expected = normalizedScreenIntensity(scene, reference);
+        assertTrue(expected > 0);
+        assertEquals(expected, normalizedScreenIntensity(scene, roulette), 0.05 * expected);
+    }
+
+    @Test
+    public void testSaved() throws OperationParseException, IOException
+    {
+        RaytraceScene scene = createScene();
+        scene.rouletteThreshold = 0.2f;
+        /*the job transfers the scene as written by SceneIO*/
+        RaytraceScene loaded = new DistributedTraceJob(scene, "light", NUM_RAYS).loadScene("Loaded");
+        assertEquals(0.2f, loaded.rouletteThreshold, 0);
+    }
+}
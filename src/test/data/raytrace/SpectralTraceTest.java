@@ -0,0 +1,157 @@
+package test.data.raytrace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import data.raytrace.GuiOpticalSurfaceObject;
+import data.raytrace.OpticalObject.SCENE_OBJECT_COLUMN_TYPE;
+import data.raytrace.OpticalSurfaceObject;
+import data.raytrace.ParseUtil;
+import data.raytrace.RaySimulation.MaterialType;
+import data.raytrace.RaySimulation.SurfaceType;
+import data.raytrace.RaySimulationData;
+import data.raytrace.RaytraceScene;
+import data.raytrace.RaytraceScene.RaySimulationObject;
+import data.raytrace.SpectralTextureRayResultSink;
+import data.raytrace.raygen.RayGenerator;
+import geometry.Vector3d;
+import maths.exception.OperationParseException;
+import maths.variable.VariableStack;
+
+public class SpectralTraceTest {
+    private static final int NUM_RAYS = 2000, MAX_BOUNCES = 20;
+    private static final double WAVELENGTHS[] = {OpticalSurfaceObject.WAVELENGTH_F, OpticalSurfaceObject.WAVELENGTH_D, OpticalSurfaceObject.WAVELENGTH_C};
+
+    private static GuiOpticalSurfaceObject createSurface(RaytraceScene scene, String id, Vector3d position, Vector3d direction, SurfaceType surface, MaterialType material, double radius, double ior, double abbeNumber) throws OperationParseException
+    {
+        VariableStack vs = scene.vs;
+        ParseUtil parser = new ParseUtil();
+        GuiOpticalSurfaceObject oso = new GuiOpticalSurfaceObject(vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.ID, id, vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.POSITION, position, vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.DIRECTION, direction, vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.SURFACE, surface, vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.MINRADIUS, 0, vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.MAXRADIUS, radius, vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.MATERIAL, material, vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.IOR0, 1, vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.IOR1, ior, vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.ABBE_NUMBER, abbeNumber, vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.ACTIVE, true, vs, parser);
+        scene.add(oso);
+        return oso;
+    }
+
+    /**
+     * A disk light shining through a ball lens onto an absorbing screen
+     */
+    private static RaytraceScene createScene(double abbeNumber) throws OperationParseException
+    {
+        RaytraceScene scene = new RaytraceScene("Spectral");
+        scene.seed = 42;
+        createSurface(scene, "front", new Vector3d(0,0,0), new Vector3d(-5,0,0), SurfaceType.SPHERICAL, MaterialType.REFRACTION, 100, 1.5, abbeNumber);
+        createSurface(scene, "back", new Vector3d(0,0,0), new Vector3d(5,0,0), SurfaceType.SPHERICAL, MaterialType.REFRACTION, 100, 1.5, abbeNumber);
+        createSurface(scene, "screen", new Vector3d(30,0,0), new Vector3d(-1,0,0), SurfaceType.FLAT, MaterialType.ABSORBATION, 20, 1, 0);
+        createSurface(scene, "light", new Vector3d(-20,0,0), new Vector3d(1,0,0), SurfaceType.FLAT, MaterialType.ABSORBATION, 4, 1, 0);
+        scene.updateScene();
+        return scene;
+    }
+
+    private static RayGenerator createGenerator(RaytraceScene scene)
+    {
+        RayGenerator gen = new RayGenerator();
+        gen.setSource(scene.getSurfaceObject("light"));
+        return gen;
+    }
+
+    private static int traceSpectral(RaytraceScene scene, RaySimulationData data)
+    {
+        return scene.calculateSpectralRays(0, NUM_RAYS, NUM_RAYS, createGenerator(scene), 0, WAVELENGTHS, data.endpoints, data.enddirs, data.endcolor, data.accepted, data.bounces, data.lastObject, MAX_BOUNCES, new RaySimulationObject());
+    }
+
+    private static RaySimulationData trace(RaytraceScene scene)
+    {
+        RaySimulationData data = new RaySimulationData(NUM_RAYS, false);
+        scene.calculateRays(0, NUM_RAYS, NUM_RAYS, createGenerator(scene), 0, 0, null, null, data.endpoints, data.enddirs, data.endcolor, null, data.accepted, data.bounces, data.lastObject, MAX_BOUNCES, false, new RaySimulationObject(), RaytraceScene.UNACCEPTED_MARK);
+        return data;
+    }
+
+    private static void assertSameRay(RaySimulationData expected, int expectedIndex, RaySimulationData actual, int actualIndex)
+    {
+        assertEquals(expected.accepted[expectedIndex], actual.accepted[actualIndex]);
+        assertEquals(expected.lastObject[expectedIndex], actual.lastObject[actualIndex]);
+        for (int k = 0; k < 3; ++k)
+        {
+            assertEquals(expected.endpoints[expectedIndex * 3 + k], actual.endpoints[actualIndex * 3 + k], 1e-4);
+        }
+    }
+
+    @Test
+    public void testDispersedIor() throws OperationParseException
+    {
+        RaytraceScene scene = createScene(20);
+        OpticalSurfaceObject front = scene.getSurfaceObject("front");
+        assertTrue(front.isDispersive());
+        assertEquals(1.5, front.getDispersedIor(1.5, OpticalSurfaceObject.WAVELENGTH_D), 1e-12);
+        assertEquals(0.5 / 20, front.getDispersedIor(1.5, OpticalSurfaceObject.WAVELENGTH_F) - front.getDispersedIor(1.5, OpticalSurfaceObject.WAVELENGTH_C), 1e-12);
+        assertEquals(1, front.getDispersedIor(1, OpticalSurfaceObject.WAVELENGTH_F), 0);
+        assertFalse(scene.getSurfaceObject("screen").isDispersive());
+    }
+
+    @Test
+    public void testUndispersedPacket() throws OperationParseException
+    {
+        RaytraceScene scene = createScene(0);
+        RaySimulationData spectral = new RaySimulationData(NUM_RAYS * WAVELENGTHS.length, false);
+        assertEquals(0, traceSpectral(scene, spectral));
+        RaySimulationData reference = trace(scene);
+        for (int i = 0; i < NUM_RAYS; ++i)
+        {
+            for (int k = 0; k < WAVELENGTHS.length; ++k)
+            {
+                assertSameRay(reference, i, spectral, i * WAVELENGTHS.length + k);
+            }
+        }
+    }
+
+    @Test
+    public void testDispersedPacket() throws OperationParseException
+    {
+        RaytraceScene scene = createScene(20);
+        RaySimulationData spectral = new RaySimulationData(NUM_RAYS * WAVELENGTHS.length, false);
+        assertTrue(traceSpectral(scene, spectral) > 0);
+        /*the d-line sees the undispersed indices*/
+        RaySimulationData reference = trace(scene);
+        int separated = 0;
+        for (int i = 0; i < NUM_RAYS; ++i)
+        {
+            int entry = i * WAVELENGTHS.length;
+            assertSameRay(reference, i, spectral, entry + 1);
+            if (spectral.endpoints[entry * 3 + 1] != spectral.endpoints[entry * 3 + 7] || spectral.endpoints[entry * 3 + 2] != spectral.endpoints[entry * 3 + 8])
+            {
+                ++separated;
+            }
+        }
+        assertTrue(separated > 0);
+        SpectralTextureRayResultSink sink = new SpectralTextureRayResultSink(scene.getSurfaceObject("screen"), 16, 16, WAVELENGTHS.length);
+        sink.write(0, NUM_RAYS * WAVELENGTHS.length, spectral);
+        double sum[] = new double[WAVELENGTHS.length];
+        for (int y = 0; y < sink.height; ++y)
+        {
+            for (int x = 0; x < sink.width; ++x)
+            {
+                for (int k = 0; k < WAVELENGTHS.length; ++k)
+                {
+                    sum[k] += sink.getCount(x, y, k);
+                }
+            }
+        }
+        for (int k = 0; k < WAVELENGTHS.length; ++k)
+        {
+            assertTrue(sum[k] > 0);
+        }
+    }
+}
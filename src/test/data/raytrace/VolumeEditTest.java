@@ -0,0 +1,111 @@
+package test.data.raytrace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import data.DataHandler;
+import data.raytrace.GuiOpticalVolumeObject;
+import data.raytrace.OpticalObject.SCENE_OBJECT_COLUMN_TYPE;
+import data.raytrace.OpticalSurfaceObject;
+import data.raytrace.ParseUtil;
+import jcomponents.raytrace.Volume;
+import maths.OperationCompiler;
+import maths.exception.OperationParseException;
+import maths.variable.VariableStack;
+
+public class VolumeEditTest {
+    private static final int WIDTH = 7, HEIGHT = 9, DEPTH = 11;
+
+    /**
+     * Every voxel of every slab has to get the value of its own lattice position
+     */
+    @Test
+    public void testLatticeOrder() throws OperationParseException
+    {
+        VariableStack vs = new VariableStack();
+        ParseUtil parser = new ParseUtil();
+        GuiOpticalVolumeObject ovo = new GuiOpticalVolumeObject(vs, parser);
+        ovo.setValue(SCENE_OBJECT_COLUMN_TYPE.POSITION, "{0,0,0}", vs, parser);
+        ovo.setSize(WIDTH, HEIGHT, DEPTH);
+        Volume vol = ovo.getVolume();
+        ovo.editValues(OpticalSurfaceObject.EMPTY_SURFACE_ARRAY,
+                OperationCompiler.compile("lx*3+ly*ly-lz+index"),
+                OperationCompiler.compile("0x7FFFFFFF"),
+                null, null, vs, vol);
+        for (int z = 0, index = 0; z < DEPTH; ++z)
+        {
+            for (int y = 0; y < HEIGHT; ++y)
+            {
+                for (int x = 0; x < WIDTH; ++x, ++index)
+                {
+                    double lx = (double)x / WIDTH, ly = (double)y / HEIGHT, lz = (double)z / DEPTH;
+                    assertEquals((float)(lx * 3 + ly * ly - lz + index), vol.data[index], 1e-3);
+                }
+            }
+        }
+    }
+
+    /**
+     * Edits a new volume with the given number of threads
+     * @param given the given values and the condition for them or null
+     * @return the edited volume
+     */
+    private static Volume edit(int threads, String ior, String translucency, String given[]) throws OperationParseException
+    {
+        int maxThreads = DataHandler.runnableRunner.getMaxThreads();
+        DataHandler.runnableRunner.setMaxThreads(threads);
+        try
+        {
+            VariableStack vs = new VariableStack();
+            ParseUtil parser = new ParseUtil();
+            GuiOpticalVolumeObject ovo = new GuiOpticalVolumeObject(vs, parser);
+            ovo.setValue(SCENE_OBJECT_COLUMN_TYPE.POSITION, "{0,0,0}", vs, parser);
+            ovo.setSize(WIDTH, HEIGHT, DEPTH);
+            Volume vol = ovo.getVolume();
+            ovo.editValues(OpticalSurfaceObject.EMPTY_SURFACE_ARRAY,
+                    OperationCompiler.compile(ior),
+                    OperationCompiler.compile(translucency),
+                    given == null ? null : OperationCompiler.compile(given[0]),
+                    given == null ? null : OperationCompiler.compile(given[1]),
+                    vs, vol);
+            return vol;
+        }
+        finally
+        {
+            DataHandler.runnableRunner.setMaxThreads(maxThreads);
+        }
+    }
+
+    private static void testThreadCounts(String ior, String translucency, String given[]) throws OperationParseException
+    {
+        Volume single = edit(1, ior, translucency, given);
+        Volume parallel = edit(Math.max(4, DataHandler.runnableRunner.getMaxThreads()), ior, translucency, given);
+        assertTrue(Arrays.equals(single.data, parallel.data));
+        assertTrue(Arrays.equals(single.translucency, parallel.translucency));
+    }
+
+    @Test
+    public void testThreadCountsCompiled() throws OperationParseException
+    {
+        testThreadCounts("lx*3+ly*ly-lz+index", "lx-ly", null);
+    }
+
+    /**
+     * sin isn't supported by the bytecode compiler, so the operations are interpreted on the stacks of the workers
+     */
+    @Test
+    public void testThreadCountsInterpreted() throws OperationParseException
+    {
+        testThreadCounts("sin(lx*3)+ly*lz", "sin(index)", null);
+    }
+
+    @Test
+    public void testThreadCountsGivenValues() throws OperationParseException
+    {
+        testThreadCounts("lres+sin(ly)", "lres", new String[] {"lx+2*ly", "lz<0.3"});
+    }
+}
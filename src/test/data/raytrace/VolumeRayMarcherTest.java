@@ -0,0 +1,152 @@
+package test.data.raytrace;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import data.raytrace.GuiOpticalVolumeObject;
+import data.raytrace.OpticalObject.SCENE_OBJECT_COLUMN_TYPE;
+import data.raytrace.OpticalSurfaceObject;
+import data.raytrace.OpticalVolumeObject;
+import data.raytrace.ParseUtil;
+import data.raytrace.VolumeRayMarcher;
+import geometry.Matrix4d;
+import jcomponents.raytrace.Volume;
+import jcomponents.raytrace.VolumeBricks;
+import maths.OperationCompiler;
+import maths.exception.OperationParseException;
+import maths.variable.VariableStack;
+import util.ArrayTools;
+
+@RunWith(Parameterized.class)
+public class VolumeRayMarcherTest {
+    @Parameters
+    public static List<VolumeRayMarcher.Integrator> params() {
+        return ArrayTools.unmodifiableList(VolumeRayMarcher.Integrator.values());
+    }
+
+    private final VolumeRayMarcher.Integrator integrator;
+    private OpticalVolumeObject.RaytraceEngine engine;
+    private VolumeRayMarcher.Integrator previousIntegrator;
+
+    public VolumeRayMarcherTest(VolumeRayMarcher.Integrator integrator)
+    {
+        this.integrator = integrator;
+    }
+
+    @Before
+    public void selectEngine()
+    {
+        engine = OpticalVolumeObject.raytraceEngine;
+        previousIntegrator = OpticalVolumeObject.raytraceIntegrator;
+        OpticalVolumeObject.raytraceEngine = OpticalVolumeObject.RaytraceEngine.JAVA;
+        OpticalVolumeObject.raytraceIntegrator = integrator;
+    }
+
+    @After
+    public void restoreEngine()
+    {
+        OpticalVolumeObject.raytraceEngine = engine;
+        OpticalVolumeObject.raytraceIntegrator = previousIntegrator;
+    }
+
+    private static OpticalVolumeObject createVolume(String ior) throws OperationParseException
+    {
+        VariableStack vs = new VariableStack();
+        ParseUtil parser = new ParseUtil();
+        GuiOpticalVolumeObject ovo = new GuiOpticalVolumeObject(vs, parser);
+        ovo.setValue(SCENE_OBJECT_COLUMN_TYPE.POSITION, "{0,0,0}", vs, parser);
+        ovo.setValue(SCENE_OBJECT_COLUMN_TYPE.TRANSFORMATION, new Matrix4d(1,0,0,0,0,1,0,0,0,0,1,0,0,0,0,1), vs, parser);
+        ovo.setSize(43, 43, 43);
+        ovo.editValues(OpticalSurfaceObject.EMPTY_SURFACE_ARRAY,
+                OperationCompiler.compile(ior),
+                OperationCompiler.compile("0x7FFFFFFF"),
+                null, null, vs, ovo.getVolume());
+        ovo.backshift = 0;
+        return ovo;
+    }
+
+    @Test
+    public void testHomogeneousVolume() throws OperationParseException {
+        OpticalVolumeObject ovo = createVolume("1.5");
+        float position[] = {-0.99f,-0.99f,0};
+        float direction[] = {2,1,0};
+        int iteration[] = new int[1];
+        ovo.calculateRays(position, direction, iteration, 0, 3);
+        assertEquals(1, position[0], 0.05);
+        assertEquals(0.005, position[1], 0.05);
+        assertEquals(0, position[2], 0.001);
+        double norm = Math.sqrt(direction[0] * direction[0] + direction[1] * direction[1] + direction[2] * direction[2]);
+        assertEquals(2 / Math.sqrt(5), direction[0] / norm, 0.001);
+        assertEquals(1 / Math.sqrt(5), direction[1] / norm, 0.001);
+    }
+
+    @Test
+    public void testLinearGradient() throws OperationParseException {
+        OpticalVolumeObject ovo = createVolume("1.5+0.3*y");
+        float position[] = {-0.99f,0,0};
+        float direction[] = {1,0,0};
+        int iteration[] = new int[1];
+        ovo.calculateRays(position, direction, iteration, 0, 3);
+        double norm = Math.sqrt(direction[0] * direction[0] + direction[1] * direction[1] + direction[2] * direction[2]);
+        /*n * cos(angle) is conserved for a refractive index only depending on y*/
+        assertEquals(1.5 / (1.5 + 0.3 * position[1]), direction[0] / norm, 0.001);
+        assertEquals(0, position[2], 0.001);
+    }
+
+    /**
+     * Traces one ray through a volume with a homogeneous and a graded half
+     * @return end position, direction and iteration
+     */
+    private double[] march(Volume vol, VolumeBricks bricks, IntBuffer path)
+    {
+        IntBuffer position = IntBuffer.wrap(new int[] {20 * 0x10000, 17 * 0x10000, 2 * 0x10000});
+        FloatBuffer direction = FloatBuffer.wrap(new float[] {0.05f, 0.1f, 1});
+        IntBuffer iteration = IntBuffer.allocate(1);
+        new VolumeRayMarcher(vol, bricks, 1, 1, 1, integrator).traceRays(position, direction, iteration, 0, 200, path);
+        return new double[] {position.get(0), position.get(1), position.get(2), direction.get(0), direction.get(1), direction.get(2), iteration.get(0)};
+    }
+
+    @Test
+    public void testStraightSteps() {
+        int size = 43;
+        Volume vol = new Volume(size, size, size);
+        Arrays.fill(vol.translucency, 0x7FFFFFFF);
+        for (int z = 0, index = 0; z < size; ++z)
+        {
+            for (int y = 0; y < size; ++y)
+            {
+                for (int x = 0; x < size; ++x, ++index)
+                {
+                    vol.data[index] = x < size / 2 ? 1.5f : 1.5f + 0.01f * (x - size / 2);
+                }
+            }
+        }
+        double plain[] = march(vol, null, null);
+        double skipped[] = march(vol, new VolumeBricks(vol), null);
+        /*the rays leave the homogeneous bricks after the same number of steps, straight steps only differ by rounding*/
+        assertEquals(plain[6], skipped[6], 0);
+        for (int i = 0; i < 3; ++i)
+        {
+            assertEquals(plain[i], skipped[i], 0x10);
+            assertEquals(plain[i + 3], skipped[i + 3], 1e-4);
+        }
+        IntBuffer plainPath = IntBuffer.allocate(200 * 3), skippedPath = IntBuffer.allocate(200 * 3);
+        march(vol, null, plainPath);
+        march(vol, new VolumeBricks(vol), skippedPath);
+        for (int i = 0; i < plainPath.capacity(); ++i)
+        {
+            assertEquals(plainPath.get(i), skippedPath.get(i), 0x10);
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package test.data.raytrace.raygen;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 
@@ -8,8 +10,10 @@ import data.raytrace.GuiOpticalSurfaceObject;
 import data.raytrace.GuiOpticalSurfaceObject.ANCHOR_POINT_ENUM;
 import data.raytrace.OpticalObject.SCENE_OBJECT_COLUMN_TYPE;
 import data.raytrace.ParseUtil;
+import data.raytrace.RayRandom;
 import data.raytrace.RaySimulation.SurfaceType;
 import data.raytrace.raygen.RayGenerator;
+import data.raytrace.raygen.SampleSequence.SamplingMode;
 import geometry.Vector2d;
 import geometry.Vector3d;
 import maths.exception.OperationParseException;
@@ -37,6 +41,84 @@ public class RayGeneratorTest {
         return result;
     }
 
+    @Test
+    public void testSeededOrderIndependence() throws OperationParseException
+    {
+        RayGenerator gen = new RayGenerator();
+        ParseUtil parser = new ParseUtil();
+        VariableStack vs = new VariableStack();
+        GuiOpticalSurfaceObject oso = new GuiOpticalSurfaceObject(vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.DIRECTION, new Vector3d(1,0,0), vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.SURFACE, SurfaceType.SPHERICAL, vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.MAXRADIUS, 0, vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.DIFFUSE, 1, vs, parser);
+        gen.setSource(oso);
+        gen.threeDimensional = true;
+        int numrays = 1000;
+        Vector3d position = new Vector3d();
+        Vector3d direction = new Vector3d();
+        Vector2d textureCoordinate = new Vector2d();
+        float color[] = new float[4];
+        RayRandom random = new RayRandom();
+        double forward[] = new double[numrays * 3];
+        for (int i = 0; i < numrays; ++i)
+        {
+            random.setRay(42, i, 0);
+            gen.generate(i, numrays, position, direction, textureCoordinate, color, random);
+            direction.write(forward, i * 3);
+        }
+        for (int i = numrays - 1; i >= 0; --i)
+        {
+            random.setRay(42, i, 0);
+            gen.generate(i, numrays, position, direction, textureCoordinate, color, random);
+            assertEquals(forward[i * 3], direction.x, 0);
+            assertEquals(forward[i * 3 + 1], direction.y, 0);
+            assertEquals(forward[i * 3 + 2], direction.z, 0);
+        }
+    }
+
+    private static double[] generatePass(RayGenerator gen, int pass, int numrays)
+    {
+        Vector3d position = new Vector3d();
+        Vector3d direction = new Vector3d();
+        Vector2d textureCoordinate = new Vector2d();
+        float color[] = new float[4];
+        RayRandom random = new RayRandom();
+        double result[] = new double[numrays * 3];
+        for (int i = 0; i < numrays; ++i)
+        {
+            random.setRay(42, pass, i, 0);
+            gen.generate(i, numrays, position, direction, textureCoordinate, color, random);
+            position.write(result, i * 3);
+        }
+        return result;
+    }
+
+    @Test
+    public void testPassesRotated() throws OperationParseException
+    {
+        RayGenerator gen = new RayGenerator();
+        ParseUtil parser = new ParseUtil();
+        VariableStack vs = new VariableStack();
+        GuiOpticalSurfaceObject oso = new GuiOpticalSurfaceObject(vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.DIRECTION, new Vector3d(1,0,0), vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.SURFACE, SurfaceType.FLAT, vs, parser);
+        oso.setValue(SCENE_OBJECT_COLUMN_TYPE.MAXRADIUS, 1, vs, parser);
+        gen.setSource(oso);
+        gen.threeDimensional = true;
+        gen.sampling = SamplingMode.HALTON;
+        int numrays = 64;
+        double first[] = generatePass(gen, 0, numrays);
+        double second[] = generatePass(gen, 1, numrays);
+        assertArrayEquals(first, generatePass(gen, 0, numrays), 0);
+        for (int i = 0; i < numrays; ++i)
+        {
+            /*consecutive passes get other rotations, so no sample is repeated*/
+            double dy = first[i * 3 + 1] - second[i * 3 + 1], dz = first[i * 3 + 2] - second[i * 3 + 2];
+            assertTrue("Ray " + i, dy * dy + dz * dz > 1e-12);
+        }
+    }
+
     @Test
     public void testCircle() throws OperationParseException
     {
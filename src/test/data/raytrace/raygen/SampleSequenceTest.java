@@ -0,0 +1,67 @@
+package test.data.raytrace.raygen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import data.raytrace.raygen.SampleSequence;
+import data.raytrace.raygen.SampleSequence.SamplingMode;
+
+public class SampleSequenceTest {
+    /**
+     * Checks that every cell of a cols x rows grid contains exactly one of the first cols * rows points
+     */
+    private static void testStratification(SamplingMode mode, int cols, int rows, double rotationX, double rotationY)
+    {
+        int numrays = cols * rows;
+        int count[] = new int[numrays];
+        for (int i = 0; i < numrays; ++i)
+        {
+            double x = SampleSequence.sample(mode, 0, i, numrays, 0.5, rotationX);
+            double y = SampleSequence.sample(mode, 1, i, numrays, 0.5, rotationY);
+            assertTrue(x >= 0 && x < 1 && y >= 0 && y < 1);
+            ++count[(int)(y * rows) * cols + (int)(x * cols)];
+        }
+        for (int i = 0; i < numrays; ++i)
+        {
+            assertEquals(mode + " cell " + i, 1, count[i]);
+        }
+    }
+
+    @Test
+    public void testSobol()
+    {
+        testStratification(SamplingMode.SOBOL, 16, 16, 0, 0);
+        testStratification(SamplingMode.SOBOL, 64, 4, 0, 0);
+    }
+
+    @Test
+    public void testHalton()
+    {
+        testStratification(SamplingMode.HALTON, 8, 9, 0, 0);
+    }
+
+    @Test
+    public void testStratified()
+    {
+        testStratification(SamplingMode.STRATIFIED, 10, 10, 0, 0);
+    }
+
+    @Test
+    public void testConcentricMapping()
+    {
+        int steps = 64;
+        for (int i = 0; i <= steps; ++i)
+        {
+            for (int j = 0; j <= steps; ++j)
+            {
+                double a = 2. * i / steps - 1, b = 2. * j / steps - 1;
+                double r = SampleSequence.concentricRadius(a, b), phi = SampleSequence.concentricAngle(a, b);
+                assertEquals(Math.max(Math.abs(a), Math.abs(b)), Math.abs(r), 1e-12);
+                double x = r * Math.cos(phi), y = r * Math.sin(phi);
+                assertTrue(x * x + y * y <= 1 + 1e-12);
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package test.jcomponents.raytrace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import jcomponents.raytrace.Volume;
+import jcomponents.raytrace.VolumeBricks;
+
+public class VolumeBricksTest {
+    private static final int SIZE = 20;
+
+    private static int index(int x, int y, int z)
+    {
+        return (z * SIZE + y) * SIZE + x;
+    }
+
+    @Test
+    public void testHomogeneity()
+    {
+        Volume vol = new Volume(SIZE, SIZE, SIZE);
+        Arrays.fill(vol.data, 1.5f);
+        Arrays.fill(vol.translucency, 0xFFFFFFFF);
+        vol.data[index(17, 17, 17)] = 2;
+        vol.translucency[index(3, 12, 4)] = 5;
+        VolumeBricks bricks = new VolumeBricks(vol);
+        assertEquals(3, bricks.width);
+        int corner = bricks.getBrick(17, 17, 17);
+        assertEquals(1.5, bricks.minData[corner], 0);
+        assertEquals(2, bricks.maxData[corner], 0);
+        /*the translucencies are compared unsigned*/
+        int translucent = bricks.getBrick(3, 12, 4);
+        assertEquals(5, bricks.minTranslucency[translucent]);
+        assertEquals(0xFFFFFFFF, bricks.maxTranslucency[translucent]);
+        assertTrue(bricks.isHomogeneous(bricks.getBrick(0.5, 0.5, 18.5)));
+        /*neighbours of a modified brick aren't homogeneous*/
+        assertFalse(bricks.isHomogeneous(bricks.getBrick(9, 9, 9)));
+        assertFalse(bricks.isHomogeneous(bricks.getBrick(0, 19, 0)));
+        assertFalse(bricks.isHomogeneous(corner));
+        assertFalse(bricks.isHomogeneous(bricks.getBrick(-1, 0, 0)));
+        assertTrue(bricks.isUpToDate());
+        vol.modified();
+        assertFalse(bricks.isUpToDate());
+    }
+
+    @Test
+    public void testNaN()
+    {
+        Volume vol = new Volume(SIZE, SIZE, SIZE);
+        Arrays.fill(vol.data, 1);
+        vol.data[index(0, 0, 0)] = Float.NaN;
+        VolumeBricks bricks = new VolumeBricks(vol);
+        assertFalse(bricks.isHomogeneous(bricks.getBrick(0, 0, 0)));
+        assertTrue(bricks.isHomogeneous(bricks.getBrick(19, 19, 19)));
+    }
+}
@@ -0,0 +1,120 @@
+package test.jcomponents.raytrace;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import jcomponents.raytrace.Volume;
+
+public class VolumeTest {
+    private static final int WIDTH = 13, HEIGHT = 7, DEPTH = 5, PREFIX = 24;
+
+    private static Volume createVolume()
+    {
+        Volume vol = new Volume(WIDTH, HEIGHT, DEPTH);
+        for (int i = 0; i < vol.data.length; ++i)
+        {
+            vol.data[i] = 1 + i * 0.25f;
+            vol.translucency[i] = i * 0x1000001;
+        }
+        return vol;
+    }
+
+    /**
+     * Writes the volume behind PREFIX bytes, like OpticalVolumeObject writes its matrix in front of the volume
+     */
+    private static File writeVolume(Volume vol) throws IOException
+    {
+        File file = File.createTempFile("volume", ".bin");
+        file.deleteOnExit();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file)))
+        {
+            out.write(new byte[PREFIX]);
+            vol.writeBinary(out);
+        }
+        return file;
+    }
+
+    @Test
+    public void testMappedValues() throws IOException
+    {
+        Volume heap = createVolume();
+        Volume mapped = Volume.map(writeVolume(heap), PREFIX, false);
+        assertTrue(mapped.isMapped());
+        assertEquals(heap.width, mapped.width);
+        assertEquals(heap.height, mapped.height);
+        assertEquals(heap.depth, mapped.depth);
+        assertEquals(heap.size, mapped.size);
+        for (int i = 0; i < heap.data.length; ++i)
+        {
+            assertEquals(heap.data[i], mapped.getData(i), 0);
+            assertEquals(heap.translucency[i], mapped.getTranslucency(i));
+        }
+        Volume copy = new Volume(WIDTH, HEIGHT, DEPTH).readOrClone(mapped);
+        assertArrayEquals(heap.data, copy.data, 0);
+        assertArrayEquals(heap.translucency, copy.translucency);
+        float minMax[] = mapped.minMaxData(new float[2]);
+        assertEquals(1, minMax[0], 0);
+        assertEquals(heap.data[heap.data.length - 1], minMax[1], 0);
+        /*interior point, the neighbours in x differ by 0.25*/
+        assertEquals(heap.data[(2 * HEIGHT + 3) * WIDTH + 4] + 0.125f, mapped.interpolateData(4.5, 3, 2), 1e-5);
+    }
+
+    @Test
+    public void testWritableMapping() throws IOException
+    {
+        Volume heap = createVolume();
+        File file = writeVolume(heap);
+        Volume mapped = Volume.map(file, PREFIX, true);
+        mapped.setData(17, -3);
+        mapped.setTranslucency(18, 42);
+        mapped.force();
+        heap.data[17] = -3;
+        heap.translucency[18] = 42;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file)))
+        {
+            in.skipBytes(PREFIX);
+            Volume read = new Volume(in);
+            assertArrayEquals(heap.data, read.data, 0);
+            assertArrayEquals(heap.translucency, read.translucency);
+        }
+    }
+
+    @Test
+    public void testModifiedByWrites() throws IOException
+    {
+        Volume heap = createVolume();
+        Volume mapped = Volume.map(writeVolume(heap), PREFIX, true);
+        Volume vol = new Volume(WIDTH, HEIGHT, DEPTH);
+        int count = vol.modCount();
+        vol.setData(3, 1);
+        assertTrue(vol.modCount() != count);
+        count = vol.modCount();
+        vol.setTranslucency(3, 1);
+        assertTrue(vol.modCount() != count);
+        count = vol.modCount();
+        vol.setData(0, new float[4], 0, 4);
+        assertTrue(vol.modCount() != count);
+        count = vol.modCount();
+        vol.setTranslucency(0, new int[4], 0, 4);
+        assertTrue(vol.modCount() != count);
+        count = vol.modCount();
+        vol.read(heap);
+        assertTrue(vol.modCount() != count);
+        count = vol.modCount();
+        vol.readOrClone(mapped);
+        assertTrue(vol.modCount() != count);
+        count = mapped.modCount();
+        mapped.read(heap);
+        assertTrue(mapped.modCount() != count);
+    }
+}
@@ -0,0 +1,139 @@
+package test.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import util.DiffusionSolver;
+import util.ThreadPool;
+
+public class DiffusionSolverTest {
+    private static final double TOLERANCE = 1e-12;
+
+    private static interface Function3d {
+        public double get(int x, int y, int z);
+    }
+
+    /**
+     * Functions with vanishing discrete laplacian, so the lattice values are the exact solution
+     */
+    private static final Function3d HARMONIC = new Function3d() {
+        @Override
+        public double get(int x, int y, int z)
+        {
+            return x * y * z + x * x - z * z + 3 * y - 7;
+        }
+    };
+
+    private static final Function3d LINEAR = new Function3d() {
+        @Override
+        public double get(int x, int y, int z)
+        {
+            return 0.5 * x;
+        }
+    };
+
+    /**
+     * @return the solved lattice, the not given voxels start with garbage
+     */
+    private static double[] solve(int width, int height, int depth, Function3d f, boolean given[], ThreadPool pool)
+    {
+        double values[] = new double[width * height * depth];
+        int notGivenIndices[] = new int[values.length];
+        for (int z = 0, index = 0; z < depth; ++z)
+        {
+            for (int y = 0; y < height; ++y)
+            {
+                for (int x = 0; x < width; ++x, ++index)
+                {
+                    values[index] = given[index] ? f.get(x, y, z) : Double.NaN;
+                    notGivenIndices[index] = given[index] ? -1 : 0;
+                }
+            }
+        }
+        assertTrue(DiffusionSolver.solve(width, height, depth, values, notGivenIndices, pool, TOLERANCE) <= TOLERANCE);
+        return values;
+    }
+
+    private static void assertSolution(int width, int height, int depth, Function3d f, double values[], double delta)
+    {
+        for (int z = 0, index = 0; z < depth; ++z)
+        {
+            for (int y = 0; y < height; ++y)
+            {
+                for (int x = 0; x < width; ++x, ++index)
+                {
+                    assertEquals(f.get(x, y, z), values[index], delta);
+                }
+            }
+        }
+    }
+
+    private static boolean[] border(int width, int height, int depth)
+    {
+        boolean given[] = new boolean[width * height * depth];
+        for (int z = 0, index = 0; z < depth; ++z)
+        {
+            for (int y = 0; y < height; ++y)
+            {
+                for (int x = 0; x < width; ++x, ++index)
+                {
+                    given[index] = x == 0 || y == 0 || z == 0 || x == width - 1 || y == height - 1 || z == depth - 1;
+                }
+            }
+        }
+        return given;
+    }
+
+    @Test
+    public void testDirichletBorder()
+    {
+        int width = 17, height = 13, depth = 11;
+        double values[] = solve(width, height, depth, HARMONIC, border(width, height, depth), null);
+        assertSolution(width, height, depth, HARMONIC, values, 1e-7);
+    }
+
+    @Test
+    public void testInsulatedSides()
+    {
+        /*only the planes x = 0 and x = width - 1 are given, the other sides don't conduct*/
+        int width = 33, height = 9, depth = 20;
+        boolean given[] = new boolean[width * height * depth];
+        for (int index = 0; index < given.length; ++index)
+        {
+            int x = index % width;
+            given[index] = x == 0 || x == width - 1;
+        }
+        double values[] = solve(width, height, depth, LINEAR, given, null);
+        assertSolution(width, height, depth, LINEAR, values, 1e-8);
+    }
+
+    @Test
+    public void testScatteredGivenVoxels()
+    {
+        int width = 24, height = 19, depth = 21;
+        boolean given[] = border(width, height, depth);
+        Random rand = new Random(7);
+        for (int index = 0; index < given.length; ++index)
+        {
+            given[index] |= rand.nextInt(10) == 0;
+        }
+        double values[] = solve(width, height, depth, HARMONIC, given, null);
+        assertSolution(width, height, depth, HARMONIC, values, 1e-7);
+    }
+
+    @Test
+    public void testIndependentOfThreads()
+    {
+        int width = 40, height = 36, depth = 48;
+        boolean given[] = border(width, height, depth);
+        double serial[] = solve(width, height, depth, HARMONIC, given, null);
+        ThreadPool pool = new ThreadPool(100, Math.max(16, Runtime.getRuntime().availableProcessors()));
+        assertArrayEquals(serial, solve(width, height, depth, HARMONIC, given, pool), 0);
+        assertSolution(width, height, depth, HARMONIC, serial, 1e-6);
+    }
+}
@@ -0,0 +1,67 @@
+package test.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import maths.Controller;
+import maths.Operation;
+import maths.OperationCompiler;
+import maths.exception.OperationParseException;
+import maths.variable.Variable;
+import maths.variable.VariableStack;
+import util.OperationBytecodeCompiler;
+import util.functional.DoubleArrayFunction;
+
+public class OperationBytecodeCompilerTest {
+    private static void testEquivalence(String expression) throws OperationParseException
+    {
+        Operation op = OperationCompiler.compile(expression);
+        DoubleArrayFunction compiled = OperationBytecodeCompiler.compile(op, "x", "y", "z");
+        assertNotNull(expression, compiled);
+        VariableStack vs = new VariableStack();
+        Variable x = new Variable("x"), y = new Variable("y"), z = new Variable("z");
+        vs.addLocal(x);
+        vs.addLocal(y);
+        vs.addLocal(z);
+        Controller control = new Controller();
+        Random rand = new Random(3);
+        double inputs[] = new double[3];
+        for (int i = 0; i < 100; ++i)
+        {
+            for (int j = 0; j < inputs.length; ++j)
+            {
+                inputs[j] = rand.nextDouble() * 4 + 0.5;
+            }
+            x.setValue(inputs[0]);
+            y.setValue(inputs[1]);
+            z.setValue(inputs[2]);
+            double expected = op.calculate(vs, control).doubleValue();
+            assertEquals(expression, expected, compiled.eval(inputs), Math.max(1, Math.abs(expected)) * 1e-12);
+        }
+    }
+
+    @Test
+    public void testArithmetic() throws OperationParseException
+    {
+        testEquivalence("x*2.5+y/(x-z)-3");
+        testEquivalence("1.5+0.3*y");
+        testEquivalence("(x+y+z)*(x-y)/z");
+    }
+
+    @Test
+    public void testPowerAndNegation() throws OperationParseException
+    {
+        testEquivalence("-x^3+y^2");
+        testEquivalence("-(x*y)");
+    }
+
+    @Test
+    public void testUnknownVariable() throws OperationParseException
+    {
+        assertEquals(null, OperationBytecodeCompiler.compile(OperationCompiler.compile("x+w"), "x", "y", "z"));
+    }
+}
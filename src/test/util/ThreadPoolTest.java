@@ -0,0 +1,185 @@
+package test.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+import util.ThreadPool;
+import util.ThreadPool.CancellationToken;
+import util.ThreadPool.ParallelRangeRunnable;
+import util.ThreadPool.RunnableObject;
+
+public class ThreadPoolTest {
+    private static class CountingRunnable implements ParallelRangeRunnable
+    {
+        final AtomicIntegerArray count;
+        final AtomicInteger finished = new AtomicInteger();
+        final AtomicInteger maxBlock = new AtomicInteger();
+        final AtomicInteger processed = new AtomicInteger();
+
+        CountingRunnable(int size)
+        {
+            count = new AtomicIntegerArray(size);
+        }
+
+        @Override
+        public void run(int from, int to)
+        {
+            maxBlock.accumulateAndGet(to - from, Math::max);
+            for (int i = from; i < to; ++i)
+            {
+                count.incrementAndGet(i);
+            }
+            processed.addAndGet(to - from);
+        }
+
+        @Override
+        public void finished()
+        {
+            finished.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void testEveryIndexOnce()
+    {
+        ThreadPool pool = new ThreadPool(100, 4);
+        CountingRunnable prr = new CountingRunnable(100003);
+        pool.runParallel(prr, "Test", null, 0, 100003, 1000, true);
+        for (int i = 0; i < 100003; ++i)
+        {
+            assertEquals(1, prr.count.get(i));
+        }
+        assertEquals(1, prr.finished.get());
+        assertTrue(prr.maxBlock.get() <= 1000);
+    }
+
+    @Test
+    public void testStealFromBlockedWorker()
+    {
+        ThreadPool pool = new ThreadPool(100, 2);
+        final CountingRunnable counter = new CountingRunnable(1000);
+        final AtomicInteger othersDone = new AtomicInteger();
+        pool.runParallel(new ParallelRangeRunnable() {
+            @Override
+            public void run(int from, int to)
+            {
+                if (from == 0)
+                {
+                    /*hold the first partition until the other worker took over its rest*/
+                    long deadline = System.currentTimeMillis() + 10000;
+                    while (counter.processed.get() < 1000 - to && System.currentTimeMillis() < deadline)
+                    {
+                        Thread.yield();
+                    }
+                    othersDone.set(counter.processed.get());
+                }
+                counter.run(from, to);
+            }
+
+            @Override
+            public void finished()
+            {
+                counter.finished();
+            }
+        }, "Test", null, 0, 1000, 10, true);
+        assertEquals(1000, counter.processed.get());
+        assertEquals(1, counter.finished.get());
+        assertTrue(othersDone.get() >= 990);
+    }
+
+    @Test
+    public void testNestedParallel()
+    {
+        final ThreadPool pool = new ThreadPool(100, 2);
+        final CountingRunnable inner = new CountingRunnable(1000);
+        final AtomicInteger outerFinished = new AtomicInteger();
+        pool.runParallel(new ParallelRangeRunnable() {
+            @Override
+            public void run(int from, int to)
+            {
+                for (int i = from; i < to; ++i)
+                {
+                    pool.runParallel(inner, "Inner", null, 0, 1000, 10, true);
+                }
+            }
+
+            @Override
+            public void finished()
+            {
+                outerFinished.incrementAndGet();
+            }
+        }, "Outer", null, 0, 8, 1, true);
+        assertEquals(1, outerFinished.get());
+        assertEquals(8, inner.finished.get());
+        assertEquals(8000, inner.processed.get());
+    }
+
+    @Test
+    public void testCancellation()
+    {
+        ThreadPool pool = new ThreadPool(100, 4);
+        final CancellationToken token = new CancellationToken();
+        final AtomicInteger processed = new AtomicInteger();
+        final AtomicInteger finished = new AtomicInteger();
+        pool.runParallel(new ParallelRangeRunnable() {
+            @Override
+            public void run(int from, int to)
+            {
+                if (processed.addAndGet(to - from) >= 100)
+                {
+                    token.cancel();
+                }
+            }
+
+            @Override
+            public void finished()
+            {
+                finished.incrementAndGet();
+            }
+        }, "Cancel", null, 0, 1000000, 10, true, ThreadPool.PRIORITY_BATCH, token);
+        assertEquals(1, finished.get());
+        assertTrue(processed.get() < 1000000);
+    }
+
+    @Test
+    public void testRerun() throws InterruptedException
+    {
+        ThreadPool pool = new ThreadPool(100, 2);
+        final AtomicInteger runs = new AtomicInteger();
+        final Object started = new Object();
+        final RunnableObject ro = new RunnableObject(new Runnable() {
+            @Override
+            public void run()
+            {
+                synchronized(started)
+                {
+                    runs.incrementAndGet();
+                    started.notifyAll();
+                }
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {}
+            }
+        }, "Rerun", null);
+        synchronized(started)
+        {
+            pool.run(ro, false);
+            started.wait(1000);
+        }
+        /*two requests while running result in exactly one rerun*/
+        pool.run(ro, false);
+        pool.run(ro, false);
+        for (int i = 0; i < 100 && (runs.get() < 2 || ro.getState() != ThreadPool.STATE_FINISHED); ++i)
+        {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        assertEquals(2, runs.get());
+        assertEquals(ThreadPool.STATE_FINISHED, ro.getState());
+    }
+}
@@ -0,0 +1,97 @@
+package test.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import jcomponents.util.ImageUtil;
+import util.ThreadPool;
+import util.ThreadPool.ParallelRangeRunnable;
+import util.TileAccumulator;
+
+public class TileAccumulatorTest {
+    private static final int WIDTH = 16, HEIGHT = 16, HITS = 1000003;
+
+    /**
+     * Every hit adds 1 to a single element, the elements are chosen so that many threads hit the same ones
+     */
+    private static void accumulate(ThreadPool pool, final TileAccumulator tiles)
+    {
+        pool.runParallel(new ParallelRangeRunnable() {
+            @Override
+            public void run(int from, int to)
+            {
+                long tile[] = tiles.getTile();
+                for (int i = from; i < to; ++i)
+                {
+                    ++tile[i % tiles.length];
+                }
+            }
+
+            @Override
+            public void finished() {}
+        }, "Accumulate", null, 0, HITS, 100, true);
+    }
+
+    @Test
+    public void testExactCounts()
+    {
+        ThreadPool pool = new ThreadPool(100, Math.max(16, Runtime.getRuntime().availableProcessors()));
+        TileAccumulator tiles = new TileAccumulator(pool, 7);
+        long result[] = new long[tiles.length];
+        accumulate(pool, tiles);
+        tiles.merge(result);
+        long expected[] = new long[tiles.length];
+        for (int i = 0; i < HITS; ++i)
+        {
+            ++expected[i % tiles.length];
+        }
+        assertArrayEquals(expected, result);
+        /*tiles are cleared by merge, so a second position adds exactly the same amount*/
+        accumulate(pool, tiles);
+        tiles.merge(result);
+        for (int i = 0; i < expected.length; ++i)
+        {
+            expected[i] *= 2;
+        }
+        assertArrayEquals(expected, result);
+    }
+
+    @Test
+    public void testPixelsIndependentOfThreads()
+    {
+        long images[][] = new long[2][];
+        int threads[] = {1, Math.max(16, Runtime.getRuntime().availableProcessors())};
+        for (int t = 0; t < threads.length; ++t)
+        {
+            ThreadPool pool = new ThreadPool(100, threads[t]);
+            final TileAccumulator tiles = new TileAccumulator(pool, WIDTH * HEIGHT * 2);
+            pool.runParallel(new ParallelRangeRunnable() {
+                @Override
+                public void run(int from, int to)
+                {
+                    long tile[] = tiles.getTile();
+                    float add[] = {1, 0};
+                    for (int i = from; i < to; ++i)
+                    {
+                        add[1] = i % 5;
+                        ImageUtil.addToPixel((i * 0.618034) % 1 * (WIDTH - 1), (i * 0.414214) % 1 * (HEIGHT - 1), WIDTH, HEIGHT, add, 0, 2, 1, tile);
+                    }
+                }
+
+                @Override
+                public void finished() {}
+            }, "Splat", null, 0, HITS, 1000, true);
+            images[t] = new long[tiles.length];
+            tiles.merge(images[t]);
+        }
+        assertArrayEquals(images[0], images[1]);
+        long count = 0;
+        for (int i = 0; i < images[0].length; i += 2)
+        {
+            count += images[0][i];
+        }
+        assertEquals((long)HITS * 0x10000, count);
+    }
+}
@@ -0,0 +1,503 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Paul Stahr
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package util;
+
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Solves the discrete diffusion equation on a voxel lattice. Voxels with a negative entry in notGivenIndices keep their value (Dirichlet),
+ * every other voxel gets the mean of its neighbours. The border of the lattice is insulating.
+ * The solver runs multigrid V-cycles, the coarse lattices aggregate 2x2x2 voxels and carry the summed stencil of the finer one.
+ * If the cycles stop converging it continues with conjugate gradients, preconditioned by the same V-cycle.
+ * Smoothing is red-black Gauss-Seidel over z-slabs, so the results don't depend on the number of threads.
+ */
+public class DiffusionSolver {
+	private static final Logger logger = LoggerFactory.getLogger(DiffusionSolver.class);
+	private static final int PRE_SMOOTH = 2, POST_SMOOTH = 2, COARSEST_SWEEPS = 32;
+	private static final int MAX_CYCLES = 50, MAX_CG_ITERATIONS = 1000;
+	/*cycles which don't reduce the residual at least by this factor switch to conjugate gradients*/
+	private static final double MIN_CYCLE_REDUCTION = 0.3;
+	private static final int COARSEST_SIZE = 64;
+	/*smaller lattices are processed by the calling thread*/
+	private static final int PARALLEL_SIZE = 0x8000;
+
+	/**
+	 * One lattice of the hierarchy. A voxel with diag 0 is not part of the system, wx, wy and wz are the couplings to the next voxel in the direction.
+	 * The couplings are small integers, so floats hold them exactly.
+	 */
+	private static final class Level
+	{
+		private final int width, height, depth, size;
+		private final float diag[], wx[], wy[], wz[];
+		private final double r[];
+		private double x[], b[];
+
+		private Level(int width, int height, int depth)
+		{
+			this.width = width;
+			this.height = height;
+			this.depth = depth;
+			this.size = width * height * depth;
+			diag = new float[size];
+			wx = new float[size];
+			wy = new float[size];
+			wz = new float[size];
+			r = new double[size];
+			x = new double[size];
+			b = new double[size];
+		}
+
+		private final double neighbourSum(double v[], int index, int x, int y, int z)
+		{
+			int slice = width * height;
+			double sum = 0;
+			if (x > 0)			{sum += wx[index - 1] * v[index - 1];}
+			if (x < width - 1)	{sum += wx[index] * v[index + 1];}
+			if (y > 0)			{sum += wy[index - width] * v[index - width];}
+			if (y < height - 1)	{sum += wy[index] * v[index + width];}
+			if (z > 0)			{sum += wz[index - slice] * v[index - slice];}
+			if (z < depth - 1)	{sum += wz[index] * v[index + slice];}
+			return sum;
+		}
+	}
+
+	/**
+	 * Processes whole z-slices of a level
+	 */
+	private abstract class SliceTask implements ThreadPool.ParallelRangeRunnable
+	{
+		abstract void run(int z);
+
+		@Override
+		public final void run(int from, int to)
+		{
+			for (int z = from; z < to; ++z)
+			{
+				run(z);
+			}
+		}
+
+		@Override
+		public void finished() {}
+	}
+
+	private final ThreadPool pool;
+	private final Level levels[];
+
+	public DiffusionSolver(int width, int height, int depth, int notGivenIndices[], ThreadPool pool)
+	{
+		this.pool = pool;
+		Level level = new Level(width, height, depth);
+		for (int z = 0, index = 0; z < depth; ++z)
+		{
+			for (int y = 0; y < height; ++y)
+			{
+				for (int x = 0; x < width; ++x, ++index)
+				{
+					if (notGivenIndices[index] < 0)
+					{
+						continue;
+					}
+					level.diag[index] = (x > 0 ? 1 : 0) + (x < width - 1 ? 1 : 0) + (y > 0 ? 1 : 0) + (y < height - 1 ? 1 : 0) + (z > 0 ? 1 : 0) + (z < depth - 1 ? 1 : 0);
+					if (x < width - 1 && notGivenIndices[index + 1] >= 0)				{level.wx[index] = 1;}
+					if (y < height - 1 && notGivenIndices[index + width] >= 0)			{level.wy[index] = 1;}
+					if (z < depth - 1 && notGivenIndices[index + width * height] >= 0)	{level.wz[index] = 1;}
+				}
+			}
+		}
+		Level list[] = new Level[32];
+		int count = 0;
+		list[count++] = level;
+		while (level.size > COARSEST_SIZE && Math.max(level.width, Math.max(level.height, level.depth)) > 2)
+		{
+			list[count++] = level = coarsen(level);
+		}
+		levels = Arrays.copyOf(list, count);
+	}
+
+	/**
+	 * The coarse voxel gets the stencil of its 2x2x2 fine voxels: couplings inside the block cancel, couplings leaving the block add up
+	 */
+	private static Level coarsen(Level fine)
+	{
+		Level coarse = new Level((fine.width + 1) / 2, (fine.height + 1) / 2, (fine.depth + 1) / 2);
+		for (int z = 0, index = 0; z < fine.depth; ++z)
+		{
+			for (int y = 0; y < fine.height; ++y)
+			{
+				for (int x = 0; x < fine.width; ++x, ++index)
+				{
+					if (fine.diag[index] == 0)
+					{
+						continue;
+					}
+					int c = ((z / 2) * coarse.height + y / 2) * coarse.width + x / 2;
+					coarse.diag[c] += fine.diag[index];
+					if ((x & 1) == 0)	{coarse.diag[c] -= 2 * fine.wx[index];}
+					else				{coarse.wx[c] += fine.wx[index];}
+					if ((y & 1) == 0)	{coarse.diag[c] -= 2 * fine.wy[index];}
+					else				{coarse.wy[c] += fine.wy[index];}
+					if ((z & 1) == 0)	{coarse.diag[c] -= 2 * fine.wz[index];}
+					else				{coarse.wz[c] += fine.wz[index];}
+				}
+			}
+		}
+		return coarse;
+	}
+
+	private final void run(SliceTask task, Level level)
+	{
+		if (pool == null || level.size < PARALLEL_SIZE)
+		{
+			task.run(0, level.depth);
+		}
+		else
+		{
+			pool.runParallel(task, "Diffusion", null, 0, level.depth, 1, true);
+		}
+	}
+
+	/**
+	 * Gauss-Seidel update of all voxels of one colour, the voxels of a colour only depend on the other colour
+	 */
+	private final void sweep(final Level level, final int color)
+	{
+		run(new SliceTask() {
+			@Override
+			void run(int z)
+			{
+				double x[] = level.x, b[] = level.b;
+				for (int y = 0; y < level.height; ++y)
+				{
+					int row = (z * level.height + y) * level.width;
+					for (int i = (color + y + z) & 1; i < level.width; i += 2)
+					{
+						int index = row + i;
+						float d = level.diag[index];
+						if (d != 0)
+						{
+							x[index] = (b[index] + level.neighbourSum(x, index, i, y, z)) / d;
+						}
+					}
+				}
+			}
+		}, level);
+	}
+
+	/**
+	 * out = b - A * x, or out = A * x if b is null
+	 */
+	private final void residual(final Level level, final double x[], final double b[], final double out[])
+	{
+		run(new SliceTask() {
+			@Override
+			void run(int z)
+			{
+				for (int y = 0, index = z * level.height * level.width; y < level.height; ++y)
+				{
+					for (int i = 0; i < level.width; ++i, ++index)
+					{
+						float d = level.diag[index];
+						if (d == 0)
+						{
+							out[index] = 0;
+							continue;
+						}
+						double ax = d * x[index] - level.neighbourSum(x, index, i, y, z);
+						out[index] = b == null ? ax : b[index] - ax;
+					}
+				}
+			}
+		}, level);
+	}
+
+	/**
+	 * Summed per slice and then over the slices, so the rounding doesn't depend on the threads
+	 */
+	private final double dot(final Level level, final double a[], final double c[])
+	{
+		final double partial[] = new double[level.depth];
+		final int slice = level.width * level.height;
+		run(new SliceTask() {
+			@Override
+			void run(int z)
+			{
+				double sum = 0;
+				for (int index = z * slice; index < (z + 1) * slice; ++index)
+				{
+					sum += a[index] * c[index];
+				}
+				partial[z] = sum;
+			}
+		}, level);
+		double sum = 0;
+		for (double p : partial)
+		{
+			sum += p;
+		}
+		return sum;
+	}
+
+	private final void restrict(final Level fine, final Level coarse)
+	{
+		run(new SliceTask() {
+			@Override
+			void run(int z)
+			{
+				for (int y = 0, c = z * coarse.height * coarse.width; y < coarse.height; ++y)
+				{
+					for (int x = 0; x < coarse.width; ++x, ++c)
+					{
+						double sum = 0;
+						for (int fz = z * 2; fz < Math.min(z * 2 + 2, fine.depth); ++fz)
+						{
+							for (int fy = y * 2; fy < Math.min(y * 2 + 2, fine.height); ++fy)
+							{
+								for (int fx = x * 2; fx < Math.min(x * 2 + 2, fine.width); ++fx)
+								{
+									sum += fine.r[(fz * fine.height + fy) * fine.width + fx];
+								}
+							}
+						}
+						coarse.b[c] = sum;
+						coarse.x[c] = 0;
+					}
+				}
+			}
+		}, coarse);
+	}
+
+	private final void prolongate(final Level coarse, final Level fine)
+	{
+		run(new SliceTask() {
+			@Override
+			void run(int z)
+			{
+				for (int y = 0, index = z * fine.height * fine.width; y < fine.height; ++y)
+				{
+					for (int x = 0; x < fine.width; ++x, ++index)
+					{
+						if (fine.diag[index] != 0)
+						{
+							fine.x[index] += coarse.x[((z / 2) * coarse.height + y / 2) * coarse.width + x / 2];
+						}
+					}
+				}
+			}
+		}, fine);
+	}
+
+	/**
+	 * Improves levels[l].x for the right hand side levels[l].b. Pre- and post-smoothing run in opposite colour order, so the cycle is symmetric and can precondition conjugate gradients.
+	 */
+	private final void vcycle(int l)
+	{
+		Level level = levels[l];
+		if (l == levels.length - 1)
+		{
+			for (int i = 0; i < COARSEST_SWEEPS; ++i)
+			{
+				sweep(level, 0);
+				sweep(level, 1);
+			}
+			for (int i = 0; i < COARSEST_SWEEPS; ++i)
+			{
+				sweep(level, 1);
+				sweep(level, 0);
+			}
+			return;
+		}
+		for (int i = 0; i < PRE_SMOOTH; ++i)
+		{
+			sweep(level, 0);
+			sweep(level, 1);
+		}
+		residual(level, level.x, level.b, level.r);
+		Level coarse = levels[l + 1];
+		restrict(level, coarse);
+		vcycle(l + 1);
+		prolongate(coarse, level);
+		for (int i = 0; i < POST_SMOOTH; ++i)
+		{
+			sweep(level, 1);
+			sweep(level, 0);
+		}
+	}
+
+	/**
+	 * z = M^-1 r with one V-cycle
+	 */
+	private final void precondition(double r[], double z[])
+	{
+		Level fine = levels[0];
+		double x[] = fine.x, b[] = fine.b;
+		Arrays.fill(z, 0);
+		fine.x = z;
+		fine.b = r;
+		vcycle(0);
+		fine.x = x;
+		fine.b = b;
+	}
+
+	/**
+	 * Continues with the residual in levels[0].r
+	 * @return norm of the final residual
+	 */
+	private final double conjugateGradient(double bnorm, double tolerance)
+	{
+		final Level fine = levels[0];
+		final double x[] = fine.x, r[] = fine.r.clone(), z[] = new double[fine.size], p[] = new double[fine.size], q[] = new double[fine.size];
+		precondition(r, z);
+		System.arraycopy(z, 0, p, 0, z.length);
+		double rz = dot(fine, r, z);
+		double rnorm = Math.sqrt(dot(fine, r, r));
+		int iteration = 0;
+		for (; iteration < MAX_CG_ITERATIONS && rnorm > tolerance * bnorm; ++iteration)
+		{
+			residual(fine, p, null, q);
+			double pq = dot(fine, p, q);
+			if (!(pq > 0))
+			{
+				break;
+			}
+			final double alpha = rz / pq;
+			run(new SliceTask() {
+				@Override
+				void run(int zi)
+				{
+					int slice = fine.width * fine.height;
+					for (int index = zi * slice; index < (zi + 1) * slice; ++index)
+					{
+						x[index] += alpha * p[index];
+						r[index] -= alpha * q[index];
+					}
+				}
+			}, fine);
+			rnorm = Math.sqrt(dot(fine, r, r));
+			precondition(r, z);
+			double rzNext = dot(fine, r, z);
+			final double beta = rzNext / rz;
+			rz = rzNext;
+			run(new SliceTask() {
+				@Override
+				void run(int zi)
+				{
+					int slice = fine.width * fine.height;
+					for (int index = zi * slice; index < (zi + 1) * slice; ++index)
+					{
+						p[index] = z[index] + beta * p[index];
+					}
+				}
+			}, fine);
+		}
+		logger.debug("Conjugate gradients: " + iteration + " iterations, residual " + rnorm / bnorm);
+		return rnorm;
+	}
+
+	/**
+	 * Replaces the values of the not given voxels by the solution
+	 * @return residual norm relative to the norm of the right hand side
+	 */
+	public double solve(double values[], double tolerance)
+	{
+		Level fine = levels[0];
+		for (int z = 0, index = 0; z < fine.depth; ++z)
+		{
+			for (int y = 0; y < fine.height; ++y)
+			{
+				for (int x = 0; x < fine.width; ++x, ++index)
+				{
+					fine.x[index] = 0;
+					if (fine.diag[index] != 0)
+					{
+						/*couplings to given voxels move to the right hand side*/
+						int slice = fine.width * fine.height;
+						double sum = 0;
+						if (x > 0)					{sum += given(values, fine, index - 1);}
+						if (x < fine.width - 1)		{sum += given(values, fine, index + 1);}
+						if (y > 0)					{sum += given(values, fine, index - fine.width);}
+						if (y < fine.height - 1)	{sum += given(values, fine, index + fine.width);}
+						if (z > 0)					{sum += given(values, fine, index - slice);}
+						if (z < fine.depth - 1)		{sum += given(values, fine, index + slice);}
+						fine.b[index] = sum;
+					}
+					else
+					{
+						fine.b[index] = 0;
+					}
+				}
+			}
+		}
+		double bnorm = Math.sqrt(dot(fine, fine.b, fine.b));
+		double rnorm = bnorm;
+		if (bnorm != 0)
+		{
+			int cycle = 0;
+			while (cycle < MAX_CYCLES)
+			{
+				vcycle(0);
+				++cycle;
+				residual(fine, fine.x, fine.b, fine.r);
+				double next = Math.sqrt(dot(fine, fine.r, fine.r));
+				boolean slow = next > MIN_CYCLE_REDUCTION * rnorm;
+				rnorm = next;
+				if (rnorm <= tolerance * bnorm || slow)
+				{
+					break;
+				}
+			}
+			logger.debug("Multigrid: " + cycle + " cycles, residual " + rnorm / bnorm);
+			if (rnorm > tolerance * bnorm)
+			{
+				rnorm = conjugateGradient(bnorm, tolerance);
+			}
+		}
+		for (int index = 0; index < fine.size; ++index)
+		{
+			if (fine.diag[index] != 0)
+			{
+				values[index] = fine.x[index];
+			}
+		}
+		return bnorm == 0 ? 0 : rnorm / bnorm;
+	}
+
+	/**
+	 * @return the value of a neighbour if it is given, 0 for a neighbour which is part of the system
+	 */
+	private static final double given(double values[], Level fine, int index)
+	{
+		return fine.diag[index] == 0 ? values[index] : 0;
+	}
+
+	/**
+	 * Same arguments as Armadillo.solveDiffusionEquation, the result replaces the not given values
+	 * @return residual norm relative to the norm of the right hand side
+	 */
+	public static double solve(int width, int height, int depth, double values[], int notGivenIndices[], ThreadPool pool, double tolerance)
+	{
+		return new DiffusionSolver(width, height, depth, notGivenIndices, pool).solve(values, tolerance);
+	}
+}
@@ -0,0 +1,345 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Paul Stahr
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import maths.Operation;
+import maths.data.RealDoubleOperation;
+import maths.data.RealLongOperation;
+import maths.data.RealRationalOperation;
+import maths.variable.UserVariableOperation;
+import util.functional.DoubleArrayFunction;
+
+/**
+ * Compiles real valued operation trees to classes implementing {@link DoubleArrayFunction}. The i-th input of eval is bound to the variable with the i-th name.
+ * Only real constants, the input variables, addition, subtraction, multiplication, division, negation and integer powers are supported,
+ * for everything else compile returns null and the operation has to be calculated by the interpreter.
+ */
+public class OperationBytecodeCompiler {
+	private static final Logger logger = LoggerFactory.getLogger(OperationBytecodeCompiler.class);
+	private static final AtomicInteger classCount = new AtomicInteger();
+	private static final String INTERFACE_NAME = DoubleArrayFunction.class.getName().replace('.', '/');
+	private static final String CLASS_PREFIX = OperationBytecodeCompiler.class.getPackage().getName().replace('.', '/') + "/CompiledOperation";
+	private static final Method defineHiddenClass;
+	private static final Object hiddenClassOptions;
+	static {
+		Method method = null;
+		Object options = null;
+		try {
+			Class<?> optionClass = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+			options = Array.newInstance(optionClass, 0);
+			method = MethodHandles.Lookup.class.getMethod("defineHiddenClass", byte[].class, boolean.class, options.getClass());
+		} catch (ClassNotFoundException | NoSuchMethodException e) {
+			logger.debug("Hidden classes not available, using class loader", e);
+		}
+		defineHiddenClass = method;
+		hiddenClassOptions = options;
+	}
+
+	private static final class OperationClassLoader extends ClassLoader
+	{
+		private OperationClassLoader()
+		{
+			super(OperationBytecodeCompiler.class.getClassLoader());
+		}
+
+		private Class<?> define(String name, byte data[])
+		{
+			return defineClass(name, data, 0, data.length);
+		}
+	}
+
+	private final String inputs[];
+	private final ByteArrayOutputStream constantPoolBytes = new ByteArrayOutputStream();
+	private final DataOutputStream constantPool = new DataOutputStream(constantPoolBytes);
+	private final HashMap<Object, Integer> constantIndices = new HashMap<>();
+	private final ByteArrayOutputStream codeBytes = new ByteArrayOutputStream();
+	private final DataOutputStream code = new DataOutputStream(codeBytes);
+	private int constantCount = 1;
+	private int stack = 0, maxStack = 0;
+
+	private OperationBytecodeCompiler(String inputs[])
+	{
+		this.inputs = inputs;
+	}
+
+	/**
+	 * @return the compiled operation or null if the operation contains unsupported nodes
+	 */
+	public static DoubleArrayFunction compile(Operation op, String ...inputs)
+	{
+		if (op == null)
+		{
+			return null;
+		}
+		try {
+			OperationBytecodeCompiler compiler = new OperationBytecodeCompiler(inputs);
+			if (!compiler.emit(op))
+			{
+				return null;
+			}
+			compiler.code.writeByte(0xAF);//dreturn
+			if (compiler.codeBytes.size() > 0xFFFF)
+			{
+				return null;
+			}
+			String name = CLASS_PREFIX + classCount.incrementAndGet();
+			byte data[] = compiler.createClass(name);
+			Class<?> cl;
+			if (defineHiddenClass != null)
+			{
+				Object lookup = defineHiddenClass.invoke(MethodHandles.lookup(), data, true, hiddenClassOptions);
+				cl = ((MethodHandles.Lookup)lookup).lookupClass();
+			}
+			else
+			{
+				cl = new OperationClassLoader().define(name.replace('/', '.'), data);
+			}
+			return (DoubleArrayFunction)cl.getDeclaredConstructor().newInstance();
+		} catch (IOException | ReflectiveOperationException | LinkageError e) {
+			logger.error("Can't compile operation " + op, e);
+			return null;
+		}
+	}
+
+	private final void push(int slots)
+	{
+		stack += slots;
+		maxStack = Math.max(maxStack, stack);
+	}
+
+	private final int utf8(String str) throws IOException
+	{
+		Integer index = constantIndices.get(str);
+		if (index == null)
+		{
+			constantPool.writeByte(1);
+			constantPool.writeUTF(str);
+			constantIndices.put(str, index = constantCount++);
+		}
+		return index;
+	}
+
+	private final int classRef(String name) throws IOException
+	{
+		String key = "class " + name;
+		Integer index = constantIndices.get(key);
+		if (index == null)
+		{
+			int nameIndex = utf8(name);
+			constantPool.writeByte(7);
+			constantPool.writeShort(nameIndex);
+			constantIndices.put(key, index = constantCount++);
+		}
+		return index;
+	}
+
+	private final int methodRef(String owner, String name, String descriptor) throws IOException
+	{
+		String key = "method " + owner + '.' + name + descriptor;
+		Integer index = constantIndices.get(key);
+		if (index == null)
+		{
+			int ownerIndex = classRef(owner), nameIndex = utf8(name), descriptorIndex = utf8(descriptor);
+			constantPool.writeByte(12);//NameAndType
+			constantPool.writeShort(nameIndex);
+			constantPool.writeShort(descriptorIndex);
+			int nameAndType = constantCount++;
+			constantPool.writeByte(10);
+			constantPool.writeShort(ownerIndex);
+			constantPool.writeShort(nameAndType);
+			constantIndices.put(key, index = constantCount++);
+		}
+		return index;
+	}
+
+	private final int doubleConstant(double value) throws IOException
+	{
+		Long key = Double.doubleToRawLongBits(value);
+		Integer index = constantIndices.get(key);
+		if (index == null)
+		{
+			constantPool.writeByte(6);
+			constantPool.writeDouble(value);
+			constantIndices.put(key, index = constantCount);
+			constantCount += 2;
+		}
+		return index;
+	}
+
+	private static final boolean isConstant(Operation op)
+	{
+		return op instanceof RealDoubleOperation || op instanceof RealLongOperation || op instanceof RealRationalOperation;
+	}
+
+	private final boolean emitChildren(Operation op, int opcode) throws IOException
+	{
+		if (!emit(op.get(0)))
+		{
+			return false;
+		}
+		for (int i = 1; i < op.size(); ++i)
+		{
+			if (!emit(op.get(i)))
+			{
+				return false;
+			}
+			code.writeByte(opcode);
+			stack -= 2;
+		}
+		return true;
+	}
+
+	private final boolean emit(Operation op) throws IOException
+	{
+		if (isConstant(op))
+		{
+			double value = op.doubleValue();
+			if (Double.doubleToRawLongBits(value) == 0)	{code.writeByte(0x0E);}//dconst_0
+			else if (value == 1)						{code.writeByte(0x0F);}//dconst_1
+			else
+			{
+				code.writeByte(0x14);//ldc2_w
+				code.writeShort(doubleConstant(value));
+			}
+			push(2);
+			return true;
+		}
+		if (op instanceof UserVariableOperation)
+		{
+			String name = ((UserVariableOperation)op).nameObject.string;
+			for (int i = 0; i < inputs.length; ++i)
+			{
+				if (inputs[i].equals(name))
+				{
+					code.writeByte(0x2B);//aload_1
+					if (i <= 5)			{code.writeByte(0x03 + i);}
+					else if (i <= 127)	{code.writeByte(0x10);code.writeByte(i);}
+					else				{code.writeByte(0x11);code.writeShort(i);}
+					push(2);
+					code.writeByte(0x31);//daload
+					return true;
+				}
+			}
+			return false;
+		}
+		/*Matched by name, operations which don't exist in the linked version of JSymMath are left to the interpreter*/
+		switch (op.getClass().getSimpleName())
+		{
+			case "AdditionOperation":		return op.size() >= 2 && emitChildren(op, 0x63);//dadd
+			case "MultiplicationOperation":	return op.size() >= 2 && emitChildren(op, 0x6B);//dmul
+			case "SubtractionOperation":	return op.size() == 2 && emitChildren(op, 0x67);//dsub
+			case "DivisionOperation":		return op.size() == 2 && emitChildren(op, 0x6F);//ddiv
+			case "NegativeOperation":
+				if (op.size() != 1 || !emit(op.get(0)))
+				{
+					return false;
+				}
+				code.writeByte(0x77);//dneg
+				return true;
+			case "PowerOperation":
+			{
+				/*non integer powers of negative numbers are complex*/
+				if (op.size() != 2 || !isConstant(op.get(1)) || op.get(1).doubleValue() != Math.rint(op.get(1).doubleValue()) || !emit(op.get(0)) || !emit(op.get(1)))
+				{
+					return false;
+				}
+				code.writeByte(0xB8);//invokestatic
+				code.writeShort(methodRef("java/lang/Math", "pow", "(DD)D"));
+				stack -= 2;
+				return true;
+			}
+			default: return false;
+		}
+	}
+
+	private final byte[] createClass(String name) throws IOException
+	{
+		int thisClass = classRef(name);
+		int superClass = classRef("java/lang/Object");
+		int interfaceClass = classRef(INTERFACE_NAME);
+		int superInit = methodRef("java/lang/Object", "<init>", "()V");
+		int initName = utf8("<init>"), initDescriptor = utf8("()V");
+		int evalName = utf8("eval"), evalDescriptor = utf8("([D)D");
+		int codeName = utf8("Code");
+		constantPool.flush();
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(result);
+		out.writeInt(0xCAFEBABE);
+		out.writeShort(0);
+		out.writeShort(52);
+		out.writeShort(constantCount);
+		constantPoolBytes.writeTo(out);
+		out.writeShort(0x0031);//public final super
+		out.writeShort(thisClass);
+		out.writeShort(superClass);
+		out.writeShort(1);
+		out.writeShort(interfaceClass);
+		out.writeShort(0);//fields
+		out.writeShort(2);//methods
+
+		out.writeShort(0x0001);
+		out.writeShort(initName);
+		out.writeShort(initDescriptor);
+		out.writeShort(1);
+		out.writeShort(codeName);
+		out.writeInt(12 + 5);
+		out.writeShort(1);//max stack
+		out.writeShort(1);//max locals
+		out.writeInt(5);
+		out.writeByte(0x2A);//aload_0
+		out.writeByte(0xB7);//invokespecial
+		out.writeShort(superInit);
+		out.writeByte(0xB1);//return
+		out.writeShort(0);
+		out.writeShort(0);
+
+		code.flush();
+		out.writeShort(0x0011);
+		out.writeShort(evalName);
+		out.writeShort(evalDescriptor);
+		out.writeShort(1);
+		out.writeShort(codeName);
+		out.writeInt(12 + codeBytes.size());
+		out.writeShort(maxStack);
+		out.writeShort(2);//max locals
+		out.writeInt(codeBytes.size());
+		codeBytes.writeTo(out);
+		out.writeShort(0);
+		out.writeShort(0);
+
+		out.writeShort(0);//class attributes
+		out.flush();
+		return result.toByteArray();
+	}
+}
@@ -26,13 +26,20 @@ import java.util.AbstractList;
 import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class ThreadPool {
 	private static final Logger logger = LoggerFactory.getLogger(ThreadPool.class);
-	private final ArrayDeque<RunnableObject> toRun = new ArrayDeque<>();
+	public static final int PRIORITY_INTERACTIVE = 0, PRIORITY_NORMAL = 1, PRIORITY_BATCH = 2, NUM_PRIORITIES = 3;
+	@SuppressWarnings("unchecked")
+	private final ArrayDeque<RunnableObject> toRun[] = new ArrayDeque[NUM_PRIORITIES];
+	private final Object lock = new Object();
+	/*smallest priority value of all queued tasks, NUM_PRIORITIES if nothing is queued*/
+	private volatile int highestQueued = NUM_PRIORITIES;
+	private volatile JobListener jobListener;
 	private final int timeout;
 	private volatile int waiting, total;
 	private int freeIds[];
@@ -43,6 +50,10 @@ public class ThreadPool {
 		this.maxThreads = maxThreads;
 		freeIds = new int[maxThreads];
 		ArrayUtil.iota(freeIds);
+		for (int i = 0; i < toRun.length; ++i)
+		{
+			toRun[i] = new ArrayDeque<>();
+		}
 	}
 
 	public ThreadPool(int timeout) 	{this(timeout, Runtime.getRuntime().availableProcessors());}
@@ -53,15 +64,80 @@ public class ThreadPool {
 	public int getMaxThreads(){return maxThreads;}
 	public void setMaxThreads(int maxThreads){this.maxThreads = maxThreads;}
 
+	public final void setJobListener(JobListener jobListener){this.jobListener = jobListener;}
+
 	public static final int getCurrentId()
 	{
 		Thread current = Thread.currentThread();
 		return current instanceof RunnerThread ? ((RunnerThread)current).id : -1;
 	}
 
+	/**
+	 * @return true if a task with a higher priority than the given one is waiting
+	 */
+	public final boolean hasHigherPriorityWaiting(int priority)
+	{
+		return highestQueued < priority;
+	}
+
+	/*Has to be called with the lock held*/
+	private final void enqueue(RunnableObject ro)
+	{
+		toRun[ro.priority].add(ro);
+		ro.state = STATE_WAITING;
+		if (ro.priority < highestQueued)
+		{
+			highestQueued = ro.priority;
+		}
+	}
+
+	/*Has to be called with the lock held, returns the first task of the highest priority and drops cancelled tasks*/
+	private final RunnableObject poll()
+	{
+		for (int i = highestQueued; i < NUM_PRIORITIES; ++i)
+		{
+			RunnableObject ro;
+			while ((ro = toRun[i].pollFirst()) != null)
+			{
+				if (!ro.isCancelled())
+				{
+					highestQueued = toRun[i].isEmpty() ? i + 1 : i;
+					return ro;
+				}
+				ro.state = STATE_FINISHED;
+				ro.rerun = false;
+			}
+		}
+		highestQueued = NUM_PRIORITIES;
+		return null;
+	}
+
+	/*Has to be called with the lock held*/
+	private final void finish(RunnableObject ro)
+	{
+		if (ro.rerun && !ro.isCancelled())
+		{
+			ro.rerun = false;
+			enqueue(ro);
+		}
+		else
+		{
+			ro.rerun = false;
+			ro.state = STATE_FINISHED;
+		}
+	}
+
+	private static final void handleException(RunnableObject ro, Throwable e)
+	{
+		if (ro.ueh == null)
+			logger.error("Error at executing " + ro.name, e);
+		else
+			ro.ueh.uncaughtException(Thread.currentThread(), e);
+	}
+
 	public final void run(RunnableObject ro, boolean multipleQue){
 	    if (ro == null) {throw new NullPointerException();}
-		synchronized(toRun){
+		synchronized(lock){
 			if (ro.getState() == STATE_RUNNING)
 			{
 				ro.rerun = true;
@@ -72,11 +148,10 @@ public class ThreadPool {
 				ro.rerun |= multipleQue;
 				return;
 			}
-			toRun.add(ro);
-			ro.state = STATE_WAITING;
+			enqueue(ro);
 			if (waiting > 0)
 			{
-				toRun.notify();
+				lock.notify();
 			}
 			else if (total < maxThreads)
 			{
@@ -125,13 +200,26 @@ public class ThreadPool {
 		}
 	}
 
+	/**
+	 * Cooperative cancellation. Queued tasks holding a cancelled token are dropped, running tasks have to poll isCancelled themselves.
+	 */
+	public static class CancellationToken
+	{
+		private volatile boolean cancelled = false;
+
+		public final void cancel(){cancelled = true;}
+
+		public final boolean isCancelled(){return cancelled;}
+	}
+
 	public static class RunnableObject implements Runnable{
 		private final Runnable runnable;
 		private final UncaughtExceptionHandler ueh;
 		private final String name;
 		private boolean rerun = false;
 		private byte state = STATE_FINISHED;
-
+		private int priority = PRIORITY_NORMAL;
+		private CancellationToken token;
 
 		public RunnableObject(Runnable runnable, String name, UncaughtExceptionHandler ueh){
 			this.runnable = runnable;
@@ -148,6 +236,26 @@ public class ThreadPool {
 
 		public final byte getState(){return state;}
 
+		public final int getPriority(){return priority;}
+
+		/**
+		 * Takes effect the next time the object is queued
+		 */
+		public final void setPriority(int priority)
+		{
+			if (priority < 0 || priority >= NUM_PRIORITIES)
+			{
+				throw new IllegalArgumentException("Unknown priority " + priority);
+			}
+			this.priority = priority;
+		}
+
+		public final CancellationToken getCancellationToken(){return token;}
+
+		public final void setCancellationToken(CancellationToken token){this.token = token;}
+
+		public final boolean isCancelled(){return token != null && token.isCancelled();}
+
 		@Override
 		public void run()
 		{
@@ -155,93 +263,282 @@ public class ThreadPool {
 		}
 	}
 
-	private class ParallelRunnableObject extends RunnableObject
+	/**
+	 * Shared state of one runParallel call. The range is partitioned into one slot per worker, the waiting caller gets an empty slot.
+	 * A worker claims blocks from the front of its own slot, when it runs dry it steals the upper half of the remaining range of another slot.
+	 * Every slot holds begin and end packed into one long, so owner and thieves only contend with compareAndSet on the slot they touch.
+	 * The claimed blocks shrink with the remaining work of the whole range, so a slow block doesn't hold up the end of the range.
+	 */
+	private final class ParallelRange
 	{
-		private final int begin;
-		private final int end;
-		private final AtomicInteger finished;
 		private final ParallelRangeRunnable prr;
+		private final RunnableObject owner;
+		private final int from;
+		private final int to;
+		private final int maxBlockSize;
+		private final int minBlockSize;
+		private final int splitDivisor;
+		private final CancellationToken token;
+		private final AtomicLongArray slots;
+		private final AtomicInteger remaining;
+		private final AtomicInteger skipped = new AtomicInteger();
+		private final long startTime = System.nanoTime();
 
-		public ParallelRunnableObject(String name, UncaughtExceptionHandler ueh, int begin, int end, AtomicInteger finished, ParallelRangeRunnable prr)
+		private ParallelRange(ParallelRangeRunnable prr, RunnableObject owner, int from, int to, int maxBlockSize, int workers, CancellationToken token)
 		{
-			super(null, name, ueh);
-			this.begin = begin;
-			this.end = end;
-			this.finished = finished;
 			this.prr = prr;
+			this.owner = owner;
+			this.from = from;
+			this.to = to;
+			this.maxBlockSize = maxBlockSize;
+			this.minBlockSize = Math.max(1, maxBlockSize / 16);
+			this.splitDivisor = 2 * workers;
+			this.token = token;
+			this.slots = new AtomicLongArray(workers + 1);
+			for (int i = 0; i < workers; ++i)
+			{
+				slots.set(i, pack(from + (int)((long)(to - from) * i / workers), from + (int)((long)(to - from) * (i + 1) / workers)));
+			}
+			slots.set(workers, pack(to, to));
+			this.remaining = new AtomicInteger(to - from);
 		}
 
-		@Override
-		public void run()
+		private final int callerSlot()
+		{
+			return slots.length() - 1;
+		}
+
+		private final int blockSize(int left)
 		{
-			try
+			return Math.min(left, Math.max(minBlockSize, Math.min(maxBlockSize, remaining.get() / splitDivisor)));
+		}
+
+		/**
+		 * @return block packed like the slots, empty if the range is exhausted
+		 */
+		private final long claim(int slot)
+		{
+			if (token != null && token.isCancelled())
 			{
-				prr.run(begin, end);
-			}catch (Exception e)
+				for (int i = 0; i < slots.length(); ++i)
+				{
+					long block = slots.getAndSet(i, pack(to, to));
+					int count = end(block) - begin(block);
+					if (count > 0)
+					{
+						skipped.addAndGet(count);
+						complete(count);
+					}
+				}
+				return pack(to, to);
+			}
+			while (true)
 			{
-				throw e;
-			}finally
+				long current = slots.get(slot);
+				int begin = begin(current), end = end(current);
+				if (begin < end)
+				{
+					int split = begin + blockSize(end - begin);
+					if (slots.compareAndSet(slot, current, pack(split, end)))
+					{
+						return pack(begin, split);
+					}
+				}
+				else if (!steal(slot))
+				{
+					return pack(to, to);
+				}
+			}
+		}
+
+		/**
+		 * Moves the upper half of the remaining range of another slot into the empty slot of the caller
+		 * @return false if all slots are empty
+		 */
+		private final boolean steal(int slot)
+		{
+			for (int i = 1; i < slots.length(); ++i)
 			{
-				synchronized (prr)
+				int victim = (slot + i) % slots.length();
+				long current = slots.get(victim);
+				int begin = begin(current), end = end(current);
+				if (begin < end)
 				{
-					if (finished.decrementAndGet() == 0)
+					int mid = begin + (end - begin) / 2;
+					if (slots.compareAndSet(victim, current, pack(begin, mid)))
 					{
-						prr.notifyAll();
-						prr.finished();
+						/*only thieves touch an empty slot and they only replace non-empty ones*/
+						slots.set(slot, pack(mid, end));
+						return true;
 					}
+					/*the victim changed, look at it again*/
+					--i;
+				}
+			}
+			return false;
+		}
+
+		private final void complete(int count)
+		{
+			if (remaining.addAndGet(-count) == 0)
+			{
+				JobListener listener = jobListener;
+				if (listener != null)
+				{
+					listener.jobFinished(owner.name, to - from - skipped.get(), System.nanoTime() - startTime);
+				}
+				synchronized (prr)
+				{
+					prr.notifyAll();
+					prr.finished();
+				}
+			}
+		}
+
+		/**
+		 * @return true if the calling task should step aside for a task with a higher priority
+		 */
+		private final boolean runBlocks(int slot, int priority, boolean mayYield)
+		{
+			long block;
+			while (begin(block = claim(slot)) < end(block))
+			{
+				int begin = begin(block), end = end(block);
+				try
+				{
+					prr.run(begin, end);
+				}catch (Throwable e)
+				{
+					handleException(owner, e);
+				}finally
+				{
+					complete(end - begin);
+				}
+				if (mayYield && hasHigherPriorityWaiting(priority) && waiting == 0 && total >= maxThreads)
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private final boolean isFinished()
+		{
+			return remaining.get() == 0;
+		}
+	}
+
+	private static final long pack(int begin, int end)
+	{
+		return ((long)begin << 32) | (end & 0xFFFFFFFFL);
+	}
+
+	private static final int begin(long block)
+	{
+		return (int)(block >> 32);
+	}
+
+	private static final int end(long block)
+	{
+		return (int)block;
+	}
+
+	private class ParallelRunnableObject extends RunnableObject
+	{
+		private final ParallelRange range;
+		private final int slot;
+
+		public ParallelRunnableObject(String name, UncaughtExceptionHandler ueh, ParallelRange range, int slot)
+		{
+			super(null, name, ueh);
+			this.range = range;
+			this.slot = slot;
+		}
+
+		@Override
+		public void run()
+		{
+			if (range.runBlocks(slot, getPriority(), true))
+			{
+				/*requeue behind the tasks with higher priority, the rest of the slot can be stolen meanwhile*/
+				synchronized(lock)
+				{
+					((RunnableObject)this).rerun = true;
 				}
 			}
 		}
 	}
+
 	public final void runParallel(final ParallelRangeRunnable prr, String name, UncaughtExceptionHandler ueh, int from, final int to, final int maxBlockSize, boolean wait)
+	{
+		runParallel(prr, name, ueh, from, to, maxBlockSize, wait, PRIORITY_NORMAL, null);
+	}
+
+	/**
+	 * Blocks passed to the ParallelRangeRunnable are never larger than maxBlockSize. If the token gets cancelled no further blocks are started and finished is called as soon as the running blocks returned.
+	 */
+	public final void runParallel(final ParallelRangeRunnable prr, String name, UncaughtExceptionHandler ueh, int from, final int to, final int maxBlockSize, boolean wait, int priority, CancellationToken token)
 	{
 		if (from == to){return;}
 		final int numBlocks = (to - from + maxBlockSize - 1) / maxBlockSize;
-		final AtomicInteger finished = new AtomicInteger(numBlocks);
-		for (int i = from; i < to; i += maxBlockSize)
+		final int workers = Math.min(numBlocks, maxThreads);
+		final RunnableObject owner = new RunnableObject(name, ueh);
+		final ParallelRange range = new ParallelRange(prr, owner, from, to, maxBlockSize, workers, token);
+		for (int i = 0; i < workers; ++i)
 		{
-			run(new ParallelRunnableObject(name, ueh, i, Math.min(i + maxBlockSize, to), finished, prr), true);
+			ParallelRunnableObject pro = new ParallelRunnableObject(name, ueh, range, i);
+			pro.setPriority(priority);
+			run(pro, true);
 		}
 		if (wait)
 		{
-			while(finished.get() != 0)
+			if (Thread.currentThread() instanceof RunnerThread)
 			{
-				if (Thread.currentThread() instanceof RunnerThread)
+				range.runBlocks(range.callerSlot(), priority, false);
+				while(!range.isFinished())
 				{
 					RunnableObject ro = null;
-					synchronized(toRun)
+					synchronized(lock)
 					{
-						ro = toRun.pollFirst();
+						ro = poll();
+						if (ro != null)
+						{
+							ro.state = STATE_RUNNING;
+						}
 					}
 					if (ro != null)
 					{
-						ro.state = STATE_RUNNING;
 						try {
 							ro.run();
 						} catch (Exception e) {
-							if (ro.ueh == null)
-								logger.error("Error at executing " + ro.name, e);
-							else
-								ro.ueh.uncaughtException(Thread.currentThread(), e);
+							handleException(ro, e);
 						}
-						if (ro.rerun)
+						synchronized(lock)
 						{
-							ro.state = STATE_WAITING;
-							ro.rerun = false;
-							synchronized(toRun)
-							{
-								toRun.add(ro);
-							}
+							finish(ro);
 						}
-						else
+					}
+					else
+					{
+						synchronized(prr)
 						{
-							ro.state = STATE_FINISHED;
+							try {
+								if (!range.isFinished())
+								{
+									prr.wait(10);
+								}
+							} catch (InterruptedException e) {
+								logger.error("Error at waiting", e);
+							}
 						}
 					}
 				}
-				else
+			}
+			else
+			{
+				synchronized(prr)
 				{
-					synchronized(prr)
+					while(!range.isFinished())
 					{
 						try {
 							prr.wait(1000);
@@ -254,6 +551,14 @@ public class ThreadPool {
 		}
 	}
 
+	public static interface JobListener
+	{
+		/**
+		 * Called once for every finished runParallel job with the number of processed items
+		 */
+		public void jobFinished(String name, int count, long nanos);
+	}
+
 	public static interface ParallelRangeRunnable
 	{
 		public abstract void run(int from, int to);
@@ -272,31 +577,22 @@ public class ThreadPool {
 		public final void run() {
 			RunnableObject ro = null;
 			while (true){
-				synchronized(toRun){
+				synchronized(lock){
 					if (ro != null){
-						if (ro.rerun)
-						{
-							ro.state = STATE_WAITING;
-							ro.rerun = false;
-							toRun.add(ro);
-						}
-						else
-						{
-							ro.state = STATE_FINISHED;
-						}
+						finish(ro);
 					}
-					ro = toRun.pollFirst();
+					ro = poll();
 					if (ro == null){
 						setName("RunnableRunner-Idle");
 						++waiting;
 						long time = System.currentTimeMillis();
 						try {
-							toRun.wait(timeout);
+							lock.wait(timeout);
 						} catch (InterruptedException e) {
 							logger.error("Thread interrupted", e);
 						}
 						--waiting;
-						ro = toRun.pollFirst();
+						ro = poll();
 						if (ro == null){
 							if (System.currentTimeMillis() - time < timeout)
 								continue;
@@ -304,18 +600,15 @@ public class ThreadPool {
 							return;
 						}
 					}
+					ro.state = STATE_RUNNING;
 				}
 				setName(ro.name == null ? "ThreadPool" : ro.name);
-				ro.state = STATE_RUNNING;
 				try {
 					ro.run();
 				} catch (Throwable e) {
-					if (ro.ueh == null)
-						logger.error("Error at executing " + ro.name, e);
-					else
-						ro.ueh.uncaughtException(Thread.currentThread(), e);
+					handleException(ro, e);
 				}
 			}
 		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Paul Stahr
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ ******************************************************************************/
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Accumulation buffer for parallel loops. Every thread of the pool adds to its own tile, so no additions get lost.
+ * The tiles are summed up by merge, which splits the elements into ranges and reduces them in parallel.
+ */
+public class TileAccumulator {
+	private static final int MERGE_BLOCK_SIZE = 0x10000;
+	public final int length;
+	private final ThreadPool pool;
+	private final ThreadPool.ThreadLocal<long[]> tiles;
+
+	public TileAccumulator(ThreadPool pool, int length)
+	{
+		this.pool = pool;
+		this.length = length;
+		tiles = pool.new ThreadLocal<>();
+	}
+
+	/**
+	 * Has to be called from a thread of the pool
+	 * @return the tile of the current thread
+	 */
+	public final long[] getTile()
+	{
+		long tile[] = tiles.get();
+		if (tile == null)
+		{
+			tiles.set(tile = new long[length]);
+		}
+		return tile;
+	}
+
+	/**
+	 * Adds all tiles to the target and clears them. Must not run concurrently to writes into the tiles.
+	 */
+	public final void merge(final long target[])
+	{
+		final long active[][] = new long[tiles.size()][];
+		int count = 0;
+		for (long tile[] : tiles)
+		{
+			if (tile != null)
+			{
+				active[count++] = tile;
+			}
+		}
+		if (count == 0)
+		{
+			return;
+		}
+		final int numTiles = count;
+		pool.runParallel(new ThreadPool.ParallelRangeRunnable() {
+			@Override
+			public void run(int from, int to) {
+				for (int i = 0; i < numTiles; ++i)
+				{
+					long tile[] = active[i];
+					for (int j = from; j < to; ++j)
+					{
+						target[j] += tile[j];
+					}
+					Arrays.fill(tile, from, to, 0);
+				}
+			}
+
+			@Override
+			public void finished() {}
+		}, "Merge Tiles", null, 0, length, MERGE_BLOCK_SIZE, true);
+	}
+}